@@ -142,6 +142,11 @@ module KBaseSearchEngine {
       access_filter - see AccessFilter (optional).
       pagination - see Pagination (optional).
       post_processing - see PostProcessing (optional).
+      continuation_token - the continuation_token returned by a previous search with the same
+                     parameters (optional). If provided, the results start after the last
+                     object returned by that search, and the pagination start must be 0 or
+                     absent. Unlike the pagination start, the time to fetch a page with a
+                     token does not increase with the depth of the page in the results.
     */
     typedef structure {
         list<string> object_types;
@@ -150,6 +155,7 @@ module KBaseSearchEngine {
         AccessFilter access_filter;
         Pagination pagination;
         PostProcessing post_processing;
+        string continuation_token;
     } SearchObjectsInput;
 
     /*
@@ -180,6 +186,8 @@ module KBaseSearchEngine {
           pagination and sorting.
       total - total number of found objects.
       search_time - common time in milliseconds spent.
+      continuation_token - pass to the next search to get the next page of results. Absent if
+          there are no more results.
     */
     typedef structure {
         Pagination pagination;
@@ -187,6 +195,7 @@ module KBaseSearchEngine {
         list<ObjectData> objects;
         int total;
         int search_time;
+        string continuation_token;
     } SearchObjectsOutput;
 
     /*
@@ -0,0 +1,214 @@
+package kbasesearchengine.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
+import kbasesearchengine.parse.SubObjectConsumer;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.ObjectTypeParsingRulesFileParser;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.TypeParseException;
+import us.kbase.common.service.UObject;
+
+/** Synthetic genome-sized objects and parsing rules from the resources/types directory for the
+ * parsing benchmarks. No outside services are required.
+ */
+public class GenomeFixture {
+    
+    /** The directory containing the search type specifications. Override with the
+     * kbasesearchengine.benchmark.types system property.
+     */
+    public static final String TYPES_DIR = System.getProperty(
+            "kbasesearchengine.benchmark.types", "resources/types");
+    
+    private static final String ASSEMBLY_REF = "1/2/3";
+    private static final String[] FUNCTIONS = {
+            "Polysaccharide biosynthesis protein",
+            "Transcriptional activator RfaH",
+            "Di-tripeptide/cation symporter",
+            "hypothetical protein"};
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+    
+    private GenomeFixture() {}
+    
+    /** Load the first version of the parsing rules from a specification file.
+     * @param file the name of the file in {@link #TYPES_DIR}.
+     * @return the parsing rules.
+     * @throws IOException if the rules could not be read.
+     * @throws TypeParseException if the rules could not be parsed.
+     */
+    public static ObjectTypeParsingRules loadRules(final String file)
+            throws IOException, TypeParseException {
+        return ObjectTypeParsingRulesFileParser.fromFile(new File(TYPES_DIR, file)).get(0);
+    }
+    
+    /** Generate a genome with the given number of features. The output is deterministic for a
+     * given number of features.
+     * @param features the number of features.
+     * @return the genome as JSON.
+     */
+    public static String genome(final int features) {
+        final Random r = new Random(features);
+        final List<Object> feats = new ArrayList<>();
+        for (int i = 0; i < features; i++) {
+            final String id = "NewGenome.CDS." + i;
+            final int start = r.nextInt(5000000);
+            final int len = 300 + r.nextInt(3000);
+            final StringBuilder prot = new StringBuilder();
+            for (int j = 0; j < len / 3; j++) {
+                prot.append(AMINO_ACIDS.charAt(r.nextInt(AMINO_ACIDS.length())));
+            }
+            final Map<String, Object> f = new LinkedHashMap<>();
+            f.put("id", id);
+            f.put("type", "CDS");
+            f.put("function", FUNCTIONS[r.nextInt(FUNCTIONS.length)]);
+            f.put("aliases", list("alias_" + i, "gene" + i));
+            f.put("location", list(list("contig_" + (i % 20), start, r.nextBoolean() ? "+" : "-",
+                    len)));
+            f.put("protein_translation", prot.toString());
+            f.put("md5", Integer.toHexString(prot.toString().hashCode()));
+            f.put("ontology_terms", ImmutableMap.of("SSO", ImmutableMap.of(
+                    "SSO:00000" + (i % 10), ImmutableMap.of("id", "SSO:00000" + (i % 10)))));
+            feats.add(f);
+        }
+        final Map<String, Object> g = new LinkedHashMap<>();
+        g.put("id", "NewGenome");
+        g.put("scientific_name", "Shewanella sp. ANA-3");
+        g.put("domain", "Bacteria");
+        g.put("taxonomy", "Bacteria; Proteobacteria; Gammaproteobacteria; Alteromonadales; " +
+                "Shewanellaceae; Shewanella");
+        g.put("assembly_ref", ASSEMBLY_REF);
+        g.put("dna_size", 4706287);
+        g.put("gc_content", 0.478944654246543);
+        g.put("features", feats);
+        return UObject.transformObjectToString(g);
+    }
+    
+    private static List<Object> list(final Object... items) {
+        final List<Object> ret = new ArrayList<>();
+        for (final Object i: items) {
+            ret.add(i);
+        }
+        return ret;
+    }
+    
+    /** Create a JSON parser for a JSON string.
+     * @param json the JSON.
+     * @return the parser.
+     * @throws IOException if the parser could not be created.
+     */
+    public static JsonParser parser(final String json) throws IOException {
+        return UObject.getMapper().getFactory().createParser(json);
+    }
+    
+    /** A sub object consumer that discards its output, so that benchmarks measure only the
+     * work of the extractor.
+     */
+    public static class DiscardingConsumer implements SubObjectConsumer {
+        
+        private final JsonGenerator output;
+        
+        /** Create the consumer.
+         * @throws IOException if the output could not be created.
+         */
+        public DiscardingConsumer() throws IOException {
+            output = UObject.getMapper().getFactory().createGenerator(new OutputStream() {
+                
+                @Override
+                public void write(final int b) {}
+                
+                @Override
+                public void write(final byte[] b, final int off, final int len) {}
+            });
+        }
+        
+        @Override
+        public void nextObject(final String path) {}
+        
+        @Override
+        public JsonGenerator getOutput() {
+            return output;
+        }
+        
+        @Override
+        public void flush() {}
+    }
+    
+    /** An in-memory lookup provider that resolves every reference to itself and reports the
+     * target type expected by the GUID transform, so that keyword extraction runs without a
+     * workspace or ElasticSearch.
+     */
+    public static class StubLookupProvider implements ObjectLookupProvider {
+        
+        private final Map<SearchObjectType, ObjectTypeParsingRules> rules = new HashMap<>();
+        
+        /** Create the provider.
+         * @param files the specification files of the search types that are the targets of
+         * GUID transforms.
+         * @throws IOException if the rules could not be read.
+         * @throws TypeParseException if the rules could not be parsed.
+         */
+        public StubLookupProvider(final String... files)
+                throws IOException, TypeParseException {
+            for (final String file: files) {
+                final ObjectTypeParsingRules r = loadRules(file);
+                rules.put(r.getGlobalObjectType(), r);
+            }
+        }
+
+        @Override
+        public Set<GUID> resolveRefs(
+                final List<GUID> objectRefPath,
+                final Set<GUID> unresolvedGUIDs) {
+            return new LinkedHashSet<>(unresolvedGUIDs);
+        }
+
+        @Override
+        public Map<GUID, SearchObjectType> getTypesForGuids(final Set<GUID> guids) {
+            final Map<GUID, SearchObjectType> ret = new HashMap<>();
+            for (final GUID g: guids) {
+                for (final ObjectTypeParsingRules r: rules.values()) {
+                    final String subtype = r.getSubObjectType().orNull();
+                    if (subtype == null ? g.getSubObjectType() == null :
+                            subtype.equals(g.getSubObjectType())) {
+                        ret.put(g, r.getGlobalObjectType());
+                    }
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public Map<GUID, ObjectData> lookupObjectsByGuid(final Set<GUID> guids) {
+            final Map<GUID, ObjectData> ret = new HashMap<>();
+            for (final GUID g: guids) {
+                ret.put(g, ObjectData.getBuilder(g)
+                        .withNullableObjectName("assembly")
+                        .withKeyProperty("contigs", "20")
+                        .build());
+            }
+            return ret;
+        }
+
+        @Override
+        public ObjectTypeParsingRules getTypeDescriptor(final SearchObjectType type) {
+            return rules.get(type);
+        }
+    }
+}
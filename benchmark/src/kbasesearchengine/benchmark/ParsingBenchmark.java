@@ -0,0 +1,156 @@
+package kbasesearchengine.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.parse.KeywordParser;
+import kbasesearchengine.parse.ObjectParser;
+import kbasesearchengine.parse.SimpleSubObjectConsumer;
+import kbasesearchengine.parse.SubObjectConsumer;
+import kbasesearchengine.parse.SubObjectExtractionNode;
+import kbasesearchengine.parse.SubObjectExtractor;
+import kbasesearchengine.parse.ValueCollectingNode;
+import kbasesearchengine.parse.ValueCollector;
+import kbasesearchengine.system.IndexingRules;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import us.kbase.common.service.UObject;
+
+/** Benchmarks for the parse stage of the indexer worker, run against synthetic genomes and the
+ * GenomeFeature and Genome search specifications.
+ * 
+ * Run with ant benchmark. Each benchmark operation parses one whole genome. Add
+ * -Dbenchmark.args="-prof gc" to report the bytes allocated per operation; the extraction
+ * benchmarks that discard their output should allocate little more than the tokenizer does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+    
+    private static final GUID GUID = new GUID("WS:1/1/1");
+    
+    @Param({"100", "5000"})
+    public int features;
+    
+    private String genome;
+    private SourceData source;
+    private ObjectTypeParsingRules featureRules;
+    private ObjectTypeParsingRules genomeRules;
+    private ObjectJsonPath subObjectPath;
+    private List<ObjectJsonPath> subObjectIndexingPaths;
+    private ValueCollectingNode<List<IndexingRules>> genomeValueTree;
+    private List<String> featureJson;
+    private String parentJson;
+    private String genomeJson;
+    private GenomeFixture.StubLookupProvider lookup;
+    private SubObjectExtractionNode subObjectTree;
+    private SubObjectConsumer discard;
+    
+    @Setup
+    public void setUp() throws Exception {
+        genome = GenomeFixture.genome(features);
+        source = SourceData.getBuilder(UObject.fromJsonString(genome), "genome", "user")
+                .build();
+        featureRules = GenomeFixture.loadRules("GenomeFeature.json");
+        genomeRules = GenomeFixture.loadRules("Genome.yaml");
+        lookup = new GenomeFixture.StubLookupProvider(
+                "Assembly.json", "AssemblyContig.json");
+        
+        subObjectPath = featureRules.getSubObjectPath().get();
+        subObjectIndexingPaths = new ArrayList<>();
+        for (final IndexingRules r: featureRules.getIndexingRules()) {
+            if (!r.isFromParent() && r.getPath().isPresent()) {
+                subObjectIndexingPaths.add(r.getPath().get());
+            }
+        }
+        
+        subObjectTree = SubObjectExtractor.buildTree(subObjectPath, subObjectIndexingPaths);
+        discard = new GenomeFixture.DiscardingConsumer();
+        
+        genomeValueTree = new ValueCollectingNode<>();
+        for (final IndexingRules r: genomeRules.getIndexingRules()) {
+            if (!r.isDerivedKey()) {
+                genomeValueTree.addPath(r.getPath().get(), Arrays.asList(r));
+            }
+        }
+        
+        // the value collector runs on extracted objects, where {size} selections are numbers
+        genomeJson = ObjectParser.parseSubObjects(source, GUID, genomeRules).values()
+                .iterator().next();
+        featureJson = new ArrayList<>(
+                ObjectParser.parseSubObjects(source, GUID, featureRules).values());
+        try (final JsonParser jts = GenomeFixture.parser(genome)) {
+            parentJson = ObjectParser.extractParentFragment(featureRules, jts);
+        }
+    }
+    
+    @Benchmark
+    public Map<ObjectJsonPath, String> subObjectExtractorExtract() throws Exception {
+        final Map<ObjectJsonPath, String> ret = new LinkedHashMap<>();
+        try (final JsonParser jts = GenomeFixture.parser(genome)) {
+            SubObjectExtractor.extract(subObjectPath, subObjectIndexingPaths, jts,
+                    new SimpleSubObjectConsumer(ret));
+        }
+        return ret;
+    }
+    
+    @Benchmark
+    public void subObjectExtractorExtractDiscard() throws Exception {
+        try (final JsonParser jts = GenomeFixture.parser(genome)) {
+            SubObjectExtractor.extract(subObjectTree, jts, discard);
+        }
+    }
+    
+    @Benchmark
+    public Map<GUID, String> objectParserParseSubObjects() throws Exception {
+        return ObjectParser.parseSubObjects(source, GUID, featureRules);
+    }
+    
+    @Benchmark
+    public String objectParserExtractParentFragment() throws Exception {
+        try (final JsonParser jts = GenomeFixture.parser(genome)) {
+            return ObjectParser.extractParentFragment(featureRules, jts);
+        }
+    }
+    
+    @Benchmark
+    public void keywordParserExtractKeywords(final Blackhole bh) throws Exception {
+        for (final String json: featureJson) {
+            bh.consume(KeywordParser.extractKeywords(featureRules.getGlobalObjectType(), json,
+                    parentJson, featureRules.getIndexingRules(), lookup, Arrays.asList(GUID)));
+        }
+    }
+    
+    @Benchmark
+    public void valueCollectorMapKeys(final Blackhole bh) throws Exception {
+        try (final JsonParser jts = GenomeFixture.parser(genomeJson)) {
+            new ValueCollector<List<IndexingRules>>().mapKeys(genomeValueTree, jts,
+                    (rules, value) -> bh.consume(value));
+        }
+    }
+}
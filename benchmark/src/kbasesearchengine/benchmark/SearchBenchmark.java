@@ -0,0 +1,216 @@
+package kbasesearchengine.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.search.AccessFilter;
+import kbasesearchengine.search.ElasticIndexingStorage;
+import kbasesearchengine.search.FoundHits;
+import kbasesearchengine.search.IndexingRequest;
+import kbasesearchengine.search.MatchFilter;
+import kbasesearchengine.search.MatchValue;
+import kbasesearchengine.search.Pagination;
+import kbasesearchengine.search.PostProcessing;
+import kbasesearchengine.search.RefreshPolicy;
+import kbasesearchengine.system.IndexingRules;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.StorageObjectType;
+import us.kbase.common.service.UObject;
+
+/** Benchmarks for repeated searches that only filter objects, i.e. have no full text query,
+ * which is the common case for searches from the UI.
+ *
+ * Unlike the parsing benchmarks these require an ElasticSearch 5 instance, given as host:port by
+ * the kbasesearchengine.benchmark.elastic system property. Run with ant benchmark-search. The
+ * benchmarks index synthetic objects into indexes prefixed with benchmark.search. and delete
+ * them afterwards.
+ *
+ * The scoringContext and filterContext benchmarks run the same key and access clauses in the
+ * must and filter clauses of a bool query respectively. ElasticSearch only caches the documents
+ * matching clauses in the filter clause. These benchmarks sort on the timestamp, and
+ * ElasticSearch doesn't compute scores when the hits are sorted on a field, so the difference
+ * between the two is only the saving from the filter cache.
+ *
+ * The scoringContextByScore and filterContextByScore benchmarks run the same queries with the
+ * default sort on _score. ElasticSearch then scores every hit of a clause in the must clause,
+ * so the difference between the two is the full saving from keeping non-scoring clauses out of
+ * the scoring context, and the difference between scoringContext and scoringContextByScore is
+ * the cost of scoring itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    /** The ElasticSearch instance to use for the benchmarks. */
+    public static final String ELASTIC = System.getProperty(
+            "kbasesearchengine.benchmark.elastic", "localhost:9200");
+
+    private static final String TYPE = "BenchmarkItem";
+    private static final int ACCESS_GROUPS = 10;
+    private static final int CATEGORIES = 10;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"100000"})
+    public int objects;
+
+    private ElasticIndexingStorage storage;
+    private File tempDir;
+    private String urlPath;
+    private MatchFilter matchFilter;
+    private AccessFilter accessFilter;
+    private Map<String, Object> scoringQuery;
+    private Map<String, Object> filterQuery;
+    private Map<String, Object> scoringQueryByScore;
+    private Map<String, Object> filterQueryByScore;
+
+    @Setup
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("search_benchmark").toFile();
+        storage = new ElasticIndexingStorage(HttpHost.create(ELASTIC), tempDir);
+        storage.setIndexNamePrefix("benchmark.search.");
+        // make all the writes visible in one refresh at the end
+        storage.setRefreshPolicy(RefreshPolicy.NONE, 1);
+        storage.dropData();
+
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType(TYPE, 1), new StorageObjectType("WS", "Benchmark.Item"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("num"))
+                        .withKeywordType("integer").build())
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("cat"))
+                        .withKeywordType("string").build())
+                .build();
+        final List<IndexingRequest> batch = new ArrayList<>();
+        for (int i = 0; i < objects; i++) {
+            final String cat = "cat" + (i % CATEGORIES);
+            final String json = UObject.transformObjectToString(
+                    ImmutableMap.of("num", i, "cat", cat));
+            final GUID guid = new GUID("WS:" + (i % ACCESS_GROUPS + 1) + "/" + (i + 1) + "/1");
+            final SourceData source = SourceData.getBuilder(
+                    UObject.fromJsonString(json), "item." + i, "user").build();
+            final ParsedObject obj = new ParsedObject(json, ImmutableMap.of(
+                    "num", Arrays.asList(i), "cat", Arrays.asList(cat)));
+            batch.add(new IndexingRequest(rule, source, Instant.ofEpochMilli(i), null, guid,
+                    ImmutableMap.of(guid, obj), false));
+            if (batch.size() == BATCH_SIZE) {
+                storage.indexObjects(batch);
+                batch.clear();
+            }
+        }
+        storage.indexObjects(batch);
+        storage.flushIndexing();
+        // merge to one segment so that each run searches the same segments
+        storage.makeRequest("POST", "/" + storage.getIndexNamePrefix() +
+                "*/_forcemerge?max_num_segments=1", Collections.emptyMap());
+
+        // about a tenth of the objects in half the access groups
+        matchFilter = MatchFilter.create()
+                .withLookupInKey("num", new MatchValue(objects / 4, objects / 4 + objects / 10))
+                .withLookupInKey("cat", new MatchValue("cat3"));
+        final Set<Integer> accessGroups = new LinkedHashSet<>();
+        for (int i = 1; i <= ACCESS_GROUPS / 2; i++) {
+            accessGroups.add(i);
+        }
+        accessFilter = AccessFilter.create().withAccessGroups(accessGroups);
+
+        urlPath = "/" + storage.getIndexNamePrefix() + "*/data/_search";
+        final List<Object> clauses = Arrays.asList(
+                ImmutableMap.of("range", ImmutableMap.of("key.num", ImmutableMap.of(
+                        "gte", objects / 4, "lte", objects / 4 + objects / 10))),
+                ImmutableMap.of("term", ImmutableMap.of("key.cat", "cat3")),
+                ImmutableMap.of("terms", ImmutableMap.of("accgrp", accessGroups)),
+                ImmutableMap.of("term", ImmutableMap.of("islast", true)));
+        scoringQuery = searchDoc(ImmutableMap.of("must", clauses), true);
+        filterQuery = searchDoc(ImmutableMap.of("filter", clauses), true);
+        scoringQueryByScore = searchDoc(ImmutableMap.of("must", clauses), false);
+        filterQueryByScore = searchDoc(ImmutableMap.of("filter", clauses), false);
+    }
+
+    /* size is not 0, so ElasticSearch's shard request cache doesn't return whole results */
+    private static Map<String, Object> searchDoc(
+            final Map<String, Object> bool,
+            final boolean sortOnTimestamp) {
+        final ImmutableMap.Builder<String, Object> doc = ImmutableMap.<String, Object>builder()
+                .put("query", ImmutableMap.of("bool", bool))
+                .put("size", 10)
+                .put("_source", Arrays.asList("guid"));
+        if (sortOnTimestamp) {
+            doc.put("sort", Arrays.asList(ImmutableMap.of("timestamp",
+                    ImmutableMap.of("order", "asc"))));
+        }
+        return doc.build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        storage.dropData();
+        for (final File f: tempDir.listFiles()) {
+            f.delete();
+        }
+        tempDir.delete();
+    }
+
+    @Benchmark
+    public Object scoringContext() throws Exception {
+        return storage.makeRequest("GET", urlPath, scoringQuery).getStatusLine();
+    }
+
+    @Benchmark
+    public Object filterContext() throws Exception {
+        return storage.makeRequest("GET", urlPath, filterQuery).getStatusLine();
+    }
+
+    @Benchmark
+    public Object scoringContextByScore() throws Exception {
+        return storage.makeRequest("GET", urlPath, scoringQueryByScore).getStatusLine();
+    }
+
+    @Benchmark
+    public Object filterContextByScore() throws Exception {
+        return storage.makeRequest("GET", urlPath, filterQueryByScore).getStatusLine();
+    }
+
+    @Benchmark
+    public FoundHits searchObjects() throws Exception {
+        return storage.searchObjects(Arrays.asList(TYPE), matchFilter, null, accessFilter,
+                new Pagination(0, 10), new PostProcessing());
+    }
+
+    @Benchmark
+    public Map<String, Integer> searchTypes() throws Exception {
+        return storage.searchTypes(matchFilter, accessFilter);
+    }
+}
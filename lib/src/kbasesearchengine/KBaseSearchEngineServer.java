@@ -11,6 +11,7 @@ import us.kbase.common.service.RpcContext;
 
 //BEGIN_HEADER
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.nio.file.Path;
@@ -20,9 +21,14 @@ import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.http.HttpHost;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 
 import ch.qos.logback.classic.Level;
@@ -33,7 +39,9 @@ import kbasesearchengine.authorization.WorkspaceAccessGroupProvider;
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.main.LineLogger;
 import kbasesearchengine.main.SearchMethods;
+import kbasesearchengine.search.CachingIndexingStorage;
 import kbasesearchengine.search.ElasticIndexingStorage;
+import kbasesearchengine.search.IndexingStorage;
 import kbasesearchengine.system.FileLister;
 import kbasesearchengine.system.ObjectTypeParsingRulesFileParser;
 import kbasesearchengine.system.TypeFileStorage;
@@ -42,6 +50,7 @@ import kbasesearchengine.system.TypeMappingParser;
 import kbasesearchengine.system.YAMLTypeMappingParser;
 import us.kbase.auth.AuthConfig;
 import us.kbase.auth.ConfigurableAuthService;
+import us.kbase.common.service.UObject;
 import workspace.WorkspaceClient;
 import kbasesearchengine.common.FileUtil;
 //END_HEADER
@@ -62,12 +71,84 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
     
     // TODO TEST add integration test that runs server
     
+    private static final String EXPORT_PATH = "/export";
+    
+    private static final int DEFAULT_SEARCH_CACHE_SIZE = 10000;
+    
     private final SearchMethods search;
+    private final ConfigurableAuthService authService;
+    // null if search results are not cached
+    private final CachingIndexingStorage searchCache;
     
     private void quietLoggers() {
         ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
                 .setLevel(Level.INFO);
     }
+    
+    /* JSON-RPC methods can't stream their results, so exporting search results is a separate
+     * endpoint. POST a SearchObjectsInput to <server url>/export with a token in the
+     * Authorization header, and the matching objects are returned as newline delimited JSON.
+     * See SearchMethods.exportObjects().
+     * 
+     * Errors before any objects are written return a JSON object with an error field. Errors
+     * after that abort the response, so a client sees an incomplete chunked response rather than
+     * a short export.
+     */
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response)
+            throws ServletException, IOException {
+        if (!EXPORT_PATH.equals(request.getPathInfo())) {
+            super.doPost(request, response);
+            return;
+        }
+        final String tokenStr = request.getHeader("Authorization");
+        if (tokenStr == null || tokenStr.trim().isEmpty()) {
+            sendExportError(response, HttpServletResponse.SC_UNAUTHORIZED,
+                    "Authorization header required");
+            return;
+        }
+        final AuthToken token;
+        try {
+            token = authService.validateToken(tokenStr.trim());
+        } catch (Exception e) {
+            sendExportError(response, HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
+            return;
+        }
+        final SearchObjectsInput params;
+        try {
+            params = UObject.getMapper().readValue(
+                    request.getInputStream(), SearchObjectsInput.class);
+        } catch (IOException e) {
+            sendExportError(response, HttpServletResponse.SC_BAD_REQUEST,
+                    "Invalid request body: " + e.getMessage());
+            return;
+        }
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        try {
+            search.exportObjects(params, token.getUserName(), response.getOutputStream());
+        } catch (Exception e) {
+            if (response.isCommitted()) {
+                throw new IOException("Export failed: " + e.getMessage(), e);
+            }
+            response.reset();
+            sendExportError(response, e instanceof IllegalArgumentException ?
+                    HttpServletResponse.SC_BAD_REQUEST :
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+    
+    private void sendExportError(
+            final HttpServletResponse response,
+            final int status,
+            final String message)
+            throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        UObject.getMapper().writeValue(response.getOutputStream(),
+                ImmutableMap.of("error", message == null ? "Unknown error" : message));
+    }
     //END_CLASS_HEADER
 
     public KBaseSearchEngineServer() throws Exception {
@@ -82,8 +163,8 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
             c.withAllowInsecureURLs(true);
         }
         c.withKBaseAuthServerURL(new URL(authURL));
-        ConfigurableAuthService auth = new ConfigurableAuthService(c);
-        AuthToken kbaseIndexerToken = auth.validateToken(tokenStr);
+        authService = new ConfigurableAuthService(c);
+        AuthToken kbaseIndexerToken = authService.validateToken(tokenStr);
         String elasticHost = config.get("elastic-host");
         int elasticPort = Integer.parseInt(config.get("elastic-port"));
         String esUser = config.get("elastic-user");
@@ -96,6 +177,10 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
             tempDir.mkdirs();
         }
         String esIndexPrefix = config.get("elastic-namespace") + ".";
+        final String accessGroupLookupMin = config.get("elastic-access-group-lookup-min");
+        final String searchCacheLifetime = config.get("search-cache-lifetime-sec");
+        final String searchCacheSize = config.get("search-cache-size");
+        final String searchCacheGenCheck = config.get("search-cache-generation-check-ms");
         String adminsText = config.get("admins");
         Set<String> admins = new LinkedHashSet<>();
         if (adminsText != null) {
@@ -145,8 +230,26 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
             esStorage.setEsPassword(esPassword);
         }
         esStorage.setIndexNamePrefix(esIndexPrefix);
+        if (accessGroupLookupMin != null && !accessGroupLookupMin.trim().isEmpty()) {
+            esStorage.setAccessGroupLookupMinimum(Integer.parseInt(accessGroupLookupMin.trim()));
+        }
+        
+        final IndexingStorage searchStorage;
+        if (searchCacheLifetime != null && !searchCacheLifetime.trim().isEmpty()) {
+            searchCache = new CachingIndexingStorage(esStorage,
+                    Integer.parseInt(searchCacheLifetime.trim()),
+                    searchCacheSize == null || searchCacheSize.trim().isEmpty() ?
+                            DEFAULT_SEARCH_CACHE_SIZE : Integer.parseInt(searchCacheSize.trim()),
+                    searchCacheGenCheck == null || searchCacheGenCheck.trim().isEmpty() ?
+                            CachingIndexingStorage.DEFAULT_GENERATION_CHECK_INTERVAL_MS :
+                            Long.parseLong(searchCacheGenCheck.trim()));
+            searchStorage = searchCache;
+        } else {
+            searchCache = null;
+            searchStorage = esStorage;
+        }
         
-        search = new SearchMethods(accessGroupProvider, esStorage, ss, admins);
+        search = new SearchMethods(accessGroupProvider, searchStorage, ss, admins);
         //END_CONSTRUCTOR
     }
 
@@ -227,6 +330,20 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
         returnVal.put("version", version);
         returnVal.put("git_url", gitUrl);
         returnVal.put("git_commit_hash", gitCommitHash);
+        if (searchCache != null) {
+            final CacheStats stats = searchCache.getStats();
+            final Map<String, Object> cache = new LinkedHashMap<>();
+            try {
+                cache.put("generation", searchCache.getGeneration());
+            } catch (IOException e) {
+                cache.put("generation", null);
+            }
+            cache.put("hits", stats.hitCount());
+            cache.put("misses", stats.missCount());
+            cache.put("hit_rate", stats.hitRate());
+            cache.put("evictions", stats.evictionCount());
+            returnVal.put("search_cache", cache);
+        }
         //END_STATUS
         return returnVal;
     }
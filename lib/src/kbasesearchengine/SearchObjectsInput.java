@@ -16,6 +16,19 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  * <p>Original spec-file type: SearchObjectsInput</p>
  * <pre>
  * Input parameters for 'search_objects' method.
+ * object_types - list of the types of objects to search on (optional). The
+ *                function will search on all objects if the list is not specified
+ *                or is empty. The list size must be less than 50.
+ * match_filter - see MatchFilter (optional).
+ * sorting_rules - see SortingRule (optional).
+ * access_filter - see AccessFilter (optional).
+ * pagination - see Pagination (optional).
+ * post_processing - see PostProcessing (optional).
+ * continuation_token - the continuation_token returned by a previous search with the same
+ *                parameters (optional). If provided, the results start after the last
+ *                object returned by that search, and the pagination start must be 0 or
+ *                absent. Unlike the pagination start, the time to fetch a page with a
+ *                token does not increase with the depth of the page in the results.
  * </pre>
  * 
  */
@@ -27,7 +40,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
     "sorting_rules",
     "access_filter",
     "pagination",
-    "post_processing"
+    "post_processing",
+    "continuation_token"
 })
 public class SearchObjectsInput {
 
@@ -91,6 +105,8 @@ public class SearchObjectsInput {
      */
     @JsonProperty("post_processing")
     private PostProcessing postProcessing;
+    @JsonProperty("continuation_token")
+    private String continuationToken;
     private Map<String, Object> additionalProperties = new HashMap<String, Object>();
 
     @JsonProperty("object_types")
@@ -279,6 +295,21 @@ public class SearchObjectsInput {
         return this;
     }
 
+    @JsonProperty("continuation_token")
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    @JsonProperty("continuation_token")
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    public SearchObjectsInput withContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -291,7 +322,7 @@ public class SearchObjectsInput {
 
     @Override
     public String toString() {
-        return ((((((((((((((("SearchObjectsInput"+" [objectTypes=")+ objectTypes)+", matchFilter=")+ matchFilter)+", sortingRules=")+ sortingRules)+", accessFilter=")+ accessFilter)+", pagination=")+ pagination)+", postProcessing=")+ postProcessing)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((((((((((("SearchObjectsInput"+" [objectTypes=")+ objectTypes)+", matchFilter=")+ matchFilter)+", sortingRules=")+ sortingRules)+", accessFilter=")+ accessFilter)+", pagination=")+ pagination)+", postProcessing=")+ postProcessing)+", continuationToken=")+ continuationToken)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
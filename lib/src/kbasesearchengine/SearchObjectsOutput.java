@@ -20,6 +20,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  *     pagination and sorting.
  * total - total number of found objects.
  * search_time - common time in milliseconds spent.
+ * continuation_token - pass to the next search to get the next page of results. Absent if
+ *     there are no more results.
  * </pre>
  * 
  */
@@ -30,7 +32,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
     "sorting_rules",
     "objects",
     "total",
-    "search_time"
+    "search_time",
+    "continuation_token"
 })
 public class SearchObjectsOutput {
 
@@ -51,6 +54,8 @@ public class SearchObjectsOutput {
     private Long total;
     @JsonProperty("search_time")
     private Long searchTime;
+    @JsonProperty("continuation_token")
+    private String continuationToken;
     private Map<String, Object> additionalProperties = new HashMap<String, Object>();
 
     /**
@@ -142,6 +147,21 @@ public class SearchObjectsOutput {
         return this;
     }
 
+    @JsonProperty("continuation_token")
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    @JsonProperty("continuation_token")
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    public SearchObjectsOutput withContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -154,7 +174,7 @@ public class SearchObjectsOutput {
 
     @Override
     public String toString() {
-        return ((((((((((((("SearchObjectsOutput"+" [pagination=")+ pagination)+", sortingRules=")+ sortingRules)+", objects=")+ objects)+", total=")+ total)+", searchTime=")+ searchTime)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((((((((("SearchObjectsOutput"+" [pagination=")+ pagination)+", sortingRules=")+ sortingRules)+", objects=")+ objects)+", total=")+ total)+", searchTime=")+ searchTime)+", continuationToken=")+ continuationToken)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
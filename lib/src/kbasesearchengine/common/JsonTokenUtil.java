@@ -1,13 +1,16 @@
 package kbasesearchengine.common;
 
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.BigInteger;
+import java.io.StringWriter;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
 import kbasesearchengine.parse.ObjectParseException;
+import us.kbase.common.service.UObject;
 
 public class JsonTokenUtil {
 
@@ -108,31 +111,34 @@ public class JsonTokenUtil {
         } else if (t == JsonToken.FIELD_NAME) {
             jgen.writeFieldName(jts.getText());
         } else if (t == JsonToken.VALUE_NUMBER_INT) {
-            Number value = jts.getNumberValue();
-            if (value instanceof Short) {
-                jgen.writeNumber((Short)value);
-            } else if (value instanceof Integer) {
-                jgen.writeNumber((Integer)value);
-            } else if (value instanceof Long) {
-                jgen.writeNumber((Long)value);
-            } else if (value instanceof BigInteger) {
-                jgen.writeNumber((BigInteger)value);
+            // check the type rather than the boxed value to avoid boxing every number
+            final NumberType type = jts.getNumberType();
+            if (type == NumberType.INT) {
+                jgen.writeNumber(jts.getIntValue());
+            } else if (type == NumberType.LONG) {
+                jgen.writeNumber(jts.getLongValue());
+            } else if (type == NumberType.BIG_INTEGER) {
+                jgen.writeNumber(jts.getBigIntegerValue());
             } else {
-                jgen.writeNumber(value.longValue());
+                jgen.writeNumber(jts.getNumberValue().longValue());
             }
         } else if (t == JsonToken.VALUE_NUMBER_FLOAT) {
-            Number value = jts.getNumberValue();
-            if (value instanceof Float) {
-                jgen.writeNumber((Float)value);
-            } else if (value instanceof Double) {
-                jgen.writeNumber((Double)value);
-            } else if (value instanceof BigDecimal) {
-                jgen.writeNumber((BigDecimal)value);
+            final NumberType type = jts.getNumberType();
+            if (type == NumberType.FLOAT) {
+                jgen.writeNumber(jts.getFloatValue());
+            } else if (type == NumberType.BIG_DECIMAL) {
+                jgen.writeNumber(jts.getDecimalValue());
             } else {
-                jgen.writeNumber(value.doubleValue());
+                jgen.writeNumber(jts.getDoubleValue());
             }
         } else if (t == JsonToken.VALUE_STRING) {
-            jgen.writeString(jts.getText());
+            if (jts.hasTextCharacters()) {
+                // write straight from the parser's buffer rather than via a String
+                jgen.writeString(jts.getTextCharacters(), jts.getTextOffset(),
+                        jts.getTextLength());
+            } else {
+                jgen.writeString(jts.getText());
+            }
         } else if (t == JsonToken.VALUE_NULL) {
             jgen.writeNull();
         } else if (t == JsonToken.VALUE_FALSE) {
@@ -162,4 +168,40 @@ public class JsonTokenUtil {
             throw new ObjectParseException("Unexpected token type: " + t);
         }
     }
+
+    /** Create an empty token buffer suitable for holding extracted JSON.
+     * @return a new token buffer.
+     */
+    public static TokenBuffer newTokenBuffer() {
+        return new TokenBuffer(UObject.getMapper());
+    }
+
+    /** Tokenize a JSON string into a token buffer, which can then be read any number of times
+     * via {@link TokenBuffer#asParser()} without parsing the JSON again.
+     * @param json the JSON string.
+     * @return the token buffer.
+     * @throws IOException if the JSON could not be parsed.
+     */
+    public static TokenBuffer toTokenBuffer(final String json) throws IOException {
+        final TokenBuffer buf = newTokenBuffer();
+        try (final JsonParser jts = UObject.getMapper().getFactory().createParser(json)) {
+            jts.nextToken();
+            buf.copyCurrentStructure(jts);
+        }
+        return buf;
+    }
+
+    /** Serialize a token buffer to a JSON string.
+     * @param buf the token buffer.
+     * @return the JSON.
+     * @throws IOException if the buffer could not be serialized.
+     */
+    public static String toJson(final TokenBuffer buf) throws IOException {
+        final StringWriter outChars = new StringWriter();
+        try (final JsonGenerator jgen = UObject.getMapper().getFactory()
+                .createGenerator(outChars)) {
+            buf.serialize(jgen);
+        }
+        return outChars.toString();
+    }
 }
@@ -0,0 +1,439 @@
+package kbasesearchengine.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import kbasesearchengine.tools.Utils;
+import us.kbase.common.service.UObject;
+
+/** JSON data in a memory mapped file. Parsers over the data read from the mapped memory rather
+ * than the file, so repeated passes over the data neither reread the file nor copy it onto the
+ * heap.
+ *
+ * The data may be an element nested in the JSON document in the file, such as the object data
+ * in a service response. When the file is mapped, the byte offsets of the element, and of each
+ * of its fields if the element is an object, are found with a single scan of the bytes. Parsers
+ * then read only the bytes of the element and never tokenize the rest of the document. Parsers
+ * may also be limited to some of the fields of the element, in which case the bytes of the
+ * other fields are not read at all.
+ *
+ * Instances are thread safe. Java provides no safe way to unmap a file while parsers may still
+ * be reading it, so the mapping is only released when the instance and every parser over it are
+ * garbage collected. The file may be deleted while the mapping is in use on most operating
+ * systems, but its disk blocks are not freed until the mapping is released. Callers that map
+ * many large files should drop their references to the instance as soon as they're done with
+ * the data so the mappings are collected promptly.
+ */
+public class MappedJsonData {
+
+    private static final JsonFactory FACTORY = UObject.getMapper().getFactory();
+
+    private static final byte[] OPEN = {'{'};
+    private static final byte[] CLOSE = {'}'};
+    private static final byte[] COLON = {':'};
+    private static final byte[] COMMA = {','};
+
+    private final ByteBuffer buffer;
+    private final List<String> path;
+    private final Region element;
+    // null if the element is not an object
+    private final Map<String, Field> fields;
+
+    private MappedJsonData(
+            final ByteBuffer buffer,
+            final List<String> path,
+            final Region element,
+            final Map<String, Field> fields) {
+        this.buffer = buffer;
+        this.path = path;
+        this.element = element;
+        this.fields = fields;
+    }
+
+    /* a region of the mapped buffer. end is exclusive. */
+    private static class Region {
+
+        private final int start;
+        private final int end;
+
+        private Region(final int start, final int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /* the location of a field of an object. The name includes the quotes. */
+    private static class Field {
+
+        private final Region name;
+        private final Region value;
+
+        private Field(final Region name, final Region value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /** Map a file containing a JSON document into memory.
+     * @param file the file.
+     * @param path the path from the root of the document to the element containing the data.
+     * Object fields are given by name and array items by their index, e.g. "result", "0". If
+     * no path is given, the data is the entire document.
+     * @return the mapped data.
+     * @throws IOException if the file could not be mapped, including if it is 2GB or larger, or
+     * the document contains no element at the path.
+     */
+    public static MappedJsonData map(final Path file, final String... path) throws IOException {
+        Utils.nonNull(file, "file");
+        for (final String item: path) {
+            Utils.nonNull(item, "null item in path");
+        }
+        final ByteBuffer buffer;
+        try (final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (fc.size() > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to map: " + file);
+            }
+            buffer = fc.map(MapMode.READ_ONLY, 0, fc.size());
+        }
+        final List<String> p = Collections.unmodifiableList(Arrays.asList(path.clone()));
+        final Scanner s = new Scanner(buffer, p);
+        final Region element = s.seek();
+        return new MappedJsonData(buffer, p, element, s.indexFields(element));
+    }
+
+    /** Get the path from the root of the document to the data.
+     * @return the path.
+     */
+    public List<String> getPath() {
+        return path;
+    }
+
+    /** Get the size of the data in bytes.
+     * @return the size of the data.
+     */
+    public int getSize() {
+        return element.end - element.start;
+    }
+
+    /** Get a parser over the data. The first token returned by the parser is the first token of
+     * the data, and the parser returns no tokens after the end of the data.
+     * @return a new parser.
+     * @throws IOException if the parser could not be created.
+     */
+    public JsonParser getParser() throws IOException {
+        return FACTORY.createParser(stream(element));
+    }
+
+    /** Get a parser over some of the fields of the data. If the data is an object, the parser
+     * returns an object with only the given fields, in the order they appear in the data, and
+     * the bytes of the other fields are not read. Otherwise the parser is the same as
+     * {@link #getParser()}.
+     * @param fieldNames the names of the fields to include. Names that don't match a field in the
+     * data are ignored.
+     * @return a new parser.
+     * @throws IOException if the parser could not be created.
+     */
+    public JsonParser getParser(final Set<String> fieldNames) throws IOException {
+        Utils.nonNull(fieldNames, "fieldNames");
+        if (fields == null) {
+            return getParser();
+        }
+        final List<InputStream> streams = new ArrayList<>();
+        streams.add(new ByteArrayInputStream(OPEN));
+        for (final String name: fields.keySet()) {
+            if (fieldNames.contains(name)) {
+                if (streams.size() > 1) {
+                    streams.add(new ByteArrayInputStream(COMMA));
+                }
+                final Field f = fields.get(name);
+                streams.add(stream(f.name));
+                streams.add(new ByteArrayInputStream(COLON));
+                streams.add(stream(f.value));
+            }
+        }
+        streams.add(new ByteArrayInputStream(CLOSE));
+        return FACTORY.createParser(new SequenceInputStream(Collections.enumeration(streams)));
+    }
+
+    private InputStream stream(final Region r) {
+        // the duplicate has its own position, so parsers don't interfere with each other
+        final ByteBuffer b = buffer.duplicate();
+        b.position(r.start);
+        b.limit(r.end);
+        return new BufferInputStream(b);
+    }
+
+    /* An input stream over the remaining bytes of a buffer. The buffer's position is advanced as
+     * bytes are read, so each stream needs its own duplicate of the mapped buffer.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        private BufferInputStream(final ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, buf.remaining());
+            buf.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
+    /* Finds the byte offsets of JSON elements. Only the structure needed to find the elements is
+     * checked; any other errors are left for the parsers.
+     */
+    private static class Scanner {
+
+        private final ByteBuffer buf;
+        private final List<String> path;
+        private int pos = 0;
+
+        private Scanner(final ByteBuffer buf, final List<String> path) {
+            this.buf = buf;
+            this.path = path;
+        }
+
+        private Region seek() throws IOException {
+            skipWhitespace();
+            for (final String item: path) {
+                final byte b = peek();
+                if (b == '{') {
+                    pos++;
+                    findField(item);
+                } else if (b == '[') {
+                    pos++;
+                    findItem(item);
+                } else {
+                    throw noElement();
+                }
+            }
+            final int start = pos;
+            skipValue();
+            return new Region(start, pos);
+        }
+
+        /* leaves the position at the start of the field's value. */
+        private void findField(final String name) throws IOException {
+            skipWhitespace();
+            if (peek() == '}') {
+                throw noElement();
+            }
+            while (true) {
+                final Region key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                if (name.equals(decode(key))) {
+                    return;
+                }
+                skipValue();
+                skipWhitespace();
+                if (peek() == '}') {
+                    throw noElement();
+                }
+                expect(',');
+                skipWhitespace();
+            }
+        }
+
+        /* leaves the position at the start of the item. */
+        private void findItem(final String item) throws IOException {
+            final int index;
+            try {
+                index = Integer.parseInt(item);
+            } catch (NumberFormatException e) {
+                throw noElement();
+            }
+            skipWhitespace();
+            if (index < 0 || peek() == ']') {
+                throw noElement();
+            }
+            for (int i = 0; i < index; i++) {
+                skipValue();
+                skipWhitespace();
+                if (peek() == ']') {
+                    throw noElement();
+                }
+                expect(',');
+                skipWhitespace();
+            }
+        }
+
+        private Map<String, Field> indexFields(final Region element) throws IOException {
+            pos = element.start;
+            if (peek() != '{') {
+                return null;
+            }
+            pos++;
+            final Map<String, Field> ret = new LinkedHashMap<>();
+            skipWhitespace();
+            if (peek() == '}') {
+                return ret;
+            }
+            while (true) {
+                final Region key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                final int start = pos;
+                skipValue();
+                final String name = decode(key);
+                // for duplicate keys, keep the last value, as a full parse of the data would
+                ret.remove(name);
+                ret.put(name, new Field(key, new Region(start, pos)));
+                skipWhitespace();
+                if (peek() == '}') {
+                    return ret;
+                }
+                expect(',');
+                skipWhitespace();
+            }
+        }
+
+        private String decode(final Region string) throws IOException {
+            for (int i = string.start + 1; i < string.end - 1; i++) {
+                if (buf.get(i) == '\\') {
+                    // rare, so let the parser deal with escapes
+                    final ByteBuffer b = buf.duplicate();
+                    b.position(string.start);
+                    b.limit(string.end);
+                    try (final JsonParser jp = FACTORY.createParser(
+                            new BufferInputStream(b))) {
+                        jp.nextToken();
+                        return jp.getText();
+                    }
+                }
+            }
+            final byte[] bytes = new byte[string.end - string.start - 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buf.get(string.start + 1 + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Region readString() throws IOException {
+            final int start = pos;
+            expect('"');
+            while (true) {
+                final byte b = next();
+                if (b == '\\') {
+                    next();
+                } else if (b == '"') {
+                    return new Region(start, pos);
+                }
+            }
+        }
+
+        private void skipValue() throws IOException {
+            final byte b = peek();
+            if (b == '"') {
+                readString();
+            } else if (b == '{' || b == '[') {
+                int depth = 0;
+                while (true) {
+                    final byte c = peek();
+                    if (c == '"') {
+                        readString();
+                        continue;
+                    }
+                    pos++;
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        if (--depth == 0) {
+                            return;
+                        }
+                    }
+                }
+            } else {
+                // a number, true, false, or null
+                final int start = pos;
+                while (pos < buf.limit()) {
+                    final byte c = buf.get(pos);
+                    if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                        break;
+                    }
+                    pos++;
+                }
+                if (pos == start) {
+                    throw malformed();
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < buf.limit() && isWhitespace(buf.get(pos))) {
+                pos++;
+            }
+        }
+
+        private boolean isWhitespace(final byte b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+        }
+
+        private byte peek() throws IOException {
+            if (pos >= buf.limit()) {
+                throw malformed();
+            }
+            return buf.get(pos);
+        }
+
+        private byte next() throws IOException {
+            final byte b = peek();
+            pos++;
+            return b;
+        }
+
+        private void expect(final char c) throws IOException {
+            if (peek() != c) {
+                throw malformed();
+            }
+            pos++;
+        }
+
+        private IOException noElement() {
+            return new IOException("No element in JSON document at path " + path);
+        }
+
+        private IOException malformed() {
+            return new IOException("Malformed JSON document at byte " + pos);
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package kbasesearchengine.events.handler;
 
+import java.io.IOException;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
 import com.google.common.base.Optional;
 
+import kbasesearchengine.common.MappedJsonData;
 import kbasesearchengine.tools.Utils;
 import us.kbase.common.service.UObject;
 
@@ -20,6 +25,7 @@ public class SourceData {
     private final Optional<String> commitHash;
     private final Optional<String> version;
     private final Optional<String> md5;
+    private final Optional<MappedJsonData> mappedData;
     
     private SourceData(
             final UObject data,
@@ -30,7 +36,8 @@ public class SourceData {
             final Optional<String> method,
             final Optional<String> commitHash,
             final Optional<String> version,
-            final Optional<String> md5) {
+            final Optional<String> md5,
+            final Optional<MappedJsonData> mappedData) {
         this.data = data;
         this.name = name;
         this.creator = creator;
@@ -40,6 +47,7 @@ public class SourceData {
         this.commitHash = commitHash;
         this.version = version;
         this.md5 = md5;
+        this.mappedData = mappedData;
     }
     
     /** Get the data.
@@ -49,6 +57,41 @@ public class SourceData {
         return data;
     }
 
+    /** Get the data in memory mapped form, if available.
+     * @return the mapped data or absent.
+     */
+    public Optional<MappedJsonData> getMappedData() {
+        return mappedData;
+    }
+    
+    /** Get a parser over the data. If the data is available in memory mapped form, the parser
+     * reads from the mapped memory, and otherwise from the data's placed stream.
+     * @return a new parser.
+     * @throws IOException if the parser could not be created.
+     */
+    public JsonParser getDataParser() throws IOException {
+        if (mappedData.isPresent()) {
+            return mappedData.get().getParser();
+        }
+        return data.getPlacedStream();
+    }
+    
+    /** Get a parser over the data that may omit top level fields of the data that are not
+     * needed. If the data is available in memory mapped form and is an object, the parser
+     * returns an object with only the given fields and the other fields are never read.
+     * Otherwise the parser is the same as {@link #getDataParser()}.
+     * @param fieldNames the names of the top level fields that are needed.
+     * @return a new parser.
+     * @throws IOException if the parser could not be created.
+     */
+    public JsonParser getDataParser(final Set<String> fieldNames) throws IOException {
+        Utils.nonNull(fieldNames, "fieldNames");
+        if (mappedData.isPresent()) {
+            return mappedData.get().getParser(fieldNames);
+        }
+        return data.getPlacedStream();
+    }
+
     /** Get the name of the data.
      * @return the data name.
      */
@@ -130,6 +173,7 @@ public class SourceData {
         private Optional<String> commitHash = Optional.absent();
         private Optional<String> version = Optional.absent();
         private Optional<String> md5 = Optional.absent();
+        private Optional<MappedJsonData> mappedData = Optional.absent();
         
         private Builder(final UObject data, final String name, final String creator) {
             Utils.nonNull(data, "data");
@@ -202,12 +246,22 @@ public class SourceData {
             return this;
         }
         
+        /** Add a memory mapped form of the data. The mapped data must contain the same data as
+         * the data provided when creating the builder.
+         * @param mappedData the mapped data.
+         * @return this builder.
+         */
+        public Builder withNullableMappedData(final MappedJsonData mappedData) {
+            this.mappedData = Optional.fromNullable(mappedData);
+            return this;
+        }
+        
         /** Build the SourceData instance.
          * @return the SourceData.
          */
         public SourceData build() {
             return new SourceData(data, name, creator, copier, module, method, commitHash,
-                    version, md5);
+                    version, md5, mappedData);
         }
     }
     
@@ -19,10 +19,13 @@ import java.util.stream.Collectors;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.MappedJsonData;
 import kbasesearchengine.events.ChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventType;
@@ -74,6 +77,13 @@ public class WorkspaceEventHandler implements EventHandler {
     
     private static final int WS_BATCH_SIZE = 10_000;
     
+    private static final Logger LOG = LoggerFactory.getLogger(WorkspaceEventHandler.class);
+    
+    /* the location of the object data in the getObjects response written to the response
+     * file: the first return value of administer(), the first object, and that object's data.
+     */
+    private static final String[] DATA_PATH = {"result", "0", "data", "0", "data"};
+    
     private static final TypeReference<List<Tuple11<Long, String, String, String,
             Long, String, Long, String, String, Long, Map<String, String>>>> OBJ_TYPEREF =
                     new TypeReference<List<Tuple11<Long, String, String, String,
@@ -141,7 +151,8 @@ public class WorkspaceEventHandler implements EventHandler {
         final SourceData.Builder b = SourceData.getBuilder(
                 ret.getData(), ret.getInfo().getE2(), creator)
                 .withNullableCopier(copier)
-                .withNullableMD5(ret.getInfo().getE9());
+                .withNullableMD5(ret.getInfo().getE9())
+                .withNullableMappedData(mapData(file));
         if (pa != null) {
             b.withNullableModule(pa.getService())
                     .withNullableMethod(pa.getMethod())
@@ -164,6 +175,22 @@ public class WorkspaceEventHandler implements EventHandler {
         return b.build();
     }
 
+    /* Maps the object data in the response file into memory so the parsers don't reread the
+     * file for every pass over the data. Mapping records the byte offsets of the data and its
+     * fields in the file, so the parsers can go straight to the data, or the fields of the data
+     * they need, without tokenizing the response envelope or other fields.
+     * If the file can't be mapped, the parsers fall back to the data's placed stream.
+     */
+    private static MappedJsonData mapData(final Path file) {
+        try {
+            return MappedJsonData.map(file, DATA_PATH);
+        } catch (IOException e) {
+            LOG.warn("Could not map the object data in {}, falling back to the data stream: {}",
+                    file, e.getMessage());
+            return null;
+        }
+    }
+
     private static IndexingException handleException(final JsonClientException e) {
         if (e instanceof UnauthorizedException) {
             return new FatalIndexingException(e.getMessage(), e);
@@ -0,0 +1,150 @@
+package kbasesearchengine.events.storage;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+
+import kbasesearchengine.tools.Utils;
+
+/** An implementation of {@link StatusEventNotifier} that tails the capped notification
+ * collection written by a {@link MongoDBStatusEventStorage} with notifications enabled. See
+ * {@link MongoDBStatusEventStorage#enableNotifications()}.
+ * 
+ * Listeners are notified when any storage instance using the same database stores an event or
+ * changes the state of an event. Events written to the database by other means do not cause
+ * notifications.
+ */
+public class MongoDBStatusEventNotifier implements StatusEventNotifier, AutoCloseable {
+    
+    /* Tailable cursors are supported by all MongoDB versions, unlike change streams, and
+     * unlike the oplog don't require a replica set.
+     */
+    
+    static final String COL_NOTIFY = "searchEventNotify";
+    static final String FLD_NOTIFY_STATE = "state";
+    
+    // notifications are tiny, so this holds many thousands of them
+    private static final long NOTIFY_COLLECTION_SIZE = 1024 * 1024;
+    private static final int NAMESPACE_EXISTS = 48;
+    private static final long RETRY_SLEEP_MS = 1000;
+    
+    private final MongoCollection<Document> col;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final Thread tailer;
+    private volatile boolean closed = false;
+    
+    /** Create the notifier and start tailing the notification collection.
+     * @param db the mongo database in which events are stored.
+     * @throws StorageInitException if the notification collection could not be created.
+     */
+    public MongoDBStatusEventNotifier(final MongoDatabase db) throws StorageInitException {
+        Utils.nonNull(db, "db");
+        ensureNotificationCollection(db);
+        col = db.getCollection(COL_NOTIFY);
+        tailer = new Thread(() -> tail(), "StatusEventNotifier");
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+    
+    /* tailable cursors die immediately on empty collections, so the collection is seeded with
+     * a single document when created.
+     */
+    static void ensureNotificationCollection(final MongoDatabase db)
+            throws StorageInitException {
+        try {
+            db.createCollection(COL_NOTIFY, new CreateCollectionOptions()
+                    .capped(true).sizeInBytes(NOTIFY_COLLECTION_SIZE));
+            db.getCollection(COL_NOTIFY).insertOne(new Document(FLD_NOTIFY_STATE, null));
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != NAMESPACE_EXISTS) {
+                throw new StorageInitException("Failed to create notification collection: " +
+                        e.getMessage(), e);
+            }
+        } catch (MongoException e) {
+            throw new StorageInitException("Failed to create notification collection: " +
+                    e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public void addListener(final Runnable listener) {
+        Utils.nonNull(listener, "listener");
+        listeners.add(listener);
+    }
+    
+    /** Stop tailing the notification collection. The tailing thread may take a short time to
+     * exit.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        tailer.interrupt();
+    }
+    
+    private void tail() {
+        ObjectId lastSeen = null;
+        while (!closed) {
+            try {
+                if (lastSeen == null) {
+                    final Document last = col.find().sort(new Document("$natural", -1)).first();
+                    lastSeen = last == null ? null : last.getObjectId("_id");
+                }
+                /* $gt queries on _id that match no documents produce a dead cursor, and
+                 * object ids from different clients are not strictly ordered, so read from the
+                 * start of the capped collection and skip documents up to the last one seen.
+                 */
+                boolean skipping = lastSeen != null;
+                try (final MongoCursor<Document> cur = col.find()
+                        .cursorType(CursorType.TailableAwait).noCursorTimeout(true).iterator()) {
+                    while (!closed) {
+                        final Document d = cur.tryNext();
+                        if (d == null) {
+                            if (skipping) {
+                                // the last seen document has been removed from the collection
+                                skipping = false;
+                                notifyListeners();
+                            }
+                            if (cur.getServerCursor() == null) {
+                                break; // the cursor is dead
+                            }
+                        } else if (skipping) {
+                            skipping = !d.getObjectId("_id").equals(lastSeen);
+                        } else {
+                            lastSeen = d.getObjectId("_id");
+                            notifyListeners();
+                        }
+                    }
+                }
+            } catch (MongoException e) {
+                // fall through and reopen the cursor. Users of the notifier poll regardless.
+            }
+            if (!closed) {
+                try {
+                    Thread.sleep(RETRY_SLEEP_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void notifyListeners() {
+        for (final Runnable l: listeners) {
+            try {
+                l.run();
+            } catch (RuntimeException e) {
+                // nothing to be done, and the listener should not stop other listeners
+            }
+        }
+    }
+}
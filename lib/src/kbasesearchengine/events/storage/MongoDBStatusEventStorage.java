@@ -73,6 +73,8 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     private static final String FLD_UPDATE_TIME = "updte";
     // the ID, if any, of the operator that last changed the event status. Arbitrary string.
     private static final String FLD_UPDATER = "updtr";
+    // a unique id for the most recent batch of events leased by setAndGetProcessingStates.
+    private static final String FLD_LEASE = "lease";
     
     private static final String COL_EVENT = "searchEvents";
     
@@ -85,6 +87,8 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         final LinkedList<IndexSpecification> event = new LinkedList<>();
         //find events by status and time stamp
         event.add(idxSpec(FLD_STATUS, 1, FLD_TIMESTAMP, 1, null));
+        //find events by lease
+        event.add(idxSpec(FLD_LEASE, 1, new IndexOptions().sparse(true)));
         indexes.put(COL_EVENT, event);
         return indexes;
     }
@@ -100,7 +104,6 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     }
     
     // 1 for ascending sort, -1 for descending
-    @SuppressWarnings("unused")
     private static IndexSpecification idxSpec(
             final String field, final int ascendingSort,
             final IndexOptions options) {
@@ -152,6 +155,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
 
     private final MongoDatabase db;
     private final Clock clock;
+    private volatile boolean notify = false;
     
     /** Create the storage system.
      * @param db the mongo database in which to store events.
@@ -176,6 +180,30 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         this.clock = clock;
     }
     
+    /** Write a notification to a capped collection whenever this storage instance stores an
+     * event or changes the state of an event. {@link MongoDBStatusEventNotifier}s on the same
+     * database will then notify their listeners of the change.
+     * @throws StorageInitException if the notification collection could not be created.
+     */
+    public void enableNotifications() throws StorageInitException {
+        MongoDBStatusEventNotifier.ensureNotificationCollection(db);
+        notify = true;
+    }
+    
+    /* notifications are hints and listeners poll regardless, so a failed notification is
+     * ignored rather than failing an operation that has already succeeded.
+     */
+    private void notifyListeners(final StatusEventProcessingState state) {
+        if (notify) {
+            try {
+                db.getCollection(MongoDBStatusEventNotifier.COL_NOTIFY).insertOne(new Document(
+                        MongoDBStatusEventNotifier.FLD_NOTIFY_STATE, state.toString()));
+            } catch (MongoException e) {
+                // do nothing
+            }
+        }
+    }
+    
     @Override
     public StoredStatusEvent store(
             final StatusEvent newEvent,
@@ -215,6 +243,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             throw new FatalRetriableIndexingException(
                     "Failed event storage: " + e.getMessage(), e);
         }
+        notifyListeners(state);
         final StoredStatusEvent.Builder b = StoredStatusEvent.getBuilder(
                 newEvent, new StatusEventID(doc.getObjectId("_id").toString()), state);
         for (final String code: workerCodes) {
@@ -241,6 +270,36 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         return Optional.of(toEvent(event));
     }
 
+    @Override
+    public Map<StatusEventID, StoredStatusEvent> getByIds(final Set<StatusEventID> ids)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(ids, "ids");
+        Utils.noNulls(ids, "null item in ids");
+        final Map<StatusEventID, StoredStatusEvent> ret = new HashMap<>();
+        if (ids.isEmpty()) {
+            return ret;
+        }
+        try {
+            for (final Document event: db.getCollection(COL_EVENT).find(
+                    new Document("_id", new Document("$in", toObjectIds(ids))))) {
+                final StoredStatusEvent sse = toEvent(event);
+                ret.put(sse.getId(), sse);
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    "Failed getting events: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+    
+    private List<ObjectId> toObjectIds(final Set<StatusEventID> ids) {
+        final List<ObjectId> ret = new LinkedList<>();
+        for (final StatusEventID id: ids) {
+            ret.add(new ObjectId(id.getId()));
+        }
+        return ret;
+    }
+
     private StoredStatusEvent toEvent(final Document event) {
         final String storageCode = (String) event.get(FLD_STORAGE_CODE);
         final String type = (String) event.get(FLD_OBJECT_TYPE);
@@ -315,15 +374,54 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         if (oldState != null) {
             query.append(FLD_STATUS, oldState.toString());
         }
+        final UpdateResult res;
         try {
-            final UpdateResult res = db.getCollection(COL_EVENT).updateOne(query, 
+            res = db.getCollection(COL_EVENT).updateOne(query, 
                     new Document("$set", new Document(FLD_STATUS, newState.toString())
                             .append(FLD_UPDATE_TIME, Date.from(clock.instant()))));
-            return res.getMatchedCount() == 1;
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
                     "Failed setting event state: " + e.getMessage(), e);
         }
+        if (res.getMatchedCount() == 1) {
+            notifyListeners(newState);
+            return true;
+        }
+        return false;
+    }
+
+    /* all the events are transitioned from the same state to the same state, so a single
+     * updateMany is equivalent to a bulk write of one update per event.
+     */
+    @Override
+    public int setProcessingStates(
+            final Set<StatusEventID> ids,
+            final StatusEventProcessingState oldState,
+            final StatusEventProcessingState newState)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(ids, "ids");
+        Utils.noNulls(ids, "null item in ids");
+        Utils.nonNull(newState, "newState");
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final Document query = new Document("_id", new Document("$in", toObjectIds(ids)));
+        if (oldState != null) {
+            query.append(FLD_STATUS, oldState.toString());
+        }
+        final UpdateResult res;
+        try {
+            res = db.getCollection(COL_EVENT).updateMany(query, 
+                    new Document("$set", new Document(FLD_STATUS, newState.toString())
+                            .append(FLD_UPDATE_TIME, Date.from(clock.instant()))));
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    "Failed setting event states: " + e.getMessage(), e);
+        }
+        if (res.getMatchedCount() > 0) {
+            notifyListeners(newState);
+        }
+        return (int) res.getMatchedCount();
     }
 
     @Override
@@ -336,28 +434,14 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         Utils.nonNull(oldState, "oldState");
         Utils.nonNull(newState, "newState");
         Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
-        final List<Document> codeQuery = new LinkedList<>();
-        final Set<String> codeSet = new HashSet<>();
-        if (workerCodes == null || workerCodes.isEmpty() ||
-                workerCodes.contains(StatusEventStorage.DEFAULT_WORKER_CODE)) {
-            // next line matches missing field & null fields
-            codeQuery.add(new Document(FLD_WORKER_CODES, null));
-            codeQuery.add(new Document(FLD_WORKER_CODES, Collections.emptyList()));
-            codeSet.add(StatusEventStorage.DEFAULT_WORKER_CODE);
-        }
-        if (workerCodes != null) {
-            Utils.noNulls(workerCodes, "null item in workerCodes");
-            codeSet.addAll(workerCodes);
-        }
-        codeQuery.add(new Document(FLD_WORKER_CODES, new Document("$in", codeSet)));
-        
+        final Document query = getStateAndCodesQuery(oldState, workerCodes);
         final Document innerUpdate = new Document(FLD_STATUS, newState.toString())
                 .append(FLD_UPDATE_TIME, Date.from(clock.instant()))
                 .append(FLD_UPDATER, updater);
         final Document ret;
         try {
             ret = db.getCollection(COL_EVENT).findOneAndUpdate(
-                     new Document(FLD_STATUS, oldState.toString()).append("$or", codeQuery),
+                     query,
                      new Document("$set", innerUpdate),
                      new FindOneAndUpdateOptions()
                              .sort(new Document(FLD_TIMESTAMP, 1))
@@ -371,5 +455,85 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         }
         return Optional.of(toEvent(ret));
     }
+    
+    /* Mongo can't atomically update many documents chosen by a sorted query, so this finds the
+     * candidate events, updates those that are still in the old state with the caller's lease
+     * id, and then fetches the events with that lease id. Three round trips regardless of the
+     * number of events. Events already holding the lease are candidates too, so a retry after a
+     * failure between the update and the fetch returns the events the failed call leased.
+     */
+    @Override
+    public List<StoredStatusEvent> setAndGetProcessingStates(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final String lease,
+            int limit)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(oldState, "oldState");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        Utils.notNullOrEmpty(lease, "lease cannot be null or whitespace");
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        if (limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final Document query = new Document("$or", Arrays.asList(
+                getStateAndCodesQuery(oldState, workerCodes),
+                new Document(FLD_LEASE, lease).append(FLD_STATUS, newState.toString())));
+        final List<StoredStatusEvent> ret = new LinkedList<>();
+        try {
+            final MongoCollection<Document> col = db.getCollection(COL_EVENT);
+            final List<ObjectId> ids = new LinkedList<>();
+            for (final Document event: col.find(query)
+                    .projection(new Document("_id", 1))
+                    .sort(new Document(FLD_TIMESTAMP, 1))
+                    .limit(limit)) {
+                ids.add(event.getObjectId("_id"));
+            }
+            if (ids.isEmpty()) {
+                return ret;
+            }
+            col.updateMany(
+                    new Document("_id", new Document("$in", ids))
+                            .append(FLD_STATUS, oldState.toString()),
+                    new Document("$set", new Document(FLD_STATUS, newState.toString())
+                            .append(FLD_UPDATE_TIME, Date.from(clock.instant()))
+                            .append(FLD_UPDATER, updater)
+                            .append(FLD_LEASE, lease)));
+            for (final Document event: col.find(
+                    new Document("_id", new Document("$in", ids)).append(FLD_LEASE, lease))
+                    .sort(new Document(FLD_TIMESTAMP, 1))) {
+                ret.add(toEvent(event));
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    "Failed setting event states: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+    
+    private Document getStateAndCodesQuery(
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes) {
+        final List<Document> codeQuery = new LinkedList<>();
+        final Set<String> codeSet = new HashSet<>();
+        if (workerCodes == null || workerCodes.isEmpty() ||
+                workerCodes.contains(StatusEventStorage.DEFAULT_WORKER_CODE)) {
+            // next line matches missing field & null fields
+            codeQuery.add(new Document(FLD_WORKER_CODES, null));
+            codeQuery.add(new Document(FLD_WORKER_CODES, Collections.emptyList()));
+            codeSet.add(StatusEventStorage.DEFAULT_WORKER_CODE);
+        }
+        if (workerCodes != null) {
+            Utils.noNulls(workerCodes, "null item in workerCodes");
+            codeSet.addAll(workerCodes);
+        }
+        codeQuery.add(new Document(FLD_WORKER_CODES, new Document("$in", codeSet)));
+        return new Document(FLD_STATUS, state.toString()).append("$or", codeQuery);
+    }
 
 }
@@ -0,0 +1,18 @@
+package kbasesearchengine.events.storage;
+
+/** A source of notifications that events in a {@link StatusEventStorage} have been stored or
+ * have changed state.
+ * 
+ * Notifications are hints that the storage system should be checked for work. They carry no
+ * information about the events and may be delayed or dropped, so users of a notifier should
+ * still check the storage system periodically.
+ */
+public interface StatusEventNotifier {
+    
+    /** Add a listener to the notifier. The listener is called on a thread owned by the
+     * notifier and so should return quickly.
+     * @param listener the listener.
+     */
+    void addListener(Runnable listener);
+
+}
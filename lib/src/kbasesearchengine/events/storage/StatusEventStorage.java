@@ -1,6 +1,7 @@
 package kbasesearchengine.events.storage;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Optional;
@@ -44,6 +45,15 @@ public interface StatusEventStorage {
      * @throws FatalRetriableIndexingException if an error occurs while getting the event.
      */
     Optional<StoredStatusEvent> get(StatusEventID id) throws FatalRetriableIndexingException;
+    
+    /** Get many events by their IDs in one operation.
+     * @param ids the ids.
+     * @return a mapping of id to event. Ids that do not exist in the storage system are not
+     * included in the mapping.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    Map<StatusEventID, StoredStatusEvent> getByIds(Set<StatusEventID> ids)
+            throws FatalRetriableIndexingException;
 
     /** Get list of events, by processing state, ordered by the event timestamp such that the
      * events with the earliest timestamp are first in the list.
@@ -76,6 +86,37 @@ public interface StatusEventStorage {
             String updater)
             throws FatalRetriableIndexingException;
     
+    /** Find up to limit events with a particular processing state and set a new state, leasing
+     * the events to the updater. This is equivalent to calling
+     * {@link #setAndGetProcessingState(StatusEventProcessingState, Set,
+     * StatusEventProcessingState, String)} up to limit times, but may be considerably more
+     * efficient. Each event is updated atomically, and so an event is never leased to more than
+     * one caller, but the set of events as a whole is not updated atomically. Fewer than limit
+     * events may be returned even when more are available if other callers are concurrently
+     * leasing events.
+     * <p>
+     * Retrying with the same lease after a failure returns any events the failed call leased,
+     * so the caller should create the lease once per batch, outside of any retries.
+     * @param oldState the state of the events to find.
+     * @param workerCodes the permissible worker codes for the events. A null or empty list
+     * implies the default code.
+     * @param newState the state to which the events will be updated.
+     * @param updater an id or name to associate with the state change.
+     * @param lease a unique id for this batch of events.
+     * @param limit the maximum number of events to update. If > 10000 is set to 10000.
+     * @return the updated events, ordered by the event timestamp such that the events with the
+     * earliest timestamp are first in the list.
+     * @throws FatalRetriableIndexingException if an error occurs while setting the states.
+     */
+    List<StoredStatusEvent> setAndGetProcessingStates(
+            StatusEventProcessingState oldState,
+            Set<String> workerCodes,
+            StatusEventProcessingState newState,
+            String updater,
+            String lease,
+            int limit)
+            throws FatalRetriableIndexingException;
+    
     /** Mark an event with a processing state.
      * @param id the id of the event to modify.
      * @param oldState the expected state of the event. If non-null, an event is only modified
@@ -90,5 +131,19 @@ public interface StatusEventStorage {
             StatusEventProcessingState oldState,
             StatusEventProcessingState newState)
             throws FatalRetriableIndexingException;
+    
+    /** Mark many events with a processing state in one operation.
+     * @param ids the ids of the events to modify.
+     * @param oldState the expected state of the events. If non-null, an event is only modified
+     * if both the id and the oldState match.
+     * @param newState the processing state to set on the events.
+     * @return the number of events that were found and updated.
+     * @throws FatalRetriableIndexingException if an error occurs while setting the states.
+     */
+    int setProcessingStates(
+            Set<StatusEventID> ids,
+            StatusEventProcessingState oldState,
+            StatusEventProcessingState newState)
+            throws FatalRetriableIndexingException;
 
 }
\ No newline at end of file
@@ -5,11 +5,15 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
@@ -25,6 +29,7 @@ import kbasesearchengine.events.exceptions.FatalIndexingException;
 import kbasesearchengine.events.exceptions.IndexingException;
 import kbasesearchengine.events.exceptions.RetriableIndexingException;
 import kbasesearchengine.events.exceptions.Retrier;
+import kbasesearchengine.events.storage.StatusEventNotifier;
 import kbasesearchengine.events.storage.StatusEventStorage;
 import kbasesearchengine.tools.Utils;
 
@@ -56,6 +61,7 @@ public class IndexerCoordinator implements Stoppable {
     private final int maxQueueSize;
     private int continuousCycles = 0;
     private boolean stopRunner = false;
+    private StatusEventNotifier notifier = null;
     
     private final Retrier retrier;
 
@@ -139,11 +145,27 @@ public class IndexerCoordinator implements Stoppable {
         return maxQueueSize;
     }
     
+    /** Run the coordinator immediately when the notifier reports a change in the event
+     * storage, rather than waiting for the next periodic check of the storage. The storage is
+     * still checked periodically in case a notification is missed.
+     * 
+     * This method must be called before {@link #startIndexer()}.
+     * @param notifier the notifier.
+     */
+    public void setNotifier(final StatusEventNotifier notifier) {
+        Utils.nonNull(notifier, "notifier");
+        this.notifier = notifier;
+    }
+    
     /** Start the indexer. */
     public void startIndexer() {
         stopRunner = false;
+        final WakeableRunner runner = new WakeableRunner(new IndexerRunner());
+        if (notifier != null) {
+            notifier.addListener(() -> runner.wake(executor));
+        }
         // may want to make this configurable
-        executor.scheduleAtFixedRate(new IndexerRunner(), 0, 1000, TimeUnit.MILLISECONDS);
+        executor.scheduleAtFixedRate(runner, 0, 1000, TimeUnit.MILLISECONDS);
     }
     
     private class IndexerRunner implements Runnable {
@@ -208,11 +230,9 @@ public class IndexerCoordinator implements Stoppable {
     }
     
     private void runOneCycle() throws InterruptedException, IndexingException {
-        /* some of the operations in the submethods could be batched if they prove to be a
-         * bottleneck
-         * but the mongo client keeps a connection open so it's not that expensive to 
-         * run one at a time
-         * also the bottleneck is almost assuredly the workers
+        /* the storage operations in the submethods are batched so that the cost of a cycle
+         * is a constant number of round trips to the storage system rather than proportional to
+         * the size of the queue.
          */
         continuousCycles = 0;
         boolean noWait = true;
@@ -245,27 +265,44 @@ public class IndexerCoordinator implements Stoppable {
     }
 
     private void setEventsAsReadyInStorage() throws InterruptedException, IndexingException {
+        final List<StoredStatusEvent> toReady = new LinkedList<>();
         for (final StoredStatusEvent sse: queue.getReadyForProcessing()) {
             // since the queue doesn't mutate the state, if the state is not UNPROC
             // it's not in that state in the DB either
             if (sse.getState().equals(StatusEventProcessingState.UNPROC)) {
-                retrier.retryCons(e -> storage.setProcessingState(e.getId(),
-                        StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY),
-                        sse, sse);
-                logger.logInfo(String.format("Moved event %s %s %s from %s to %s",
-                        sse.getId().getId(), sse.getEvent().getEventType(),
-                        sse.getEvent().toGUID(), StatusEventProcessingState.UNPROC,
-                        StatusEventProcessingState.READY));
+                toReady.add(sse);
             }
         }
+        if (toReady.isEmpty()) {
+            return;
+        }
+        final Set<StatusEventID> ids = toReady.stream().map(e -> e.getId())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        retrier.retryCons(i -> storage.setProcessingStates(i,
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY),
+                ids, null);
+        for (final StoredStatusEvent sse: toReady) {
+            logger.logInfo(String.format("Moved event %s %s %s from %s to %s",
+                    sse.getId().getId(), sse.getEvent().getEventType(),
+                    sse.getEvent().toGUID(), StatusEventProcessingState.UNPROC,
+                    StatusEventProcessingState.READY));
+        }
     }
     
     private void checkOnEventsInProcess() throws InterruptedException, IndexingException {
-        for (final StoredStatusEvent sse: queue.getProcessing()) {
-            final Optional<StoredStatusEvent> fromStorage =
-                    retrier.retryFunc(s -> s.get(sse.getId()), storage, sse);
-            if (fromStorage.isPresent()) {
-                final StoredStatusEvent e = fromStorage.get();
+        final Set<StoredStatusEvent> processing = queue.getProcessing();
+        if (processing.isEmpty()) {
+            return;
+        }
+        final Set<StatusEventID> ids = new LinkedHashSet<>();
+        for (final StoredStatusEvent sse: processing) {
+            ids.add(sse.getId());
+        }
+        final Map<StatusEventID, StoredStatusEvent> fromStorage =
+                retrier.retryFunc(s -> s.getByIds(ids), storage, null);
+        for (final StoredStatusEvent sse: processing) {
+            if (fromStorage.containsKey(sse.getId())) {
+                final StoredStatusEvent e = fromStorage.get(sse.getId());
                 final StatusEventProcessingState state = e.getState();
                 if (!state.equals(StatusEventProcessingState.PROC) &&
                         !state.equals(StatusEventProcessingState.READY)) {
@@ -3,7 +3,10 @@ package kbasesearchengine.main;
 import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -14,20 +17,33 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
 
 import kbasesearchengine.common.FileUtil;
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.JsonTokenUtil;
 import kbasesearchengine.events.ChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StatusEventWithId;
 import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.exceptions.FatalIndexingException;
@@ -41,12 +57,17 @@ import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
 import kbasesearchengine.events.handler.EventHandler;
 import kbasesearchengine.events.handler.ResolvedReference;
 import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.events.storage.StatusEventNotifier;
 import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.parse.ExtractionPlan;
 import kbasesearchengine.parse.KeywordParser;
 import kbasesearchengine.parse.ObjectParseException;
 import kbasesearchengine.parse.ObjectParser;
+import kbasesearchengine.parse.ObjectParser.ExtractedObject;
+import kbasesearchengine.parse.ObjectParser.ExtractedObjectHandler;
 import kbasesearchengine.parse.ParsedObject;
 import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
+import kbasesearchengine.search.IndexingRequest;
 import kbasesearchengine.search.IndexingStorage;
 import kbasesearchengine.system.NoSuchTypeException;
 import kbasesearchengine.system.ObjectTypeParsingRules;
@@ -66,6 +87,16 @@ public class IndexerWorker implements Stoppable {
     private static final List<Integer> RETRY_FATAL_BACKOFF_MS = Arrays.asList(
             1000, 2000, 4000, 8000, 16000);
     
+    /** The default number of events that may wait in the queue for each pipeline stage. */
+    public static final int DEFAULT_PIPELINE_QUEUE_SIZE = 10;
+    
+    private static final long LOOKUP_CACHE_LOG_INTERVAL_MS = 60 * 1000;
+    /* the maximum time between flushes of the indexing storage while events are being
+     * processed, so that searches, and the search caches keyed by the storage generation, don't
+     * fall behind under sustained load.
+     */
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    
     private final String id;
     private final File rootTempDir;
     private final StatusEventStorage storage;
@@ -74,8 +105,35 @@ public class IndexerWorker implements Stoppable {
     private final Set<String> workerCodes;
     private final LineLogger logger;
     private final Map<String, EventHandler> eventHandlers = new HashMap<>();
+    private final int threads;
     private ScheduledExecutorService executor = null;
-    private boolean stopRunner = false;
+    private volatile boolean stopRunner = false;
+    
+    // pipeline settings. If loadThreads is 0 the pipeline is disabled.
+    private int loadThreads = 0;
+    private int parseThreads = 0;
+    private int indexThreads = 0;
+    private int pipelineQueueSize = DEFAULT_PIPELINE_QUEUE_SIZE;
+    private int claimBatchSize = 1;
+    // if 0 the parsed objects are indexed all at once after parsing completes
+    private int indexChunkSize = 0;
+    // if null keywords are extracted serially on the parsing thread
+    private ForkJoinPool keywordPool = null;
+    private StatusEventNotifier notifier = null;
+    private ObjectLookupCache lookupCache = new ObjectLookupCache(
+            ObjectLookupCache.DEFAULT_LIFETIME_SEC, ObjectLookupCache.DEFAULT_SIZE);
+    private final AtomicLong lastCacheStatsLog = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong lastFlush = new AtomicLong(System.currentTimeMillis());
+    private StageLanes loadLanes = null;
+    private StageLanes parseLanes = null;
+    private StageLanes indexLanes = null;
+    // the number of top level events that have been claimed but not yet completed
+    private final AtomicInteger eventsInPipeline = new AtomicInteger();
+    
+    /* the temporary directory for the processor running on the current thread. Defaults to the
+     * root temporary directory for code that doesn't run in a processor, e.g. tests.
+     */
+    private final ThreadLocal<File> processorTempDir = new ThreadLocal<>();
     
     private final Retrier retrier = new Retrier(RETRY_COUNT, RETRY_SLEEP_MS,
             RETRY_FATAL_BACKOFF_MS,
@@ -91,9 +149,44 @@ public class IndexerWorker implements Stoppable {
             final LineLogger logger,
             final Set<String> workerCodes)
             throws IOException {
+        this(id, eventHandlers, storage, indexingStorage, typeStorage, tempDir, logger,
+                workerCodes, 1);
+    }
+    
+    /** Create an indexer worker that processes events concurrently.
+     * @param id the id of the worker.
+     * @param eventHandlers the event handlers for the storage systems containing the data to
+     * index.
+     * @param storage the storage system for the events.
+     * @param indexingStorage the storage system for the indexed data.
+     * @param typeStorage the storage system for the type parsing rules.
+     * @param tempDir a temporary directory. A subdirectory will be created for the worker, and
+     * a further subdirectory for each event processor.
+     * @param logger a logger.
+     * @param workerCodes the worker codes for the worker, which determine which events the
+     * worker will process.
+     * @param threads the number of event processors to run concurrently. Each processor
+     * claims and processes its own events.
+     * @throws IOException if the temporary directory could not be created.
+     */
+    public IndexerWorker(
+            final String id,
+            final List<EventHandler> eventHandlers,
+            final StatusEventStorage storage,
+            final IndexingStorage indexingStorage,
+            final TypeStorage typeStorage,
+            final File tempDir,
+            final LineLogger logger,
+            final Set<String> workerCodes,
+            final int threads)
+            throws IOException {
         Utils.notNullOrEmpty("id", "id cannot be null or the empty string");
         Utils.nonNull(logger, "logger");
         Utils.nonNull(indexingStorage, "indexingStorage");
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
         this.workerCodes = workerCodes;
         logger.logInfo("Worker codes: " + workerCodes);
         this.id = id;
@@ -122,6 +215,7 @@ public class IndexerWorker implements Stoppable {
         Utils.notNullOrEmpty("id", "id cannot be null or the empty string");
         Utils.nonNull(logger, "logger");
         this.workerCodes = null;
+        this.threads = 1;
         this.id = id;
         this.storage = null;
         this.rootTempDir = FileUtil.getOrCreateCleanSubDir(tempDir,
@@ -133,32 +227,270 @@ public class IndexerWorker implements Stoppable {
         this.indexingStorage = indexingStorage;
     }
 
+    /** Process events in a pipeline rather than processing each event from start to finish on
+     * a single thread. Events are claimed on a single thread and then passed through a load
+     * stage, which downloads the object data, a parse stage, which parses the data, and an
+     * index stage, which writes the parsed data to the indexing storage. Each stage has its own
+     * thread pool, and each thread has a bounded queue, so the download of one event may proceed
+     * while a prior event is being parsed and another indexed. When a queue is full, the prior
+     * stage blocks until the queue has room. Events for versions of the same object always run
+     * on the same thread in each stage, so they are indexed in the order they were claimed or
+     * expanded.
+     * 
+     * Events that do not require loading data are processed entirely in the index stage.
+     * 
+     * When the pipeline is enabled the number of threads provided in the constructor is ignored.
+     * This method must be called before {@link #startIndexer()}.
+     * @param loadThreads the number of threads for the load stage.
+     * @param parseThreads the number of threads for the parse stage.
+     * @param indexThreads the number of threads for the index stage.
+     * @param queueSize the maximum number of events waiting in the queue for each thread of
+     * each stage.
+     */
+    public void setPipeline(
+            final int loadThreads,
+            final int parseThreads,
+            final int indexThreads,
+            final int queueSize) {
+        checkAtLeastOne(loadThreads, "loadThreads");
+        checkAtLeastOne(parseThreads, "parseThreads");
+        checkAtLeastOne(indexThreads, "indexThreads");
+        checkAtLeastOne(queueSize, "queueSize");
+        this.loadThreads = loadThreads;
+        this.parseThreads = parseThreads;
+        this.indexThreads = indexThreads;
+        this.pipelineQueueSize = queueSize;
+    }
+    
+    /** Set the maximum number of events an event processor claims from the event storage at
+     * once. Claimed events are processed one at a time by the processor before more events are
+     * claimed. Larger batches mean fewer round trips to the event storage, but events may wait
+     * on a busy processor while other processors are idle. Any claimed events that have not
+     * been processed when the worker stops are returned to the
+     * {@link StatusEventProcessingState#READY} state.
+     * 
+     * This method must be called before {@link #startIndexer()}.
+     * @param claimBatchSize the maximum number of events to claim at once. The default is 1.
+     */
+    public void setClaimBatchSize(final int claimBatchSize) {
+        checkAtLeastOne(claimBatchSize, "claimBatchSize");
+        this.claimBatchSize = claimBatchSize;
+    }
+    
+    /** Look for events to process immediately when the notifier reports a change in the event
+     * storage, rather than waiting for the next periodic check of the storage. The storage is
+     * still checked periodically in case a notification is missed.
+     * 
+     * This method must be called before {@link #startIndexer()}.
+     * @param notifier the notifier.
+     */
+    public void setNotifier(final StatusEventNotifier notifier) {
+        Utils.nonNull(notifier, "notifier");
+        this.notifier = notifier;
+    }
+    
+    /** Set the cache used for the lookups made when parsing objects. The cache is shared
+     * between all the event processors. By default a cache with the default lifetime and size
+     * specified in {@link ObjectLookupCache} is used.
+     * 
+     * This method must be called before {@link #startIndexer()}.
+     * @param lookupCache the cache.
+     */
+    public void setLookupCache(final ObjectLookupCache lookupCache) {
+        Utils.nonNull(lookupCache, "lookupCache");
+        this.lookupCache = lookupCache;
+    }
+    
+    /** Index the (sub)objects parsed from an object in chunks as they are parsed, rather than
+     * parsing the entire object and then indexing all the parsed objects at once. At most
+     * chunkSize parsed objects are held in memory at a time, so memory use is bounded
+     * regardless of the number of sub objects in an object (e.g. the features of a large
+     * genome). Chunks may contain objects parsed by different parsing rules.
+     * 
+     * Each chunk is sent to the indexing storage in a separate set of requests, so smaller
+     * chunks mean more requests. If indexing a chunk fails after earlier chunks have been
+     * indexed, the object is partially indexed until the event is reprocessed.
+     * 
+     * When the pipeline is enabled, chunks are indexed by the parse stage and the index stage
+     * is skipped for new objects.
+     * 
+     * This method must be called before {@link #startIndexer()}.
+     * @param chunkSize the maximum number of parsed objects to index in one chunk.
+     */
+    public void setIndexChunkSize(final int chunkSize) {
+        checkAtLeastOne(chunkSize, "chunkSize");
+        this.indexChunkSize = chunkSize;
+    }
+    
+    /** Extract the keywords from the sub objects of an object in parallel, rather than one
+     * after the other on the thread parsing the object. The pool of threads is shared between
+     * all the event processors, so it bounds the total number of threads extracting keywords.
+     * The parsed objects are always indexed in the same order as the sub objects appear in the
+     * object.
+     * 
+     * This method must be called before {@link #startIndexer()}.
+     * @param threads the number of threads in the keyword extraction pool.
+     */
+    public void setKeywordThreads(final int threads) {
+        checkAtLeastOne(threads, "threads");
+        if (keywordPool != null) {
+            keywordPool.shutdown();
+        }
+        keywordPool = new ForkJoinPool(threads);
+    }
+    
+    private void checkAtLeastOne(final int value, final String name) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1");
+        }
+    }
+    
     public void startIndexer() {
         stopRunner = false;
+        if (loadThreads > 0) {
+            startPipeline();
+            return;
+        }
         //TODO TEST add a way to inject an executor for testing purposes
-        executor = Executors.newSingleThreadScheduledExecutor();
+        executor = Executors.newScheduledThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            schedule(new IndexerRunner(
+                    FileUtil.getOrCreateSubDir(rootTempDir, "processor_" + i)));
+        }
+    }
+    
+    private void schedule(final Runnable task) {
+        final WakeableRunner runner = new WakeableRunner(task);
+        if (notifier != null) {
+            notifier.addListener(() -> runner.wake(executor));
+        }
         // may want to make this configurable
-        executor.scheduleAtFixedRate(new IndexerRunner(), 0, 1000, TimeUnit.MILLISECONDS);
+        executor.scheduleAtFixedRate(runner, 0, 1000, TimeUnit.MILLISECONDS);
     }
     
+    /* Each runner claims and processes events independently, so multiple runners may be
+     * run concurrently. A runner is never run concurrently with itself (see WakeableRunner),
+     * and so its temp dir is never shared.
+     */
     private class IndexerRunner implements Runnable {
+        
+        private final File tempDir;
+        private final LinkedList<StoredStatusEvent> claimed = new LinkedList<>();
+        
+        private IndexerRunner(final File tempDir) {
+            this.tempDir = tempDir;
+        }
 
         @Override
         public void run() {
+            processorTempDir.set(tempDir);
             boolean processedEvent = true;
+            boolean processedAnyEvent = false;
             while (!stopRunner && processedEvent) {
                 processedEvent = false;
                 try {
                     // keep processing events until there are none left
-                    processedEvent = performOneTick();
+                    processedEvent = performOneTick(claimed);
+                    processedAnyEvent = processedAnyEvent || processedEvent;
+                    if (processedEvent) {
+                        flushIndexingPeriodically();
+                    }
                 } catch (InterruptedException | FatalIndexingException e) {
                     logError(ErrorType.FATAL, e);
                     executor.shutdown();
+                    releaseClaimedEvents(claimed);
                 } catch (Throwable e) {
                     logError(ErrorType.UNEXPECTED, e);
                 }
             }
+            if (stopRunner) {
+                releaseClaimedEvents(claimed);
+            }
+            if (processedAnyEvent) {
+                flushIndexing();
+            }
+        }
+    }
+    
+    /* claims more events if there are no previously claimed events waiting to be processed, and
+     * returns the next claimed event.
+     */
+    private Optional<StoredStatusEvent> nextEvent(final LinkedList<StoredStatusEvent> claimed)
+            throws InterruptedException, IndexingException {
+        if (claimed.isEmpty()) {
+            if (claimBatchSize == 1) {
+                final Optional<StoredStatusEvent> optEvent = retrier.retryFunc(
+                        s -> s.setAndGetProcessingState(StatusEventProcessingState.READY,
+                                workerCodes, StatusEventProcessingState.PROC, id),
+                        storage, null);
+                if (optEvent.isPresent()) {
+                    claimed.add(optEvent.get());
+                }
+            } else {
+                // the same lease for every retry, so events leased by a failed try are returned
+                final String lease = UUID.randomUUID().toString();
+                claimed.addAll(retrier.retryFunc(
+                        s -> s.setAndGetProcessingStates(StatusEventProcessingState.READY,
+                                workerCodes, StatusEventProcessingState.PROC, id, lease,
+                                claimBatchSize),
+                        storage, null));
+            }
         }
+        return Optional.fromNullable(claimed.poll());
+    }
+    
+    // returns claimed but unprocessed events to the ready state so other workers can claim them
+    private void releaseClaimedEvents(final LinkedList<StoredStatusEvent> claimed) {
+        while (!claimed.isEmpty()) {
+            final StoredStatusEvent ev = claimed.poll();
+            try {
+                storage.setProcessingState(ev.getId(), StatusEventProcessingState.PROC,
+                        StatusEventProcessingState.READY);
+            } catch (Exception e) {
+                logError(String.format("Unable to release claimed event %s %s",
+                        ev.getEvent().getEventType(), ev.getId().getId()), e);
+            }
+        }
+    }
+    
+    /* makes any writes that the indexing storage has deferred visible to searches and
+     * increments the storage generation. Called when the event queue is drained, and
+     * periodically while events are processed.
+     */
+    private void flushIndexing() {
+        lastFlush.set(System.currentTimeMillis());
+        try {
+            indexingStorage.flushIndexing();
+        } catch (Throwable e) {
+            logError(ErrorType.STD, e);
+        }
+        logLookupCacheStats();
+    }
+    
+    // flushes the indexing storage at most once per FLUSH_INTERVAL_MS
+    private void flushIndexingPeriodically() {
+        final long last = lastFlush.get();
+        final long now = System.currentTimeMillis();
+        if (now - last >= FLUSH_INTERVAL_MS && lastFlush.compareAndSet(last, now)) {
+            flushIndexing();
+        }
+    }
+    
+    // logs the lookup cache statistics at most once per LOOKUP_CACHE_LOG_INTERVAL_MS
+    private void logLookupCacheStats() {
+        final long last = lastCacheStatsLog.get();
+        final long now = System.currentTimeMillis();
+        if (now - last >= LOOKUP_CACHE_LOG_INTERVAL_MS &&
+                lastCacheStatsLog.compareAndSet(last, now)) {
+            logger.logInfo(String.format("Lookup cache hits/misses: references %s, " +
+                    "types %s, objects %s", formatStats(lookupCache.getReferenceStats()),
+                    formatStats(lookupCache.getTypeStats()),
+                    formatStats(lookupCache.getObjectStats())));
+        }
+    }
+    
+    private String formatStats(final CacheStats stats) {
+        return String.format("%s/%s", stats.hitCount(), stats.missCount());
     }
     
     @Override
@@ -166,9 +498,19 @@ public class IndexerWorker implements Stoppable {
         if (millisToWait < 0) {
             millisToWait = 0;
         }
+        final long end = System.currentTimeMillis() + millisToWait;
         stopRunner = true;
         executor.shutdown();
         executor.awaitTermination(millisToWait, TimeUnit.MILLISECONDS);
+        // shut down the pipeline stages in order so that events in flight can complete
+        for (final StageLanes stage: Arrays.asList(loadLanes, parseLanes, indexLanes)) {
+            if (stage != null) {
+                stage.shutdownAndWait(end);
+            }
+        }
+        if (keywordPool != null) {
+            keywordPool.shutdown();
+        }
 
         try {
             FileUtils.deleteDirectory(rootTempDir);
@@ -221,11 +563,9 @@ public class IndexerWorker implements Stoppable {
         logError(msg, e);
     }
     
-    private boolean performOneTick() throws InterruptedException, IndexingException {
-        final Optional<StoredStatusEvent> optEvent = retrier.retryFunc(
-                s -> s.setAndGetProcessingState(StatusEventProcessingState.READY, workerCodes,
-                        StatusEventProcessingState.PROC, id),
-                storage, null);
+    private boolean performOneTick(final LinkedList<StoredStatusEvent> claimed)
+            throws InterruptedException, IndexingException {
+        final Optional<StoredStatusEvent> optEvent = nextEvent(claimed);
         boolean processedEvent = false;
         if (optEvent.isPresent()) {
             final StoredStatusEvent parentEvent = optEvent.get();
@@ -406,6 +746,363 @@ public class IndexerWorker implements Stoppable {
         return eventHandlers.get(storageCode);
     }
 
+    /* *********************************************************************************
+     * Pipelined event processing.
+     * Events are claimed and expanded on a single dispatcher thread and then passed through
+     * the load, parse, and index stages. Each stage hands the event to the next stage when it
+     * completes. The final stage (or the stage where an error occurs) completes the event, which
+     * marks the event as processed in the event storage.
+     * Each stage thread is a lane with its own queue, and all the events for an object go
+     * through the same lane of each stage. Since a lane runs its events one at a time in the
+     * order they arrive, the versions of an object expanded from one event are loaded, parsed,
+     * and indexed in order and never concurrently.
+     * *********************************************************************************
+     */
+    
+    // blocks the submitting thread when a stage queue is full, providing backpressure
+    private static final RejectedExecutionHandler BLOCK_WHEN_FULL = (task, exec) -> {
+        if (exec.isShutdown()) {
+            throw new RejectedExecutionException("Pipeline stage is shut down");
+        }
+        try {
+            exec.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for stage queue", e);
+        }
+    };
+    
+    private void startPipeline() {
+        loadLanes = new StageLanes(loadThreads);
+        parseLanes = new StageLanes(parseThreads);
+        indexLanes = new StageLanes(indexThreads);
+        executor = Executors.newSingleThreadScheduledExecutor();
+        schedule(new PipelineDispatcher());
+    }
+    
+    // a pipeline stage with one single threaded executor, or lane, per thread.
+    private class StageLanes {
+        
+        private final List<ThreadPoolExecutor> lanes = new ArrayList<>();
+        
+        private StageLanes(final int threads) {
+            for (int i = 0; i < threads; i++) {
+                lanes.add(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(pipelineQueueSize), BLOCK_WHEN_FULL));
+            }
+        }
+        
+        // tasks with the same key run in the same lane in the order they were submitted
+        private void execute(final String key, final Runnable task) {
+            lanes.get(Math.floorMod(key.hashCode(), lanes.size())).execute(task);
+        }
+        
+        private void shutdownAndWait(final long endTimeMillis) throws InterruptedException {
+            for (final ThreadPoolExecutor lane: lanes) {
+                lane.shutdown();
+            }
+            for (final ThreadPoolExecutor lane: lanes) {
+                lane.awaitTermination(Math.max(0, endTimeMillis - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    private class PipelineDispatcher implements Runnable {
+        
+        private final LinkedList<StoredStatusEvent> claimed = new LinkedList<>();
+
+        @Override
+        public void run() {
+            boolean dispatchedEvent = true;
+            while (!stopRunner && dispatchedEvent) {
+                dispatchedEvent = false;
+                try {
+                    // keep dispatching events until there are none left
+                    dispatchedEvent = dispatchOneEvent(claimed);
+                } catch (InterruptedException | FatalIndexingException e) {
+                    shutdownOnFatalError(e);
+                } catch (Throwable e) {
+                    logError(ErrorType.UNEXPECTED, e);
+                }
+            }
+            if (stopRunner) {
+                releaseClaimedEvents(claimed);
+            }
+        }
+    }
+    
+    // stops claiming new events. Events already in the pipeline are allowed to complete.
+    private void shutdownOnFatalError(final Throwable e) {
+        logError(ErrorType.FATAL, e);
+        stopRunner = true;
+        executor.shutdown();
+    }
+    
+    private boolean dispatchOneEvent(final LinkedList<StoredStatusEvent> claimed)
+            throws InterruptedException, IndexingException {
+        final Optional<StoredStatusEvent> optEvent = nextEvent(claimed);
+        if (!optEvent.isPresent()) {
+            return false;
+        }
+        final StoredStatusEvent parentEvent = optEvent.get();
+        eventsInPipeline.incrementAndGet();
+        final EventHandler handler;
+        try {
+            handler = getEventHandler(parentEvent);
+        } catch (UnprocessableEventIndexingException e) {
+            logError(ErrorType.STD, e);
+            completeParentEvent(parentEvent, StatusEventProcessingState.FAIL);
+            return true;
+        }
+        if (handler.isExpandable(parentEvent)) {
+            expandIntoPipeline(parentEvent);
+        } else {
+            submitToPipeline(parentEvent, r -> completeParentEvent(parentEvent, r));
+        }
+        return true;
+    }
+    
+    private void completeParentEvent(
+            final StoredStatusEvent parentEvent,
+            final StatusEventProcessingState result) {
+        try {
+            markEventProcessed(parentEvent, result);
+        } catch (InterruptedException | FatalIndexingException e) {
+            shutdownOnFatalError(e);
+        } finally {
+            if (eventsInPipeline.decrementAndGet() == 0) {
+                // the pipeline is drained
+                flushIndexing();
+            } else {
+                flushIndexingPeriodically();
+            }
+        }
+    }
+    
+    /* tracks the completion of the child events of an expanded event. The parent event is
+     * completed when the expansion is complete and all the child events are complete.
+     */
+    private class ExpandedEvent {
+        
+        private final StoredStatusEvent parentEvent;
+        // starts at 1 to account for the expansion itself
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private volatile boolean failed = false;
+        
+        private ExpandedEvent(final StoredStatusEvent parentEvent) {
+            this.parentEvent = parentEvent;
+        }
+        
+        private void complete(final StatusEventProcessingState result) {
+            if (StatusEventProcessingState.FAIL.equals(result)) {
+                failed = true;
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                completeParentEvent(parentEvent, failed ?
+                        StatusEventProcessingState.FAIL : StatusEventProcessingState.INDX);
+            }
+        }
+    }
+    
+    private void expandIntoPipeline(final StoredStatusEvent parentEvent)
+            throws FatalIndexingException, InterruptedException {
+        logger.logInfo(String.format("[Indexer] Expanding event %s %s",
+                parentEvent.getEvent().getEventType(), parentEvent.getId().getId()));
+        final ExpandedEvent expanded = new ExpandedEvent(parentEvent);
+        final Iterator<ChildStatusEvent> childIter;
+        try {
+            childIter = retrier.retryFunc(e -> getSubEventIterator(e), parentEvent, parentEvent);
+        } catch (IndexingException e) {
+            handleException("Error expanding parent event", parentEvent, e);
+            expanded.complete(StatusEventProcessingState.FAIL);
+            return;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // don't know how to respond to anything else, so mark event failed and keep going
+            logError(ErrorType.UNEXPECTED, e);
+            expanded.complete(StatusEventProcessingState.FAIL);
+            return;
+        }
+        while (childIter.hasNext()) {
+            ChildStatusEvent subev = null;
+            try {
+                subev = retrier.retryFunc(i -> getNextSubEvent(i), childIter, parentEvent);
+            } catch (IndexingException e) {
+                handleException("Error getting event information from data storage",
+                        parentEvent, e);
+                expanded.failed = true;
+            }
+            if (subev != null) {
+                expanded.outstanding.incrementAndGet();
+                submitToPipeline(subev, r -> expanded.complete(r));
+            }
+        }
+        expanded.complete(StatusEventProcessingState.INDX);
+    }
+    
+    // the state of an event as it passes through the pipeline.
+    private class PipelineEvent {
+        
+        private final StatusEventWithId event;
+        // the lane key. All the versions of an object have the same key.
+        private final String objectKey;
+        private final Consumer<StatusEventProcessingState> onComplete;
+        private final long startTime = System.currentTimeMillis();
+        private File tempFile = null;
+        private SourceData data = null;
+        private final List<IndexingRequest> requests = new LinkedList<>();
+        
+        private PipelineEvent(
+                final StatusEventWithId event,
+                final Consumer<StatusEventProcessingState> onComplete) {
+            this.event = event;
+            final GUID guid = event.getEvent().toGUID();
+            this.objectKey = guid.getStorageCode() + ":" + guid.getAccessGroupId() + "/" +
+                    guid.getAccessGroupObjectId();
+            this.onComplete = onComplete;
+        }
+        
+        private void complete(final StatusEventProcessingState result) {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            /* if the data was mapped, the file's disk blocks aren't freed until the mapping is
+             * garbage collected, so drop the references to the data.
+             */
+            data = null;
+            requests.clear();
+            onComplete.accept(result);
+        }
+    }
+    
+    private interface PipelineStage {
+        
+        void run() throws InterruptedException, IndexingException;
+    }
+    
+    private void submitToPipeline(
+            final StatusEventWithId ev,
+            final Consumer<StatusEventProcessingState> onComplete) {
+        final PipelineEvent pe = new PipelineEvent(ev, onComplete);
+        if (StatusEventType.NEW_VERSION.equals(ev.getEvent().getEventType())) {
+            loadLanes.execute(pe.objectKey, () -> runStage(pe, () -> loadStage(pe)));
+        } else {
+            // no data to load or parse
+            indexLanes.execute(pe.objectKey,
+                    () -> runStage(pe, () -> pe.complete(processEvent(ev))));
+        }
+    }
+    
+    private void runStage(final PipelineEvent pe, final PipelineStage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException | FatalIndexingException e) {
+            // leave the event in the processing state, as the non-pipelined worker does
+            if (pe.tempFile != null) {
+                pe.tempFile.delete();
+            }
+            shutdownOnFatalError(e);
+        } catch (IndexingException e) {
+            final String msg = String.format("Error processing event for event %s %s%s",
+                    pe.event.getEvent().getEventType(),
+                    pe.event.isParentId() ? "with parent ID " : "",
+                    pe.event.getId().getId());
+            logError(msg, e);
+            pe.complete(StatusEventProcessingState.FAIL);
+        } catch (Throwable e) {
+            logError(ErrorType.UNEXPECTED, e);
+            pe.complete(StatusEventProcessingState.FAIL);
+        }
+    }
+    
+    private void loadStage(final PipelineEvent pe)
+            throws InterruptedException, IndexingException {
+        final StatusEventWithId ev = pe.event;
+        final Optional<StorageObjectType> type = ev.getEvent().getStorageObjectType();
+        if (type.isPresent() && !isStorageTypeSupported(ev)) {
+            logger.logInfo("[Indexer] skipping " + ev.getEvent().getEventType() + ", " + 
+                    toLogString(type) + ev.getEvent().toGUID());
+            pe.complete(StatusEventProcessingState.UNINDX);
+            return;
+        }
+        logger.logInfo("[Indexer] processing " + ev.getEvent().getEventType() + ", " + 
+                toLogString(type) + ev.getEvent().toGUID() + "...");
+        final GUID guid = ev.getEvent().toGUID();
+        if (retrier.retryFunc(g -> checkParentGuidExists(g), guid, ev)) {
+            /* already indexed, so just update the public state. Use the stage that indexes new
+             * objects so that this doesn't overtake later versions of the object.
+             */
+            final StageLanes stage = indexChunkSize > 0 ? parseLanes : indexLanes;
+            stage.execute(pe.objectKey, () -> runStage(pe, () -> {
+                retrier.retryCons(e -> processOneEvent(e), ev.getEvent(), ev);
+                pe.complete(StatusEventProcessingState.INDX);
+            }));
+            return;
+        }
+        final long t1 = System.currentTimeMillis();
+        pe.tempFile = retrier.retryFunc(g -> createTempFile(g), guid, ev);
+        pe.data = retrier.retryFunc(g -> getEventHandler(g).load(
+                Arrays.asList(g), pe.tempFile.toPath()), guid, ev);
+        final long loadTime = System.currentTimeMillis() - t1;
+        logger.logInfo("[Indexer]   " + guid + ", loading time: " + loadTime + " ms.");
+        logger.timeStat(guid, loadTime, 0, 0);
+        parseLanes.execute(pe.objectKey, () -> runStage(pe, () -> parseStage(pe)));
+    }
+    
+    private void parseStage(final PipelineEvent pe)
+            throws InterruptedException, IndexingException {
+        final StatusEvent ev = pe.event.getEvent();
+        final GUID guid = ev.toGUID();
+        final ObjectLookupProvider indexLookup = new MOPLookupProvider();
+        final LinkedList<GUID> refPath = new LinkedList<>(Arrays.asList(guid));
+        if (indexChunkSize > 0) {
+            parseAndIndexInChunks(guid, indexLookup, refPath, pe.data,
+                    typeStorage.listObjectTypeParsingRules(ev.getStorageObjectType().get()),
+                    ev.getTimestamp(), ev.isPublic().get());
+            logger.logInfo("[Indexer]   (total time: " +
+                    (System.currentTimeMillis() - pe.startTime) + "ms.)");
+            pe.complete(StatusEventProcessingState.INDX);
+            return;
+        }
+        final long t2 = System.currentTimeMillis();
+        final Map<ObjectTypeParsingRules, ParseObjectsRet> parsed = parseObjects(guid,
+                indexLookup, refPath, pe.data,
+                typeStorage.listObjectTypeParsingRules(ev.getStorageObjectType().get()));
+        final long parsingTime = System.currentTimeMillis() - t2;
+        logger.logInfo("[Indexer]   " + guid + ", parsing time: " + parsingTime + " ms.");
+        logger.timeStat(guid, 0, parsingTime, 0);
+        for (final ObjectTypeParsingRules rule: parsed.keySet()) {
+            final ParseObjectsRet parsedRet = parsed.get(rule);
+            pe.requests.add(new IndexingRequest(rule, pe.data, ev.getTimestamp(),
+                    parsedRet.parentJson, guid, parsedRet.guidToObj, ev.isPublic().get()));
+        }
+        indexLanes.execute(pe.objectKey, () -> runStage(pe, () -> indexStage(pe)));
+    }
+    
+    private void indexStage(final PipelineEvent pe)
+            throws InterruptedException, IndexingException {
+        final GUID guid = pe.event.getEvent().toGUID();
+        final long t3 = System.currentTimeMillis();
+        retrier.retryCons(r -> indexObjectsInStorage(r), pe.requests, pe.event);
+        final long indexTime = System.currentTimeMillis() - t3;
+        logger.logInfo("[Indexer]   " + guid + ", indexing time: " + indexTime + " ms.");
+        logger.timeStat(guid, 0, 0, indexTime);
+        logger.logInfo("[Indexer]   (total time: " +
+                (System.currentTimeMillis() - pe.startTime) + "ms.)");
+        pe.complete(StatusEventProcessingState.INDX);
+    }
+    
+    private void indexObjectsInStorage(final List<IndexingRequest> requests)
+            throws FatalRetriableIndexingException {
+        try {
+            indexingStorage.indexObjects(requests);
+        } catch (IOException e) {
+            throw new FatalRetriableIndexingException(e.getMessage(), e);
+        }
+    }
+    
     public void processOneEvent(final StatusEvent ev)
             throws IndexingException, InterruptedException, RetriableIndexingException {
         try {
@@ -501,13 +1198,7 @@ public class IndexerWorker implements Stoppable {
             final List<GUID> objectRefPath) 
             throws IndexingException, InterruptedException, RetriableIndexingException {
         long t1 = System.currentTimeMillis();
-        final File tempFile;
-        try {
-            FileUtil.getOrCreateSubDir(rootTempDir, guid.getStorageCode());
-            tempFile = File.createTempFile("ws_srv_response_", ".json");
-        } catch (IOException e) {
-            throw new FatalRetriableIndexingException(e.getMessage(), e);
-        }
+        final File tempFile = createTempFile(guid);
         if (indexLookup == null) {
             indexLookup = new MOPLookupProvider();
         }
@@ -522,26 +1213,43 @@ public class IndexerWorker implements Stoppable {
             logger.timeStat(guid, loadTime, 0, 0);
             final Set<ObjectTypeParsingRules> parsingRules = 
                     typeStorage.listObjectTypeParsingRules(storageObjectType);
+            if (indexChunkSize > 0) {
+                parseAndIndexInChunks(guid, indexLookup, newRefPath, obj, parsingRules,
+                        timestamp, isPublic);
+                return;
+            }
+            final long t2 = System.currentTimeMillis();
+            final Map<ObjectTypeParsingRules, ParseObjectsRet> parsed = parseObjects(guid,
+                    indexLookup, newRefPath, obj, parsingRules);
+            long parsingTime = System.currentTimeMillis() - t2;
+            logger.logInfo("[Indexer]   " + guid + ", parsing time: " + parsingTime + " ms.");
+            logger.timeStat(guid, 0, parsingTime, 0);
             for (final ObjectTypeParsingRules rule : parsingRules) {
-                final long t2 = System.currentTimeMillis();
-                final ParseObjectsRet parsedRet = parseObjects(guid, indexLookup,
-                        newRefPath, obj, rule);
-                long parsingTime = System.currentTimeMillis() - t2;
-                logger.logInfo("[Indexer]   " + toVerRep(rule.getGlobalObjectType()) +
-                        ", parsing time: " + parsingTime + " ms.");
+                final ParseObjectsRet parsedRet = parsed.get(rule);
                 long t3 = System.currentTimeMillis();
                 indexObjectInStorage(guid, timestamp, isPublic, obj, rule,
                         parsedRet.guidToObj, parsedRet.parentJson);
                 long indexTime = System.currentTimeMillis() - t3;
                 logger.logInfo("[Indexer]   " + toVerRep(rule.getGlobalObjectType()) +
                         ", indexing time: " + indexTime + " ms.");
-                logger.timeStat(guid, 0, parsingTime, indexTime);
+                logger.timeStat(guid, 0, 0, indexTime);
             }
         } finally {
             tempFile.delete();
         }
     }
 
+    private File createTempFile(final GUID guid) throws FatalRetriableIndexingException {
+        final File tempDir = processorTempDir.get() == null ?
+                rootTempDir : processorTempDir.get();
+        try {
+            return File.createTempFile("ws_srv_response_", ".json",
+                    FileUtil.getOrCreateSubDir(tempDir, guid.getStorageCode()));
+        } catch (IOException e) {
+            throw new FatalRetriableIndexingException(e.getMessage(), e);
+        }
+    }
+
     private String toVerRep(final SearchObjectType globalObjectType) {
         return globalObjectType.getType() + "_" + globalObjectType.getVersion();
     }
@@ -578,6 +1286,24 @@ public class IndexerWorker implements Stoppable {
         }
     }
 
+    private Map<GUID, Boolean> checkParentGuidsExist(final Set<GUID> guids)
+            throws RetriableIndexingException {
+        try {
+            return indexingStorage.checkParentGuidsExist(guids);
+        } catch (IOException e) {
+            throw new RetriableIndexingException(e.getMessage(), e);
+        }
+    }
+
+    private boolean checkParentGuidExists(final GUID guid) throws RetriableIndexingException {
+        try {
+            return indexingStorage.checkParentGuidsExist(new HashSet<>(Arrays.asList(guid)))
+                    .get(guid);
+        } catch (IOException e) {
+            throw new RetriableIndexingException(e.getMessage(), e);
+        }
+    }
+
     private class ParseObjectsRet {
         public final String parentJson;
         public final Map<GUID, ParsedObject> guidToObj;
@@ -588,18 +1314,21 @@ public class IndexerWorker implements Stoppable {
         }
     }
     
-    private ParseObjectsRet parseObjects(
+    /* Parses the object for all the parsing rules at once so that the object data is only
+     * read and tokenized once, no matter how many search types the storage type maps to.
+     */
+    private Map<ObjectTypeParsingRules, ParseObjectsRet> parseObjects(
             final GUID guid,
             final ObjectLookupProvider indexLookup,
             final LinkedList<GUID> newRefPath,
             final SourceData obj,
-            final ObjectTypeParsingRules rule)
+            final Collection<ObjectTypeParsingRules> rules)
             throws IndexingException, InterruptedException {
-        final List<?> inputs = Arrays.asList(guid, indexLookup, newRefPath, obj, rule);
+        final List<?> inputs = Arrays.asList(guid, indexLookup, newRefPath, obj, rules);
         return retrier.retryFunc(i -> parseObjects(i), inputs, null);
     }
     
-    private ParseObjectsRet parseObjects(final List<?> inputs)
+    private Map<ObjectTypeParsingRules, ParseObjectsRet> parseObjects(final List<?> inputs)
             throws IndexingException, FatalRetriableIndexingException, InterruptedException {
         // should really wrap these in a class, but meh for now
         final GUID guid = (GUID) inputs.get(0);
@@ -607,21 +1336,27 @@ public class IndexerWorker implements Stoppable {
         @SuppressWarnings("unchecked")
         final List<GUID> newRefPath = (List<GUID>) inputs.get(2);
         final SourceData obj = (SourceData) inputs.get(3);
-        final ObjectTypeParsingRules rule = (ObjectTypeParsingRules) inputs.get(4);
+        @SuppressWarnings("unchecked")
+        final Collection<ObjectTypeParsingRules> rules =
+                (Collection<ObjectTypeParsingRules>) inputs.get(4);
 
-        final Map<GUID, ParsedObject> guidToObj = new HashMap<>();
-        final String parentJson;
+        final List<ExtractionPlan> plans = new ArrayList<>();
+        for (final ObjectTypeParsingRules rule: rules) {
+            plans.add(typeStorage.getExtractionPlan(rule));
+        }
+        final Map<ObjectTypeParsingRules, ParseObjectsRet> ret = new LinkedHashMap<>();
         try {
-            try (JsonParser jts = obj.getData().getPlacedStream()) {
-                parentJson = ObjectParser.extractParentFragment(rule, jts);
-            }
-            final Map<GUID, String> guidToJson = ObjectParser.parseSubObjects(
-                    obj, guid, rule);
-            for (final GUID subGuid : guidToJson.keySet()) {
-                final String json = guidToJson.get(subGuid);
-                guidToObj.put(subGuid, KeywordParser.extractKeywords(
-                        rule.getGlobalObjectType(), json, parentJson,
-                        rule.getIndexingRules(), indexLookup, newRefPath));
+            final long t1 = System.currentTimeMillis();
+            final Map<ObjectTypeParsingRules, ExtractedObject> extracted =
+                    ObjectParser.parseObjects(obj, guid, plans);
+            logger.logInfo("[Indexer]   " + guid + ", extraction time: " +
+                    (System.currentTimeMillis() - t1) + " ms.");
+            for (final ExtractionPlan plan: plans) {
+                final ObjectTypeParsingRules rule = plan.getParsingRules().get();
+                final ExtractedObject ex = extracted.get(rule);
+                final Map<GUID, ParsedObject> guidToObj = extractKeywords(plan,
+                        ex.getSubObjects(), ex.getParentData(), indexLookup, newRefPath);
+                ret.put(rule, new ParseObjectsRet(ex.getParentJson(), guidToObj));
             }
             /* any errors here are due to file IO or parse exceptions.
              * Parse exceptions are def not retriable
@@ -633,7 +1368,245 @@ public class IndexerWorker implements Stoppable {
         } catch (IOException e) {
             throw new FatalRetriableIndexingException(e.getMessage(), e);
         }
-        return new ParseObjectsRet(parentJson, guidToObj);
+        return ret;
+    }
+    
+    /* Extracts the keywords from a set of sub objects parsed from the same object. The lookups
+     * needed by the transforms are made for all the sub objects at once before any keywords
+     * are extracted, so sub objects that refer to the same objects don't each make their own
+     * requests to the data source and the indexing storage.
+     */
+    private Map<GUID, ParsedObject> extractKeywords(
+            final ExtractionPlan plan,
+            final Map<GUID, TokenBuffer> subObjects,
+            final TokenBuffer parentData,
+            final ObjectLookupProvider indexLookup,
+            final List<GUID> refPath)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        final ObjectLookupProvider lookup = KeywordParser.prefetchLookups(
+                plan, subObjects.values(), parentData, indexLookup, refPath);
+        final Map<GUID, ParsedObject> guidToObj = new LinkedHashMap<>();
+        final Map<GUID, ForkJoinTask<ParsedObject>> tasks = new LinkedHashMap<>();
+        final boolean parallel = isKeywordExtractionParallel();
+        try {
+            for (final GUID subGuid : subObjects.keySet()) {
+                if (!parallel) {
+                    guidToObj.put(subGuid, KeywordParser.extractKeywords(plan,
+                            subObjects.get(subGuid), parentData, lookup, refPath));
+                } else {
+                    tasks.put(subGuid, submitKeywordExtraction(plan,
+                            subObjects.get(subGuid), parentData, lookup, refPath));
+                }
+            }
+            for (final GUID subGuid: tasks.keySet()) {
+                guidToObj.put(subGuid, getKeywords(tasks.get(subGuid)));
+            }
+        } finally {
+            cancel(tasks.values());
+        }
+        return guidToObj;
+    }
+    
+    /* Objects referenced by the object being parsed may be indexed from a lookup made during
+     * keyword extraction, which runs in the keyword pool. Keywords for those objects are
+     * extracted serially, so that pool threads never wait on other pool threads, and a pool
+     * thread resolving references (see MOPLookupProvider.resolveAndIndex()) never waits on
+     * work that needs the reference resolution lock.
+     */
+    private boolean isKeywordExtractionParallel() {
+        return keywordPool != null && !ForkJoinTask.inForkJoinPool();
+    }
+    
+    private ForkJoinTask<ParsedObject> submitKeywordExtraction(
+            final ExtractionPlan plan,
+            final TokenBuffer subObject,
+            final TokenBuffer parentData,
+            final ObjectLookupProvider indexLookup,
+            final List<GUID> refPath) {
+        return keywordPool.submit(() -> KeywordParser.extractKeywords(
+                plan, subObject, parentData, indexLookup, refPath));
+    }
+    
+    // rethrows any exception thrown by the extraction
+    private ParsedObject getKeywords(final ForkJoinTask<ParsedObject> task)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ObjectParseException) {
+                throw (ObjectParseException) cause;
+            } else if (cause instanceof IndexingException) {
+                throw (IndexingException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unexpected exception extracting keywords", cause);
+        }
+    }
+    
+    // stops any extractions that are no longer needed, e.g. after an error
+    private void cancel(final Collection<ForkJoinTask<ParsedObject>> tasks) {
+        for (final ForkJoinTask<ParsedObject> task: tasks) {
+            task.cancel(false);
+        }
+    }
+    
+    private void parseAndIndexInChunks(
+            final GUID guid,
+            final ObjectLookupProvider indexLookup,
+            final List<GUID> refPath,
+            final SourceData obj,
+            final Collection<ObjectTypeParsingRules> rules,
+            final Instant timestamp,
+            final boolean isPublic)
+            throws IndexingException, InterruptedException {
+        final List<ExtractionPlan> plans = new ArrayList<>();
+        for (final ObjectTypeParsingRules rule: rules) {
+            plans.add(typeStorage.getExtractionPlan(rule));
+        }
+        final ChunkedIndexer indexer = new ChunkedIndexer(
+                guid, indexLookup, refPath, obj, plans, timestamp, isPublic);
+        final long t1 = System.currentTimeMillis();
+        retrier.retryCons(i -> i.run(), indexer, null);
+        final long totalTime = System.currentTimeMillis() - t1;
+        logger.logInfo("[Indexer]   " + guid + ", parsing time: " +
+                (totalTime - indexer.indexTime) + " ms, indexing time: " + indexer.indexTime +
+                " ms, objects: " + indexer.objectCount + ", chunks: " + indexer.chunkCount +
+                ".");
+        logger.timeStat(guid, 0, totalTime - indexer.indexTime, indexer.indexTime);
+    }
+    
+    /* Parses an object and indexes the parsed objects in chunks of at most indexChunkSize
+     * objects as they are parsed. Each run starts from scratch so that the run may be retried.
+     */
+    private class ChunkedIndexer implements ExtractedObjectHandler {
+        
+        private final GUID guid;
+        private final ObjectLookupProvider indexLookup;
+        private final List<GUID> refPath;
+        private final SourceData obj;
+        private final List<ExtractionPlan> plans;
+        private final Instant timestamp;
+        private final boolean isPublic;
+        
+        /* keywords are extracted from the whole chunk at once when the chunk is indexed, so
+         * that the lookups for the chunk can be batched. The handler owns the buffers handed
+         * to handle(), so they may be read afterwards.
+         */
+        private final Map<ObjectTypeParsingRules, Map<GUID, TokenBuffer>> chunk =
+                new LinkedHashMap<>();
+        private final Map<ObjectTypeParsingRules, ExtractionPlan> rulePlans = new HashMap<>();
+        private final Map<ObjectTypeParsingRules, TokenBuffer> parentData = new HashMap<>();
+        private final Map<ObjectTypeParsingRules, String> parentJson = new HashMap<>();
+        private final Set<ObjectTypeParsingRules> hasObjects = new HashSet<>();
+        private int chunkObjects = 0;
+        private int objectCount = 0;
+        private int chunkCount = 0;
+        private long indexTime = 0;
+        
+        private ChunkedIndexer(
+                final GUID guid,
+                final ObjectLookupProvider indexLookup,
+                final List<GUID> refPath,
+                final SourceData obj,
+                final List<ExtractionPlan> plans,
+                final Instant timestamp,
+                final boolean isPublic) {
+            this.guid = guid;
+            this.indexLookup = indexLookup;
+            this.refPath = refPath;
+            this.obj = obj;
+            this.plans = plans;
+            this.timestamp = timestamp;
+            this.isPublic = isPublic;
+        }
+        
+        private void run()
+                throws IndexingException, InterruptedException, FatalRetriableIndexingException {
+            chunk.clear();
+            rulePlans.clear();
+            parentData.clear();
+            parentJson.clear();
+            hasObjects.clear();
+            chunkObjects = 0;
+            objectCount = 0;
+            chunkCount = 0;
+            indexTime = 0;
+            for (final ExtractionPlan plan: plans) {
+                rulePlans.put(plan.getParsingRules().get(), plan);
+            }
+            try {
+                final Map<ObjectTypeParsingRules, TokenBuffer> allParentData =
+                        ObjectParser.streamObjects(obj, guid, plans, this);
+                for (final ObjectTypeParsingRules rule: allParentData.keySet()) {
+                    if (!hasObjects.contains(rule)) {
+                        // no search objects were parsed, so just index the general object info
+                        chunk.put(rule, new HashMap<>());
+                        parentJson.put(rule, allParentData.get(rule) == null ?
+                                null : JsonTokenUtil.toJson(allParentData.get(rule)));
+                    }
+                }
+                indexChunk();
+            } catch (ObjectParseException e) {
+                // as parseObjects()
+                throw new UnprocessableEventIndexingException(e.getMessage(), e);
+            } catch (IOException e) {
+                throw new FatalRetriableIndexingException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void handle(
+                final ExtractionPlan plan,
+                final GUID subGuid,
+                final TokenBuffer subObject,
+                final TokenBuffer parentData)
+                throws IOException, ObjectParseException, IndexingException,
+                    InterruptedException {
+            final ObjectTypeParsingRules rule = plan.getParsingRules().get();
+            if (!parentJson.containsKey(rule)) {
+                this.parentData.put(rule, parentData);
+                parentJson.put(rule, parentData == null ?
+                        null : JsonTokenUtil.toJson(parentData));
+            }
+            hasObjects.add(rule);
+            if (!chunk.containsKey(rule)) {
+                chunk.put(rule, new LinkedHashMap<>());
+            }
+            chunk.get(rule).put(subGuid, subObject);
+            objectCount++;
+            if (++chunkObjects >= indexChunkSize) {
+                indexChunk();
+            }
+        }
+        
+        private void indexChunk()
+                throws IOException, ObjectParseException, IndexingException,
+                    InterruptedException {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            final List<IndexingRequest> requests = new LinkedList<>();
+            for (final ObjectTypeParsingRules rule: chunk.keySet()) {
+                final Map<GUID, ParsedObject> guidToObj = extractKeywords(rulePlans.get(rule),
+                        chunk.get(rule), parentData.get(rule), indexLookup, refPath);
+                requests.add(new IndexingRequest(rule, obj, timestamp, parentJson.get(rule),
+                        guid, guidToObj, isPublic));
+            }
+            final long t1 = System.currentTimeMillis();
+            retrier.retryCons(r -> indexObjectsInStorage(r), requests, null);
+            indexTime += System.currentTimeMillis() - t1;
+            chunkCount++;
+            chunk.clear();
+            chunkObjects = 0;
+        }
     }
     
 //    private void share(GUID guid, int accessGroupId) throws IOException {
@@ -679,15 +1652,20 @@ public class IndexerWorker implements Stoppable {
      *
      */
     private class MOPLookupProvider implements ObjectLookupProvider {
-        // storage code -> full ref path -> resolved guid
-        private Map<String, Map<String, GUID>> refResolvingCache = new LinkedHashMap<>();
-        private Map<GUID, kbasesearchengine.search.ObjectData> objLookupCache =
-                new LinkedHashMap<>();
-        private Map<GUID, SearchObjectType> guidToTypeCache = new LinkedHashMap<>();
+        
+        /* lookups are cached in the worker wide lookup cache, and so are shared across
+         * events and processors. The cache is thread safe, and so is this provider.
+         */
         
         @Override
         public Set<GUID> resolveRefs(List<GUID> callerRefPath, Set<GUID> refs)
                 throws IndexingException, InterruptedException {
+            return new LinkedHashSet<>(resolveRefsToMap(callerRefPath, refs).values());
+        }
+        
+        @Override
+        public Map<GUID, GUID> resolveRefsToMap(List<GUID> callerRefPath, Set<GUID> refs)
+                throws IndexingException, InterruptedException {
             /* the caller ref path 1) ensures that the object refs are valid when checked against
              * the source, and 2) allows getting deleted objects with incoming references 
              * in the case of the workspace
@@ -698,46 +1676,69 @@ public class IndexerWorker implements Stoppable {
             // doing it the dumb way for now.
             final EventHandler eh = getEventHandler(callerRefPath.get(0));
             final String storageCode = eh.getStorageCode();
-            if (!refResolvingCache.containsKey(storageCode)) {
-                refResolvingCache.put(storageCode, new HashMap<>());
-            }
             final Map<GUID, String> refToRefPath = eh.buildReferencePaths(callerRefPath, refs);
-            Set<GUID> ret = new LinkedHashSet<>();
+            final Map<GUID, GUID> ret = new LinkedHashMap<>();
             Set<GUID> refsToResolve = new LinkedHashSet<>();
             for (final GUID ref : refs) {
-                final String refpath = refToRefPath.get(ref);
-                if (refResolvingCache.get(storageCode).containsKey(refpath)) {
-                    ret.add(refResolvingCache.get(storageCode).get(refpath));
+                final Optional<GUID> resolved = lookupCache.getResolvedReference(
+                        storageCode, refToRefPath.get(ref));
+                if (resolved.isPresent()) {
+                    ret.put(ref, resolved.get());
                 } else {
                     refsToResolve.add(ref);
                 }
             }
             if (refsToResolve.size() > 0) {
-                final Set<ResolvedReference> resrefs =
-                        resolveReferences(eh, callerRefPath, refsToResolve);
-                for (final ResolvedReference rr: resrefs) {
-                    final GUID guid = rr.getResolvedReference();
-                    final boolean indexed = retrier.retryFunc(
-                            g -> checkParentGuidExists(g), guid, null);
-                    if (!indexed) {
-                        indexObjectWrapperFn(guid, rr.getType(), rr.getTimestamp(), false,
-                                this, callerRefPath);
-                    }
-                    ret.add(guid);
-                    refResolvingCache.get(storageCode)
-                            .put(refToRefPath.get(rr.getReference()), guid);
-                }
+                ret.putAll(resolveAndIndex(eh, callerRefPath, refsToResolve, refToRefPath));
             }
             return ret;
         }
         
-        private boolean checkParentGuidExists(final GUID guid) throws RetriableIndexingException {
-            try {
-                return indexingStorage.checkParentGuidsExist(new HashSet<>(Arrays.asList(guid)))
-                        .get(guid);
-            } catch (IOException e) {
-                throw new RetriableIndexingException(e.getMessage(), e);
+        /* keywords may be extracted from several sub objects at once, so only resolve and
+         * index references one thread at a time to avoid indexing a referenced object
+         * more than once. References resolved by another thread while waiting are in the
+         * cache.
+         */
+        private synchronized Map<GUID, GUID> resolveAndIndex(
+                final EventHandler eh,
+                final List<GUID> callerRefPath,
+                final Set<GUID> refs,
+                final Map<GUID, String> refToRefPath)
+                throws IndexingException, InterruptedException {
+            final String storageCode = eh.getStorageCode();
+            final Map<GUID, GUID> ret = new LinkedHashMap<>();
+            final Set<GUID> refsToResolve = new LinkedHashSet<>();
+            for (final GUID ref : refs) {
+                final Optional<GUID> resolved = lookupCache.getResolvedReference(
+                        storageCode, refToRefPath.get(ref));
+                if (resolved.isPresent()) {
+                    ret.put(ref, resolved.get());
+                } else {
+                    refsToResolve.add(ref);
+                }
+            }
+            if (refsToResolve.isEmpty()) {
+                return ret;
             }
+            final Set<ResolvedReference> resrefs =
+                    resolveReferences(eh, callerRefPath, refsToResolve);
+            // check all the resolved objects at once rather than one request per object
+            final Set<GUID> resolvedGuids = resrefs.stream()
+                    .map(rr -> rr.getResolvedReference()).collect(Collectors.toSet());
+            final Map<GUID, Boolean> indexed = resolvedGuids.isEmpty() ?
+                    Collections.emptyMap() :
+                    retrier.retryFunc(g -> checkParentGuidsExist(g), resolvedGuids, null);
+            for (final ResolvedReference rr: resrefs) {
+                final GUID guid = rr.getResolvedReference();
+                if (!Boolean.TRUE.equals(indexed.get(guid))) {
+                    indexObjectWrapperFn(guid, rr.getType(), rr.getTimestamp(), false,
+                            this, callerRefPath);
+                }
+                ret.put(rr.getReference(), guid);
+                lookupCache.putResolvedReference(
+                        storageCode, refToRefPath.get(rr.getReference()), guid);
+            }
+            return ret;
         }
         
         private Set<ResolvedReference> resolveReferences(
@@ -790,11 +1791,13 @@ public class IndexerWorker implements Stoppable {
         public Map<GUID, kbasesearchengine.search.ObjectData> lookupObjectsByGuid(
                 final Set<GUID> guids)
                 throws InterruptedException, IndexingException {
+            final Map<GUID, kbasesearchengine.search.ObjectData> cached =
+                    lookupCache.getObjects(guids);
             Map<GUID, kbasesearchengine.search.ObjectData> ret = new LinkedHashMap<>();
             Set<GUID> guidsToLoad = new LinkedHashSet<>();
             for (GUID guid : guids) {
-                if (objLookupCache.containsKey(guid)) {
-                    ret.put(guid, objLookupCache.get(guid));
+                if (cached.containsKey(guid)) {
+                    ret.put(guid, cached.get(guid));
                 } else {
                     guidsToLoad.add(guid);
                 }
@@ -805,7 +1808,11 @@ public class IndexerWorker implements Stoppable {
                 Map<GUID, kbasesearchengine.search.ObjectData> loaded = 
                         objList.stream().collect(Collectors.toMap(od -> od.getGUID(),
                                 Function.identity()));
-                objLookupCache.putAll(loaded);
+                lookupCache.putObjects(loaded);
+                // the objects carry their types, so save a later request for the types
+                lookupCache.putTypes(loaded.values().stream()
+                        .filter(od -> od.getType().isPresent())
+                        .collect(Collectors.toMap(od -> od.getGUID(), od -> od.getType().get())));
                 ret.putAll(loaded);
             }
             return ret;
@@ -834,11 +1841,12 @@ public class IndexerWorker implements Stoppable {
         @Override
         public Map<GUID, SearchObjectType> getTypesForGuids(Set<GUID> guids)
                 throws InterruptedException, IndexingException {
+            final Map<GUID, SearchObjectType> cached = lookupCache.getTypes(guids);
             Map<GUID, SearchObjectType> ret = new LinkedHashMap<>();
             Set<GUID> guidsToLoad = new LinkedHashSet<>();
             for (GUID guid : guids) {
-                if (guidToTypeCache.containsKey(guid)) {
-                    ret.put(guid, guidToTypeCache.get(guid));
+                if (cached.containsKey(guid)) {
+                    ret.put(guid, cached.get(guid));
                 } else {
                     guidsToLoad.add(guid);
                 }
@@ -848,7 +1856,7 @@ public class IndexerWorker implements Stoppable {
                         retrier.retryFunc(g -> getObjectsByIds(g), guidsToLoad, null);
                 final Map<GUID, SearchObjectType> loaded = data.stream()
                         .collect(Collectors.toMap(od -> od.getGUID(), od -> od.getType().get()));
-                guidToTypeCache.putAll(loaded);
+                lookupCache.putTypes(loaded);
                 ret.putAll(loaded);
             }
             return ret;
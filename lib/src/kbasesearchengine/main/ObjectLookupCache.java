@@ -0,0 +1,221 @@
+package kbasesearchengine.main;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.tools.Utils;
+
+/** A cache for the results of the lookups performed by the indexer worker while parsing
+ * objects, namely resolved references, the search types of objects, and the indexed data for
+ * objects. The cache is thread safe and is intended to be shared by all the event processors in
+ * a worker, so that objects referenced by many other objects, e.g. an assembly referenced by
+ * many genomes, are only looked up once per cache lifetime.
+ * 
+ * Each of the three kinds of lookups is cached separately, with each cache limited to the
+ * provided maximum size. Indexed objects vary widely in size, so in the object data cache an
+ * object counts as one entry for every {@link #OBJECT_ENTRY_CHARS} characters of its name and
+ * key properties. The object data itself isn't counted, so objects should be cached without
+ * their data, as the worker does. Entries expire after the provided lifetime so that changes
+ * to the source or indexed data are eventually seen.
+ */
+public class ObjectLookupCache {
+    
+    /** The default lifetime of a cache entry in seconds. */
+    public static final int DEFAULT_LIFETIME_SEC = 300;
+    /** The default maximum number of entries in each of the caches. */
+    public static final int DEFAULT_SIZE = 10000;
+    /** The number of characters of object name and key properties that count as one entry in
+     * the object data cache.
+     */
+    public static final int OBJECT_ENTRY_CHARS = 1000;
+    
+    // (storage code, full ref path) -> resolved guid
+    private final Cache<RefPath, GUID> refs;
+    private final Cache<GUID, SearchObjectType> types;
+    private final Cache<GUID, ObjectData> objects;
+    
+    /** Create a cache.
+     * @param cacheLifeTimeInSec the number of seconds a lookup result should remain in the
+     * cache.
+     * @param cacheSize the maximum number of entries in each cache.
+     */
+    public ObjectLookupCache(final int cacheLifeTimeInSec, final int cacheSize) {
+        this(cacheLifeTimeInSec, cacheSize, Ticker.systemTicker());
+    }
+    
+    /** Create a cache for testing purposes.
+     * @param cacheLifeTimeInSec the number of seconds a lookup result should remain in the
+     * cache.
+     * @param cacheSize the maximum number of entries in each cache.
+     * @param ticker a ticker implementation that allows controlling cache expiration with the
+     * provided ticker rather than waiting for the system clock. This is exposed for testing
+     * purposes.
+     */
+    public ObjectLookupCache(
+            final int cacheLifeTimeInSec,
+            final int cacheSize,
+            final Ticker ticker) {
+        Utils.nonNull(ticker, "ticker");
+        if (cacheLifeTimeInSec < 1) {
+            throw new IllegalArgumentException("cache lifetime must be at least one second");
+        }
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cache size must be at least one");
+        }
+        refs = build(cacheLifeTimeInSec, cacheSize, ticker);
+        types = build(cacheLifeTimeInSec, cacheSize, ticker);
+        objects = builder(cacheLifeTimeInSec, ticker)
+                .maximumWeight(cacheSize)
+                .weigher((final GUID g, final ObjectData od) -> weigh(od))
+                .build();
+    }
+    
+    private static <K, V> Cache<K, V> build(
+            final int cacheLifeTimeInSec,
+            final int cacheSize,
+            final Ticker ticker) {
+        return builder(cacheLifeTimeInSec, ticker).maximumSize(cacheSize).build();
+    }
+    
+    private static CacheBuilder<Object, Object> builder(
+            final int cacheLifeTimeInSec,
+            final Ticker ticker) {
+        return CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(cacheLifeTimeInSec, TimeUnit.SECONDS)
+                .recordStats();
+    }
+    
+    // the number of entries an object counts as in the object data cache
+    private static int weigh(final ObjectData od) {
+        long chars = od.getObjectName().isPresent() ? od.getObjectName().get().length() : 0;
+        for (final Map.Entry<String, String> e: od.getKeyProperties().entrySet()) {
+            chars += e.getKey().length() + (e.getValue() == null ? 0 : e.getValue().length());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, 1 + chars / OBJECT_ENTRY_CHARS);
+    }
+    
+    private static class RefPath {
+        
+        private final String storageCode;
+        private final String refPath;
+
+        private RefPath(final String storageCode, final String refPath) {
+            Utils.notNullOrEmpty(storageCode, "storageCode cannot be null or whitespace only");
+            Utils.notNullOrEmpty(refPath, "refPath cannot be null or whitespace only");
+            this.storageCode = storageCode;
+            this.refPath = refPath;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + refPath.hashCode();
+            result = prime * result + storageCode.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final RefPath other = (RefPath) obj;
+            return refPath.equals(other.refPath) && storageCode.equals(other.storageCode);
+        }
+    }
+    
+    /** Get a resolved reference from the cache.
+     * @param storageCode the storage code of the data source containing the reference.
+     * @param refPath the full reference path, from the referencing object to the target of the
+     * reference, in the data source's format.
+     * @return the GUID of the target of the reference, or absent if the reference is not
+     * cached.
+     */
+    public Optional<GUID> getResolvedReference(final String storageCode, final String refPath) {
+        return Optional.fromNullable(refs.getIfPresent(new RefPath(storageCode, refPath)));
+    }
+    
+    /** Add a resolved reference to the cache.
+     * @param storageCode the storage code of the data source containing the reference.
+     * @param refPath the full reference path, from the referencing object to the target of the
+     * reference, in the data source's format.
+     * @param guid the GUID of the target of the reference.
+     */
+    public void putResolvedReference(
+            final String storageCode,
+            final String refPath,
+            final GUID guid) {
+        Utils.nonNull(guid, "guid");
+        refs.put(new RefPath(storageCode, refPath), guid);
+    }
+    
+    /** Get the search types for a set of objects from the cache.
+     * @param guids the GUIDs of the objects.
+     * @return a mapping of GUID to type for the objects that are in the cache.
+     */
+    public Map<GUID, SearchObjectType> getTypes(final Set<GUID> guids) {
+        Utils.nonNull(guids, "guids");
+        return types.getAllPresent(guids);
+    }
+    
+    /** Add search types for objects to the cache.
+     * @param guidToType a mapping of object GUID to search type.
+     */
+    public void putTypes(final Map<GUID, SearchObjectType> guidToType) {
+        Utils.nonNull(guidToType, "guidToType");
+        types.putAll(guidToType);
+    }
+    
+    /** Get indexed data for a set of objects from the cache.
+     * @param guids the GUIDs of the objects.
+     * @return a mapping of GUID to data for the objects that are in the cache.
+     */
+    public Map<GUID, ObjectData> getObjects(final Set<GUID> guids) {
+        Utils.nonNull(guids, "guids");
+        return objects.getAllPresent(guids);
+    }
+    
+    /** Add indexed data for objects to the cache.
+     * @param guidToData a mapping of object GUID to indexed data.
+     */
+    public void putObjects(final Map<GUID, ObjectData> guidToData) {
+        Utils.nonNull(guidToData, "guidToData");
+        objects.putAll(guidToData);
+    }
+    
+    /** Get hit and miss statistics for the resolved reference cache.
+     * @return the statistics.
+     */
+    public CacheStats getReferenceStats() {
+        return refs.stats();
+    }
+    
+    /** Get hit and miss statistics for the object type cache.
+     * @return the statistics.
+     */
+    public CacheStats getTypeStats() {
+        return types.stats();
+    }
+    
+    /** Get hit and miss statistics for the object data cache.
+     * @return the statistics.
+     */
+    public CacheStats getObjectStats() {
+        return objects.stats();
+    }
+}
@@ -2,6 +2,7 @@ package kbasesearchengine.main;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -32,6 +33,7 @@ import kbasesearchengine.SortingRule;
 import kbasesearchengine.TypeDescriptor;
 import kbasesearchengine.authorization.AccessGroupProvider;
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.search.ContinuationToken;
 import kbasesearchengine.search.FoundHits;
 import kbasesearchengine.search.IndexingStorage;
 import kbasesearchengine.system.IndexingRules;
@@ -181,9 +183,15 @@ public class SearchMethods {
         return ret;
     }
 
-    private kbasesearchengine.search.Pagination toSearch(Pagination pg) {
-        return pg == null ? null : new kbasesearchengine.search.Pagination(
-                toInteger(pg.getStart()), toInteger(pg.getCount()));
+    private kbasesearchengine.search.Pagination toSearch(Pagination pg, String token) {
+        if (token == null) {
+            return pg == null ? null : new kbasesearchengine.search.Pagination(
+                    toInteger(pg.getStart()), toInteger(pg.getCount()));
+        }
+        final ContinuationToken after = ContinuationToken.fromToken(token);
+        return pg == null ? new kbasesearchengine.search.Pagination(null, null, after) :
+                new kbasesearchengine.search.Pagination(
+                        toInteger(pg.getStart()), toInteger(pg.getCount()), after);
     }
 
     private Pagination fromSearch(kbasesearchengine.search.Pagination pg) {
@@ -269,7 +277,8 @@ public class SearchMethods {
         }
         kbasesearchengine.search.AccessFilter accessFilter = toSearch(params.getAccessFilter(),
                 user);
-        kbasesearchengine.search.Pagination pagination = toSearch(params.getPagination());
+        kbasesearchengine.search.Pagination pagination = toSearch(params.getPagination(),
+                params.getContinuationToken());
         kbasesearchengine.search.PostProcessing postProcessing = 
                 toSearch(params.getPostProcessing());
         FoundHits hits = indexingStorage.searchObjects(params.getObjectTypes(),
@@ -286,10 +295,53 @@ public class SearchMethods {
                     Collectors.toList()));
         }
         ret.withTotal((long)hits.total);
+        if (hits.continuationToken != null) {
+            ret.withContinuationToken(hits.continuationToken.getToken());
+        }
         ret.withSearchTime(System.currentTimeMillis() - t1);
         return ret;
     }
 
+    /** Export every object matching a search as newline delimited JSON, one object per line.
+     * Each line has the object's guid and, unless the post processing skips keys,
+     * the object's key_props. The sorting rules, pagination, and continuation token of the
+     * search are ignored.
+     * 
+     * The objects are written as they're fetched from the indexing storage, so memory use is
+     * independent of the number of objects exported.
+     * @param params the search.
+     * @param user the user performing the search.
+     * @param out the stream to write the objects to.
+     * @return the number of objects exported.
+     * @throws Exception if the export fails.
+     */
+    public long exportObjects(
+            final SearchObjectsInput params,
+            final String user,
+            final OutputStream out)
+            throws Exception {
+        final List<String> objectTypes = params.getObjectTypes() == null ?
+                ImmutableList.of() : params.getObjectTypes();
+        final kbasesearchengine.search.MatchFilter matchFilter =
+                toSearch(params.getMatchFilter());
+        final kbasesearchengine.search.AccessFilter accessFilter =
+                toSearch(params.getAccessFilter(), user);
+        final boolean withKeys = toSearch(params.getPostProcessing()).objectKeys;
+        final long[] count = {0};
+        indexingStorage.exportObjects(objectTypes, matchFilter, accessFilter, withKeys, od -> {
+            final Map<String, Object> line = new LinkedHashMap<>();
+            line.put("guid", od.getGUID().toString());
+            if (withKeys) {
+                line.put("key_props", od.getKeyProperties());
+            }
+            out.write(UObject.getMapper().writeValueAsBytes(line));
+            out.write('\n');
+            count[0]++;
+        });
+        out.flush();
+        return count[0];
+    }
+
     public GetObjectsOutput getObjects(final GetObjectsInput params, final String user)
             throws Exception {
         final long t1 = System.currentTimeMillis();
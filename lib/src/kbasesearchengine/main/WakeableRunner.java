@@ -0,0 +1,66 @@
+package kbasesearchengine.main;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import kbasesearchengine.tools.Utils;
+
+/** Wraps a task that is run periodically so that it can also be run immediately when woken,
+ * for example when a notification arrives that there is work to do.
+ * 
+ * The task is never run concurrently with itself. If the runner is run or woken while the task
+ * is running, the task is run again after the current run completes, so that no wake is lost.
+ * Multiple wakes that arrive before the task runs are coalesced into a single run.
+ */
+public class WakeableRunner implements Runnable {
+    
+    private final Runnable task;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicBoolean rerun = new AtomicBoolean(false);
+    private final AtomicBoolean wakePending = new AtomicBoolean(false);
+    
+    /** Create the runner.
+     * @param task the task to run.
+     */
+    public WakeableRunner(final Runnable task) {
+        Utils.nonNull(task, "task");
+        this.task = task;
+    }
+
+    @Override
+    public void run() {
+        rerun.set(true);
+        /* if the lock holder finishes its last run after rerun was set above but before the
+         * lock is released, the outer loop picks up the rerun.
+         */
+        while (rerun.get() && lock.tryLock()) {
+            try {
+                while (rerun.getAndSet(false)) {
+                    task.run();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /** Run the task as soon as possible on the given executor. If the executor has been shut
+     * down the wake is ignored.
+     * @param executor the executor on which to run the task.
+     */
+    public void wake(final Executor executor) {
+        Utils.nonNull(executor, "executor");
+        if (wakePending.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    wakePending.set(false);
+                    run();
+                });
+            } catch (RejectedExecutionException e) {
+                wakePending.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package kbasesearchengine.parse;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.exceptions.IndexingException;
+import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.NoSuchTypeException;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+
+/* A lookup provider that remembers the results of lookups for the objects referenced from a
+ * single object, so that the lookups for all the sub objects of the object can be made in a
+ * few batches. See KeywordParser.prefetchLookups().
+ *
+ * While recording, any lookup that can't be answered from the results already fetched is
+ * recorded and the extraction is abandoned with a Deferred exception. fetchPending() then makes
+ * the recorded lookups in as few calls to the wrapped provider as possible.
+ *
+ * Once recording is stopped, lookups that weren't prefetched are passed to the wrapped provider
+ * and the results remembered. The provider is thread safe once recording is stopped.
+ */
+class BatchLookupProvider implements ObjectLookupProvider {
+
+    /* Thrown when a lookup is needed that hasn't been fetched yet. Never escapes the parse
+     * package.
+     */
+    @SuppressWarnings("serial")
+    static class Deferred extends RuntimeException {
+
+        private Deferred() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Deferred DEFERRED = new Deferred();
+
+    private final ObjectLookupProvider delegate;
+    private final List<GUID> objectRefPath;
+
+    private final Map<GUID, GUID> resolvedRefs = new ConcurrentHashMap<>();
+    private final Set<GUID> unresolvableRefs = ConcurrentHashMap.newKeySet();
+    private final Map<GUID, SearchObjectType> types = new ConcurrentHashMap<>();
+    private final Map<GUID, ObjectData> objects = new ConcurrentHashMap<>();
+    private final Set<GUID> missingObjects = ConcurrentHashMap.newKeySet();
+
+    private final Set<GUID> pendingRefs = new LinkedHashSet<>();
+    private final Set<GUID> pendingTypes = new LinkedHashSet<>();
+    private final Set<GUID> pendingObjects = new LinkedHashSet<>();
+    private volatile boolean recording = true;
+
+    BatchLookupProvider(final ObjectLookupProvider delegate, final List<GUID> objectRefPath) {
+        this.delegate = delegate;
+        this.objectRefPath = objectRefPath;
+    }
+
+    /* returns true if any lookups were recorded since the last fetch. */
+    boolean hasPending() {
+        return !pendingRefs.isEmpty() || !pendingTypes.isEmpty() || !pendingObjects.isEmpty();
+    }
+
+    /* Makes the recorded lookups. References are resolved in one call, and the objects and
+     * types in one call, falling back to a types call for any types that weren't returned with
+     * the objects.
+     */
+    void fetchPending() throws IndexingException, InterruptedException {
+        if (!pendingRefs.isEmpty()) {
+            final Map<GUID, GUID> resolved = delegate.resolveRefsToMap(
+                    objectRefPath, new LinkedHashSet<>(pendingRefs));
+            resolvedRefs.putAll(resolved);
+            for (final GUID ref: pendingRefs) {
+                if (!resolved.containsKey(ref)) {
+                    unresolvableRefs.add(ref);
+                }
+            }
+            pendingRefs.clear();
+        }
+        if (!pendingTypes.isEmpty() || !pendingObjects.isEmpty()) {
+            final Set<GUID> guids = new LinkedHashSet<>(pendingObjects);
+            guids.addAll(pendingTypes);
+            final Map<GUID, ObjectData> loaded = delegate.lookupObjectsByGuid(guids);
+            objects.putAll(loaded);
+            for (final GUID guid: guids) {
+                if (!loaded.containsKey(guid)) {
+                    missingObjects.add(guid);
+                } else if (loaded.get(guid).getType().isPresent()) {
+                    types.put(guid, loaded.get(guid).getType().get());
+                }
+            }
+            final Set<GUID> untyped = new LinkedHashSet<>();
+            for (final GUID guid: pendingTypes) {
+                if (!types.containsKey(guid) && !missingObjects.contains(guid)) {
+                    untyped.add(guid);
+                }
+            }
+            if (!untyped.isEmpty()) {
+                types.putAll(delegate.getTypesForGuids(untyped));
+            }
+            pendingTypes.clear();
+            pendingObjects.clear();
+        }
+    }
+
+    /* stops recording lookups. Lookups that were not fetched go to the wrapped provider. */
+    void stopRecording() {
+        recording = false;
+    }
+
+    @Override
+    public Set<GUID> resolveRefs(
+            final List<GUID> objectRefPath,
+            final Set<GUID> unresolvedGUIDs)
+            throws IndexingException, InterruptedException {
+        return new LinkedHashSet<>(resolveRefsToMap(objectRefPath, unresolvedGUIDs).values());
+    }
+
+    @Override
+    public Map<GUID, GUID> resolveRefsToMap(
+            final List<GUID> objectRefPath,
+            final Set<GUID> refs)
+            throws IndexingException, InterruptedException {
+        if (!Objects.equals(this.objectRefPath, objectRefPath)) {
+            return delegate.resolveRefsToMap(objectRefPath, refs);
+        }
+        final Set<GUID> toResolve = new LinkedHashSet<>();
+        for (final GUID ref: refs) {
+            if (!resolvedRefs.containsKey(ref) && !unresolvableRefs.contains(ref)) {
+                toResolve.add(ref);
+            }
+        }
+        if (!toResolve.isEmpty()) {
+            if (recording) {
+                pendingRefs.addAll(toResolve);
+                throw DEFERRED;
+            }
+            resolvedRefs.putAll(delegate.resolveRefsToMap(objectRefPath, toResolve));
+        }
+        final Map<GUID, GUID> ret = new LinkedHashMap<>();
+        for (final GUID ref: refs) {
+            if (resolvedRefs.containsKey(ref)) {
+                ret.put(ref, resolvedRefs.get(ref));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<GUID, SearchObjectType> getTypesForGuids(final Set<GUID> guids)
+            throws InterruptedException, IndexingException {
+        final Set<GUID> toLoad = new LinkedHashSet<>();
+        for (final GUID guid: guids) {
+            if (!types.containsKey(guid) && !missingObjects.contains(guid)) {
+                toLoad.add(guid);
+            }
+        }
+        if (!toLoad.isEmpty()) {
+            if (recording) {
+                pendingTypes.addAll(toLoad);
+                throw DEFERRED;
+            }
+            types.putAll(delegate.getTypesForGuids(toLoad));
+        }
+        final Map<GUID, SearchObjectType> ret = new LinkedHashMap<>();
+        for (final GUID guid: guids) {
+            if (types.containsKey(guid)) {
+                ret.put(guid, types.get(guid));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<GUID, ObjectData> lookupObjectsByGuid(final Set<GUID> guids)
+            throws InterruptedException, IndexingException {
+        final Set<GUID> toLoad = new LinkedHashSet<>();
+        for (final GUID guid: guids) {
+            if (!objects.containsKey(guid) && !missingObjects.contains(guid)) {
+                toLoad.add(guid);
+            }
+        }
+        if (!toLoad.isEmpty()) {
+            if (recording) {
+                pendingObjects.addAll(toLoad);
+                throw DEFERRED;
+            }
+            objects.putAll(delegate.lookupObjectsByGuid(toLoad));
+        }
+        final Map<GUID, ObjectData> ret = new LinkedHashMap<>();
+        for (final GUID guid: guids) {
+            if (objects.containsKey(guid)) {
+                ret.put(guid, objects.get(guid));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public ObjectTypeParsingRules getTypeDescriptor(final SearchObjectType type)
+            throws IndexingException, NoSuchTypeException {
+        return delegate.getTypeDescriptor(type);
+    }
+}
@@ -0,0 +1,292 @@
+package kbasesearchengine.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.system.IndexingRules;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.TransformType;
+import kbasesearchengine.tools.Utils;
+
+/** A set of parsing rules compiled into the structures the parsers use to walk an object: the
+ * sub object and parent extraction trees, the sub object id tree, the keyword value trees, the
+ * indexing rules grouped by key, and an evaluation order for derived keys in which every key
+ * follows the keys it is derived from.
+ *
+ * A plan is immutable once built and may be shared between threads. Plans are expected to be
+ * compiled once per set of parsing rules, e.g. by
+ * {@link kbasesearchengine.system.TypeStorage#getExtractionPlan(ObjectTypeParsingRules)}.
+ */
+public class ExtractionPlan {
+
+    // equivalent to new ObjectJsonPath("/"), which declares a checked exception
+    private static final ObjectJsonPath ROOT = new ObjectJsonPath(new String[] {""});
+
+    private final Optional<ObjectTypeParsingRules> parsingRules;
+    private final SearchObjectType searchObjectType;
+    private final List<IndexingRules> indexingRules;
+    // the trees are mutable classes, and so are never exposed outside this package
+    private final SubObjectExtractionNode subObjectTree;
+    private final SubObjectExtractionNode parentTree;
+    private final ValueCollectingNode<IdMappingRules> idTree;
+    private final ValueCollectingNode<List<IndexingRules>> keywordTree;
+    private final ValueCollectingNode<List<IndexingRules>> parentKeywordTree;
+    private final Map<String, List<IndexingRules>> ruleMap;
+    private final List<String> derivedKeyOrder;
+    private final ExtractionPlan referencePlan;
+
+    private ExtractionPlan(
+            final ObjectTypeParsingRules parsingRules,
+            final SearchObjectType searchObjectType,
+            final List<IndexingRules> indexingRules) {
+        this.parsingRules = Optional.fromNullable(parsingRules);
+        this.searchObjectType = searchObjectType;
+        this.indexingRules = Collections.unmodifiableList(new ArrayList<>(indexingRules));
+        if (parsingRules == null) {
+            subObjectTree = null;
+            parentTree = null;
+            idTree = null;
+        } else {
+            subObjectTree = SubObjectExtractor.buildTree(
+                    parsingRules.getSubObjectPath().or(ROOT),
+                    getPaths(indexingRules, false));
+            final List<ObjectJsonPath> parentPaths = getPaths(indexingRules, true);
+            if (parsingRules.getSubObjectPath().isPresent() && !parentPaths.isEmpty()) {
+                parentTree = SubObjectExtractor.buildTree(ROOT, parentPaths);
+            } else {
+                parentTree = null;
+            }
+            if (parsingRules.getSubObjectIDPath().isPresent()) {
+                idTree = new ValueCollectingNode<>();
+                idTree.addPath(parsingRules.getSubObjectIDPath().get(), new IdMappingRules());
+            } else {
+                idTree = null;
+            }
+        }
+        keywordTree = buildKeywordTree(indexingRules, false);
+        parentKeywordTree = buildKeywordTree(indexingRules, true);
+        final Map<String, List<IndexingRules>> ruleMap = new LinkedHashMap<>();
+        for (final IndexingRules rule: indexingRules) {
+            if (!ruleMap.containsKey(rule.getKeyName())) {
+                ruleMap.put(rule.getKeyName(), new ArrayList<>());
+            }
+            ruleMap.get(rule.getKeyName()).add(rule);
+        }
+        for (final String key: ruleMap.keySet()) {
+            ruleMap.put(key, Collections.unmodifiableList(ruleMap.get(key)));
+        }
+        this.ruleMap = Collections.unmodifiableMap(ruleMap);
+        derivedKeyOrder = Collections.unmodifiableList(sortDerivedKeys(ruleMap));
+        final List<IndexingRules> referenceRules = getReferenceRules(indexingRules, ruleMap);
+        if (referenceRules.isEmpty()) {
+            referencePlan = null;
+        } else if (referenceRules.size() == indexingRules.size()) {
+            referencePlan = this;
+        } else {
+            referencePlan = new ExtractionPlan(null, searchObjectType, referenceRules);
+        }
+    }
+
+    /** Compile a set of parsing rules into an extraction plan.
+     * @param parsingRules the parsing rules.
+     * @return the plan.
+     */
+    public static ExtractionPlan compile(final ObjectTypeParsingRules parsingRules) {
+        Utils.nonNull(parsingRules, "parsingRules");
+        return new ExtractionPlan(parsingRules, parsingRules.getGlobalObjectType(),
+                parsingRules.getIndexingRules());
+    }
+
+    /* A plan for keyword extraction only, for callers that don't have the full rules. */
+    static ExtractionPlan compileKeywords(
+            final SearchObjectType searchObjectType,
+            final List<IndexingRules> indexingRules) {
+        return new ExtractionPlan(null, searchObjectType, indexingRules);
+    }
+
+    private static List<ObjectJsonPath> getPaths(
+            final List<IndexingRules> indexingRules,
+            final boolean fromParent) {
+        final List<ObjectJsonPath> paths = new ArrayList<>();
+        for (final IndexingRules rule: indexingRules) {
+            if (rule.isFromParent() == fromParent && rule.getPath().isPresent()) {
+                paths.add(rule.getPath().get());
+            }
+        }
+        return paths;
+    }
+
+    private static ValueCollectingNode<List<IndexingRules>> buildKeywordTree(
+            final List<IndexingRules> indexingRules,
+            final boolean fromParent) {
+        final Map<ObjectJsonPath, List<IndexingRules>> pathToRules = new LinkedHashMap<>();
+        for (final IndexingRules rule: indexingRules) {
+            // non-derived rules always have a path
+            if (rule.isDerivedKey() || rule.isFromParent() != fromParent) {
+                continue;
+            }
+            if (!pathToRules.containsKey(rule.getPath().get())) {
+                pathToRules.put(rule.getPath().get(), new ArrayList<>());
+            }
+            pathToRules.get(rule.getPath().get()).add(rule);
+        }
+        final ValueCollectingNode<List<IndexingRules>> root = new ValueCollectingNode<>();
+        for (final ObjectJsonPath path: pathToRules.keySet()) {
+            root.addPath(path, Collections.unmodifiableList(pathToRules.get(path)));
+        }
+        return root;
+    }
+
+    /* Orders the derived keys so that each key comes after the keys it depends on. Keys that
+     * refer to unknown keys or are part of a cycle are still included, and the error is
+     * reported when the keywords are extracted, as it was before plans were compiled.
+     */
+    private static List<String> sortDerivedKeys(final Map<String, List<IndexingRules>> ruleMap) {
+        final List<String> order = new ArrayList<>();
+        final Set<String> visited = new HashSet<>();
+        for (final String key: ruleMap.keySet()) {
+            visitDerivedKey(key, ruleMap, visited, order);
+        }
+        return order;
+    }
+
+    private static void visitDerivedKey(
+            final String key,
+            final Map<String, List<IndexingRules>> ruleMap,
+            final Set<String> visited,
+            final List<String> order) {
+        if (!ruleMap.containsKey(key) || !visited.add(key)) {
+            return;
+        }
+        boolean derived = false;
+        for (final IndexingRules rule: ruleMap.get(key)) {
+            if (rule.isDerivedKey()) {
+                derived = true;
+                visitDerivedKey(rule.getSourceKey().get(), ruleMap, visited, order);
+                if (rule.getTransform().isPresent() &&
+                        rule.getTransform().get().getSubobjectIdKey().isPresent()) {
+                    visitDerivedKey(rule.getTransform().get().getSubobjectIdKey().get(),
+                            ruleMap, visited, order);
+                }
+            }
+        }
+        if (derived) {
+            order.add(key);
+        }
+    }
+
+    /* Gets the rules with transforms that require lookups, and the rules for any keys they
+     * depend on, in the order of the indexing rules.
+     */
+    private static List<IndexingRules> getReferenceRules(
+            final List<IndexingRules> indexingRules,
+            final Map<String, List<IndexingRules>> ruleMap) {
+        final Set<String> keys = new HashSet<>();
+        for (final IndexingRules rule: indexingRules) {
+            if (rule.getTransform().isPresent() &&
+                    (TransformType.guid.equals(rule.getTransform().get().getType()) ||
+                    TransformType.lookup.equals(rule.getTransform().get().getType()))) {
+                addReferenceKey(rule.getKeyName(), ruleMap, keys);
+            }
+        }
+        final List<IndexingRules> ret = new ArrayList<>();
+        for (final IndexingRules rule: indexingRules) {
+            if (keys.contains(rule.getKeyName())) {
+                ret.add(rule);
+            }
+        }
+        return ret;
+    }
+    
+    private static void addReferenceKey(
+            final String key,
+            final Map<String, List<IndexingRules>> ruleMap,
+            final Set<String> keys) {
+        if (!ruleMap.containsKey(key) || !keys.add(key)) {
+            return;
+        }
+        for (final IndexingRules rule: ruleMap.get(key)) {
+            if (rule.isDerivedKey()) {
+                addReferenceKey(rule.getSourceKey().get(), ruleMap, keys);
+            }
+            if (rule.getTransform().isPresent() &&
+                    rule.getTransform().get().getSubobjectIdKey().isPresent()) {
+                addReferenceKey(rule.getTransform().get().getSubobjectIdKey().get(),
+                        ruleMap, keys);
+            }
+        }
+    }
+    
+    /** Get the parsing rules from which this plan was compiled.
+     * @return the parsing rules, or absent if the plan only covers keyword extraction.
+     */
+    public Optional<ObjectTypeParsingRules> getParsingRules() {
+        return parsingRules;
+    }
+
+    /** Get the search type to which this plan applies.
+     * @return the search type.
+     */
+    public SearchObjectType getSearchObjectType() {
+        return searchObjectType;
+    }
+
+    /** Get the indexing rules from which this plan was compiled.
+     * @return the indexing rules.
+     */
+    public List<IndexingRules> getIndexingRules() {
+        return indexingRules;
+    }
+
+    /** Get the indexing rules grouped by key name, in the order the keys first appear in the
+     * indexing rules.
+     * @return the indexing rules by key.
+     */
+    public Map<String, List<IndexingRules>> getRulesByKey() {
+        return ruleMap;
+    }
+
+    /** Get the keys with derived indexing rules, ordered such that each key follows any key it
+     * is derived from.
+     * @return the derived keys in evaluation order.
+     */
+    public List<String> getDerivedKeyOrder() {
+        return derivedKeyOrder;
+    }
+
+    SubObjectExtractionNode getSubObjectTree() {
+        return subObjectTree;
+    }
+
+    SubObjectExtractionNode getParentTree() {
+        return parentTree;
+    }
+
+    ValueCollectingNode<IdMappingRules> getIdTree() {
+        return idTree;
+    }
+
+    ValueCollectingNode<List<IndexingRules>> getKeywordTree() {
+        return keywordTree;
+    }
+
+    ValueCollectingNode<List<IndexingRules>> getParentKeywordTree() {
+        return parentKeywordTree;
+    }
+    
+    /* a plan for only the keys that require lookups and the keys they depend on, or null if
+     * no keys require lookups.
+     */
+    ExtractionPlan getReferencePlan() {
+        return referencePlan;
+    }
+}
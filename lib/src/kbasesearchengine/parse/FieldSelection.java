@@ -0,0 +1,171 @@
+package kbasesearchengine.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/* The children of a node in a selection tree, compiled so that the token stream can be matched
+ * against the node without allocating memory per token or per object. Array positions are found
+ * by binary search rather than by building a key for each position, and the keys are numbered
+ * so that the keys seen in an object or array can be tracked in a bit set.
+ *
+ * Instances are immutable, so a node may build its selection lazily and share it between
+ * threads.
+ */
+final class FieldSelection<N> {
+
+    private static final String ALL_FIELDS = "*";
+    private static final String ALL_ITEMS = "[*]";
+    private static final String SIZE = "{size}";
+
+    private final Map<String, N> children;
+    private final String[] keys;
+    private final Map<String, Integer> keyIndexes;
+    private final N allFields;
+    private final N allItems;
+    private final N size;
+    private final boolean sizeOnly;
+    private final SerializableString onlyFieldName;
+    private final N onlyField;
+    // sorted, with the index of the key and the child for each position
+    private final int[] positions;
+    private final int[] positionKeyIndexes;
+    private final List<N> positionChildren;
+    private final String invalidItem;
+
+    private FieldSelection(final Map<String, N> children) {
+        this.children = children == null ? Collections.<String, N>emptyMap() : children;
+        keys = this.children.keySet().toArray(new String[this.children.size()]);
+        keyIndexes = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            keyIndexes.put(keys[i], i);
+        }
+        allFields = this.children.get(ALL_FIELDS);
+        allItems = this.children.get(ALL_ITEMS);
+        size = this.children.get(SIZE);
+        sizeOnly = keys.length == 1 && size != null;
+        if (keys.length == 1 && allFields == null && size == null) {
+            onlyFieldName = new SerializedString(keys[0]);
+            onlyField = this.children.get(keys[0]);
+        } else {
+            onlyFieldName = null;
+            onlyField = null;
+        }
+        String invalid = null;
+        final List<int[]> pos = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            try {
+                final int p = Integer.parseInt(keys[i]);
+                // "01" is not the key for position 1
+                if (Integer.toString(p).equals(keys[i])) {
+                    pos.add(new int[] {p, i});
+                }
+            } catch (NumberFormatException e) {
+                if (invalid == null) {
+                    invalid = keys[i];
+                }
+            }
+        }
+        invalidItem = invalid;
+        Collections.sort(pos, (a, b) -> Integer.compare(a[0], b[0]));
+        positions = new int[pos.size()];
+        positionKeyIndexes = new int[pos.size()];
+        positionChildren = new ArrayList<>();
+        for (int i = 0; i < pos.size(); i++) {
+            positions[i] = pos.get(i)[0];
+            positionKeyIndexes[i] = pos.get(i)[1];
+            positionChildren.add(this.children.get(keys[pos.get(i)[1]]));
+        }
+    }
+
+    /* children may be null. */
+    static <N> FieldSelection<N> compile(final Map<String, N> children) {
+        return new FieldSelection<>(children);
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /* the child for the '*' key, or null. */
+    N getAllFields() {
+        return allFields;
+    }
+
+    /* the child for the '[*]' key, or null. */
+    N getAllItems() {
+        return allItems;
+    }
+
+    /* the child for the '{size}' key, or null. */
+    N getSize() {
+        return size;
+    }
+
+    /* true if the only key is '{size}'. */
+    boolean isSizeOnly() {
+        return sizeOnly;
+    }
+
+    /* the name of the only field if exactly one field other than '*' or '{size}' is selected,
+     * otherwise null. Suitable for JsonParser.nextFieldName().
+     */
+    SerializableString getOnlyFieldName() {
+        return onlyFieldName;
+    }
+
+    /* the child for the only field, or null. */
+    N getOnlyField() {
+        return onlyField;
+    }
+
+    /* the child for a field name, or null. */
+    N getField(final String name) {
+        return children.get(name);
+    }
+
+    /* the index of a field name, or -1. */
+    int indexOfField(final String name) {
+        final Integer i = keyIndexes.get(name);
+        return i == null ? -1 : i;
+    }
+
+    /* the child for an array position, or null. */
+    N getItem(final int position) {
+        final int i = Arrays.binarySearch(positions, position);
+        return i < 0 ? null : positionChildren.get(i);
+    }
+
+    /* the index of the key for an array position, or -1. */
+    int indexOfItem(final int position) {
+        final int i = Arrays.binarySearch(positions, position);
+        return i < 0 ? -1 : positionKeyIndexes[i];
+    }
+
+    /* the first key that isn't an array position, or null. */
+    String getInvalidItem() {
+        return invalidItem;
+    }
+
+    /* the first key whose index is not set, or null. */
+    String getFirstUnvisited(final BitSet visited) {
+        final int i = visited.nextClearBit(0);
+        return i < keys.length ? keys[i] : null;
+    }
+
+    /* the keys other than the given key, for error messages. */
+    Set<String> getKeysExcept(final String key) {
+        final Set<String> ret = new LinkedHashSet<>(Arrays.asList(keys));
+        ret.remove(key);
+        return ret;
+    }
+}
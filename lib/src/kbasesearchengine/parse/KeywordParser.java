@@ -2,6 +2,8 @@ package kbasesearchengine.parse;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -10,11 +12,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import kbasesearchengine.common.GUID;
-import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.common.JsonTokenUtil;
 import kbasesearchengine.events.exceptions.IndexingException;
 import kbasesearchengine.search.ObjectData;
 import kbasesearchengine.system.IndexingRules;
@@ -24,12 +26,17 @@ import kbasesearchengine.system.ObjectTypeParsingRules;
 import kbasesearchengine.system.SearchObjectType;
 import kbasesearchengine.system.Transform;
 import kbasesearchengine.tools.Utils;
-import us.kbase.common.service.UObject;
 
 public class KeywordParser {
     
     //TODO EXP handle all exceptions
     
+    /* each round resolves one level of dependent lookups, e.g. a reference, then the sub
+     * objects of the referenced object. Anything left after the last round is looked up
+     * object by object.
+     */
+    private static final int MAX_PREFETCH_ROUNDS = 10;
+    
     public static ParsedObject extractKeywords(
             final SearchObjectType searchObjectType,
             final String json,
@@ -43,6 +50,137 @@ public class KeywordParser {
         Utils.notNullOrEmpty(json, "json is a required parameter");
 
         Utils.nonNull(indexingRules, "indexingRules is a required parameter");
+        return extractKeywords(ExtractionPlan.compileKeywords(searchObjectType, indexingRules),
+                json, JsonTokenUtil.toTokenBuffer(json),
+                parentJson == null ? null : JsonTokenUtil.toTokenBuffer(parentJson),
+                lookup, objectRefPath);
+    }
+    
+    /** Extract keywords from an object that has already been tokenized, for example by
+     * {@link ObjectParser#parseObjects(kbasesearchengine.events.handler.SourceData, GUID,
+     * java.util.Collection)}. The buffers are read but not altered.
+     * @param searchObjectType the search type of the object.
+     * @param json the object.
+     * @param parentJson the data extracted from the parent object, or null if none.
+     * @param indexingRules the indexing rules for the object.
+     * @param lookup a lookup provider for transforms.
+     * @param objectRefPath the reference path to the object.
+     * @return the parsed object.
+     * @throws IOException if an IO error occurs.
+     * @throws ObjectParseException if the object could not be parsed.
+     * @throws IndexingException if a lookup failed.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public static ParsedObject extractKeywords(
+            final SearchObjectType searchObjectType,
+            final TokenBuffer json,
+            final TokenBuffer parentJson,
+            final List<IndexingRules> indexingRules, 
+            final ObjectLookupProvider lookup,
+            final List<GUID> objectRefPath)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        Utils.nonNull(json, "json is a required parameter");
+        Utils.nonNull(indexingRules, "indexingRules is a required parameter");
+        return extractKeywords(ExtractionPlan.compileKeywords(searchObjectType, indexingRules),
+                JsonTokenUtil.toJson(json), json, parentJson, lookup, objectRefPath);
+    }
+    
+    /** Extract keywords from an object that has already been tokenized using a precompiled
+     * extraction plan. The buffers are read but not altered.
+     * @param plan the extraction plan for the object's search type.
+     * @param json the object.
+     * @param parentJson the data extracted from the parent object, or null if none.
+     * @param lookup a lookup provider for transforms.
+     * @param objectRefPath the reference path to the object.
+     * @return the parsed object.
+     * @throws IOException if an IO error occurs.
+     * @throws ObjectParseException if the object could not be parsed.
+     * @throws IndexingException if a lookup failed.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public static ParsedObject extractKeywords(
+            final ExtractionPlan plan,
+            final TokenBuffer json,
+            final TokenBuffer parentJson,
+            final ObjectLookupProvider lookup,
+            final List<GUID> objectRefPath)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        Utils.nonNull(plan, "plan is a required parameter");
+        Utils.nonNull(json, "json is a required parameter");
+        return extractKeywords(plan, JsonTokenUtil.toJson(json), json, parentJson, lookup,
+                objectRefPath);
+    }
+    
+    /** Make the lookups required by the guid and lookup transforms for a set of objects, such
+     * as all the sub objects of an object, in batches rather than separately for each object
+     * and rule.
+     * 
+     * Only the indexing rules needed to find the references are applied, possibly several
+     * times, as a lookup may depend on the result of another lookup. The lookups made in each
+     * round are combined into one reference resolution call and one object lookup call on the
+     * provider.
+     * 
+     * Errors in the objects are ignored and are expected to be reported when the keywords are
+     * extracted.
+     * @param plan the extraction plan for the objects' search type.
+     * @param objects the objects.
+     * @param parentJson the data extracted from the parent object, or null if none.
+     * @param lookup a lookup provider for transforms.
+     * @param objectRefPath the reference path to the objects.
+     * @return a lookup provider that answers the prefetched lookups without calling the
+     * provided lookup provider. It may be used with {@link #extractKeywords(ExtractionPlan,
+     * TokenBuffer, TokenBuffer, ObjectLookupProvider, List)} for the same objects, and is
+     * thread safe if the provided lookup provider is thread safe. If the plan requires no
+     * lookups, the provided lookup provider is returned.
+     * @throws IOException if an IO error occurs.
+     * @throws IndexingException if a lookup failed.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public static ObjectLookupProvider prefetchLookups(
+            final ExtractionPlan plan,
+            final Collection<TokenBuffer> objects,
+            final TokenBuffer parentJson,
+            final ObjectLookupProvider lookup,
+            final List<GUID> objectRefPath)
+            throws IOException, IndexingException, InterruptedException {
+        Utils.nonNull(plan, "plan is a required parameter");
+        Utils.nonNull(objects, "objects is a required parameter");
+        final ExtractionPlan refPlan = plan.getReferencePlan();
+        if (refPlan == null || lookup == null || objects.isEmpty()) {
+            return lookup;
+        }
+        final BatchLookupProvider batch = new BatchLookupProvider(lookup, objectRefPath);
+        List<TokenBuffer> pending = new ArrayList<>(objects);
+        for (int round = 0; round < MAX_PREFETCH_ROUNDS && !pending.isEmpty(); round++) {
+            final List<TokenBuffer> deferred = new ArrayList<>();
+            for (final TokenBuffer json: pending) {
+                try {
+                    extractKeywords(refPlan, null, json, parentJson, batch, objectRefPath);
+                } catch (BatchLookupProvider.Deferred e) {
+                    deferred.add(json);
+                } catch (ObjectParseException | RuntimeException e) {
+                    // reported when the keywords are extracted
+                }
+            }
+            if (!batch.hasPending()) {
+                break;
+            }
+            batch.fetchPending();
+            pending = deferred;
+        }
+        batch.stopRecording();
+        return batch;
+    }
+    
+    private static ParsedObject extractKeywords(
+            final ExtractionPlan plan,
+            final String jsonString,
+            final TokenBuffer json,
+            final TokenBuffer parentJson,
+            final ObjectLookupProvider lookup,
+            final List<GUID> objectRefPath)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        final SearchObjectType searchObjectType = plan.getSearchObjectType();
 
         Map<String, InnerKeyValue> keywords = new LinkedHashMap<>();
         ValueConsumer<List<IndexingRules>> consumer = new ValueConsumer<List<IndexingRules>>() {
@@ -56,13 +194,12 @@ public class KeywordParser {
             }
         };
         // Sub-objects
-        extractIndexingPart(json, false, indexingRules, consumer);
+        extractIndexingPart(json, plan.getKeywordTree(), consumer);
         // Parent
         if (parentJson != null) {
-            extractIndexingPart(parentJson, true, indexingRules, consumer);
+            extractIndexingPart(parentJson, plan.getParentKeywordTree(), consumer);
         }
-        Map<String, List<IndexingRules>> ruleMap = indexingRules.stream().collect(
-                Collectors.groupingBy(rule -> rule.getKeyName()));
+        final Map<String, List<IndexingRules>> ruleMap = plan.getRulesByKey();
         for (String key : ruleMap.keySet()) {
             for (IndexingRules rule : ruleMap.get(key)) {
                 if (!rule.isDerivedKey()) {
@@ -75,7 +212,8 @@ public class KeywordParser {
                 }
             }
         }
-        for (String key : ruleMap.keySet()) {
+        // keys are ordered so that the keys a derived key depends on are processed first
+        for (String key : plan.getDerivedKeyOrder()) {
             for (IndexingRules rule : ruleMap.get(key)) {
                 if (rule.isDerivedKey()) {
                     processDerivedRule(searchObjectType, key, rule, ruleMap, keywords, lookup, 
@@ -83,7 +221,7 @@ public class KeywordParser {
                 }
             }
         }
-        return new ParsedObject(json,
+        return new ParsedObject(jsonString,
                 keywords.entrySet().stream().filter(kv -> !kv.getValue().notIndexed)
                         .collect(Collectors.toMap(kv -> kv.getKey(), kv -> kv.getValue().values)));
     }
@@ -337,42 +475,50 @@ public class KeywordParser {
         return refs;
     }
     
-    private static void extractIndexingPart(String json, boolean fromParent,
-            List<IndexingRules> indexingRules, ValueConsumer<List<IndexingRules>> consumer)
-            throws IOException, ObjectParseException, JsonParseException,
-            IndexingException, InterruptedException {
-        Map<ObjectJsonPath, List<IndexingRules>> pathToRules = new LinkedHashMap<>();
-        for (IndexingRules rules : indexingRules) {
-            if (rules.isDerivedKey()) {
-                continue;
-            }
-            if (!rules.getPath().isPresent()) {
-                throw new ObjectParseException("Path should be defined for non-derived " +
-                        "indexing rules");
-            }
-            if (rules.isFromParent() != fromParent) {
-                continue;
-            }
-            List<IndexingRules> rulesList = pathToRules.get(rules.getPath().get());
-            if (rulesList == null) {
-                rulesList = new ArrayList<>();
-                pathToRules.put(rules.getPath().get(), rulesList);
-            }
-            rulesList.add(rules);
-        }
-        ValueCollectingNode<List<IndexingRules>> root = new ValueCollectingNode<>();
-        for (ObjectJsonPath path : pathToRules.keySet()) {
-            root.addPath(path, pathToRules.get(path));
-        }
+    private static void extractIndexingPart(
+            final TokenBuffer json,
+            final ValueCollectingNode<List<IndexingRules>> root,
+            final ValueConsumer<List<IndexingRules>> consumer)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
         ValueCollector<List<IndexingRules>> collector = new ValueCollector<List<IndexingRules>>();
-        try (JsonParser jp = UObject.getMapper().getFactory().createParser(json)) {
+        try (JsonParser jp = json.asParser()) {
             collector.mapKeys(root, jp, consumer);
         }
     }
 
+    /** Provides the lookups needed by transforms. Keywords may be extracted from several
+     * objects concurrently with the same provider, and so implementations must be thread safe.
+     */
     public interface ObjectLookupProvider {
         public Set<GUID> resolveRefs(List<GUID> objectRefPath, Set<GUID> unresolvedGUIDs) 
                 throws IndexingException, InterruptedException;
+        
+        /** Resolve a set of references to GUIDs, keeping track of which reference resolved
+         * to which GUID. By default each reference is resolved separately via
+         * {@link #resolveRefs(List, Set)}; implementations should override this method to
+         * resolve the references in one call.
+         * @param objectRefPath the reference path to the object containing the references.
+         * @param refs the references to resolve.
+         * @return a mapping from reference to resolved GUID. References that could not be
+         * resolved are omitted.
+         * @throws IndexingException if the references could not be resolved.
+         * @throws InterruptedException if the thread was interrupted.
+         */
+        public default Map<GUID, GUID> resolveRefsToMap(
+                final List<GUID> objectRefPath,
+                final Set<GUID> refs)
+                throws IndexingException, InterruptedException {
+            final Map<GUID, GUID> ret = new LinkedHashMap<>();
+            for (final GUID ref: refs) {
+                final Set<GUID> resolved = resolveRefs(
+                        objectRefPath, new LinkedHashSet<>(Arrays.asList(ref)));
+                if (!resolved.isEmpty()) {
+                    ret.put(ref, resolved.iterator().next());
+                }
+            }
+            return ret;
+        }
+        
         public Map<GUID, SearchObjectType> getTypesForGuids(Set<GUID> guids)
                 throws InterruptedException, IndexingException;
         public Map<GUID, ObjectData> lookupObjectsByGuid(Set<GUID> guids) 
@@ -2,19 +2,27 @@ package kbasesearchengine.parse;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.JsonTokenUtil;
 import kbasesearchengine.common.ObjectJsonPath;
 import kbasesearchengine.events.exceptions.IndexingException;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.system.IndexingRules;
 import kbasesearchengine.system.ObjectTypeParsingRules;
-import us.kbase.common.service.UObject;
+import kbasesearchengine.tools.Utils;
 
 public class ObjectParser {
 
@@ -41,33 +49,386 @@ public class ObjectParser {
         /* note that in opposition to the name, objects with no subobject specs get run through
          * this method.
          */
-        Map<ObjectJsonPath, String> pathToJson = new LinkedHashMap<>();
-        try (JsonParser jts = obj.getData().getPlacedStream()) {
-            extractSubObjects(parsingRules, new SimpleSubObjectConsumer(pathToJson), jts);
+        final ExtractionPlan plan = ExtractionPlan.compile(parsingRules);
+        Map<ObjectJsonPath, TokenBuffer> pathToJson = new LinkedHashMap<>();
+        try (JsonParser jts = getDataParser(obj, Arrays.asList(plan.getSubObjectTree()))) {
+            SubObjectExtractor.extract(plan.getSubObjectTree(), jts,
+                    new TokenBufferSubObjectConsumer(pathToJson));
+        }
+        return toJson(toGUIDs(guid, plan, pathToJson));
+    }
+    
+    /* Gets a parser over the data that may leave out the top level fields that none of the
+     * extraction trees select, so that large fields that aren't indexed aren't read.
+     */
+    private static JsonParser getDataParser(
+            final SourceData obj,
+            final List<SubObjectExtractionNode> trees)
+            throws IOException {
+        final Set<String> fields = new HashSet<>();
+        for (final SubObjectExtractionNode tree: trees) {
+            // wildcards and size selections need every field
+            if (tree.isNeedAll() || !tree.hasChildren() ||
+                    tree.getChildren().containsKey("*") ||
+                    tree.getChildren().containsKey("[*]") ||
+                    tree.getChildren().containsKey("{size}")) {
+                return obj.getDataParser();
+            }
+            fields.addAll(tree.getChildren().keySet());
+        }
+        return obj.getDataParser(fields);
+    }
+    
+    private static Map<GUID, String> toJson(final Map<GUID, TokenBuffer> guidToBuf)
+            throws IOException {
+        final Map<GUID, String> ret = new LinkedHashMap<>();
+        for (final GUID guid: guidToBuf.keySet()) {
+            ret.put(guid, JsonTokenUtil.toJson(guidToBuf.get(guid)));
+        }
+        return ret;
+    }
+    
+    /** The data extracted from an object for one set of parsing rules. The data is held as
+     * token buffers so that later parsing stages do not need to tokenize it again.
+     */
+    public static class ExtractedObject {
+        
+        private final TokenBuffer parentData;
+        private final Map<GUID, TokenBuffer> subObjects;
+        
+        private ExtractedObject(
+                final TokenBuffer parentData,
+                final Map<GUID, TokenBuffer> subObjects) {
+            this.parentData = parentData;
+            this.subObjects = Collections.unmodifiableMap(subObjects);
+        }
+        
+        /** Get the data extracted from the parent object.
+         * @return the parent data, or null if there is none.
+         */
+        public TokenBuffer getParentData() {
+            return parentData;
+        }
+        
+        /** Get the extracted (sub)objects.
+         * @return a map from GUID to extracted data.
+         */
+        public Map<GUID, TokenBuffer> getSubObjects() {
+            return subObjects;
+        }
+        
+        /** Get the JSON extracted from the parent object, as
+         * {@link ObjectParser#extractParentFragment(ObjectTypeParsingRules, JsonParser)}.
+         * @return the parent JSON, or null if there is none.
+         * @throws IOException if the data could not be serialized.
+         */
+        public String getParentJson() throws IOException {
+            return parentData == null ? null : JsonTokenUtil.toJson(parentData);
+        }
+        
+        /** Get the extracted (sub)objects as JSON, as
+         * {@link ObjectParser#parseSubObjects(SourceData, GUID, ObjectTypeParsingRules)}.
+         * @return a map from GUID to extracted data.
+         * @throws IOException if the data could not be serialized.
+         */
+        public Map<GUID, String> getGuidToJson() throws IOException {
+            return toJson(subObjects);
+        }
+    }
+    
+    /** Extracts the parent fragments and (sub)objects for several sets of parsing rules in a
+     * single pass over the source data. The results are the same as calling
+     * {@link #extractParentFragment(ObjectTypeParsingRules, JsonParser)} and
+     * {@link #parseSubObjects(SourceData, GUID, ObjectTypeParsingRules)} for each set of rules,
+     * but the source data, which may be very large, is only read and tokenized once.
+     * @param obj source data from which to extract.
+     * @param guid GUID of the source data.
+     * @param parsingRules the parsing rules to apply.
+     * @return the extracted data for each set of parsing rules, in the order of the rules.
+     * @throws IOException if an IO error occurs reading the data.
+     * @throws ObjectParseException if the data could not be parsed.
+     * @throws IndexingException if the sub object ids could not be mapped.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public static Map<ObjectTypeParsingRules, ExtractedObject> parseObjects(
+            final SourceData obj,
+            final GUID guid,
+            final Collection<ObjectTypeParsingRules> parsingRules)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        final List<ExtractionPlan> plans = new ArrayList<>();
+        for (final ObjectTypeParsingRules rules: parsingRules) {
+            plans.add(ExtractionPlan.compile(rules));
         }
-        Map<GUID, String> guidToJson = new LinkedHashMap<>();
+        return parseObjects(obj, guid, plans);
+    }
+    
+    /** Extracts the parent fragments and (sub)objects for several precompiled extraction plans
+     * in a single pass over the source data. Otherwise identical to
+     * {@link #parseObjects(SourceData, GUID, Collection)}.
+     * @param obj source data from which to extract.
+     * @param guid GUID of the source data.
+     * @param plans the extraction plans to apply. Each plan must have been compiled from a
+     * set of parsing rules.
+     * @return the extracted data for the parsing rules of each plan, in the order of the plans.
+     * @throws IOException if an IO error occurs reading the data.
+     * @throws ObjectParseException if the data could not be parsed.
+     * @throws IndexingException if the sub object ids could not be mapped.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public static Map<ObjectTypeParsingRules, ExtractedObject> parseObjects(
+            final SourceData obj,
+            final GUID guid,
+            final List<ExtractionPlan> plans)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        final List<SubObjectExtractionNode> trees = new ArrayList<>();
+        final List<SubObjectConsumer> consumers = new ArrayList<>();
+        final List<Map<ObjectJsonPath, TokenBuffer>> subs = new ArrayList<>();
+        final List<Map<ObjectJsonPath, TokenBuffer>> parents = new ArrayList<>();
+        for (final ExtractionPlan plan: plans) {
+            if (!plan.getParsingRules().isPresent()) {
+                throw new IllegalArgumentException(
+                        "Extraction plans must be compiled from parsing rules");
+            }
+            final Map<ObjectJsonPath, TokenBuffer> pathToJson = new LinkedHashMap<>();
+            subs.add(pathToJson);
+            trees.add(plan.getSubObjectTree());
+            consumers.add(new TokenBufferSubObjectConsumer(pathToJson));
+            if (plan.getParentTree() != null) {
+                final Map<ObjectJsonPath, TokenBuffer> parentJson = new LinkedHashMap<>();
+                parents.add(parentJson);
+                trees.add(plan.getParentTree());
+                consumers.add(new TokenBufferSubObjectConsumer(parentJson));
+            } else {
+                parents.add(null);
+            }
+        }
+        if (!trees.isEmpty()) {
+            try (final JsonParser jts = getDataParser(obj, trees)) {
+                SubObjectExtractor.extract(trees, jts, consumers);
+            }
+        }
+        final Map<ObjectTypeParsingRules, ExtractedObject> ret = new LinkedHashMap<>();
+        for (int i = 0; i < plans.size(); i++) {
+            final Map<ObjectJsonPath, TokenBuffer> parentJson = parents.get(i);
+            ret.put(plans.get(i).getParsingRules().get(), new ExtractedObject(
+                    parentJson == null ? null : parentJson.values().iterator().next(),
+                    toGUIDs(guid, plans.get(i), subs.get(i))));
+        }
+        return ret;
+    }
+    
+    private static Map<GUID, TokenBuffer> toGUIDs(
+            final GUID guid,
+            final ExtractionPlan plan,
+            final Map<ObjectJsonPath, TokenBuffer> pathToJson)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        Map<GUID, TokenBuffer> guidToJson = new LinkedHashMap<>();
         for (ObjectJsonPath path : pathToJson.keySet()) {
-            String subJson = pathToJson.get(path);
-            SimpleIdConsumer idConsumer = new SimpleIdConsumer();
-            if (parsingRules.getSubObjectIDPath().isPresent()) {
-                try (JsonParser subJts = UObject.getMapper().getFactory().createParser(subJson)) {
-                    IdMapper.mapKeys(parsingRules.getSubObjectIDPath().get(), subJts, idConsumer);
-                }
-                /* if this if block is outside the parent if block, standard objects without
-                 * subobjects fail to parse
-                 */
-                if (idConsumer.getPrimaryKey() == null) {
-                    throw new ObjectParseException(String.format(
-                            "Could not find the subobject id for one or more of the subobjects " +
-                                    "for object %s when applying search specification %s_%s",
-                                    guid, parsingRules.getGlobalObjectType().getType(),
-                                    parsingRules.getGlobalObjectType().getVersion())); 
+            TokenBuffer subJson = pathToJson.get(path);
+            guidToJson.put(toGUID(guid, plan, path, subJson), subJson);
+        }
+        return guidToJson;
+    }
+    
+    private static GUID toGUID(
+            final GUID guid,
+            final ExtractionPlan plan,
+            final ObjectJsonPath path,
+            final TokenBuffer subJson)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        final ObjectTypeParsingRules parsingRules = plan.getParsingRules().get();
+        SimpleIdConsumer idConsumer = new SimpleIdConsumer();
+        if (plan.getIdTree() != null) {
+            try (JsonParser subJts = subJson.asParser()) {
+                new ValueCollector<IdMappingRules>().mapKeys(
+                        plan.getIdTree(), subJts, idConsumer);
+            }
+            /* if this if block is outside the parent if block, standard objects without
+             * subobjects fail to parse
+             */
+            if (idConsumer.getPrimaryKey() == null) {
+                throw new ObjectParseException(String.format(
+                        "Could not find the subobject id for one or more of the subobjects " +
+                                "for object %s when applying search specification %s_%s",
+                                guid, parsingRules.getGlobalObjectType().getType(),
+                                parsingRules.getGlobalObjectType().getVersion())); 
+            }
+        }
+        return prepareGUID(parsingRules, guid, path, idConsumer);
+    }
+    
+    /** Receives (sub)objects from
+     * {@link ObjectParser#streamObjects(SourceData, GUID, List, ExtractedObjectHandler)} as
+     * they are extracted from the source data.
+     */
+    public interface ExtractedObjectHandler {
+        
+        /** Handle an extracted (sub)object. The parser creates a new buffer for each object and
+         * never reads or writes it after the call, so the handler owns the object buffer and
+         * may keep it. The parent data buffer is shared by all the objects extracted by the same
+         * plan, so the handler may keep it but must only read it, e.g. via
+         * {@link TokenBuffer#asParser()}.
+         * @param plan the extraction plan that produced the object.
+         * @param guid the GUID of the object.
+         * @param subObject the extracted object.
+         * @param parentData the data extracted from the parent object, or null if there is none.
+         * @throws IOException if an IO error occurs.
+         * @throws ObjectParseException if the object could not be parsed.
+         * @throws IndexingException if the object could not be handled.
+         * @throws InterruptedException if the thread was interrupted.
+         */
+        void handle(
+                ExtractionPlan plan,
+                GUID guid,
+                TokenBuffer subObject,
+                TokenBuffer parentData)
+                throws IOException, ObjectParseException, IndexingException,
+                    InterruptedException;
+    }
+    
+    /** Extracts the (sub)objects for several precompiled extraction plans and passes each one
+     * to a handler as soon as it has been extracted, rather than collecting them all as
+     * {@link #parseObjects(SourceData, GUID, List)} does. Only one (sub)object per plan is
+     * held in memory at a time, so memory use does not depend on the number of sub objects in
+     * the source data.
+     * 
+     * The data extracted from the parent object is needed to handle every sub object, and so if
+     * any plan extracts parent data the source data is read twice: once to extract the parent
+     * data and once to stream the sub objects.
+     * @param obj source data from which to extract.
+     * @param guid GUID of the source data.
+     * @param plans the extraction plans to apply. Each plan must have been compiled from a
+     * set of parsing rules.
+     * @param handler the handler for the extracted (sub)objects.
+     * @return the data extracted from the parent object for the parsing rules of each plan, in
+     * the order of the plans. The data is null for plans that do not extract parent data.
+     * @throws IOException if an IO error occurs reading the data.
+     * @throws ObjectParseException if the data could not be parsed.
+     * @throws IndexingException if the sub object ids could not be mapped or the handler
+     * failed.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    public static Map<ObjectTypeParsingRules, TokenBuffer> streamObjects(
+            final SourceData obj,
+            final GUID guid,
+            final List<ExtractionPlan> plans,
+            final ExtractedObjectHandler handler)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        Utils.nonNull(handler, "handler");
+        final List<SubObjectExtractionNode> parentTrees = new ArrayList<>();
+        final List<SubObjectConsumer> parentConsumers = new ArrayList<>();
+        final List<Map<ObjectJsonPath, TokenBuffer>> parents = new ArrayList<>();
+        for (final ExtractionPlan plan: plans) {
+            if (!plan.getParsingRules().isPresent()) {
+                throw new IllegalArgumentException(
+                        "Extraction plans must be compiled from parsing rules");
+            }
+            if (plan.getParentTree() != null) {
+                final Map<ObjectJsonPath, TokenBuffer> parentJson = new LinkedHashMap<>();
+                parents.add(parentJson);
+                parentTrees.add(plan.getParentTree());
+                parentConsumers.add(new TokenBufferSubObjectConsumer(parentJson));
+            } else {
+                parents.add(null);
+            }
+        }
+        if (!parentTrees.isEmpty()) {
+            try (final JsonParser jts = getDataParser(obj, parentTrees)) {
+                SubObjectExtractor.extract(parentTrees, jts, parentConsumers);
+            }
+        }
+        final Map<ObjectTypeParsingRules, TokenBuffer> ret = new LinkedHashMap<>();
+        final List<SubObjectExtractionNode> trees = new ArrayList<>();
+        final List<SubObjectConsumer> consumers = new ArrayList<>();
+        for (int i = 0; i < plans.size(); i++) {
+            final Map<ObjectJsonPath, TokenBuffer> parentJson = parents.get(i);
+            final TokenBuffer parentData = parentJson == null ?
+                    null : parentJson.values().iterator().next();
+            ret.put(plans.get(i).getParsingRules().get(), parentData);
+            trees.add(plans.get(i).getSubObjectTree());
+            consumers.add(new StreamingSubObjectConsumer(
+                    guid, plans.get(i), parentData, handler));
+        }
+        if (!trees.isEmpty()) {
+            try (final JsonParser jts = getDataParser(obj, trees)) {
+                SubObjectExtractor.extract(trees, jts, consumers);
+            } catch (HandlerExceptionWrapper e) {
+                e.rethrow();
+            }
+        }
+        return ret;
+    }
+    
+    /* the extractor only allows IO and parse exceptions to be thrown by consumers, so
+     * other exceptions from the handler are wrapped and then unwrapped once the extraction
+     * stops.
+     */
+    @SuppressWarnings("serial")
+    private static class HandlerExceptionWrapper extends RuntimeException {
+        
+        private HandlerExceptionWrapper(final Exception cause) {
+            super(cause);
+        }
+        
+        private void rethrow() throws IndexingException, InterruptedException {
+            if (getCause() instanceof IndexingException) {
+                throw (IndexingException) getCause();
+            }
+            throw (InterruptedException) getCause();
+        }
+    }
+    
+    /* passes each sub object to the handler when it is complete and then drops it */
+    private static class StreamingSubObjectConsumer implements SubObjectConsumer {
+        
+        private final GUID guid;
+        private final ExtractionPlan plan;
+        private final TokenBuffer parentData;
+        private final ExtractedObjectHandler handler;
+        private String nextPath = null;
+        private TokenBuffer nextBuf = null;
+        
+        private StreamingSubObjectConsumer(
+                final GUID guid,
+                final ExtractionPlan plan,
+                final TokenBuffer parentData,
+                final ExtractedObjectHandler handler) {
+            this.guid = guid;
+            this.plan = plan;
+            this.parentData = parentData;
+            this.handler = handler;
+        }
+
+        @Override
+        public void nextObject(final String path) throws IOException, ObjectParseException {
+            flush();
+            nextPath = path;
+            nextBuf = JsonTokenUtil.newTokenBuffer();
+        }
+
+        @Override
+        public JsonGenerator getOutput() throws IOException, ObjectParseException {
+            if (nextBuf == null) {
+                throw new ObjectParseException("JsonGenerator wasn't initialized");
+            }
+            return nextBuf;
+        }
+
+        @Override
+        public void flush() throws IOException, ObjectParseException {
+            if (nextPath != null && nextBuf != null) {
+                final TokenBuffer buf = nextBuf;
+                final ObjectJsonPath path = new ObjectJsonPath(nextPath);
+                nextPath = null;
+                nextBuf = null;
+                buf.close();
+                try {
+                    handler.handle(plan, toGUID(guid, plan, path, buf), buf, parentData);
+                } catch (IndexingException | InterruptedException e) {
+                    throw new HandlerExceptionWrapper(e);
                 }
             }
-            GUID subid = prepareGUID(parsingRules, guid, path, idConsumer);
-            guidToJson.put(subid, subJson);
         }
-        return guidToJson;
     }
 
     /** Appends the sub-object path and id to the specified GUID if the parsing
@@ -114,14 +475,7 @@ public class ObjectParser {
         if (!parsingRules.getSubObjectPath().isPresent()) {
             return null;
         }
-        List<ObjectJsonPath> indexingPaths = new ArrayList<>();
-        for (IndexingRules rules : parsingRules.getIndexingRules()) {
-            if (!rules.isFromParent()) {
-                continue;
-            }
-            //TODO CODE this seems wrong. Why adding null paths?
-            indexingPaths.add(rules.getPath().orNull());
-        }
+        List<ObjectJsonPath> indexingPaths = getParentPaths(parsingRules);
         if (indexingPaths.size() == 0) {
             return null;
         }
@@ -148,6 +502,27 @@ public class ObjectParser {
             JsonParser jts)
             throws ObjectParseException,
                    IOException {
+        ObjectJsonPath pathToSubObjects = parsingRules.getSubObjectPath()
+                .or(new ObjectJsonPath("/"));
+        SubObjectExtractor.extract(pathToSubObjects, getSubObjectPaths(parsingRules), jts,
+                subObjConsumer);
+    }
+    
+    private static List<ObjectJsonPath> getParentPaths(
+            final ObjectTypeParsingRules parsingRules) {
+        List<ObjectJsonPath> indexingPaths = new ArrayList<>();
+        for (IndexingRules rules : parsingRules.getIndexingRules()) {
+            if (!rules.isFromParent()) {
+                continue;
+            }
+            //TODO CODE this seems wrong. Why adding null paths?
+            indexingPaths.add(rules.getPath().orNull());
+        }
+        return indexingPaths;
+    }
+    
+    private static List<ObjectJsonPath> getSubObjectPaths(
+            final ObjectTypeParsingRules parsingRules) {
         List<ObjectJsonPath> indexingPaths = new ArrayList<>();
         for (IndexingRules rules : parsingRules.getIndexingRules()) {
             if (rules.isFromParent()) {
@@ -157,8 +532,6 @@ public class ObjectParser {
                 indexingPaths.add(rules.getPath().get());
             }
         }
-        ObjectJsonPath pathToSubObjects = parsingRules.getSubObjectPath()
-                .or(new ObjectJsonPath("/"));
-        SubObjectExtractor.extract(pathToSubObjects, indexingPaths, jts, subObjConsumer);
+        return indexingPaths;
     }
 }
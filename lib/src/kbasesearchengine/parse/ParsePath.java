@@ -0,0 +1,69 @@
+package kbasesearchengine.parse;
+
+import java.util.Arrays;
+
+import kbasesearchengine.common.ObjectJsonPath;
+
+/* The path to the current location in a JSON token stream. Field names are stored as given and
+ * array positions as ints, and the path text is only built when it's needed, so tracking the
+ * path doesn't allocate memory per token.
+ */
+final class ParsePath {
+
+    private String[] fields = new String[16];
+    private int[] positions = new int[16];
+    private int size = 0;
+
+    void add(final String field) {
+        ensureCapacity();
+        fields[size] = field;
+        size++;
+    }
+
+    void add(final int position) {
+        ensureCapacity();
+        fields[size] = null;
+        positions[size] = position;
+        size++;
+    }
+
+    void remove() {
+        size--;
+        fields[size] = null;
+    }
+
+    private void ensureCapacity() {
+        if (size == fields.length) {
+            fields = Arrays.copyOf(fields, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+    }
+
+    /* the path text as per ObjectJsonPath.getPathText(). Called for every sub object, so the
+     * text is built directly rather than via a list of strings.
+     */
+    String getPathText() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            sb.append('/');
+            if (fields[i] == null) {
+                sb.append(positions[i]);
+            } else if (fields[i].indexOf('~') < 0 && fields[i].indexOf('/') < 0) {
+                sb.append(fields[i]);
+            } else {
+                sb.append(ObjectJsonPath.getPathText(new String[] {fields[i]}).substring(1));
+            }
+        }
+        return sb.toString();
+    }
+
+    /* the path text with an extra item on the end. */
+    String getPathText(final String add) {
+        return getPathText() + ObjectJsonPath.getPathText(new String[] {add});
+    }
+
+    @Override
+    public String toString() {
+        return getPathText();
+    }
+}
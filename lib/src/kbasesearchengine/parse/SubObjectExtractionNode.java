@@ -13,6 +13,8 @@ public class SubObjectExtractionNode {
 	private boolean needAll = false;
 	private boolean skipLevel = false;
 	private Map<String, SubObjectExtractionNode> children = null;
+	// built on first use. Rebuilding it in a race is harmless as it's immutable
+	private FieldSelection<SubObjectExtractionNode> selection = null;
 	
 	public SubObjectExtractionNode() {
 	}
@@ -25,6 +27,17 @@ public class SubObjectExtractionNode {
 		if (children == null) 
 			children = new LinkedHashMap<String, SubObjectExtractionNode>();
 		children.put(key, child);
+		selection = null;
+	}
+	
+	/* the children compiled for matching against a token stream. */
+	FieldSelection<SubObjectExtractionNode> getSelection() {
+		FieldSelection<SubObjectExtractionNode> ret = selection;
+		if (ret == null) {
+			ret = FieldSelection.compile(children);
+			selection = ret;
+		}
+		return ret;
 	}
 
 	public boolean hasChildren() {
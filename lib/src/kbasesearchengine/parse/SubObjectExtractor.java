@@ -2,12 +2,13 @@ package kbasesearchengine.parse;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import kbasesearchengine.common.JsonTokenUtil;
 import kbasesearchengine.common.ObjectJsonPath;
@@ -38,12 +39,24 @@ public class SubObjectExtractor {
             final SubObjectConsumer consumer)
             throws IOException, ObjectParseException {
         //if the selection is empty, we return without adding anything
+        extract(buildTree(pathToSub, objpaths), jts, consumer);
+    }
+    
+    /** Build the extraction tree for a set of sub objects and the paths to extract from each
+     * sub object.
+     * @param pathToSub the path to the sub objects.
+     * @param objpaths the paths to extract, relative to each sub object.
+     * @return the root of the extraction tree.
+     */
+    public static SubObjectExtractionNode buildTree(
+            final ObjectJsonPath pathToSub,
+            final List<ObjectJsonPath> objpaths) {
         SubObjectExtractionNode root = new SubObjectExtractionNode();
         SubObjectExtractionNode sub = root.addPath(pathToSub, true, false);
         for (ObjectJsonPath path: objpaths) {
             sub.addPath(JsonTokenUtil.trimPath(path), false, true);
         }
-        extract(root, jts, consumer);
+        return root;
     }
     
     public static void extract(
@@ -52,38 +65,349 @@ public class SubObjectExtractor {
             final SubObjectConsumer consumer)
             throws IOException, ObjectParseException {
         JsonToken t = jts.nextToken();
-        extractFieldsWithOpenToken(jts, t, tree, consumer, new ArrayList<String>(),
+        extractFieldsWithOpenToken(jts, t, tree, consumer, new ParsePath(),
                 false, false, true);
         consumer.flush();
     }
     
+    /** Extract data for several extraction trees in a single pass over the token stream. The
+     * results are identical to calling {@link #extract(SubObjectExtractionNode, JsonParser,
+     * SubObjectConsumer)} for each tree and consumer pair on separate parsers, but the input is
+     * only tokenized once.
+     * @param trees the extraction trees.
+     * @param jts the parser for the input.
+     * @param consumers the consumers, one per extraction tree and in the same order.
+     * @throws IOException if an IO error occurs.
+     * @throws ObjectParseException if the data does not match a selection.
+     */
+    public static void extract(
+            final List<SubObjectExtractionNode> trees,
+            final JsonParser jts,
+            final List<SubObjectConsumer> consumers)
+            throws IOException, ObjectParseException {
+        if (trees.size() != consumers.size()) {
+            throw new IllegalArgumentException(
+                    "There must be exactly one consumer per extraction tree");
+        }
+        final List<Branch> branches = new ArrayList<>();
+        for (int i = 0; i < trees.size(); i++) {
+            branches.add(new Branch(trees.get(i), consumers.get(i), true));
+        }
+        JsonToken t = jts.nextToken();
+        extractBranchesWithOpenToken(jts, t, branches, new ParsePath());
+        for (final SubObjectConsumer consumer: consumers) {
+            consumer.flush();
+        }
+    }
+    
+    /* The position of one extraction tree at the current location in the token stream. */
+    private static class Branch {
+        private final SubObjectExtractionNode selection;
+        private final SubObjectConsumer consumer;
+        private final boolean fromSkippedLevel;
+        
+        private Branch(
+                final SubObjectExtractionNode selection,
+                final SubObjectConsumer consumer,
+                final boolean fromSkippedLevel) {
+            this.selection = selection;
+            this.consumer = consumer;
+            this.fromSkippedLevel = fromSkippedLevel;
+        }
+    }
+    
+    /*
+     * Multiple tree version of extractFieldsWithOpenToken. Tokens are read once and dispatched
+     * to every tree that selects them. Once only one tree is interested in a block of tokens the
+     * single tree code takes over.
+     */
+    private static void extractBranchesWithOpenToken(
+            final JsonParser jts,
+            final JsonToken current,
+            final List<Branch> branches,
+            final ParsePath path)
+            throws IOException, ObjectParseException {
+        if (branches.size() == 1) {
+            final Branch b = branches.get(0);
+            extractFieldsWithOpenToken(jts, current, b.selection, b.consumer, path,
+                    false, false, b.fromSkippedLevel);
+            return;
+        }
+        for (final Branch b: branches) {
+            if (b.fromSkippedLevel && !b.selection.isSkipLevel()) {
+                b.consumer.nextObject(path.getPathText());
+            }
+        }
+        JsonToken t = current;
+        if (t != JsonToken.START_OBJECT && t != JsonToken.START_ARRAY) {
+            for (final Branch b: branches) {
+                if (b.selection.hasChildren())
+                    throw new ObjectParseException("Invalid selection: the path given " +
+                            "specifies fields or elements that do not exist because data at " +
+                            "this location is a scalar value (i.e. string, integer, float), " +
+                            "at: " + path.getPathText());
+                JsonTokenUtil.writeCurrentToken(jts, t, b.consumer.getOutput());
+            }
+            return;
+        }
+        final List<Branch> copy = new ArrayList<>();
+        final List<Branch> walk = new ArrayList<>();
+        for (final Branch b: branches) {
+            if (b.selection.hasChildren()) {
+                walk.add(b);
+            } else if (b.selection.isNeedAll()) {
+                copy.add(b);
+            }
+        }
+        if (!copy.isEmpty()) {
+            if (copy.size() == 1 && walk.isEmpty()) {
+                JsonTokenUtil.writeTokensFromCurrent(jts, t, copy.get(0).consumer.getOutput());
+                return;
+            }
+            // more than one tree needs this block, so buffer it and replay it to each tree
+            final TokenBuffer buf = new TokenBuffer(jts.getCodec());
+            JsonTokenUtil.writeTokensFromCurrent(jts, t, buf);
+            for (final Branch b: copy) {
+                buf.serialize(b.consumer.getOutput());
+            }
+            if (!walk.isEmpty()) {
+                final JsonParser bufjts = buf.asParser();
+                extractBranchesWithOpenToken(bufjts, bufjts.nextToken(),
+                        withoutNextObject(walk), path);
+            }
+            return;
+        }
+        if (walk.isEmpty()) {
+            JsonTokenUtil.skipChildren(jts, t);
+            return;
+        }
+        if (t == JsonToken.START_OBJECT) {
+            walkObject(jts, t, walk, path);
+        } else {
+            walkArray(jts, t, walk, path);
+        }
+    }
+    
+    /* nextObject() has already been called for these branches at this level. */
+    private static List<Branch> withoutNextObject(final List<Branch> branches) {
+        final List<Branch> ret = new ArrayList<>();
+        for (final Branch b: branches) {
+            ret.add(new Branch(b.selection, b.consumer, false));
+        }
+        return ret;
+    }
+    
+    private static void walkObject(
+            final JsonParser jts,
+            final JsonToken current,
+            final List<Branch> walk,
+            final ParsePath path)
+            throws IOException, ObjectParseException {
+        final List<Branch> sizes = new ArrayList<>();
+        final List<Branch> selects = new ArrayList<>();
+        for (final Branch b: walk) {
+            final FieldSelection<SubObjectExtractionNode> fields = b.selection.getSelection();
+            if (fields.isSizeOnly()) {
+                sizes.add(b);
+                continue;
+            }
+            if (fields.getAllFields() != null && fields.size() > 1) {
+                throw new ObjectParseException("Invalid selection: the selection path " +
+                        "contains both '*' to select all fields and selection of " +
+                        "specific fields (" + fields.getKeysExcept("*") + "), at: " + 
+                        path.getPathText());
+            }
+            selects.add(b);
+        }
+        writeToUnskipped(jts, current, selects);
+        int size = 0;
+        while (true) {
+            JsonToken t = jts.nextToken();
+            if (t == JsonToken.END_OBJECT) {
+                writeToUnskipped(jts, t, selects);
+                break;
+            }
+            if (t != JsonToken.FIELD_NAME)
+                throw new ObjectParseException("Error parsing json format " + 
+                        t.asString() + ", at: " + path.getPathText());
+            size++;
+            final String fieldName = jts.getCurrentName();
+            // usually only one tree selects a field, so only build a list if there are more
+            Branch first = null;
+            List<Branch> children = null;
+            for (final Branch b: selects) {
+                final FieldSelection<SubObjectExtractionNode> fields = b.selection.getSelection();
+                final SubObjectExtractionNode child = fields.getAllFields() != null ?
+                        fields.getAllFields() : fields.getField(fieldName);
+                if (child != null) {
+                    if (!b.selection.isSkipLevel()) {
+                        JsonTokenUtil.writeCurrentToken(jts, t, b.consumer.getOutput());
+                    }
+                    final Branch cb = new Branch(child, b.consumer, b.selection.isSkipLevel());
+                    if (first == null) {
+                        first = cb;
+                    } else {
+                        if (children == null) {
+                            children = new ArrayList<>();
+                            children.add(first);
+                        }
+                        children.add(cb);
+                    }
+                }
+            }
+            t = jts.nextToken();
+            if (first == null) {
+                JsonTokenUtil.skipChildren(jts, t);
+            } else {
+                path.add(fieldName);
+                extractBranchesWithOpenToken(jts, t, first, children, path);
+                path.remove();
+            }
+        }
+        writeSize(sizes, size);
+    }
+    
+    private static void walkArray(
+            final JsonParser jts,
+            final JsonToken current,
+            final List<Branch> walk,
+            final ParsePath path)
+            throws IOException, ObjectParseException {
+        final List<Branch> sizes = new ArrayList<>();
+        final List<Branch> selects = new ArrayList<>();
+        for (final Branch b: walk) {
+            final FieldSelection<SubObjectExtractionNode> items = b.selection.getSelection();
+            if (items.isSizeOnly()) {
+                sizes.add(b);
+                continue;
+            }
+            checkArraySelection(items, path);
+            selects.add(b);
+        }
+        writeToUnskipped(jts, current, selects);
+        int pos = 0;
+        for (; ; pos++) {
+            JsonToken t = jts.nextToken();
+            if (t == JsonToken.END_ARRAY) {
+                writeToUnskipped(jts, t, selects);
+                break;
+            }
+            Branch first = null;
+            List<Branch> children = null;
+            for (final Branch b: selects) {
+                final FieldSelection<SubObjectExtractionNode> items = b.selection.getSelection();
+                final SubObjectExtractionNode child = items.getAllItems() != null ?
+                        items.getAllItems() : items.getItem(pos);
+                if (child != null) {
+                    final Branch cb = new Branch(child, b.consumer, b.selection.isSkipLevel());
+                    if (first == null) {
+                        first = cb;
+                    } else {
+                        if (children == null) {
+                            children = new ArrayList<>();
+                            children.add(first);
+                        }
+                        children.add(cb);
+                    }
+                }
+            }
+            if (first == null) {
+                JsonTokenUtil.skipChildren(jts, t);
+            } else {
+                path.add(pos);
+                extractBranchesWithOpenToken(jts, t, first, children, path);
+                path.remove();
+            }
+        }
+        writeSize(sizes, pos);
+    }
+    
+    /* children is null if first is the only branch. */
+    private static void extractBranchesWithOpenToken(
+            final JsonParser jts,
+            final JsonToken current,
+            final Branch first,
+            final List<Branch> children,
+            final ParsePath path)
+            throws IOException, ObjectParseException {
+        if (children == null) {
+            extractFieldsWithOpenToken(jts, current, first.selection, first.consumer, path,
+                    false, false, first.fromSkippedLevel);
+        } else {
+            extractBranchesWithOpenToken(jts, current, children, path);
+        }
+    }
+    
+    private static void checkArraySelection(
+            final FieldSelection<SubObjectExtractionNode> items,
+            final ParsePath path)
+            throws ObjectParseException {
+        // now we support only '[*]' which means all elements and set of numbers in case of 
+        // certain item positions are selected in array
+        if (items.getAllItems() == null) {
+            final String item = items.getInvalidItem();
+            if (item != null) {
+                throw new ObjectParseException("Invalid selection: data at '" +
+                        path.getPathText() + "' is an array, so " +
+                        "element selection must be an integer. You requested element" +
+                        " '" + item + "', at: " + path.getPathText());
+            }
+        } else if (items.size() > 1) {
+            // if there is [*] keyword selected there shouldn't be anything else in selection
+            throw new ObjectParseException("Invalid selection: the selection path " +
+                    "contains both '[*]' to select all elements and selection of " +
+                    "specific elements (" + items.getKeysExcept("[*]") + "), at: " +
+                    path.getPathText());
+        }
+    }
+    
+    private static void writeToUnskipped(
+            final JsonParser jts,
+            final JsonToken t,
+            final List<Branch> branches)
+            throws IOException, ObjectParseException {
+        for (final Branch b: branches) {
+            if (!b.selection.isSkipLevel()) {
+                JsonTokenUtil.writeCurrentToken(jts, t, b.consumer.getOutput());
+            }
+        }
+    }
+    
+    private static void writeSize(final List<Branch> branches, final int size)
+            throws IOException, ObjectParseException {
+        for (final Branch b: branches) {
+            b.consumer.getOutput().writeNumber(size);
+        }
+    }
+    
     /*
      * This is main recursive method for tracking current token place in subset schema tree
      * and making decisions whether or not we need to process this token or block of tokens or
      * just skip it.
+     *
+     * Nothing is allocated per token or per object unless strict checking is requested or
+     * an error occurs, as this is the hot loop of the indexer.
      */
     private static void extractFieldsWithOpenToken(
             final JsonParser jts,
             final JsonToken current,
             final SubObjectExtractionNode selection,
             final SubObjectConsumer consumer,
-            final List<String> path,
+            final ParsePath path,
             final boolean strictMaps,
             final boolean strictArrays,
             final boolean fromSkippedLevel)
             throws IOException, ObjectParseException {
         if (fromSkippedLevel && !selection.isSkipLevel()) {
             // It means we're starting sub-object (or whole object is needed)
-            consumer.nextObject(ObjectJsonPath.getPathText(path));
+            consumer.nextObject(path.getPathText());
         }
         JsonToken t = current;
         boolean skipLvl = selection.isSkipLevel();
         if (t == JsonToken.START_OBJECT) {    // we observe open of mapping/object in real json data
             if (selection.hasChildren()) {    // we have some restrictions for this object in selection
-                // we will remove visited keys from selectedFields and check emptiness at object end
-                Set<String> selectedFields = new LinkedHashSet<String>(
-                        selection.getChildren().keySet());
-                if (selectedFields.size() == 1 && selectedFields.contains("{size}")) {
+                final FieldSelection<SubObjectExtractionNode> fields = selection.getSelection();
+                if (fields.isSizeOnly()) {
                     int size = 0;
                     while (true) {
                         t = jts.nextToken();
@@ -92,46 +416,52 @@ public class SubObjectExtractor {
                         }
                         if (t != JsonToken.FIELD_NAME)
                             throw new ObjectParseException("Error parsing json format " + 
-                                    t.asString() + ", at: " + ObjectJsonPath.getPathText(path));
+                                    t.asString() + ", at: " + path.getPathText());
                         t = jts.nextToken();
                         JsonTokenUtil.skipChildren(jts, t);
                         size++;
                     }
                     consumer.getOutput().writeNumber(size);
                 } else {
-                    boolean all = false;
-                    SubObjectExtractionNode allChild = null;
-                    if (selectedFields.contains("*")) {
-                        all = true;
-                        selectedFields.remove("*");
-                        allChild = selection.getChildren().get("*");
-                        if (selectedFields.size() > 0)
-                            throw new ObjectParseException("Invalid selection: the selection path " +
-                                    "contains both '*' to select all fields and selection of " +
-                                    "specific fields (" + selectedFields + "), at: " + 
-                                    ObjectJsonPath.getPathText(path));
-                    }
+                    final SubObjectExtractionNode allChild = fields.getAllFields();
+                    if (allChild != null && fields.size() > 1)
+                        throw new ObjectParseException("Invalid selection: the selection path " +
+                                "contains both '*' to select all fields and selection of " +
+                                "specific fields (" + fields.getKeysExcept("*") + "), at: " + 
+                                path.getPathText());
+                    // we will mark visited keys and check for unvisited keys at object end
+                    final BitSet visited = strictMaps && allChild == null ? new BitSet() : null;
+                    // a single selected field can be matched by the parser without a lookup
+                    final SerializableString onlyName = fields.getOnlyFieldName();
                     // process first token standing for start of object
                     if (!skipLvl) {
                         JsonTokenUtil.writeCurrentToken(jts, t, consumer.getOutput());
                     }
                     while (true) {
-                        t = jts.nextToken();
-                        if (t == JsonToken.END_OBJECT) {
-                            if (!skipLvl) {
-                                JsonTokenUtil.writeCurrentToken(jts, t, consumer.getOutput());
+                        final SubObjectExtractionNode child;
+                        if (onlyName != null && jts.nextFieldName(onlyName)) {
+                            t = JsonToken.FIELD_NAME;
+                            child = fields.getOnlyField();
+                        } else {
+                            t = onlyName != null ? jts.getCurrentToken() : jts.nextToken();
+                            if (t == JsonToken.END_OBJECT) {
+                                if (!skipLvl) {
+                                    JsonTokenUtil.writeCurrentToken(jts, t, consumer.getOutput());
+                                }
+                                break;
                             }
-                            break;
+                            if (t != JsonToken.FIELD_NAME)
+                                throw new ObjectParseException("Error parsing json format " + 
+                                        t.asString() + ", at: " + path.getPathText());
+                            child = allChild != null ? allChild :
+                                fields.getField(jts.getCurrentName());
                         }
-                        if (t != JsonToken.FIELD_NAME)
-                            throw new ObjectParseException("Error parsing json format " + 
-                                    t.asString() + ", at: " + ObjectJsonPath.getPathText(path));
-                        String fieldName = jts.getText();
-                        if (all || selectedFields.contains(fieldName)) {
+                        if (child != null) {
                             // if we need all fields or the field is present in list of necessary fields 
                             // we process it and value following after that
-                            if (!all)
-                                selectedFields.remove(fieldName);
+                            final String fieldName = jts.getCurrentName();
+                            if (visited != null)
+                                visited.set(fields.indexOfField(fieldName));
                             if (!skipLvl) {
                                 JsonTokenUtil.writeCurrentToken(jts, t, consumer.getOutput());
                             }
@@ -141,11 +471,10 @@ public class SubObjectExtractor {
                             // add field to the tail of path branch
                             path.add(fieldName);
                             // process value corresponding to this field recursively
-                            extractFieldsWithOpenToken(jts, t, all ? allChild : 
-                                selection.getChildren().get(fieldName), consumer, path, 
+                            extractFieldsWithOpenToken(jts, t, child, consumer, path, 
                                 strictMaps, strictArrays, selection.isSkipLevel());
                             // remove field from tail of path branch
-                            path.remove(path.size() - 1);
+                            path.remove();
                         } else {
                             // otherwise we skip value following after field
                             t = jts.nextToken();
@@ -153,12 +482,13 @@ public class SubObjectExtractor {
                         }
                     }
                     // let's check have we visited all selected fields in this map
-                    // we will not visit them in real data and hence will not delete them from selection
-                    if (strictMaps && !selectedFields.isEmpty()) {
-                        String notFound = selectedFields.iterator().next();
-                        throw new ObjectParseException("Invalid selection: data does not contain " +
-                                "a field or key named '" + notFound + "', at: " + 
-                                getPathText(path, notFound));
+                    if (visited != null) {
+                        final String notFound = fields.getFirstUnvisited(visited);
+                        if (notFound != null) {
+                            throw new ObjectParseException("Invalid selection: data does not " +
+                                    "contain a field or key named '" + notFound + "', at: " + 
+                                    path.getPathText(notFound));
+                        }
                     }
                 }
             } else {  // need all fields and values
@@ -170,9 +500,8 @@ public class SubObjectExtractor {
             }
         } else if (t == JsonToken.START_ARRAY) {    // we observe open of array/list in real json data
             if (selection.hasChildren()) {  // we have some restrictions for array item positions in selection
-                Set<String> selectedFields = new LinkedHashSet<String>(
-                        selection.getChildren().keySet());
-                if (selectedFields.size() == 1 && selectedFields.contains("{size}")) {
+                final FieldSelection<SubObjectExtractionNode> items = selection.getSelection();
+                if (items.isSizeOnly()) {
                     int size = 0;
                     while (true) {
                         t = jts.nextToken();
@@ -184,31 +513,9 @@ public class SubObjectExtractor {
                     }
                     consumer.getOutput().writeNumber(size);
                 } else {
-                    SubObjectExtractionNode allChild = null;
-                    // now we support only '[*]' which means all elements and set of numbers in case of 
-                    // certain item positions are selected in array
-                    if (!selectedFields.contains("[*]")) {
-                        for (String item : selectedFields) {
-                            try {
-                                Integer.parseInt(item);
-                            } catch (NumberFormatException ex) {
-                                throw new ObjectParseException("Invalid selection: data at '" +
-                                        ObjectJsonPath.getPathText(path) + "' is an array, so " +
-                                        "element selection must be an integer. You requested element" +
-                                        " '" + item + "', at: " + ObjectJsonPath.getPathText(path));
-                            }
-                        }
-                    }
-                    if (selectedFields.contains("[*]")) {
-                        selectedFields.remove("[*]");
-                        allChild = selection.getChildren().get("[*]");
-                        // if there is [*] keyword selected there shouldn't be anything else in selection
-                        if (selectedFields.size() > 0)
-                            throw new ObjectParseException("Invalid selection: the selection path " +
-                                    "contains both '[*]' to select all elements and selection of " +
-                                    "specific elements (" + selectedFields + "), at: " +
-                                    ObjectJsonPath.getPathText(path));
-                    }
+                    checkArraySelection(items, path);
+                    final SubObjectExtractionNode allChild = items.getAllItems();
+                    final BitSet visited = strictArrays && allChild == null ? new BitSet() : null;
                     if (!skipLvl) {
                         JsonTokenUtil.writeCurrentToken(jts, t, consumer.getOutput());  // write start of array into output
                     }
@@ -220,34 +527,31 @@ public class SubObjectExtractor {
                             }
                             break;
                         }
-                        SubObjectExtractionNode child = null;
-                        if (allChild != null) {
-                            child = allChild;
-                        } else {
-                            String key = "" + pos;
-                            if (selection.getChildren().containsKey(key)) {
-                                child = selection.getChildren().get(key);
-                                selectedFields.remove(key);
-                            }
-                        }
+                        final SubObjectExtractionNode child = allChild != null ? allChild :
+                            items.getItem(pos);
                         if (child == null) {
                             // this element of array is not selected, skip it
                             JsonTokenUtil.skipChildren(jts, t);
                         } else {
+                            if (visited != null)
+                                visited.set(items.indexOfItem(pos));
                             // add element position to the tail of path branch
-                            path.add("" + pos);
+                            path.add(pos);
                             // process value of this element recursively
                             extractFieldsWithOpenToken(jts, t, child, consumer, path, strictMaps,
                                     strictArrays, selection.isSkipLevel());
                             // remove field from tail of path branch
-                            path.remove(path.size() - 1);
+                            path.remove();
                         }
                     }
                     // let's check have we visited all selected items in this array
-                    if (strictArrays && !selectedFields.isEmpty()) {
-                        String notFound = selectedFields.iterator().next();
-                        throw new ObjectParseException("Invalid selection: no array element exists " +
-                                "at position '" + notFound + "', at: " + getPathText(path, notFound));
+                    if (visited != null) {
+                        final String notFound = items.getFirstUnvisited(visited);
+                        if (notFound != null) {
+                            throw new ObjectParseException("Invalid selection: no array " +
+                                    "element exists at position '" + notFound + "', at: " +
+                                    path.getPathText(notFound));
+                        }
                     }
                 }
             } else {
@@ -263,7 +567,7 @@ public class SubObjectExtractor {
                 throw new ObjectParseException("Invalid selection: the path given specifies " +
                         "fields or elements that do not exist because data at this location is " +
                         "a scalar value (i.e. string, integer, float), at: " +
-                        ObjectJsonPath.getPathText(path));
+                        path.getPathText());
             JsonTokenUtil.writeCurrentToken(jts, t, consumer.getOutput());
         }
     }
@@ -0,0 +1,53 @@
+package kbasesearchengine.parse;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import kbasesearchengine.common.JsonTokenUtil;
+import kbasesearchengine.common.ObjectJsonPath;
+
+/** A sub object consumer that stores each sub object as a token buffer rather than a JSON
+ * string. The buffers can be read repeatedly by later parsing stages without the JSON being
+ * serialized and tokenized again.
+ */
+public class TokenBufferSubObjectConsumer implements SubObjectConsumer {
+    
+    private final Map<ObjectJsonPath, TokenBuffer> data;
+    private String nextPath = null;
+    private TokenBuffer nextBuf = null;
+    
+    /** Create the consumer.
+     * @param data the map to which the sub objects will be added, keyed by their path.
+     */
+    public TokenBufferSubObjectConsumer(final Map<ObjectJsonPath, TokenBuffer> data) {
+        this.data = data;
+    }
+    
+    @Override
+    public void nextObject(final String path) throws IOException, ObjectParseException {
+        flush();
+        nextPath = path;
+        nextBuf = JsonTokenUtil.newTokenBuffer();
+    }
+    
+    @Override
+    public JsonGenerator getOutput() throws IOException, ObjectParseException {
+        if (nextBuf == null) {
+            throw new ObjectParseException("JsonGenerator wasn't initialized");
+        }
+        return nextBuf;
+    }
+    
+    @Override
+    public void flush() throws IOException, ObjectParseException {
+        if (nextPath != null && nextBuf != null) {
+            nextBuf.close();
+            data.put(new ObjectJsonPath(nextPath), nextBuf);
+            nextPath = null;
+            nextBuf = null;
+        }
+    }
+}
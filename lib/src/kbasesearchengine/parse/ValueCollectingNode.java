@@ -8,6 +8,8 @@ import kbasesearchengine.common.ObjectJsonPath;
 public class ValueCollectingNode <T> {
     private T rules = null;
     private Map<String, ValueCollectingNode<T>> children = null;
+    // built on first use. Rebuilding it in a race is harmless as it's immutable
+    private FieldSelection<ValueCollectingNode<T>> selection = null;
     
     public ValueCollectingNode() {
     }
@@ -20,6 +22,17 @@ public class ValueCollectingNode <T> {
         if (children == null) 
             children = new LinkedHashMap<String, ValueCollectingNode<T>>();
         children.put(key, child);
+        selection = null;
+    }
+    
+    /* the children compiled for matching against a token stream. */
+    FieldSelection<ValueCollectingNode<T>> getSelection() {
+        FieldSelection<ValueCollectingNode<T>> ret = selection;
+        if (ret == null) {
+            ret = FieldSelection.compile(children);
+            selection = ret;
+        }
+        return ret;
     }
 
     public boolean hasChildren() {
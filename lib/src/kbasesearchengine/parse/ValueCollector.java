@@ -1,18 +1,12 @@
 package kbasesearchengine.parse;
 
 import java.io.IOException;
-import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
 
-import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
 
 import kbasesearchengine.common.JsonTokenUtil;
-import kbasesearchengine.common.ObjectJsonPath;
 import kbasesearchengine.events.exceptions.IndexingException;
 import us.kbase.common.service.UObject;
 
@@ -26,76 +20,73 @@ public class ValueCollector <T> {
             ValueConsumer<T> consumer)
             throws IOException, ObjectParseException, IndexingException, InterruptedException {
         JsonToken t = jts.nextToken();
-        mapKeysWithOpenToken(jts, t, tree, consumer, new ArrayList<String>());
+        mapKeysWithOpenToken(jts, t, tree, consumer, new ParsePath());
     }
     
     /*
      * This is main recursive method for tracking current token place in subset schema tree
      * and making decisions whether or not we need to process this token or block of tokens or
      * just skip it.
+     *
+     * Nothing is allocated per token or per object other than the collected values unless an
+     * error occurs.
      */
     private void mapKeysWithOpenToken(
             final JsonParser jts,
             final JsonToken current, 
             final ValueCollectingNode<T> selection,
             final ValueConsumer<T> consumer,
-            final List<String> path)
+            final ParsePath path)
             throws IOException, ObjectParseException, IndexingException, InterruptedException {
         JsonToken t = current;
         if (selection.getRules() != null && (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY)) {
-            StringWriter outChars = new StringWriter();
-            JsonGenerator jsonGen = UObject.getMapper().getFactory().createGenerator(outChars);
-            JsonTokenUtil.writeTokensFromCurrent(jts, current, jsonGen);
-            jsonGen.close();
-            Object value = UObject.transformStringToObject(outChars.toString(), Object.class);
+            // bind the value directly from the token stream rather than via a JSON string
+            Object value = UObject.getMapper().readValue(jts, Object.class);
             consumer.addValue(selection.getRules(), value);
             return;
         }
 		if (t == JsonToken.START_OBJECT) {	// we observe open of mapping/object in real json data
 		    if (selection.getRules() != null) {
                 throw new ObjectParseException("Invalid ID mapping selection: object cannot be " +
-                        "collected as value, at: " + ObjectJsonPath.getPathText(path));
+                        "collected as value, at: " + path.getPathText());
 		    }
 			if (selection.hasChildren()) {	// we have some restrictions for this object in selection
-				// we will remove visited keys from selectedFields and check emptiness at object end
-				Set<String> selectedFields = new LinkedHashSet<String>(
-				        selection.getChildren().keySet());
-				boolean all = false;
-				ValueCollectingNode<T> allChild = null;
-				if (selectedFields.contains("*")) {
-					all = true;
-					selectedFields.remove("*");
-					allChild = selection.getChildren().get("*");
-					if (selectedFields.size() > 0)
-						throw new ObjectParseException("Invalid selection: the selection path " +
-								"contains both '*' to select all fields and selection of " +
-								"specific fields (" + selectedFields + "), at: " + 
-								ObjectJsonPath.getPathText(path));
-				}
+				final FieldSelection<ValueCollectingNode<T>> fields = selection.getSelection();
+				final ValueCollectingNode<T> allChild = fields.getAllFields();
+				if (allChild != null && fields.size() > 1)
+					throw new ObjectParseException("Invalid selection: the selection path " +
+							"contains both '*' to select all fields and selection of " +
+							"specific fields (" + fields.getKeysExcept("*") + "), at: " + 
+							path.getPathText());
+				// a single selected field can be matched by the parser without a lookup
+				final SerializableString onlyName = fields.getOnlyFieldName();
 				while (true) {
-					t = jts.nextToken();
-					if (t == JsonToken.END_OBJECT) {
-						break;
+					final ValueCollectingNode<T> child;
+					if (onlyName != null && jts.nextFieldName(onlyName)) {
+						child = fields.getOnlyField();
+					} else {
+						t = onlyName != null ? jts.getCurrentToken() : jts.nextToken();
+						if (t == JsonToken.END_OBJECT) {
+							break;
+						}
+						if (t != JsonToken.FIELD_NAME)
+							throw new ObjectParseException("Error parsing json format " + 
+									t.asString() + ", at: " + path.getPathText());
+						child = allChild != null ? allChild : fields.getField(jts.getCurrentName());
 					}
-					if (t != JsonToken.FIELD_NAME)
-						throw new ObjectParseException("Error parsing json format " + 
-								t.asString() + ", at: " + ObjectJsonPath.getPathText(path));
-					String fieldName = jts.getText();
-					if (all || selectedFields.contains(fieldName)) {
+					if (child != null) {
 						// if we need all fields or the field is present in list of necessary fields 
 						// we process it and value following after that
-						if (!all)
-							selectedFields.remove(fieldName);
+						final String fieldName = jts.getCurrentName();
 						// read first token of value block in order to prepare state for recursive 
 						// extractFieldsWithOpenToken call
 						t = jts.nextToken();
 						// add field to the tail of path branch
 						path.add(fieldName);
 						// process value corresponding to this field recursively
-						mapKeysWithOpenToken(jts, t, all ? allChild : 
-							selection.getChildren().get(fieldName), consumer, path);
+						mapKeysWithOpenToken(jts, t, child, consumer, path);
 						// remove field from tail of path branch
-						path.remove(path.size() - 1);
+						path.remove();
 					} else {
 						// otherwise we skip value following after field
 						t = jts.nextToken();
@@ -109,58 +100,42 @@ public class ValueCollector <T> {
 		    // we observe open of array/list in real json data
 			if (selection.hasChildren()) {
 			    // we have some restrictions for array item positions in selection
-				Set<String> selectedFields = new LinkedHashSet<String>(
-				        selection.getChildren().keySet());
-				ValueCollectingNode<T> allChild = null;
+				final FieldSelection<ValueCollectingNode<T>> items = selection.getSelection();
+				final ValueCollectingNode<T> allChild = items.getAllItems();
 				// now we support only '[*]' which means all elements and set of numbers in case of 
 				// certain item positions are selected in array
-				if (!selectedFields.contains("[*]")) {
-					for (String item : selectedFields) {
-						try {
-							Integer.parseInt(item);
-						} catch (NumberFormatException ex) {
-							throw new ObjectParseException("Invalid selection: data at '" + 
-							        ObjectJsonPath.getPathText(path) + "' is an array, so " +
-							        "element selection must be an integer. You requested element" +
-							        " '" + item + "', at: " + ObjectJsonPath.getPathText(path));
-						}
+				if (allChild == null) {
+					final String item = items.getInvalidItem();
+					if (item != null) {
+						throw new ObjectParseException("Invalid selection: data at '" + 
+						        path.getPathText() + "' is an array, so " +
+						        "element selection must be an integer. You requested element" +
+						        " '" + item + "', at: " + path.getPathText());
 					}
-				}
-				if (selectedFields.contains("[*]")) {
-					selectedFields.remove("[*]");
-					allChild = selection.getChildren().get("[*]");
+				} else if (items.size() > 1) {
 					// if there is [*] keyword selected there shouldn't be anything else in selection
-					if (selectedFields.size() > 0)
-						throw new ObjectParseException("Invalid selection: the selection path " +
-								"contains both '[*]' to select all elements and selection of " +
-								"specific elements (" + selectedFields + "), at: " + 
-								ObjectJsonPath.getPathText(path));
+					throw new ObjectParseException("Invalid selection: the selection path " +
+							"contains both '[*]' to select all elements and selection of " +
+							"specific elements (" + items.getKeysExcept("[*]") + "), at: " + 
+							path.getPathText());
 				}
 				for (int pos = 0; ; pos++) {
 					t = jts.nextToken();
 					if (t == JsonToken.END_ARRAY) {
 						break;
 					}
-					ValueCollectingNode<T> child = null;
-					if (allChild != null) {
-						child = allChild; 
-					} else {
-						String key = "" + pos;
-						if (selection.getChildren().containsKey(key)) {
-							child = selection.getChildren().get(key);
-							selectedFields.remove(key);
-						}
-					}
+					final ValueCollectingNode<T> child = allChild != null ? allChild :
+						items.getItem(pos);
 					if (child == null) {
 						// this element of array is not selected, skip it
 					    JsonTokenUtil.skipChildren(jts, t);
 					} else {
 						// add element position to the tail of path branch
-						path.add("" + pos);
+						path.add(pos);
 						// process value of this element recursively
 						mapKeysWithOpenToken(jts, t, child, consumer, path);
 						// remove field from tail of path branch
-						path.remove(path.size() - 1);
+						path.remove();
 					}
 				}
 			} else {
@@ -168,18 +143,17 @@ public class ValueCollector <T> {
 			}
 		} else {	
 		    // we observe scalar value (text, integer, double, boolean, null) in real json data
+			final FieldSelection<ValueCollectingNode<T>> fields = selection.getSelection();
 			if (selection.hasChildren()) {
-			    if (selection.getChildren().size() != 1 || 
-			            !selection.getChildren().containsKey("{size}"))
+			    if (!fields.isSizeOnly())
 				throw new ObjectParseException("Invalid selection: the path given specifies " +
 						"fields or elements that do not exist because data at this location is " +
 						"a scalar value (i.e. string, integer, float), at: " + 
-						ObjectJsonPath.getPathText(path));
+						path.getPathText());
 			}
 			T rules = selection.getRules();
-			if (rules == null && selection.getChildren().size() == 1 && 
-			        selection.getChildren().containsKey("{size}")) {
-			    rules = selection.getChildren().get("{size}").getRules();
+			if (rules == null && fields.isSizeOnly()) {
+			    rules = fields.getSize().getRules();
 			}
 			if (rules != null) {
 			    Object value = JsonTokenUtil.getCurrentTokenPrimitive(jts, t);
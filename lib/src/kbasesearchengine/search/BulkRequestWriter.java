@@ -0,0 +1,134 @@
+package kbasesearchengine.search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.FileEntity;
+
+import kbasesearchengine.tools.Utils;
+import us.kbase.common.service.UObject;
+
+/** A writer for the newline delimited JSON body of an ElasticSearch bulk request.
+ *
+ * The body is held in memory until it grows beyond a configurable size, at which point the
+ * buffered data is spilled to a temporary file and subsequent lines are appended to the file.
+ * In the common case of a small to medium sized bulk request no disk IO occurs at all.
+ *
+ * Close the writer when the request is complete to delete any spill file.
+ */
+public class BulkRequestWriter implements Closeable {
+
+    /** The default maximum size of the in memory buffer, 10MB. */
+    public static final int DEFAULT_MAX_MEMORY_BYTES = 10 * 1024 * 1024;
+
+    private static final byte NEWLINE = '\n';
+
+    private final File tempDir;
+    private final int maxMemoryBytes;
+    private final ExposedByteArrayOutputStream buffer;
+    private File spillFile = null;
+    private OutputStream spillOut = null;
+    private int lines = 0;
+    private boolean finished = false;
+
+    /** Create a bulk request writer.
+     * @param tempDir the directory in which to create the spill file, if needed.
+     * @param maxMemoryBytes the maximum number of bytes to buffer in memory before spilling to
+     * disk.
+     */
+    public BulkRequestWriter(final File tempDir, final int maxMemoryBytes) {
+        Utils.nonNull(tempDir, "tempDir");
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("maxMemoryBytes must be at least 0");
+        }
+        this.tempDir = tempDir;
+        this.maxMemoryBytes = maxMemoryBytes;
+        // don't preallocate the whole buffer, most bulk requests are much smaller than the max
+        this.buffer = new ExposedByteArrayOutputStream(Math.min(maxMemoryBytes, 64 * 1024));
+    }
+
+    // allows creating an entity from the buffer without copying it
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private ExposedByteArrayOutputStream(final int size) {
+            super(size);
+        }
+
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /** Write an object as a single line of JSON.
+     * @param obj the object to write.
+     * @throws IOException if an error occurs writing to the spill file.
+     */
+    public void writeLine(final Object obj) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The request body has already been built");
+        }
+        final byte[] line = UObject.getMapper().writeValueAsBytes(obj);
+        if (spillOut == null && buffer.size() + line.length + 1 > maxMemoryBytes) {
+            spill();
+        }
+        final OutputStream out = spillOut == null ? buffer : spillOut;
+        out.write(line);
+        out.write(NEWLINE);
+        lines++;
+    }
+
+    private void spill() throws IOException {
+        spillFile = File.createTempFile("es_bulk_", ".json", tempDir);
+        spillOut = new BufferedOutputStream(new FileOutputStream(spillFile));
+        buffer.writeTo(spillOut);
+        buffer.reset();
+    }
+
+    /** Get the number of lines written.
+     * @return the number of lines.
+     */
+    public int getLineCount() {
+        return lines;
+    }
+
+    /** Returns true if the request body exceeded the memory limit and was written to disk.
+     * @return whether the request body was spilled to disk.
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /** Complete the request body and get an HTTP entity containing the body. No further lines
+     * may be written after calling this method. The entity is only valid until the writer is
+     * closed.
+     * @return the entity.
+     * @throws IOException if an error occurs flushing the spill file.
+     */
+    public HttpEntity toEntity() throws IOException {
+        finished = true;
+        if (spillOut == null) {
+            return new ByteArrayEntity(buffer.getBuffer(), 0, buffer.size());
+        }
+        spillOut.close();
+        return new FileEntity(spillFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        if (spillFile != null) {
+            try {
+                spillOut.close();
+            } finally {
+                spillFile.delete();
+            }
+        }
+    }
+}
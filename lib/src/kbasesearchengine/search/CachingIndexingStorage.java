@@ -0,0 +1,435 @@
+package kbasesearchengine.search;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.tools.Utils;
+
+/** A caching layer for the results of searches. Caches the results of
+ * {@link #searchTypes(MatchFilter, AccessFilter)} and
+ * {@link #searchObjects(List, MatchFilter, List, AccessFilter, Pagination, PostProcessing)}
+ * from the wrapped {@link IndexingStorage} in memory, so that repeated identical searches, such
+ * as the type counts requested whenever a user opens a narrative, don't contact the storage
+ * system. All other methods are passed through to the wrapped storage.
+ *
+ * Results are cached per filter, sorting rules, pagination, and post processing, and per set of
+ * access groups, so users with the same access share cached results. Each cached result is
+ * tagged with the generation of the index at the time of the search, after which results
+ * cached at earlier generations are no longer returned. The generation is the sum of the
+ * number of writes through this class, which may also be incremented by
+ * {@link #incrementGeneration()}, and the generation of the wrapped storage, which is
+ * incremented when any process, e.g. an indexer worker, flushes its writes. The wrapped storage's
+ * generation is checked at most once per generation check interval, so writes flushed by other
+ * processes are seen by searches within that interval.
+ *
+ * Cached results are shared between callers and must not be modified.
+ */
+public class CachingIndexingStorage implements IndexingStorage {
+
+    private final IndexingStorage storage;
+    private final Cache<List<Object>, Object> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private final Ticker ticker;
+    private final long generationCheckIntervalNanos;
+    // the generation of the wrapped storage and when it was checked
+    private long storageGeneration = 0;
+    private Long storageGenerationCheckTime = null;
+
+    /** The default interval between checks of the wrapped storage's generation. */
+    public static final long DEFAULT_GENERATION_CHECK_INTERVAL_MS = 1000;
+
+    /** Create a cache.
+     * @param storage the {@link IndexingStorage} whose search results will be cached.
+     * @param cacheLifeTimeInSec the number of seconds a search result should remain in the
+     * cache.
+     * @param cacheSize the maximum number of search results to store in the cache.
+     */
+    public CachingIndexingStorage(
+            final IndexingStorage storage,
+            final int cacheLifeTimeInSec,
+            final int cacheSize) {
+        this(storage, cacheLifeTimeInSec, cacheSize, DEFAULT_GENERATION_CHECK_INTERVAL_MS);
+    }
+
+    /** Create a cache.
+     * @param storage the {@link IndexingStorage} whose search results will be cached.
+     * @param cacheLifeTimeInSec the number of seconds a search result should remain in the
+     * cache.
+     * @param cacheSize the maximum number of search results to store in the cache.
+     * @param generationCheckIntervalMS the minimum interval between checks of the generation of
+     * the wrapped storage, and so the maximum time before writes flushed by other processes are
+     * seen by searches.
+     */
+    public CachingIndexingStorage(
+            final IndexingStorage storage,
+            final int cacheLifeTimeInSec,
+            final int cacheSize,
+            final long generationCheckIntervalMS) {
+        this(storage, cacheLifeTimeInSec, cacheSize, generationCheckIntervalMS,
+                Ticker.systemTicker());
+    }
+
+    /** Create a cache for testing purposes.
+     * @param storage the {@link IndexingStorage} whose search results will be cached.
+     * @param cacheLifeTimeInSec the number of seconds a search result should remain in the
+     * cache.
+     * @param cacheSize the maximum number of search results to store in the cache.
+     * @param ticker a ticker implementation that allows controlling cache expiration with the
+     * provided ticker rather than waiting for the system clock. This is exposed for testing
+     * purposes.
+     */
+    public CachingIndexingStorage(
+            final IndexingStorage storage,
+            final int cacheLifeTimeInSec,
+            final int cacheSize,
+            final Ticker ticker) {
+        this(storage, cacheLifeTimeInSec, cacheSize, DEFAULT_GENERATION_CHECK_INTERVAL_MS, ticker);
+    }
+
+    /** Create a cache for testing purposes.
+     * @param storage the {@link IndexingStorage} whose search results will be cached.
+     * @param cacheLifeTimeInSec the number of seconds a search result should remain in the
+     * cache.
+     * @param cacheSize the maximum number of search results to store in the cache.
+     * @param generationCheckIntervalMS the minimum interval between checks of the generation of
+     * the wrapped storage.
+     * @param ticker a ticker implementation that allows controlling cache expiration and
+     * generation checks with the provided ticker rather than waiting for the system clock. This
+     * is exposed for testing purposes.
+     */
+    public CachingIndexingStorage(
+            final IndexingStorage storage,
+            final int cacheLifeTimeInSec,
+            final int cacheSize,
+            final long generationCheckIntervalMS,
+            final Ticker ticker) {
+        Utils.nonNull(storage, "storage");
+        Utils.nonNull(ticker, "ticker");
+        if (cacheLifeTimeInSec < 1) {
+            throw new IllegalArgumentException("cache lifetime must be at least one second");
+        }
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cache size must be at least one");
+        }
+        if (generationCheckIntervalMS < 0) {
+            throw new IllegalArgumentException("generation check interval must be at least 0");
+        }
+        this.storage = storage;
+        this.ticker = ticker;
+        generationCheckIntervalNanos = TimeUnit.MILLISECONDS.toNanos(generationCheckIntervalMS);
+        cache = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(cacheLifeTimeInSec, TimeUnit.SECONDS)
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+    }
+
+    /** Get the generation of the index. Search results are only returned from the cache if they
+     * were cached at the current generation.
+     * @return the generation.
+     * @throws IOException if an IO error occurs checking the generation of the wrapped storage.
+     */
+    @Override
+    public long getGeneration() throws IOException {
+        return generation.get() + getStorageGeneration();
+    }
+
+    private synchronized long getStorageGeneration() throws IOException {
+        final long now = ticker.read();
+        if (storageGenerationCheckTime == null ||
+                now - storageGenerationCheckTime >= generationCheckIntervalNanos) {
+            storageGeneration = storage.getGeneration();
+            storageGenerationCheckTime = now;
+        }
+        return storageGeneration;
+    }
+
+    /** Increment the generation of the index, so that no search result cached before the
+     * increment is returned from the cache.
+     */
+    public void incrementGeneration() {
+        generation.incrementAndGet();
+    }
+
+    /** Get hit and miss statistics for the search result cache.
+     * @return the statistics.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    private interface Write<T> {
+        T write() throws IOException;
+    }
+
+    private <T> T write(final Write<T> write) throws IOException {
+        try {
+            return write.write();
+        } finally {
+            // even a failed write may have changed some of the data
+            incrementGeneration();
+        }
+    }
+
+    private <T> T search(final List<Object> key, final Callable<T> search) throws IOException {
+        try {
+            @SuppressWarnings("unchecked")
+            final T ret = (T) cache.get(key, search);
+            return ret;
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause(); // IOE is the only checked exception
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private static <T> List<T> copy(final List<T> list) {
+        return list == null ? null : new ArrayList<>(list);
+    }
+
+    @Override
+    public void dropData() throws IOException {
+        write(() -> {
+            storage.dropData();
+            return null;
+        });
+    }
+
+    @Override
+    public void indexObject(
+            final ObjectTypeParsingRules rule,
+            final SourceData source,
+            final Instant timestamp,
+            final String parentJsonValue,
+            final GUID guid,
+            final ParsedObject obj,
+            final boolean isPublic)
+            throws IOException {
+        write(() -> {
+            storage.indexObject(rule, source, timestamp, parentJsonValue, guid, obj, isPublic);
+            return null;
+        });
+    }
+
+    @Override
+    public void indexObjects(
+            final ObjectTypeParsingRules rule,
+            final SourceData source,
+            final Instant timestamp,
+            final String parentJsonValue,
+            final GUID pguid,
+            final Map<GUID, ParsedObject> idToObj,
+            final boolean isPublic)
+            throws IOException {
+        write(() -> {
+            storage.indexObjects(rule, source, timestamp, parentJsonValue, pguid, idToObj,
+                    isPublic);
+            return null;
+        });
+    }
+
+    @Override
+    public void indexObjects(final List<IndexingRequest> requests) throws IOException {
+        write(() -> {
+            storage.indexObjects(requests);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<GUID, Boolean> checkParentGuidsExist(final Set<GUID> parentGuids)
+            throws IOException {
+        return storage.checkParentGuidsExist(parentGuids);
+    }
+
+    @Override
+    public void flushIndexing(final ObjectTypeParsingRules objectType) throws IOException {
+        // flushing makes earlier writes visible to searches
+        write(() -> {
+            storage.flushIndexing(objectType);
+            return null;
+        });
+    }
+
+    @Override
+    public void flushIndexing() throws IOException {
+        write(() -> {
+            storage.flushIndexing();
+            return null;
+        });
+    }
+
+    @Override
+    public void shareObjects(
+            final Set<GUID> guids,
+            final int accessGroupId,
+            final boolean isPublicGroup)
+            throws IOException {
+        write(() -> {
+            storage.shareObjects(guids, accessGroupId, isPublicGroup);
+            return null;
+        });
+    }
+
+    @Override
+    public void unshareObjects(final Set<GUID> guids, final int accessGroupId)
+            throws IOException {
+        write(() -> {
+            storage.unshareObjects(guids, accessGroupId);
+            return null;
+        });
+    }
+
+    @Override
+    public void publishObjects(final Set<GUID> guids) throws IOException {
+        write(() -> {
+            storage.publishObjects(guids);
+            return null;
+        });
+    }
+
+    @Override
+    public void unpublishObjects(final Set<GUID> guids) throws IOException {
+        write(() -> {
+            storage.unpublishObjects(guids);
+            return null;
+        });
+    }
+
+    @Override
+    public void publishObjectsExternally(final Set<GUID> guids, final int accessGroupId)
+            throws IOException {
+        write(() -> {
+            storage.publishObjectsExternally(guids, accessGroupId);
+            return null;
+        });
+    }
+
+    @Override
+    public void unpublishObjectsExternally(final Set<GUID> guids, final int accessGroupId)
+            throws IOException {
+        write(() -> {
+            storage.unpublishObjectsExternally(guids, accessGroupId);
+            return null;
+        });
+    }
+
+    @Override
+    public List<ObjectData> getObjectsByIds(final Set<GUID> guids) throws IOException {
+        return storage.getObjectsByIds(guids);
+    }
+
+    @Override
+    public List<ObjectData> getObjectsByIds(
+            final Set<GUID> guids,
+            final PostProcessing postProcessing)
+            throws IOException {
+        return storage.getObjectsByIds(guids, postProcessing);
+    }
+
+    @Override
+    public Map<String, Integer> searchTypes(
+            final MatchFilter matchFilter,
+            final AccessFilter accessFilter)
+            throws IOException {
+        final List<Object> key = Arrays.asList(
+                getGeneration(), "searchTypes", matchFilter, accessFilter);
+        return search(key, () -> storage.searchTypes(matchFilter, accessFilter));
+    }
+
+    @Override
+    public FoundHits searchIds(
+            final List<String> objectType,
+            final MatchFilter matchFilter,
+            final List<SortingRule> sorting,
+            final AccessFilter accessFilter,
+            final Pagination pagination)
+            throws IOException {
+        return storage.searchIds(objectType, matchFilter, sorting, accessFilter, pagination);
+    }
+
+    @Override
+    public FoundHits searchObjects(
+            final List<String> objectType,
+            final MatchFilter matchFilter,
+            final List<SortingRule> sorting,
+            final AccessFilter accessFilter,
+            final Pagination pagination,
+            final PostProcessing postProcessing)
+            throws IOException {
+        final List<Object> key = Arrays.asList(getGeneration(), "searchObjects",
+                copy(objectType), matchFilter, copy(sorting), accessFilter, pagination,
+                postProcessing);
+        return search(key, () -> storage.searchObjects(objectType, matchFilter, sorting,
+                accessFilter, pagination, postProcessing));
+    }
+
+    @Override
+    public void exportObjects(
+            final List<String> objectTypes,
+            final MatchFilter matchFilter,
+            final AccessFilter accessFilter,
+            final boolean withKeys,
+            final ObjectDataConsumer consumer)
+            throws IOException {
+        storage.exportObjects(objectTypes, matchFilter, accessFilter, withKeys, consumer);
+    }
+
+    @Override
+    public int setNameOnAllObjectVersions(final GUID object, final String newName)
+            throws IOException {
+        return write(() -> storage.setNameOnAllObjectVersions(object, newName));
+    }
+
+    @Override
+    public void deleteAllVersions(final GUID guid) throws IOException {
+        write(() -> {
+            storage.deleteAllVersions(guid);
+            return null;
+        });
+    }
+
+    @Override
+    public void undeleteAllVersions(final GUID guid) throws IOException {
+        write(() -> {
+            storage.undeleteAllVersions(guid);
+            return null;
+        });
+    }
+
+    @Override
+    public void publishAllVersions(final GUID guid) throws IOException {
+        write(() -> {
+            storage.publishAllVersions(guid);
+            return null;
+        });
+    }
+
+    @Override
+    public void unpublishAllVersions(final GUID guid) throws IOException {
+        write(() -> {
+            storage.unpublishAllVersions(guid);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,104 @@
+package kbasesearchengine.search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import kbasesearchengine.tools.Utils;
+import us.kbase.common.service.UObject;
+
+/** A position in the sorted results of a search, from which the next page of results starts.
+ * The position is the sort values of the last hit of a page, which end with the hit's GUID so
+ * that hits with equal values for the sorting rules have a fixed order.
+ *
+ * Unlike a page start, the cost of fetching the page after a position doesn't depend on how
+ * deep in the results the position is, since the search doesn't have to collect and skip the
+ * hits before it.
+ *
+ * To users the token is opaque; see {@link #getToken()} and {@link #fromToken(String)}.
+ */
+public class ContinuationToken {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final List<Object> sortValues;
+
+    /** Create a token.
+     * @param sortValues the sort values of the last hit of a page, as returned by the search.
+     */
+    public ContinuationToken(final List<Object> sortValues) {
+        Utils.nonNull(sortValues, "sortValues");
+        if (sortValues.isEmpty()) {
+            throw new IllegalArgumentException("sortValues cannot be empty");
+        }
+        this.sortValues = Collections.unmodifiableList(new ArrayList<>(sortValues));
+    }
+
+    /** Get the sort values of the last hit of the page before the position.
+     * @return the sort values.
+     */
+    public List<Object> getSortValues() {
+        return sortValues;
+    }
+
+    /** Get the token as an opaque, URL safe string.
+     * @return the token.
+     */
+    public String getToken() {
+        return ENCODER.encodeToString(UObject.transformObjectToString(sortValues)
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Get a token from a string returned by {@link #getToken()}.
+     * @param token the token string.
+     * @return the token.
+     * @throws IllegalArgumentException if the string is not a valid token.
+     */
+    public static ContinuationToken fromToken(final String token) {
+        Utils.notNullOrEmpty(token, "token cannot be null or empty");
+        final Object values;
+        try {
+            values = UObject.getMapper().readValue(DECODER.decode(token), Object.class);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token, e);
+        }
+        if (!(values instanceof List) || ((List<?>) values).isEmpty()) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+        @SuppressWarnings("unchecked")
+        final List<Object> sortValues = (List<Object>) values;
+        return new ContinuationToken(sortValues);
+    }
+
+    @Override
+    public String toString() {
+        return "ContinuationToken [sortValues=" + sortValues + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + sortValues.hashCode();
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ContinuationToken other = (ContinuationToken) obj;
+        return sortValues.equals(other.sortValues);
+    }
+}
@@ -4,13 +4,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -19,6 +20,10 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -39,10 +44,16 @@ import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.events.handler.SourceData;
@@ -76,10 +87,36 @@ public class ElasticIndexingStorage implements IndexingStorage {
     private String esUser;
     private String esPassword;
     private String indexNamePrefix;
-    private Map<ObjectTypeParsingRules, String> ruleToIndex = new LinkedHashMap<>();
-    private Map<String, String> typeToIndex = new LinkedHashMap<>();
+    // the caches of index names are shared by all the threads using the storage
+    private final Map<ObjectTypeParsingRules, String> ruleToIndex = new ConcurrentHashMap<>();
+    private final Map<String, String> typeToIndex = new ConcurrentHashMap<>();
     private RestClient restClient = null;
     private File tempDir;
+    private int bulkBufferSize = BulkRequestWriter.DEFAULT_MAX_MEMORY_BYTES;
+    private RefreshPolicy refreshPolicy = RefreshPolicy.IMMEDIATE;
+    private ObjectDataEncoding objectDataEncoding = ObjectDataEncoding.JSON;
+    private long refreshIntervalMS = DEFAULT_REFRESH_INTERVAL_MS;
+    private int scrollSize = DEFAULT_SCROLL_SIZE;
+    private int accessGroupLookupMinimum = 0;
+    /* the IDs of access group lookup documents known to exist. Entries expire so that a
+     * document deleted behind our back, which a terms lookup silently treats as an empty list of
+     * access groups, is recreated.
+     */
+    private final Cache<String, Boolean> accessGroupLookupIDs = CacheBuilder.newBuilder()
+            .maximumSize(ACCESS_GROUP_LOOKUP_CACHE_SIZE)
+            .expireAfterWrite(ACCESS_GROUP_LOOKUP_CACHE_LIFETIME_SEC, TimeUnit.SECONDS)
+            .build();
+    private volatile boolean accessGroupLookupIndexExists = false;
+    // indexes that have been written to but not yet refreshed, for the periodic and none policies
+    private final Set<String> pendingRefresh = ConcurrentHashMap.newKeySet();
+    /* for the periodic and none policies, the objects indexed into each index since it was last
+     * refreshed, by guid prefix. Updating the older versions of those objects is deferred until
+     * the index is refreshed, since the updates are made by query and can't see documents that
+     * aren't refreshed.
+     */
+    private final Map<String, Map<String, PendingObject>> pendingObjects =
+            new ConcurrentHashMap<>();
+    private ScheduledExecutorService refresher = null;
     
     public static final int PUBLIC_ACCESS_GROUP = -1;
     public static final int ADMIN_ACCESS_GROUP = -2;
@@ -95,6 +132,31 @@ public class ElasticIndexingStorage implements IndexingStorage {
      */
     public static final int MAX_OBJECT_TYPES_SIZE = 50;
 
+    /** The default interval between index refreshes for the {@link RefreshPolicy#PERIODIC}
+     * refresh policy.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = 1000;
+
+    /** The default number of objects fetched per request when exporting search results. */
+    public static final int DEFAULT_SCROLL_SIZE = 1000;
+
+    // how long ElasticSearch keeps an export's search context between requests
+    private static final String SCROLL_TIME = "1m";
+
+    private static final String ACCESS_GROUP_LOOKUP_INDEX_PREFIX = "accessgroups.";
+    private static final String ACCESS_GROUP_LOOKUP_TYPE = "groups";
+    private static final String ACCESS_GROUP_LOOKUP_FIELD = "groups";
+    private static final int ACCESS_GROUP_LOOKUP_CACHE_SIZE = 10000;
+    private static final int ACCESS_GROUP_LOOKUP_CACHE_LIFETIME_SEC = 60;
+
+    private static final String GENERATION_INDEX_PREFIX = "generation.";
+    private static final String GENERATION_TYPE = "generation";
+    private static final String GENERATION_FIELD = "generation";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticIndexingStorage.class);
+    // ElasticSearch's default index.max_result_window, the most hits a search can return
+    private static final int MAX_SEARCH_HITS = 10000;
+
     public ElasticIndexingStorage(HttpHost esHost, File tempDir) throws IOException {
         this.esHost = esHost;
         this.indexNamePrefix = "";
@@ -129,16 +191,250 @@ public class ElasticIndexingStorage implements IndexingStorage {
         this.indexNamePrefix = indexNamePrefix;
     }
 
+    public int getBulkBufferSize() {
+        return bulkBufferSize;
+    }
+
+    /** Set the maximum size of a bulk request body that will be held in memory. Larger
+     * request bodies are spilled to a file in the temporary directory.
+     * @param bulkBufferSize the maximum size of the in memory buffer in bytes.
+     */
+    public void setBulkBufferSize(final int bulkBufferSize) {
+        if (bulkBufferSize < 0) {
+            throw new IllegalArgumentException("bulkBufferSize must be at least 0");
+        }
+        this.bulkBufferSize = bulkBufferSize;
+    }
+
+    public int getScrollSize() {
+        return scrollSize;
+    }
+
+    /** Set the number of objects fetched per request when exporting search results. Only one
+     * batch of objects is held in memory at a time.
+     * @param scrollSize the number of objects per request.
+     */
+    public void setScrollSize(final int scrollSize) {
+        if (scrollSize < 1) {
+            throw new IllegalArgumentException("scrollSize must be at least 1");
+        }
+        this.scrollSize = scrollSize;
+    }
+
+    public int getAccessGroupLookupMinimum() {
+        return accessGroupLookupMinimum;
+    }
+
+    /** Set the minimum number of access groups for which searches refer to the groups by a
+     * terms lookup rather than listing them in the query. The groups are stored as a document in
+     * a separate index, which keeps queries for users with many groups small and allows
+     * ElasticSearch to cache the filter for the groups between searches.
+     * @param minimum the minimum number of access groups, or 0 to always list the groups in the
+     * query, which is the default.
+     */
+    public void setAccessGroupLookupMinimum(final int minimum) {
+        if (minimum < 0) {
+            throw new IllegalArgumentException("minimum must be at least 0");
+        }
+        this.accessGroupLookupMinimum = minimum;
+    }
+
+    public RefreshPolicy getRefreshPolicy() {
+        return refreshPolicy;
+    }
+
+    public long getRefreshIntervalMS() {
+        return refreshIntervalMS;
+    }
+
+    /** Set the policy determining when writes are made visible to searches. The default policy
+     * is {@link RefreshPolicy#IMMEDIATE}.
+     * @param policy the refresh policy.
+     * @param intervalMS the interval between refreshes in milliseconds. Only used for the
+     * {@link RefreshPolicy#PERIODIC} policy.
+     */
+    public synchronized void setRefreshPolicy(final RefreshPolicy policy, final long intervalMS) {
+        Utils.nonNull(policy, "policy");
+        if (intervalMS < 1) {
+            throw new IllegalArgumentException("intervalMS must be at least 1");
+        }
+        stopRefresher();
+        this.refreshPolicy = policy;
+        this.refreshIntervalMS = intervalMS;
+        if (RefreshPolicy.PERIODIC.equals(policy)) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "ElasticIndexingStorage-refresher");
+                t.setDaemon(true);
+                return t;
+            });
+            refresher.scheduleWithFixedDelay(() -> refreshPending(), intervalMS, intervalMS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public ObjectDataEncoding getObjectDataEncoding() {
+        return objectDataEncoding;
+    }
+
+    /** Set the encoding of the object and parent data written to new documents. Documents
+     * written with any encoding can be read regardless of this setting. The default encoding is
+     * {@link ObjectDataEncoding#JSON}.
+     * @param encoding the encoding.
+     */
+    public void setObjectDataEncoding(final ObjectDataEncoding encoding) {
+        Utils.nonNull(encoding, "encoding");
+        this.objectDataEncoding = encoding;
+    }
+
+    private void stopRefresher() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /* called after any write to an index. Depending on the refresh policy, refreshes the index
+     * or records that the index needs refreshing.
+     */
+    private void refreshAfterWrite(final String indexName) throws IOException {
+        switch (refreshPolicy) {
+        case IMMEDIATE:
+            refreshIndex(indexName);
+            break;
+        case WAIT_FOR:
+            // ES refreshes on its own schedule
+            break;
+        case PERIODIC:
+        case NONE:
+            pendingRefresh.add(indexName);
+            break;
+        default:
+            throw new IllegalStateException("Unknown refresh policy: " + refreshPolicy);
+        }
+    }
+
+    /* the request parameters to add to write requests that support the refresh parameter. */
+    private Map<String, String> getWriteRefreshParams() {
+        if (RefreshPolicy.WAIT_FOR.equals(refreshPolicy)) {
+            return ImmutableMap.of("refresh", "wait_for");
+        }
+        return Collections.emptyMap();
+    }
+
+    /* the request parameters to add to update by query requests. These don't support
+     * refresh=wait_for, so under WAIT_FOR the indexes are refreshed instead so the updates are
+     * searchable when the next object version is indexed.
+     */
+    private Map<String, String> getUpdateByQueryRefreshParams() {
+        if (RefreshPolicy.WAIT_FOR.equals(refreshPolicy)) {
+            return ImmutableMap.of("refresh", "true");
+        }
+        return Collections.emptyMap();
+    }
+
+    private Response makeUpdateByQueryRequest(final String urlPath, final Map<String, ?> doc)
+            throws IOException {
+        return makeRequest("POST", urlPath, doc, getUpdateByQueryRefreshParams());
+    }
+
+    /* whether the updates to older versions of indexed objects are deferred until the index is
+     * refreshed.
+     */
+    private boolean isDeferringVersionUpdates() {
+        return RefreshPolicy.PERIODIC.equals(refreshPolicy) ||
+                RefreshPolicy.NONE.equals(refreshPolicy);
+    }
+
+    /* refreshes an index with pending writes and then makes any deferred updates to the older
+     * versions of the objects indexed into it.
+     */
+    private void refreshPendingIndex(final String indexName) throws IOException {
+        // objects are recorded after they're written, so the refresh covers all of these
+        final Map<String, PendingObject> objs = pendingObjects.remove(indexName);
+        if (objs == null || objs.isEmpty()) {
+            refreshIndex(indexName);
+            return;
+        }
+        try {
+            refreshIndex(indexName);
+            updateOlderVersions(indexName, objs);
+        } catch (IOException | RuntimeException e) {
+            // keep the updates for the next try
+            addPendingObjects(indexName, objs);
+            throw e;
+        }
+        refreshIndex(indexName);
+    }
+
+    private void addPendingObjects(
+            final String indexName,
+            final Map<String, PendingObject> objs) {
+        final Map<String, PendingObject> idxObjs = pendingObjects.computeIfAbsent(
+                indexName, k -> new ConcurrentHashMap<>());
+        objs.forEach((prefix, o) -> idxObjs.merge(prefix, o, PendingObject::merge));
+    }
+
+    private void refreshPending() {
+        for (final String indexName: new ArrayList<>(pendingRefresh)) {
+            pendingRefresh.remove(indexName);
+            try {
+                refreshPendingIndex(indexName);
+            } catch (IOException | RuntimeException e) {
+                // try again next time
+                pendingRefresh.add(indexName);
+            }
+        }
+    }
+
+    /* called before reading documents in order to update them outside of indexing, e.g.
+     * sharing or deleting objects. With the PERIODIC and NONE refresh policies earlier writes may
+     * not be searchable yet, so refreshes any index with pending writes that the index names,
+     * which are comma separated and may end in *, cover.
+     */
+    private void refreshPendingWrites(final String indexNames) throws IOException {
+        if (pendingRefresh.isEmpty()) {
+            return;
+        }
+        for (final String pending: new ArrayList<>(pendingRefresh)) {
+            if (coversIndex(indexNames, pending) && pendingRefresh.remove(pending)) {
+                try {
+                    refreshPendingIndex(pending);
+                } catch (IOException | RuntimeException e) {
+                    pendingRefresh.add(pending);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private boolean coversIndex(final String indexNames, final String indexName) {
+        for (final String name: indexNames.split(",")) {
+            if (name.endsWith("*") ?
+                    indexName.startsWith(name.substring(0, name.length() - 1)) :
+                    indexName.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private String getAnyIndexPattern() {
         return indexNamePrefix + "*";
     }
     
     public void dropData() throws IOException {
+        pendingRefresh.clear();
+        pendingObjects.clear();
         for (String indexName : listIndeces()) {
             if (indexName.startsWith(indexNamePrefix)) {
                 deleteIndex(indexName);
             }
         }
+        final String lookupIndex = getAccessGroupLookupIndexName();
+        if (listIndeces().contains(lookupIndex)) {
+            deleteIndex(lookupIndex);
+        }
+        resetAccessGroupLookups();
         typeToIndex.clear();
         ruleToIndex.clear();
     }
@@ -219,18 +515,41 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final boolean noCreate)
             throws IOException {
         Utils.nonNull(rule, "rule");
-        String ret = ruleToIndex.get(rule);
-        if (ret == null) {
-            ret = toIndexString(rule);
-            if (!listIndeces().contains(ret)) {
-                if (!noCreate) {
-                    System.out.println("Creating Elasticsearch index: " + ret);
-                    createTables(ret, rule.getIndexingRules());
+        final String cached = ruleToIndex.get(rule);
+        if (cached != null) {
+            return cached;
+        }
+        // only one thread checks and creates the indexes at a time
+        synchronized (ruleToIndex) {
+            String ret = ruleToIndex.get(rule);
+            if (ret == null) {
+                ret = toIndexString(rule);
+                if (!listIndeces().contains(ret)) {
+                    if (!noCreate) {
+                        createIndex(ret, rule);
+                    }
+                } else if (!noCreate && !ObjectDataEncoding.JSON.equals(objectDataEncoding)) {
+                    // indexes created before the encoding was added don't map its fields, and
+                    // dynamic mapping would index them as text
+                    addObjectDataMappings(ret);
                 }
+                ruleToIndex.put(rule, ret);
+            }
+            return ret;
+        }
+    }
+
+    private void createIndex(final String indexName, final ObjectTypeParsingRules rule)
+            throws IOException {
+        LOG.info("Creating Elasticsearch index: {}", indexName);
+        try {
+            createTables(indexName, rule.getIndexingRules());
+        } catch (IOException e) {
+            // another process may have created the index concurrently
+            if (!listIndeces().contains(indexName)) {
+                throw e;
             }
-            ruleToIndex.put(rule, ret);
         }
-        return ret;
     }
 
     private String toIndexString(final ObjectTypeParsingRules rule) {
@@ -269,7 +588,6 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final boolean isPublic)
             throws IOException {
         final Map<GUID, ParsedObject> idToObjCopy = new HashMap<>(idToObj);
-        String indexName = checkIndex(rule, false);
         for (GUID id : idToObjCopy.keySet()) {
             GUID parentGuid = new GUID(id.getStorageCode(), id.getAccessGroupId(), 
                     id.getAccessGroupObjectId(), id.getVersion(), null, null);
@@ -277,43 +595,525 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 throw new IllegalStateException("Object GUID doesn't match parent GUID");
             }
         }
-        //TODO CODE if there's only a few objects to index, possible speed up by not using tempfile and just making direct API calls
-        File tempFile = File.createTempFile("es_bulk_", ".json", tempDir);
+        indexObjects(Arrays.asList(new IndexingRequest(rule, data, timestamp, parentJsonValue,
+                pguid, idToObjCopy, isPublic)));
+    }
+    
+    /* Indexes many objects with a constant number of requests to ElasticSearch:
+     * 1) a multi search to get the last versions, parent documents, and existing data
+     *    document IDs for all the objects,
+     * 2) if the version updates are deferred, a real time multi get for any parent documents
+     *    the search didn't find, since they may not be refreshed yet,
+     * 3) a bulk request to create missing parent (access) documents and index the data documents,
+     * 4) an update by query to update the islast field in older versions of the data documents,
+     * 5) if any parent documents were created, an update by query to update the access groups
+     *    of older versions in the access documents.
+     * Under the PERIODIC and NONE refresh policies 4) and 5) are deferred until the indexes are
+     * refreshed, and the last versions of objects indexed since then are taken from memory.
+     * Nothing is refreshed before the lookups.
+     */
+    @Override
+    public void indexObjects(final List<IndexingRequest> requests) throws IOException {
+        Utils.nonNull(requests, "requests");
+        Utils.noNulls(requests, "null item in requests");
+        if (requests.isEmpty()) {
+            return;
+        }
+        final List<String> indexNames = new ArrayList<>();
+        final List<Set<GUID>> docGUIDs = new ArrayList<>();
+        for (final IndexingRequest req: requests) {
+            indexNames.add(checkIndex(req.getRule(), false));
+            // if there were no search objects parsed from the source object, just index
+            // the general object information
+            docGUIDs.add(req.getIdToObj().isEmpty() ? new HashSet<>(Arrays.asList(
+                    req.getParentGUID())) : req.getIdToObj().keySet());
+        }
+        final List<Map<String, Object>> searchResults;
+        // the number of data document id searches for each request
+        final List<Integer> docIdSearches = new ArrayList<>();
+        try (final BulkRequestWriter msearch = new BulkRequestWriter(tempDir, bulkBufferSize)) {
+            for (int i = 0; i < requests.size(); i++) {
+                docIdSearches.add(writeIndexingLookups(msearch, indexNames.get(i),
+                        requests.get(i).getParentGUID(), docGUIDs.get(i)));
+            }
+            searchResults = makeMultiSearchRequest(msearch);
+        }
+        // prefix -> last version
+        final Map<String, Integer> lastVersions = new HashMap<>();
+        // index name -> parent guid -> parent doc id
+        final Map<String, Map<GUID, String>> parentIds = new HashMap<>();
+        final List<Map<GUID, String>> docIds = new ArrayList<>();
+        int result = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            final GUID pguid = requests.get(i).getParentGUID();
+            final String prefix = toGUIDPrefix(pguid);
+            final Integer lastVer = getMaxVersion(searchResults.get(result++));
+            lastVersions.put(prefix, max(lastVersions.get(prefix), lastVer, pguid.getVersion(),
+                    getPendingLastVersion(indexNames.get(i), prefix)));
+            final Map<GUID, String> idxParentIds = parentIds.computeIfAbsent(
+                    indexNames.get(i), k -> new HashMap<>());
+            idxParentIds.putAll(getIdsFromHits(searchResults.get(result++), "pguid"));
+            final Map<GUID, String> reqDocIds = new HashMap<>();
+            for (int j = 0; j < docIdSearches.get(i); j++) {
+                reqDocIds.putAll(getIdsFromHits(searchResults.get(result++), "guid"));
+            }
+            docIds.add(reqDocIds);
+        }
+        if (isDeferringVersionUpdates()) {
+            getUnrefreshedParentIds(indexNames, requests, parentIds);
+        }
+        // prefix -> access group update parameters for objects with new parent docs
+        final Map<String, Map<String, Object>> newParentParams = new HashMap<>();
+        final Set<String> newParentIndexes = new LinkedHashSet<>();
+        // the access groups of the parent docs created for each request
+        final List<Set<Integer>> newParentGroups = new ArrayList<>();
+        try (final BulkRequestWriter bulk = new BulkRequestWriter(tempDir, bulkBufferSize)) {
+            for (int i = 0; i < requests.size(); i++) {
+                final IndexingRequest req = requests.get(i);
+                final String indexName = indexNames.get(i);
+                final GUID pguid = req.getParentGUID();
+                final String prefix = toGUIDPrefix(pguid);
+                final int lastVersion = lastVersions.get(prefix);
+                newParentGroups.add(Collections.emptySet());
+                if (!parentIds.get(indexName).containsKey(pguid)) {
+                    // use the parent guid as the doc ID so retries don't create duplicates
+                    final String parentId = pguid.toString();
+                    final Set<Integer> accessGroupIds = getAccessGroupIds(pguid, req.isPublic());
+                    bulk.writeLine(ImmutableMap.of("index", ImmutableMap.of(
+                            "_index", indexName,
+                            "_type", getAccessTableName(),
+                            "_id", parentId)));
+                    bulk.writeLine(createAccessDoc(pguid, accessGroupIds, lastVersion));
+                    parentIds.get(indexName).put(pguid, parentId);
+                    newParentIndexes.add(indexName);
+                    newParentGroups.set(i, accessGroupIds);
+                    final Map<String, Object> params = newParentParams.computeIfAbsent(
+                            prefix, k -> new HashMap<>());
+                    params.put("lastver", lastVersion);
+                    @SuppressWarnings("unchecked")
+                    final Set<Integer> groups = (Set<Integer>) params.computeIfAbsent(
+                            "groups", k -> new TreeSet<>());
+                    groups.addAll(accessGroupIds);
+                }
+                for (final GUID id: docGUIDs.get(i)) {
+                    final Map<String, Object> doc = convertObject(id,
+                            req.getRule().getGlobalObjectType(), req.getIdToObj().get(id),
+                            req.getSource(), req.getTimestamp(), req.getParentJson().orNull(),
+                            req.isPublic(), lastVersion);
+                    final Map<String, Object> index = new HashMap<>();
+                    index.put("_index", indexName);
+                    index.put("_type", getDataTableName());
+                    index.put("parent", parentIds.get(indexName).get(pguid));
+                    // use the guid as the doc ID unless there's an existing doc with another ID
+                    index.put("_id", docIds.get(i).containsKey(id) ?
+                            docIds.get(i).get(id) : id.toString());
+                    bulk.writeLine(ImmutableMap.of("index", index));
+                    bulk.writeLine(doc);
+                }
+            }
+            checkBulkResponse(makeBulkRequest("POST", indexNames.get(0), bulk));
+        }
+        final Set<String> allIndexes = new LinkedHashSet<>(indexNames);
+        if (isDeferringVersionUpdates()) {
+            for (int i = 0; i < requests.size(); i++) {
+                final GUID pguid = requests.get(i).getParentGUID();
+                final String prefix = toGUIDPrefix(pguid);
+                addPendingObjects(indexNames.get(i), ImmutableMap.of(prefix, new PendingObject(
+                        lastVersions.get(prefix), pguid.getVersion(), newParentGroups.get(i))));
+            }
+        } else {
+            updateLastVersionsInData(allIndexes, lastVersions);
+            if (!newParentParams.isEmpty()) {
+                updateAccessGroupsForVersions(newParentIndexes, newParentParams);
+            }
+        }
+        for (final String indexName: allIndexes) {
+            refreshAfterWrite(indexName);
+        }
+    }
+
+    private Integer max(final Integer... ints) {
+        Integer ret = null;
+        for (final Integer i: ints) {
+            if (i != null && (ret == null || ret < i)) {
+                ret = i;
+            }
+        }
+        return ret;
+    }
+
+    /* the last version of an object indexed into an index since the index was last refreshed,
+     * or null if there is none.
+     */
+    private Integer getPendingLastVersion(final String indexName, final String prefix) {
+        final Map<String, PendingObject> objs = pendingObjects.get(indexName);
+        final PendingObject o = objs == null ? null : objs.get(prefix);
+        return o == null ? null : o.lastVersion;
+    }
+
+    /* looks up the parent docs that the search didn't find with a real time multi get, which
+     * finds documents that aren't refreshed yet. Parent docs that may not be refreshed always
+     * have the parent guid as their ID. Adds any parent docs found to the parent IDs.
+     */
+    private void getUnrefreshedParentIds(
+            final List<String> indexNames,
+            final List<IndexingRequest> requests,
+            final Map<String, Map<GUID, String>> parentIds)
+            throws IOException {
+        final Map<String, Map<String, Object>> docs = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            final String indexName = indexNames.get(i);
+            final GUID pguid = requests.get(i).getParentGUID();
+            if (!parentIds.get(indexName).containsKey(pguid)) {
+                docs.put(indexName + "/" + pguid, ImmutableMap.of(
+                        "_index", indexName,
+                        "_type", getAccessTableName(),
+                        "_id", pguid.toString(),
+                        "_source", false));
+            }
+        }
+        if (docs.isEmpty()) {
+            return;
+        }
+        // doc = {"docs": [{"_index": index, "_type": "access", "_id": pguid, "_source": false}]}
+        final Response resp = makeRequest("GET", "/_mget",
+                ImmutableMap.of("docs", new ArrayList<>(docs.values())));
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> found = (List<Map<String, Object>>) data.get("docs");
+        for (final Map<String, Object> doc: found) {
+            if (Boolean.TRUE.equals(doc.get("found"))) {
+                final String id = (String) doc.get("_id");
+                parentIds.get((String) doc.get("_index")).put(new GUID(id), id);
+            }
+        }
+    }
+
+    /* makes the deferred updates to the islast fields and access groups of the older versions of
+     * objects indexed into an index. The index must be refreshed first.
+     */
+    private void updateOlderVersions(
+            final String indexName,
+            final Map<String, PendingObject> objs)
+            throws IOException {
+        final Set<String> index = new HashSet<>(Arrays.asList(indexName));
+        for (final List<String> prefixes: Iterables.partition(
+                new ArrayList<>(objs.keySet()), MAX_SEARCH_HITS)) {
+            // another process may have indexed later versions
+            final Map<String, Integer> searched = getLastVersions(indexName, prefixes);
+            final Map<String, Integer> lastVersions = new HashMap<>();
+            final Map<String, Map<String, Object>> newParentParams = new HashMap<>();
+            for (final String prefix: prefixes) {
+                final PendingObject o = objs.get(prefix);
+                final int lastVersion = max(searched.get(prefix), o.lastVersion);
+                lastVersions.put(prefix, lastVersion);
+                if (!o.newParentGroups.isEmpty()) {
+                    newParentParams.put(prefix, ImmutableMap.of(
+                            "lastver", lastVersion, "groups", o.newParentGroups));
+                }
+            }
+            updateLastVersionsInData(index, lastVersions);
+            if (!newParentParams.isEmpty()) {
+                updateAccessGroupsForVersions(index, newParentParams);
+            }
+        }
+    }
+
+    /* gets the maximum versions of the objects with the prefixes in the access docs. */
+    private Map<String, Integer> getLastVersions(
+            final String indexName,
+            final List<String> prefixes)
+            throws IOException {
+        /* doc = {"query": {"bool": {"filter": [{"terms": {"prefix": [prefixes]}}]}},
+         *        "size": 0,
+         *        "aggs": {"prefixes": {"terms": {"field": "prefix", "size": <prefixes>},
+         *                              "aggs": {"maxver": {"max": {"field": "version"}}}}}}
+         */
+        final Map<String, Object> doc = ImmutableMap.of(
+                "query", ImmutableMap.of("bool", ImmutableMap.of("filter",
+                        Arrays.asList(createFilter("terms", "prefix", prefixes)))),
+                "size", 0,
+                "aggs", ImmutableMap.of("prefixes", ImmutableMap.of(
+                        "terms", ImmutableMap.of("field", "prefix", "size", prefixes.size()),
+                        "aggs", ImmutableMap.of("maxver", ImmutableMap.of(
+                                "max", ImmutableMap.of("field", "version"))))));
+        final String urlPath = "/" + indexName + "/" + getAccessTableName() + "/_search";
+        final Response resp = makeRequest("GET", urlPath, doc);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        final Map<String, Integer> ret = new HashMap<>();
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> aggs = (Map<String, Object>) data.get("aggregations");
+        if (aggs == null) {
+            return ret;
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> agg = (Map<String, Object>) aggs.get("prefixes");
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> buckets =
+                (List<Map<String, Object>>) agg.get("buckets");
+        for (final Map<String, Object> bucket: buckets) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> maxver = (Map<String, Object>) bucket.get("maxver");
+            final Number value = (Number) maxver.get("value");
+            if (value != null) {
+                ret.put((String) bucket.get("key"), value.intValue());
+            }
+        }
+        return ret;
+    }
+
+    /* an object indexed into an index since it was last refreshed. */
+    private static class PendingObject {
+
+        private final int lastVersion;
+        private final Set<Integer> versions;
+        // the access groups to update in the older versions if any parent docs were created
+        private final Set<Integer> newParentGroups;
+
+        private PendingObject(
+                final int lastVersion,
+                final int version,
+                final Set<Integer> newParentGroups) {
+            this(lastVersion, new HashSet<>(Arrays.asList(version)), newParentGroups);
+        }
+
+        private PendingObject(
+                final int lastVersion,
+                final Set<Integer> versions,
+                final Set<Integer> newParentGroups) {
+            this.lastVersion = lastVersion;
+            this.versions = Collections.unmodifiableSet(versions);
+            this.newParentGroups = Collections.unmodifiableSet(newParentGroups);
+        }
+
+        private PendingObject merge(final PendingObject other) {
+            final Set<Integer> versions = new HashSet<>(this.versions);
+            versions.addAll(other.versions);
+            final Set<Integer> groups = new TreeSet<>(newParentGroups);
+            groups.addAll(other.newParentGroups);
+            return new PendingObject(Math.max(lastVersion, other.lastVersion), versions, groups);
+        }
+    }
+
+    /* writes searches to a multisearch request body: one for the maximum version of the object
+     * in the access docs, one for the parent doc, and one or more for the data doc ids. A search
+     * can't return more than MAX_SEARCH_HITS hits, so the data doc ids are looked up in chunks of
+     * at most that many guids.
+     * Returns the number of data doc id searches.
+     */
+    private int writeIndexingLookups(
+            final BulkRequestWriter msearch,
+            final String indexName,
+            final GUID pguid,
+            final Set<GUID> guids)
+            throws IOException {
+        // {"query": {"bool": {"filter": [{"term": {"prefix": prefix}}]}},
+        //  "size": 0, "aggs": {"lastver": {"max": {"field": "version"}}}}
+        msearch.writeLine(ImmutableMap.of("index", indexName, "type", getAccessTableName()));
+        msearch.writeLine(ImmutableMap.of(
+                "query", ImmutableMap.of("bool", ImmutableMap.of("filter", Arrays.asList(
+                        createFilter("term", "prefix", toGUIDPrefix(pguid))))),
+                "size", 0,
+                "aggs", ImmutableMap.of("lastver", ImmutableMap.of(
+                        "max", ImmutableMap.of("field", "version")))));
+        // {"query": {"bool": {"filter": [{"term": {"pguid": pguid}}]}}, "_source": ["pguid"]}
+        msearch.writeLine(ImmutableMap.of("index", indexName, "type", getAccessTableName()));
+        msearch.writeLine(ImmutableMap.of(
+                "query", ImmutableMap.of("bool", ImmutableMap.of("filter", Arrays.asList(
+                        createFilter("term", "pguid", pguid.toString())))),
+                "_source", Arrays.asList("pguid"),
+                "size", 1));
+        // {"query": {"bool": {"filter": [{"terms": {"guid": [guids]}}]}}, "_source": ["guid"]}
+        int searches = 0;
+        for (final List<GUID> chunk: Iterables.partition(guids, MAX_SEARCH_HITS)) {
+            msearch.writeLine(ImmutableMap.of("index", indexName, "type", getDataTableName()));
+            msearch.writeLine(ImmutableMap.of(
+                    "query", ImmutableMap.of("bool", ImmutableMap.of("filter", Arrays.asList(
+                            createFilter("terms", "guid", chunk.stream().map(g -> g.toString())
+                                    .collect(Collectors.toList()))))),
+                    "_source", Arrays.asList("guid"),
+                    "size", chunk.size()));
+            searches++;
+        }
+        return searches;
+    }
+
+    private Integer getMaxVersion(final Map<String, Object> searchResult) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> aggs = (Map<String, Object>) searchResult.get("aggregations");
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> lastver = (Map<String, Object>) aggs.get("lastver");
+        final Number value = (Number) lastver.get("value");
+        return value == null ? null : value.intValue();
+    }
+
+    private Map<GUID, String> getIdsFromHits(
+            final Map<String, Object> searchResult,
+            final String guidField) {
+        final Map<GUID, String> ret = new HashMap<>();
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> hitMap = (Map<String, Object>) searchResult.get("hits");
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> hitList = (List<Map<String, Object>>) hitMap.get("hits");
+        for (final Map<String, Object> hit: hitList) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> obj = (Map<String, Object>) hit.get("_source");
+            ret.put(new GUID((String) obj.get(guidField)), (String) hit.get("_id"));
+        }
+        return ret;
+    }
+
+    private Set<Integer> getAccessGroupIds(final GUID parentGUID, final boolean isPublic) {
+        final Set<Integer> accessGroupIds = new LinkedHashSet<>(Arrays.asList(
+                ADMIN_ACCESS_GROUP));
+        if (parentGUID.getAccessGroupId() != null) {
+            accessGroupIds.add(parentGUID.getAccessGroupId());
+        }
+        if (isPublic) {
+            accessGroupIds.add(PUBLIC_ACCESS_GROUP);
+        }
+        return accessGroupIds;
+    }
+
+    private Map<String, Object> createAccessDoc(
+            final GUID parentGUID,
+            final Set<Integer> accessGroupIds,
+            final int lastVersion) {
+        final Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("pguid", parentGUID.toString());
+        doc.put("prefix", toGUIDPrefix(parentGUID));
+        doc.put("version", parentGUID.getVersion());
+        final Set<Integer> lastinGroupIds = parentGUID.getVersion() == lastVersion ?
+                accessGroupIds : Collections.emptySet();
+        doc.put("lastin", lastinGroupIds);
+        doc.put("groups", accessGroupIds);
+        doc.put("extpub", new ArrayList<Integer>());
+        return doc;
+    }
+
+    private List<Map<String, Object>> makeMultiSearchRequest(final BulkRequestWriter msearch)
+            throws IOException {
+        final Response resp;
         try {
-            PrintWriter pw = new PrintWriter(tempFile);
-            int lastVersion = loadLastVersion(indexName, pguid, pguid.getVersion());
-            final String esParentId = checkParentDoc(indexName, new LinkedHashSet<>(
-                    Arrays.asList(pguid)), isPublic, lastVersion).get(pguid);
-            if (idToObjCopy.isEmpty()) {
-                // there were no search objects parsed from the source object, so just index
-                // the general object information
-                idToObjCopy.put(pguid, null);
+            resp = getRestClient().performRequest("POST", "/_msearch",
+                    Collections.emptyMap(), msearch.toEntity());
+        } catch (ResponseException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> responses =
+                (List<Map<String, Object>>) data.get("responses");
+        for (final Map<String, Object> r: responses) {
+            if (r.containsKey("error")) {
+                throw new IOException("Error in ElasticSearch multisearch: " + r.get("error"));
             }
-            Map<GUID, String> esIds = lookupDocIds(indexName, idToObjCopy.keySet());
-            for (GUID id : idToObjCopy.keySet()) {
-                final ParsedObject obj = idToObjCopy.get(id);
-                final Map<String, Object> doc = convertObject(id, rule.getGlobalObjectType(), obj,
-                        data, timestamp, parentJsonValue, isPublic, lastVersion);
-                final Map<String, Object> index = new HashMap<>();
-                index.put("_index", indexName);
-                index.put("_type", getDataTableName());
-                index.put("parent", esParentId);
-                if (esIds.containsKey(id)) {
-                    index.put("_id", esIds.get(id));
+        }
+        return responses;
+    }
+
+    private void checkBulkResponse(final Response resp) throws IOException {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        if (Boolean.TRUE.equals(data.get("errors"))) {
+            @SuppressWarnings("unchecked")
+            final List<Map<String, Map<String, Object>>> items =
+                    (List<Map<String, Map<String, Object>>>) data.get("items");
+            for (final Map<String, Map<String, Object>> item: items) {
+                for (final Map<String, Object> result: item.values()) {
+                    if (result.containsKey("error")) {
+                        throw new IOException("Error in ElasticSearch bulk request: " +
+                                result.get("error"));
+                    }
                 }
-                final Map<String, Object> header = ImmutableMap.of("index", index);
-                pw.println(UObject.transformObjectToString(header));
-                pw.println(UObject.transformObjectToString(doc));
             }
-            pw.close();
-            makeBulkRequest("POST", indexName, tempFile);
-            updateLastVersionsInData(indexName, pguid, lastVersion);
-        } finally {
-            tempFile.delete();
+            throw new IOException("Unknown error in ElasticSearch bulk request");
         }
-        refreshIndex(indexName);
     }
-    
+
+    /* updates the islast field for all the data documents matching the prefixes in the
+     * indexes.
+     */
+    private int updateLastVersionsInData(
+            final Set<String> indexNames,
+            final Map<String, Integer> prefixToLastVersion)
+            throws IOException {
+        // query = {"bool": {"filter": [{"terms": {"prefix": [prefixes]}}]}}
+        final Map<String, Object> query = ImmutableMap.of("bool",
+                ImmutableMap.of("filter", Arrays.asList(createFilter(
+                        "terms", "prefix", prefixToLastVersion.keySet()))));
+        final Map<String, Object> script = ImmutableMap.of(
+                "inline",
+                "if (params.lastvers.containsKey(ctx._source.prefix)) {\n" +
+                "  ctx._source.islast = " +
+                        "(ctx._source.version == params.lastvers[ctx._source.prefix]);\n" +
+                "}\n",
+                "params", ImmutableMap.of("lastvers", prefixToLastVersion));
+        final Map<String, Object> doc = ImmutableMap.of("query", query, "script", script);
+        final String urlPath = "/" + String.join(",", indexNames) + "/" + getDataTableName() +
+                "/_update_by_query";
+        final Response resp = makeUpdateByQueryRequest(urlPath, doc);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        return (Integer) data.get("updated");
+    }
+
+    // the equivalent of UPDATE_ACC_GRP_VERS_TEMPLATE for many objects at once.
+    private static final String UPDATE_ACC_GRP_VERS_BATCH =
+            "def o = params.objs[ctx._source.prefix];\n" +
+            "if (o != null) {\n" +
+            "  for (def g : o.groups) {\n" +
+            "    if (ctx._source.lastin.indexOf(g) >= 0) {\n" +
+            "      if (ctx._source.version != o.lastver) {\n" +
+            "        ctx._source.lastin.remove(ctx._source.lastin.indexOf(g));\n" +
+            "        if (ctx._source.extpub.indexOf(g) >= 0) {\n" +
+            "          ctx._source.extpub.remove(ctx._source.extpub.indexOf(g));\n" +
+            "        }\n" +
+            "      }\n" +
+            "    } else {\n" +
+            "      if (ctx._source.version == o.lastver) {\n" +
+            "        ctx._source.lastin.add(g);\n" +
+            "        if (ctx._source.groups.indexOf(g) < 0) {\n" +
+            "          ctx._source.groups.add(g);\n" +
+            "        }\n" +
+            "      }\n" +
+            "    }\n" +
+            "  }\n" +
+            "}\n";
+
+    /* updates the access groups for all the access documents matching the prefixes in the
+     * indexes. Each prefix maps to a set of parameters containing the last version of the object
+     * (lastver) and the access groups to update (groups).
+     */
+    private int updateAccessGroupsForVersions(
+            final Set<String> indexNames,
+            final Map<String, Map<String, Object>> prefixToParams)
+            throws IOException {
+        // query = {"bool": {"filter": [{"terms": {"prefix": [prefixes]}}]}}
+        final Map<String, Object> query = ImmutableMap.of("bool",
+                ImmutableMap.of("filter", Arrays.asList(createFilter(
+                        "terms", "prefix", prefixToParams.keySet()))));
+        final Map<String, Object> script = ImmutableMap.of(
+                "inline", UPDATE_ACC_GRP_VERS_BATCH,
+                "params", ImmutableMap.of("objs", prefixToParams));
+        final Map<String, Object> doc = ImmutableMap.of("query", query, "script", script);
+        final String urlPath = "/" + String.join(",", indexNames) + "/" + getAccessTableName() +
+                "/_update_by_query";
+        final Response resp = makeUpdateByQueryRequest(urlPath, doc);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        return (Integer) data.get("updated");
+    }
+
     private Map<String, Object> convertObject(
             final GUID id,
             final SearchObjectType objectType,
@@ -322,7 +1122,8 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final Instant timestamp,
             final String parentJson,
             final boolean isPublic,
-            final int lastVersion) {
+            final int lastVersion)
+            throws IOException {
         Map<String, List<Object>> indexPart = new LinkedHashMap<>();
         if (obj != null) {
             for (String key : obj.getKeywords().keySet()) {
@@ -353,48 +1154,83 @@ public class ElasticIndexingStorage implements IndexingStorage {
         doc.put("public", isPublic);
         doc.put("shared", false);
         if (obj != null) {
-            doc.put("ojson", obj.getJson());
-            doc.put("pjson", parentJson);
+            final ObjectDataEncoding enc = objectDataEncoding;
+            doc.put(enc.getDataField(), enc.encode(obj.getJson()));
+            doc.put(enc.getParentDataField(), parentJson == null ? null : enc.encode(parentJson));
         }
         return doc;
     }
 
     @Override
     public void flushIndexing(final ObjectTypeParsingRules rule) throws IOException {
-        refreshIndex(checkIndex(rule, true));
+        final String indexName = checkIndex(rule, true);
+        pendingRefresh.remove(indexName);
+        try {
+            refreshPendingIndex(indexName);
+        } catch (IOException | RuntimeException e) {
+            if (pendingObjects.containsKey(indexName)) {
+                pendingRefresh.add(indexName);
+            }
+            throw e;
+        }
+        incrementGeneration();
     }
-    
-    private Map<GUID, String> lookupDocIds(String indexName, Set<GUID> guids) throws IOException {
-
-        // doc = {"query": {"bool": {"filter": [{"terms": {"guid": [guids]}}]}}}
-        Map<String, Object> doc = ImmutableMap.of(
-                "query", ImmutableMap.of(
-                        "bool", ImmutableMap.of(
-                                "filter", Arrays.asList(ImmutableMap.of(
-                                        "terms", ImmutableMap.of(
-                                                "guid", guids.stream().map(u -> u.toString())
-                                                        .collect(Collectors.toList())))))));
-
-        String urlPath = "/" + indexName + "/" + getDataTableName() + "/_search";
-        Response resp = makeRequest("GET", urlPath, doc);
+
+    @Override
+    public void flushIndexing() throws IOException {
+        for (final String indexName: new ArrayList<>(pendingRefresh)) {
+            pendingRefresh.remove(indexName);
+            try {
+                refreshPendingIndex(indexName);
+            } catch (IOException | RuntimeException e) {
+                pendingRefresh.add(indexName);
+                throw e;
+            }
+        }
+        incrementGeneration();
+    }
+
+    /* The generation is stored in a single document so that all the processes using the
+     * indexes, e.g. workers and search servers, see the same value. As with the access group
+     * lookup index, the index can't start with the index name prefix.
+     */
+    private String getGenerationIndexName() {
+        return (GENERATION_INDEX_PREFIX + indexNamePrefix).toLowerCase();
+    }
+
+    private void incrementGeneration() throws IOException {
+        // doc = {"script": {"inline": "ctx._source.generation += 1"},
+        //        "upsert": {"generation": 1}}
+        final Map<String, Object> doc = ImmutableMap.of(
+                "script", ImmutableMap.of("inline",
+                        "ctx._source." + GENERATION_FIELD + " += 1"),
+                "upsert", ImmutableMap.of(GENERATION_FIELD, 1));
+        makeRequest("POST", "/" + getGenerationIndexName() + "/" + GENERATION_TYPE + "/" +
+                GENERATION_TYPE + "/_update", doc, ImmutableMap.of("retry_on_conflict", "10"));
+    }
+
+    @Override
+    public long getGeneration() throws IOException {
+        final Response resp;
+        try {
+            // gets are real time, so there's no need to refresh
+            resp = getRestClient().performRequest("GET", "/" + getGenerationIndexName() + "/" +
+                    GENERATION_TYPE + "/" + GENERATION_TYPE);
+        } catch (ResponseException ex) {
+            if (ex.getResponse().getStatusLine().getStatusCode() == 404) {
+                // nothing has been flushed yet
+                return 0;
+            }
+            throw new IOException(ex.getMessage(), ex);
+        }
         @SuppressWarnings("unchecked")
-        Map<String, Object> data = UObject.getMapper().readValue(
+        final Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
-        Map<GUID, String> ret = new LinkedHashMap<>();
-        @SuppressWarnings("unchecked")
-        Map<String, Object> hitMap = (Map<String, Object>) data.get("hits");
         @SuppressWarnings("unchecked")
-        List<Map<String, Object>> hitList = (List<Map<String, Object>>) hitMap.get("hits");
-        for (Map<String, Object> hit : hitList) {
-            String id = (String)hit.get("_id");
-            @SuppressWarnings("unchecked")
-            Map<String, Object> obj = (Map<String, Object>) hit.get("_source");
-            GUID guid = new GUID((String) obj.get("guid"));
-            ret.put(guid, id);
-        }
-        return ImmutableMap.copyOf(ret);
+        final Map<String, Object> source = (Map<String, Object>) data.get("_source");
+        return ((Number) source.get(GENERATION_FIELD)).longValue();
     }
-
+    
     private Map<GUID, String> lookupParentDocIds(String indexName, Set<GUID> guids) throws IOException {
         // doc = {"query": {"bool": {"filter": [{"terms": {"pguid": [guids]}}]}}}
         Map<String, Object> doc =
@@ -442,6 +1278,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                             ImmutableMap.of("pguid", parentIds)))),
                                             "_source", Arrays.asList("pguid"));
 
+        refreshPendingWrites(getAnyIndexPattern());
         String urlPath = "/" + indexNamePrefix + "*/" + getAccessTableName() + "/_search";
         Response resp = makeRequest("GET", urlPath, doc);
         @SuppressWarnings("unchecked")
@@ -508,8 +1345,20 @@ public class ElasticIndexingStorage implements IndexingStorage {
         final String indexName = getAnyIndexPattern();
         // In next operation map value may contain one of possible parents in case objectType==null
         final Map<GUID, String> map = lookupParentDocIds(indexName, parentGUIDs);
-        return ImmutableMap.copyOf(parentGUIDs.stream().collect(
-                Collectors.toMap(Function.identity(), guid -> map.containsKey(guid))));
+        return ImmutableMap.copyOf(parentGUIDs.stream().collect(Collectors.toMap(
+                Function.identity(), guid -> map.containsKey(guid) || isPending(guid))));
+    }
+
+    // whether the object version has been indexed but its index not refreshed yet
+    private boolean isPending(final GUID parentGUID) {
+        final String prefix = toGUIDPrefix(parentGUID);
+        for (final Map<String, PendingObject> objs: pendingObjects.values()) {
+            final PendingObject o = objs.get(prefix);
+            if (o != null && o.versions.contains(parentGUID.getVersion())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private Integer loadLastVersion(String reqIndexName, GUID parentGUID, 
@@ -527,6 +1376,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                                               "term",
                                                   ImmutableMap.of("prefix", prefix))))));
 
+        refreshPendingWrites(reqIndexName);
         String urlPath = "/" + reqIndexName + "/" + getAccessTableName() + "/_search";
         Response resp = makeRequest("GET", urlPath, doc);
         @SuppressWarnings("unchecked")
@@ -579,55 +1429,15 @@ public class ElasticIndexingStorage implements IndexingStorage {
         Map<String, Object> doc = ImmutableMap.of("query", query,
                                                   "script", script);
 
+        refreshPendingWrites(indexName);
         String urlPath = "/" + indexName + "/" + getDataTableName() + "/_update_by_query";
-        Response resp = makeRequest("POST", urlPath, doc);
+        Response resp = makeUpdateByQueryRequest(urlPath, doc);
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
         return (Integer)data.get("updated");
     }
 
-    private Map<GUID, String> checkParentDoc(String indexName, Set<GUID> parentGUIDs, 
-            boolean isPublic, int lastVersion) throws IOException {
-        boolean changed = false;
-        Map<GUID, String> ret = new LinkedHashMap<>(lookupParentDocIds(indexName, parentGUIDs));
-        for (GUID parentGUID : parentGUIDs) {
-            if (ret.containsKey(parentGUID)) {
-                continue;
-            }
-            String prefix = toGUIDPrefix(parentGUID);
-            Map<String, Object> doc = new LinkedHashMap<>();
-            doc.put("pguid", parentGUID.toString());
-            doc.put("prefix", prefix);
-            doc.put("version", parentGUID.getVersion());
-            Set<Integer> accessGroupIds = new LinkedHashSet<>(Arrays.asList(
-                    ADMIN_ACCESS_GROUP));
-            if (parentGUID.getAccessGroupId() != null) {
-                accessGroupIds.add(parentGUID.getAccessGroupId());
-            }
-            if (isPublic) {
-                accessGroupIds.add(PUBLIC_ACCESS_GROUP);
-            }
-            Set<Integer> lastinGroupIds = parentGUID.getVersion() == lastVersion ? 
-                    accessGroupIds : Collections.emptySet();
-            doc.put("lastin", lastinGroupIds);
-            doc.put("groups", accessGroupIds);
-            doc.put("extpub", new ArrayList<Integer>());
-            Response resp = makeRequest("POST", "/" + indexName + "/" + getAccessTableName() + "/", 
-                    doc);
-            @SuppressWarnings("unchecked")
-            Map<String, Object> data = UObject.getMapper().readValue(
-                    resp.getEntity().getContent(), Map.class);
-            ret.put(parentGUID, (String)data.get("_id"));
-            changed = true;
-            updateAccessGroupForVersions(indexName, parentGUID, lastVersion,
-                    parentGUID.getAccessGroupId(), isPublic, true);
-        }
-        if (changed) {
-            refreshIndex(indexName);
-        }
-        return ImmutableMap.copyOf(ret);
-    }
     
     private static final String UPDATE_ACC_GRP_VERS_TEMPLATE =
             "if (ctx._source.lastin.indexOf(params.%1$s) >= 0) {\n" +
@@ -695,8 +1505,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
         Map<String, Object> doc = ImmutableMap.of("query", query,
                                                   "script", script);
 
+        refreshPendingWrites(indexName);
         String urlPath = "/" + indexName + "/" + getAccessTableName() + "/_update_by_query";
-        Response resp = makeRequest("POST", urlPath, doc);
+        Response resp = makeUpdateByQueryRequest(urlPath, doc);
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -737,8 +1548,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
         Map<String, Object> doc = ImmutableMap.of("query", query,
                                                   "script", script);
 
+        refreshPendingWrites(indexName);
         String urlPath = "/" + indexName + "/" + getAccessTableName() + "/_update_by_query";
-        Response resp = makeRequest("POST", urlPath, doc);
+        Response resp = makeUpdateByQueryRequest(urlPath, doc);
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -765,8 +1577,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
         Map<String, Object> doc = ImmutableMap.of("query", query,
                                                   "script", script);
 
+        refreshPendingWrites(indexName);
         String urlPath = "/" + indexName + "/" + getDataTableName() + "/_update_by_query";
-        Response resp = makeRequest("POST", urlPath, doc);
+        Response resp = makeUpdateByQueryRequest(urlPath, doc);
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -805,8 +1618,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
         final Map<String, Object> doc = ImmutableMap.of(
                 "query", query,
                 "script", script);
+        refreshPendingWrites(index);
         final String urlPath = "/" + index + "/" + getDataTableName() + "/_update_by_query";
-        final Response resp = makeRequest("POST", urlPath, doc);
+        final Response resp = makeUpdateByQueryRequest(urlPath, doc);
         @SuppressWarnings("unchecked")
         final Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -840,7 +1654,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 }
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                refreshAfterWrite(indexName);
             }
             if (!toAddExtPub.isEmpty()) {
                 needRefresh = false;
@@ -850,7 +1664,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                     }
                 }
                 if (needRefresh) {
-                    refreshIndex(indexName);
+                    refreshAfterWrite(indexName);
                 }
             }
         }
@@ -874,7 +1688,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 //TODO NOW how is share bit unset?
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                refreshAfterWrite(indexName);
             }
         }
     }
@@ -972,8 +1786,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
         Map<String, Object> doc = ImmutableMap.of("query", query,
                                                   "script", script);
 
+        refreshPendingWrites(indexName);
         String urlPath = "/" + indexName + "/" + getAccessTableName() + "/_update_by_query";
-        Response resp = makeRequest("POST", urlPath, doc);
+        Response resp = makeUpdateByQueryRequest(urlPath, doc);
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -991,7 +1806,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 }
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                refreshAfterWrite(indexName);
             }
         }
     }
@@ -1022,8 +1837,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
         Map<String, Object> doc = ImmutableMap.of("query", query,
                                                   "script", script);
 
+        refreshPendingWrites(indexName);
         String urlPath = "/" + indexName + "/" + getAccessTableName() + "/_update_by_query";
-        Response resp = makeRequest("POST", urlPath, doc);
+        Response resp = makeUpdateByQueryRequest(urlPath, doc);
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -1041,7 +1857,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 }
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                refreshAfterWrite(indexName);
             }
         }
     }
@@ -1059,12 +1875,14 @@ public class ElasticIndexingStorage implements IndexingStorage {
     public List<ObjectData> getObjectsByIds(Set<GUID> ids, PostProcessing pp) 
             throws IOException {
 
-        Map<String, Object> doc = ImmutableMap.of("query",
-                                     ImmutableMap.of("bool",
-                                        ImmutableMap.of("filter",
-                                           ImmutableMap.of("terms",
+        Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("query", ImmutableMap.of("bool",
+                            ImmutableMap.of("filter",
+                               ImmutableMap.of("terms",
                 ImmutableMap.of("guid", ids.stream().map(u -> u.toString()).collect(Collectors.toList()))))));
-        //doc.put("_source", Arrays.asList("ojson"));
+        if (!pp.objectData) {
+            doc.put("_source", getSourceExcludingObjectData());
+        }
 
         String urlPath = "/" + indexNamePrefix + "*/" + getDataTableName() + "/_search";
         Response resp = makeRequest("GET", urlPath, doc);
@@ -1091,7 +1909,8 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final boolean info,
             final boolean keys, 
             final boolean json,
-            final List<String> objectDataIncludes) {
+            final List<String> objectDataIncludes)
+            throws IOException {
         // TODO: support sub-data selection based on objectDataIncludes (acts on parent json or sub object json)
         final ObjectData.Builder b = ObjectData.getBuilder(new GUID((String) obj.get("guid")));
         if (info) {
@@ -1111,14 +1930,16 @@ public class ElasticIndexingStorage implements IndexingStorage {
                     ((Number) obj.get(OBJ_TIMESTAMP)).longValue()));
         }
         if (json) {
-            final String ojson = (String) obj.get("ojson");
-            if (ojson != null) {
-                b.withNullableData(UObject.transformStringToObject(
-                        ojson, Object.class));
-            }
-            final String pjson = (String) obj.get("pjson");
-            if (pjson != null) {
-                b.withNullableParentData(UObject.transformStringToObject(pjson, Object.class));
+            // the data is only decoded here, when it's requested
+            for (final ObjectDataEncoding enc: ObjectDataEncoding.values()) {
+                final Object data = obj.get(enc.getDataField());
+                if (data != null) {
+                    b.withNullableData(enc.decode(data));
+                }
+                final Object parentData = obj.get(enc.getParentDataField());
+                if (parentData != null) {
+                    b.withNullableParentData(enc.decode(parentData));
+                }
             }
         }
         if (keys) {
@@ -1141,6 +1962,118 @@ public class ElasticIndexingStorage implements IndexingStorage {
         return b.build();
     }
     
+    /* Returns a terms lookup for a set of access groups if the set is large enough to use one,
+     * creating the document the lookup refers to if necessary.
+     * 
+     * The document ID is the hash of the groups, so a document is never stale and users with
+     * the same groups share a document.
+     * 
+     * lookup = {"index": <lookup index>, "type": "groups", "id": <hash>, "path": "groups"}
+     */
+    private Optional<Map<String, Object>> getAccessGroupLookup(
+            final Set<Integer> accessGroupIds)
+            throws IOException {
+        if (accessGroupLookupMinimum < 1 || accessGroupIds == null ||
+                accessGroupIds.size() < accessGroupLookupMinimum) {
+            return Optional.absent();
+        }
+        final List<Integer> groups = new ArrayList<>(new TreeSet<>(accessGroupIds));
+        final String id = Hashing.sha256().hashString(groups.stream().map(i -> i.toString())
+                .collect(Collectors.joining(",")), StandardCharsets.UTF_8).toString();
+        final String indexName = getAccessGroupLookupIndexName();
+        if (accessGroupLookupIDs.getIfPresent(id) == null) {
+            checkAccessGroupLookupIndex(indexName);
+            // doc = {"groups": [<access group ids>]}
+            // the get in the terms lookup is real time, so there's no need to refresh
+            final Map<String, Object> doc = ImmutableMap.of(ACCESS_GROUP_LOOKUP_FIELD, groups);
+            final String urlPath = "/" + indexName + "/" + ACCESS_GROUP_LOOKUP_TYPE + "/" + id;
+            try {
+                makeRequest("PUT", urlPath, doc);
+            } catch (IOException e) {
+                if (!isAccessGroupLookupIndexMissing(e)) {
+                    throw e;
+                }
+                // the index was deleted since we last checked
+                resetAccessGroupLookups();
+                checkAccessGroupLookupIndex(indexName);
+                makeRequest("PUT", urlPath, doc);
+            }
+            accessGroupLookupIDs.put(id, true);
+        }
+        return Optional.of(ImmutableMap.of(
+                "index", indexName,
+                "type", ACCESS_GROUP_LOOKUP_TYPE,
+                "id", id,
+                "path", ACCESS_GROUP_LOOKUP_FIELD));
+    }
+
+    /* The lookup index can't start with the index name prefix, as searches over all the
+     * indexes with the prefix would then include an index with no access documents.
+     */
+    private String getAccessGroupLookupIndexName() {
+        return (ACCESS_GROUP_LOOKUP_INDEX_PREFIX + indexNamePrefix).toLowerCase();
+    }
+
+    private void checkAccessGroupLookupIndex(final String indexName) throws IOException {
+        if (accessGroupLookupIndexExists) {
+            return;
+        }
+        if (!listIndeces().contains(indexName)) {
+            // doc = {"mappings": {"groups": {"properties": {"groups": {"type": "integer",
+            //                                                          "index": false}}}}}
+            // the lookup reads the source, so the groups don't need to be indexed
+            final Map<String, Object> doc = ImmutableMap.of("mappings",
+                    ImmutableMap.of(ACCESS_GROUP_LOOKUP_TYPE,
+                            ImmutableMap.of("properties",
+                                    ImmutableMap.of(ACCESS_GROUP_LOOKUP_FIELD, ImmutableMap.of(
+                                            "type", "integer", "index", false)))));
+            try {
+                makeRequest("PUT", "/" + indexName, doc);
+            } catch (IOException e) {
+                // another searcher may have created the index concurrently
+                if (!listIndeces().contains(indexName)) {
+                    throw e;
+                }
+            }
+        }
+        accessGroupLookupIndexExists = true;
+    }
+
+    private void resetAccessGroupLookups() {
+        accessGroupLookupIndexExists = false;
+        accessGroupLookupIDs.invalidateAll();
+    }
+
+    private boolean isAccessGroupLookupIndexMissing(final IOException e) {
+        if (!(e.getCause() instanceof ResponseException)) {
+            return false;
+        }
+        final ResponseException re = (ResponseException) e.getCause();
+        return re.getResponse().getStatusLine().getStatusCode() == 404 &&
+                re.getMessage().contains("index_not_found_exception") &&
+                re.getMessage().contains(getAccessGroupLookupIndexName());
+    }
+
+    /* makes a search request whose query may contain an access group lookup. If the lookup
+     * index no longer exists, e.g. because another process dropped the data, the search fails
+     * and the lookup documents known to exist are forgotten, so the next search recreates them.
+     */
+    private Response makeSearchRequest(
+            final String reqType,
+            final String urlPath,
+            final Map<String, ?> doc,
+            final Map<String, String> attributes)
+            throws IOException {
+        try {
+            return makeRequest(reqType, urlPath, doc, attributes);
+        } catch (IOException e) {
+            if (isAccessGroupLookupIndexMissing(e)) {
+                resetAccessGroupLookups();
+            }
+            throw e;
+        }
+    }
+
     private Map<String, Object> createPublicShouldBlock(boolean withAllHistory) {
         List<Object> must0List = new ArrayList<>();
         must0List.add(createFilter("term", "public", true));
@@ -1149,25 +2082,28 @@ public class ElasticIndexingStorage implements IndexingStorage {
         }
 
         Map<String, Object> bool0Wrapper = ImmutableMap.of("bool",
-                                              ImmutableMap.of("must", must0List));
+                                              ImmutableMap.of("filter", must0List));
         return bool0Wrapper;
     }
     
-    private Map<String, Object> createOwnerShouldBlock(AccessFilter accessFilter) {
+    private Map<String, Object> createOwnerShouldBlock(AccessFilter accessFilter)
+            throws IOException {
         List<Object> must1List = new ArrayList<>();
         if (!accessFilter.isAdmin) {
             Set<Integer> accGroups = accessFilter.accessGroupIds;
             if (accGroups == null) {
                 accGroups = Collections.emptySet();
             }
-            must1List.add(createFilter("terms", "accgrp", accGroups));
+            final Optional<Map<String, Object>> lookup = getAccessGroupLookup(accGroups);
+            must1List.add(createFilter("terms", "accgrp",
+                    lookup.isPresent() ? lookup.get() : accGroups));
         }
         if (!accessFilter.withAllHistory) {
             must1List.add(createFilter("term", "islast", true));
         }
 
         Map<String, Object> bool1Wrapper = ImmutableMap.of("bool",
-                                              ImmutableMap.of("must", must1List));
+                                              ImmutableMap.of("filter", must1List));
 
         return bool1Wrapper;
     }
@@ -1177,7 +2113,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 createFilter("term", "shared", true), mustForShared));
 
         Map<String, Object> bool2Wrapper = ImmutableMap.of("bool",
-                                              ImmutableMap.of("must", must2List));
+                                              ImmutableMap.of("filter", must2List));
         return bool2Wrapper;
     }
     
@@ -1185,30 +2121,10 @@ public class ElasticIndexingStorage implements IndexingStorage {
     @Override
     public Map<String, Integer> searchTypes(MatchFilter matchFilter,
             AccessFilter accessFilter) throws IOException {
-        Map<String, Object> mustForShared = createAccessMustBlock(accessFilter);
-        if (mustForShared == null) {
+        final Map<String, Object> query = createSearchQuery(matchFilter, accessFilter);
+        if (query == null) {
             return Collections.emptyMap();
         }
-        List<Object> shouldList = new ArrayList<>();
-        // TODO: support for matchFilter.accessGroupId (e.g. reduce search scope to one group)
-        List<Object> matchFilters = new ArrayList<>(prepareMatchFilters(matchFilter));
-        // Public block (we exclude it for admin because it's covered by owner block)
-        if (accessFilter.withPublic && !accessFilter.isAdmin) {
-            shouldList.add(createPublicShouldBlock(accessFilter.withAllHistory));
-        }
-
-        // Owner block
-        shouldList.add(createOwnerShouldBlock(accessFilter));
-
-        // Shared block
-        shouldList.add(createSharedShouldBlock(mustForShared));
-        // Rest of query
-        Map<String, Object> query =
-                ImmutableMap.of("bool",
-                   ImmutableMap.of("must", matchFilters,
-                                   "filter", Arrays.asList(ImmutableMap.of("bool",
-                                                              ImmutableMap.of("should", shouldList)))));
-
 
         //TODO VERS if this aggregates by type version, need to add the version field to the terms
         Map<String, Object> aggs = ImmutableMap.of("types",
@@ -1222,7 +2138,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
         String urlPath = "/" + indexNamePrefix + "*" +
                 (matchFilter.excludeSubObjects ? EXCLUDE_SUB_OJBS_URL_SUFFIX : "") +
                 "/" + getDataTableName() + "/_search";
-        Response resp = makeRequest("GET", urlPath, doc);
+        Response resp = makeSearchRequest("GET", urlPath, doc, Collections.emptyMap());
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -1275,7 +2191,10 @@ public class ElasticIndexingStorage implements IndexingStorage {
         return searchIds(objectTypes, matchFilter, sorting, accessFilter, null).guids;
     }
 
-    private List<Map<String, Object>> prepareMatchFilters(MatchFilter matchFilter) {
+    /* the clauses of the match filter that affect the relevance of hits, which are the only
+     * clauses that need to be in the scoring context of a query.
+     */
+    private List<Map<String, Object>> prepareMatchQueries(MatchFilter matchFilter) {
         List<Map<String, Object>> ret = new ArrayList<>();
         if (matchFilter.fullTextInAll != null) {
             LinkedHashMap<String, Object> query = new LinkedHashMap<>();
@@ -1289,6 +2208,15 @@ public class ElasticIndexingStorage implements IndexingStorage {
             match.put("match",allQuery);
             ret.add(match);
         }
+        return ret;
+    }
+
+    /* the clauses of the match filter that only include or exclude hits. These go in the filter
+     * context of a query, where ElasticSearch doesn't score hits and can cache the matching
+     * documents between searches.
+     */
+    private List<Map<String, Object>> prepareMatchFilters(MatchFilter matchFilter) {
+        List<Map<String, Object>> ret = new ArrayList<>();
         /*if (matchFilter.accessGroupId != null) {
             ret.add(createAccessMustBlock(new LinkedHashSet<>(Arrays.asList(
                     matchFilter.accessGroupId)), withAllHistory));
@@ -1316,47 +2244,49 @@ public class ElasticIndexingStorage implements IndexingStorage {
                     matchFilter.timestamp.maxDate));
         }
         // TODO: support parent guid (reduce search scope to one object, e.g. features of one geneom)
-        if (ret.isEmpty()) {
-            ret.add(createFilter("match_all", null, null));
-        }
         return ret;
     }
     
-    private Map<String, Object> createAccessMustBlock(AccessFilter accessFilter) {
-        Set<Integer> accessGroupIds = new LinkedHashSet<>();
-        if (accessFilter.isAdmin) {
-            accessGroupIds.add(ADMIN_ACCESS_GROUP);
+    private Map<String, Object> createAccessMustBlock(AccessFilter accessFilter)
+            throws IOException {
+        // should = []
+        List<Object> should = new ArrayList<>();
+
+        String groupListProp = accessFilter.withAllHistory ? "groups" : "lastin";  // I think lastin means last version even though version is orthogonal to the concept of groups?
+
+        final Optional<Map<String, Object>> lookup = accessFilter.isAdmin ?
+                Optional.<Map<String, Object>>absent() :
+                getAccessGroupLookup(accessFilter.accessGroupIds);
+        if (lookup.isPresent()) {
+            // should = [{"terms": {groupListProp: <lookup>}}, {"term": {groupListProp: -1}}?]
+            should.add(createFilter("terms", groupListProp, lookup.get()));
+            if (accessFilter.withPublic) {
+                should.add(createFilter("term", groupListProp, PUBLIC_ACCESS_GROUP));
+            }
         } else {
-            if (accessFilter.accessGroupIds != null) {
-                accessGroupIds.addAll(accessFilter.accessGroupIds);
+            Set<Integer> accessGroupIds = new LinkedHashSet<>();
+            if (accessFilter.isAdmin) {
+                accessGroupIds.add(ADMIN_ACCESS_GROUP);
+            } else {
+                if (accessFilter.accessGroupIds != null) {
+                    accessGroupIds.addAll(accessFilter.accessGroupIds);
+                }
+                if (accessFilter.withPublic) {
+                    accessGroupIds.add(PUBLIC_ACCESS_GROUP);
+                }
             }
-            if (accessFilter.withPublic) {
-                accessGroupIds.add(PUBLIC_ACCESS_GROUP);
+            if (accessGroupIds.isEmpty()) {
+                return null;
             }
+            // should = [{"terms": {groupListProp: [accessGroupIds]}}]
+            should.add(createFilter("terms", groupListProp, accessGroupIds));
         }
-        if (accessGroupIds.isEmpty()) {
-            return null;
-        }
-        return createAccessMustBlock(accessGroupIds, accessFilter.withAllHistory,
-                accessFilter.withPublic);
+        return createAccessMustBlock(should, accessFilter.withPublic);
     }
     
-    private Map<String, Object> createAccessMustBlock(Set<Integer> accessGroupIds, 
-            boolean withAllHistory, boolean withPublic) {
-        // should = []
-        List<Object> should = new ArrayList<>();
-
-        // match = {groupListProp: [accessGroupIds]}
-        String groupListProp = withAllHistory ? "groups" : "lastin";  // I think lastin means last version even though version is orthogonal to the concept of groups?
-
-        // terms = {"terms": { groupListProp: [accessGroupIds]}}
-        Map<String, Object> terms = ImmutableMap.of("terms",
-                                       ImmutableMap.of(groupListProp, accessGroupIds));
-
-
-        // should = [{"terms": {groupListProp: [accessGroupIds]}}]
-        should.add(terms);
-
+    private Map<String, Object> createAccessMustBlock(
+            final List<Object> should,
+            final boolean withPublic) {
         if (withPublic) {
             // Case of public workspaces containing DataPalette referencing to given object
             // We basically check how many public workspaces (external comparing to home 
@@ -1396,49 +2326,51 @@ public class ElasticIndexingStorage implements IndexingStorage {
         // initialize args
         int pgStart = pg == null || pg.start == null ? 0 : pg.start;
         int pgCount = pg == null || pg.count == null ? 50 : pg.count;
-        Pagination pagination = new Pagination(pgStart, pgCount);
+        final ContinuationToken after = pg == null ? null : pg.after;
+        Pagination pagination = new Pagination(pgStart, pgCount, after);
         if (sorting == null || sorting.isEmpty()) {
             SortingRule sr = new SortingRule();
             sr.isTimestamp = true;
             sr.ascending = true;
             sorting = Arrays.asList(sr);
         }
+        if (after != null) {
+            if (pgStart != 0) {
+                throw new IllegalArgumentException(
+                        "Pagination start must be 0 when a continuation token is provided");
+            }
+            // the sort values are for the sorting rules plus the GUID
+            if (after.getSortValues().size() != sorting.size() + 1) {
+                throw new IllegalArgumentException(
+                        "Continuation token does not match the sorting rules");
+            }
+        }
         FoundHits ret = new FoundHits();
         ret.pagination = pagination;
         ret.sortingRules = sorting;
 
-        Map<String, Object> mustForShared = createAccessMustBlock(accessFilter);
-        if (mustForShared == null) {
+        final Map<String, Object> query = createSearchQuery(matchFilter, accessFilter);
+        if (query == null) {
             ret.total = 0;
             ret.guids = Collections.emptySet();
             return ret;
         }
-        List<Object> shouldList = new ArrayList<>();
-        // TODO: support for matchFilter.accessGroupId  (e.g. reduce search scope to one group)
-        // Public block (we exclude it for admin because it's covered by owner block)
-        if (accessFilter.withPublic && !accessFilter.isAdmin) {
-            shouldList.add(createPublicShouldBlock(accessFilter.withAllHistory));
-        }
-        // Owner block
-        shouldList.add(createOwnerShouldBlock(accessFilter));
-        // Shared block
-        shouldList.add(createSharedShouldBlock(mustForShared));
-        // Rest of query
-        Map<String, Object> query =
-                ImmutableMap.of("bool",
-                   ImmutableMap.of("must", prepareMatchFilters(matchFilter),
-                                   "filter", Arrays.asList(
-                                           ImmutableMap.of("bool",
-                                              ImmutableMap.of("should", shouldList)))));
 
         Map<String, Object> doc = new LinkedHashMap<>();
         doc.put("query", query);
-        doc.put("from", pagination.start);
+        if (after == null) {
+            doc.put("from", pagination.start);
+        } else {
+            // search_after = [<sort values of the last hit of the previous page>]
+            doc.put("search_after", after.getSortValues());
+        }
         doc.put("size", pagination.count);
 
         boolean loadObjects = pp != null && (pp.objectInfo || pp.objectData || pp.objectKeys);
         if (!loadObjects) {
             doc.put("_source", Arrays.asList("guid"));
+        } else if (!pp.objectData) {
+            doc.put("_source", getSourceExcludingObjectData());
         }
         List<Object> sort = new ArrayList<>();
         doc.put("sort", sort);
@@ -1451,31 +2383,15 @@ public class ElasticIndexingStorage implements IndexingStorage {
                                                                       sr.ascending ? "asc" : "desc"));
             sort.add(sortOrderWrapper);
         }
+        // GUIDs are unique, so hits with the same values for the sorting rules are always in the
+        // same order, which continuation tokens depend on
+        sort.add(ImmutableMap.of("guid", ImmutableMap.of("order", "asc")));
 
-        validateObjectTypes(objectTypes);
-
-        String indexName;
-
-        // search unconstrained by object type
-        if (objectTypes.isEmpty()) {
-            indexName = getAnyIndexPattern();
-        }
-        // search constrained by object types
-        else {
-            final List<String> rr = new LinkedList<>();
-            for (final String type: objectTypes) {
-                rr.add(checkIndex(type));
-            }
-            indexName = String.join(",", rr);
-        }
-        
-        if (matchFilter.excludeSubObjects) {
-            indexName += EXCLUDE_SUB_OJBS_URL_SUFFIX;
-        }
-
-        String urlPath = "/" + indexName + "/" + getDataTableName() + "/_search";
+        String urlPath = "/" + getSearchIndexes(objectTypes, matchFilter) + "/" +
+                getDataTableName() + "/_search";
 
-        Response resp = makeRequest("GET", urlPath, ImmutableMap.copyOf(doc));
+        Response resp = makeSearchRequest("GET", urlPath, ImmutableMap.copyOf(doc),
+                Collections.emptyMap());
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
@@ -1498,9 +2414,154 @@ public class ElasticIndexingStorage implements IndexingStorage {
                     pp.objectData, pp.objectDataIncludes));
             }
         }
+        // a short page is the last page
+        if (!hitList.isEmpty() && hitList.size() == pagination.count) {
+            @SuppressWarnings("unchecked")
+            final List<Object> sortValues = (List<Object>) hitList.get(hitList.size() - 1)
+                    .get("sort");
+            ret.continuationToken = new ContinuationToken(sortValues);
+        }
         return ret;
     }
     
+    /* returns null if the access filter can't match any objects. */
+    private Map<String, Object> createSearchQuery(
+            final MatchFilter matchFilter,
+            final AccessFilter accessFilter)
+            throws IOException {
+        Map<String, Object> mustForShared = createAccessMustBlock(accessFilter);
+        if (mustForShared == null) {
+            return null;
+        }
+        List<Object> shouldList = new ArrayList<>();
+        // TODO: support for matchFilter.accessGroupId  (e.g. reduce search scope to one group)
+        // Public block (we exclude it for admin because it's covered by owner block)
+        if (accessFilter.withPublic && !accessFilter.isAdmin) {
+            shouldList.add(createPublicShouldBlock(accessFilter.withAllHistory));
+        }
+        // Owner block
+        shouldList.add(createOwnerShouldBlock(accessFilter));
+        // Shared block
+        shouldList.add(createSharedShouldBlock(mustForShared));
+        // Rest of query
+        // filter = [<match filters>, {"bool": {"should": shouldList}}]
+        final List<Object> filter = new ArrayList<>(prepareMatchFilters(matchFilter));
+        filter.add(ImmutableMap.of("bool", ImmutableMap.of("should", shouldList)));
+        // query = {"bool": {"must": [<match queries>]?, "filter": filter}}
+        // with no scoring clauses the query matches every document that passes the filters
+        final Map<String, Object> bool = new LinkedHashMap<>();
+        final List<Map<String, Object>> must = prepareMatchQueries(matchFilter);
+        if (!must.isEmpty()) {
+            bool.put("must", must);
+        }
+        bool.put("filter", filter);
+        return ImmutableMap.of("bool", bool);
+    }
+
+    /* the comma separated indexes to search, with a suffix to exclude sub objects if
+     * requested.
+     */
+    private String getSearchIndexes(
+            final List<String> objectTypes,
+            final MatchFilter matchFilter)
+            throws IOException {
+        validateObjectTypes(objectTypes);
+
+        String indexName;
+
+        // search unconstrained by object type
+        if (objectTypes.isEmpty()) {
+            indexName = getAnyIndexPattern();
+        }
+        // search constrained by object types
+        else {
+            final List<String> rr = new LinkedList<>();
+            for (final String type: objectTypes) {
+                rr.add(checkIndex(type));
+            }
+            indexName = String.join(",", rr);
+        }
+        
+        if (matchFilter.excludeSubObjects) {
+            indexName += EXCLUDE_SUB_OJBS_URL_SUFFIX;
+        }
+        return indexName;
+    }
+
+    @Override
+    public void exportObjects(
+            final List<String> objectTypes,
+            final MatchFilter matchFilter,
+            final AccessFilter accessFilter,
+            final boolean withKeys,
+            final ObjectDataConsumer consumer)
+            throws IOException {
+        Utils.nonNull(objectTypes, "objectTypes");
+        Utils.nonNull(matchFilter, "matchFilter");
+        Utils.nonNull(accessFilter, "accessFilter");
+        Utils.nonNull(consumer, "consumer");
+        final String urlPath = "/" + getSearchIndexes(objectTypes, matchFilter) + "/" +
+                getDataTableName() + "/_search";
+        final Map<String, Object> query = createSearchQuery(matchFilter, accessFilter);
+        if (query == null) {
+            return;
+        }
+        /* doc = {"query": {...}, "size": <scroll size>, "sort": ["_doc"],
+         *        "_source": ["guid", "key.*"]}
+         * 
+         * _doc order is the cheapest order to scroll in, as it's the order the documents are
+         * stored in.
+         */
+        final Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("query", query);
+        doc.put("size", scrollSize);
+        doc.put("sort", Arrays.asList("_doc"));
+        doc.put("_source", withKeys ? Arrays.asList("guid", getKeyProperty("*")) :
+            Arrays.asList("guid"));
+        Response resp = makeSearchRequest("POST", urlPath, doc,
+                ImmutableMap.of("scroll", SCROLL_TIME));
+        String scrollID = null;
+        try {
+            while (true) {
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> data = UObject.getMapper().readValue(
+                        resp.getEntity().getContent(), Map.class);
+                scrollID = (String) data.get("_scroll_id");
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> hitMap = (Map<String, Object>) data.get("hits");
+                @SuppressWarnings("unchecked")
+                final List<Map<String, Object>> hitList =
+                        (List<Map<String, Object>>) hitMap.get("hits");
+                if (hitList.isEmpty()) {
+                    return;
+                }
+                for (final Map<String, Object> hit : hitList) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> obj = (Map<String, Object>) hit.get("_source");
+                    consumer.accept(buildObjectData(obj, false, withKeys, false, null));
+                }
+                // doc = {"scroll": <scroll time>, "scroll_id": <scroll id>}
+                resp = makeRequest("POST", "/_search/scroll", ImmutableMap.of(
+                        "scroll", SCROLL_TIME, "scroll_id", scrollID));
+            }
+        } finally {
+            clearScroll(scrollID);
+        }
+    }
+
+    private void clearScroll(final String scrollID) {
+        if (scrollID == null) {
+            return;
+        }
+        try {
+            // doc = {"scroll_id": [<scroll id>]}
+            makeRequest("DELETE", "/_search/scroll",
+                    ImmutableMap.of("scroll_id", Arrays.asList(scrollID)));
+        } catch (IOException e) {
+            // the scroll will expire anyway, and throwing here could hide an earlier exception
+        }
+    }
+
     private String getKeyProperty(String keyName) {
         return "key." + keyName;
     }
@@ -1538,7 +2599,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
         return makeRequest(reqType, urlPath, doc, Collections.<String, String>emptyMap());
     }
 
-    private RestClient getRestClient() {
+    private synchronized RestClient getRestClient() {
         if (restClient == null) {
             RestClientBuilder restClientBld = RestClient.builder(esHost);
             restClientBld.setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
@@ -1577,6 +2638,22 @@ public class ElasticIndexingStorage implements IndexingStorage {
             return response;
         }
     }
+
+    /** Send the body accumulated in a bulk request writer to ElasticSearch.
+     * @param reqType the HTTP method.
+     * @param indexName the default index for the bulk request.
+     * @param bulk the writer containing the request body.
+     * @return the response from ElasticSearch.
+     * @throws IOException if an IO error occurs.
+     */
+    public Response makeBulkRequest(
+            final String reqType,
+            final String indexName,
+            final BulkRequestWriter bulk)
+            throws IOException {
+        return getRestClient().performRequest(reqType, "/" + indexName + "/_bulk",
+                getWriteRefreshParams(), bulk.toEntity());
+    }
     
     public Response makeRequest(String reqType, String urlPath, Map<String, ?> doc, 
             Map<String, String> attributes) throws IOException {
@@ -1699,15 +2776,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
         props.put("public", bool);
         props.put("shared", bool);
 
-        props.put("ojson", ImmutableMap.of(
-                "type", "keyword",
-                "index", false,
-                "doc_values", false));
-
-        props.put("pjson", ImmutableMap.of(
-                "type", "keyword",
-                "index", false,
-                "doc_values", false));
+        props.putAll(getObjectDataMappings());
         
         
         for (IndexingRules rules : indexingRules) {
@@ -1742,7 +2811,48 @@ public class ElasticIndexingStorage implements IndexingStorage {
         makeRequest("PUT", "/" + indexName, doc);
     }
     
-    public void close() throws IOException {
+    /* the object data is by far the largest part of each document, so don't fetch it unless it's
+     * needed.
+     * "_source": {"excludes": ["ojson", "pjson", ...]}
+     */
+    private Map<String, Object> getSourceExcludingObjectData() {
+        final List<String> excludes = new ArrayList<>();
+        for (final ObjectDataEncoding enc: ObjectDataEncoding.values()) {
+            excludes.add(enc.getDataField());
+            excludes.add(enc.getParentDataField());
+        }
+        return ImmutableMap.of("excludes", excludes);
+    }
+
+    /* the mappings of the object data fields of all the encodings. */
+    private Map<String, Object> getObjectDataMappings() {
+        final Map<String, Object> props = new LinkedHashMap<>();
+        for (final ObjectDataEncoding enc: ObjectDataEncoding.values()) {
+            final Map<String, Object> mapping;
+            if (ObjectDataEncoding.JSON.equals(enc)) {
+                mapping = ImmutableMap.of(
+                        "type", "keyword",
+                        "index", false,
+                        "doc_values", false);
+            } else {
+                // binary fields are neither indexed nor have doc values by default
+                mapping = ImmutableMap.of("type", "binary");
+            }
+            props.put(enc.getDataField(), mapping);
+            props.put(enc.getParentDataField(), mapping);
+        }
+        return props;
+    }
+
+    /* adds the object data mappings to an existing index. Existing mappings are unchanged. */
+    private void addObjectDataMappings(final String indexName) throws IOException {
+        // doc = {"properties": {"ojson": {"type": "keyword", ...}, ...}}
+        makeRequest("PUT", "/" + indexName + "/_mapping/" + getDataTableName(),
+                ImmutableMap.of("properties", getObjectDataMappings()));
+    }
+    
+    public synchronized void close() throws IOException {
+        stopRefresher();
         if (restClient != null) {
             restClient.close();
             restClient = null;
@@ -14,4 +14,6 @@ public class FoundHits {
     public Set<GUID> guids;
     public List<ObjectData> objects;
     public int total;
+    // the position after the last hit, or null if there are no more hits
+    public ContinuationToken continuationToken;
 }
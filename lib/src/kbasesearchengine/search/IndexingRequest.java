@@ -0,0 +1,122 @@
+package kbasesearchengine.search;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.tools.Utils;
+
+/** A request to index an object and any sub objects parsed from it. Multiple requests may be
+ * submitted to the indexing storage at once via {@link IndexingStorage#indexObjects(java.util.List)}.
+ *
+ */
+public class IndexingRequest {
+
+    private final ObjectTypeParsingRules rule;
+    private final SourceData source;
+    private final Instant timestamp;
+    private final Optional<String> parentJson;
+    private final GUID parentGUID;
+    private final Map<GUID, ParsedObject> idToObj;
+    private final boolean isPublic;
+
+    /** Create an indexing request.
+     * @param rule the parsing rules for the object.
+     * @param source the source data for the object.
+     * @param timestamp the timestamp of the object.
+     * @param parentJson the JSON extracted from the parent object, if any.
+     * @param parentGUID the GUID of the object. Must not contain sub object information.
+     * @param idToObj a mapping of GUID to parsed object for each object to be indexed. The GUIDs
+     * must match the parent GUID other than the sub object information. If the mapping is empty,
+     * only the general object information will be indexed.
+     * @param isPublic true if the object is public.
+     */
+    public IndexingRequest(
+            final ObjectTypeParsingRules rule,
+            final SourceData source,
+            final Instant timestamp,
+            final String parentJson,
+            final GUID parentGUID,
+            final Map<GUID, ParsedObject> idToObj,
+            final boolean isPublic) {
+        Utils.nonNull(rule, "rule");
+        Utils.nonNull(source, "source");
+        Utils.nonNull(timestamp, "timestamp");
+        Utils.nonNull(parentGUID, "parentGUID");
+        Utils.nonNull(idToObj, "idToObj");
+        if (parentGUID.getSubObjectType() != null || parentGUID.getSubObjectId() != null) {
+            throw new IllegalArgumentException("parentGUID may not contain sub object info");
+        }
+        for (final GUID id: idToObj.keySet()) {
+            final GUID pguid = new GUID(id.getStorageCode(), id.getAccessGroupId(),
+                    id.getAccessGroupObjectId(), id.getVersion(), null, null);
+            if (!pguid.equals(parentGUID)) {
+                throw new IllegalArgumentException(String.format(
+                        "Object GUID %s doesn't match parent GUID %s", id, parentGUID));
+            }
+        }
+        this.rule = rule;
+        this.source = source;
+        this.timestamp = timestamp;
+        this.parentJson = Optional.fromNullable(parentJson);
+        this.parentGUID = parentGUID;
+        this.idToObj = Collections.unmodifiableMap(new LinkedHashMap<>(idToObj));
+        this.isPublic = isPublic;
+    }
+
+    /** Get the parsing rules for the object.
+     * @return the parsing rules.
+     */
+    public ObjectTypeParsingRules getRule() {
+        return rule;
+    }
+
+    /** Get the source data for the object.
+     * @return the source data.
+     */
+    public SourceData getSource() {
+        return source;
+    }
+
+    /** Get the timestamp for the object.
+     * @return the timestamp.
+     */
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /** Get the JSON extracted from the parent object, if any.
+     * @return the parent JSON.
+     */
+    public Optional<String> getParentJson() {
+        return parentJson;
+    }
+
+    /** Get the GUID of the object.
+     * @return the GUID.
+     */
+    public GUID getParentGUID() {
+        return parentGUID;
+    }
+
+    /** Get the mapping of GUID to parsed object for each object to index.
+     * @return the objects to index.
+     */
+    public Map<GUID, ParsedObject> getIdToObj() {
+        return idToObj;
+    }
+
+    /** Returns true if the object is public.
+     * @return whether the object is public.
+     */
+    public boolean isPublic() {
+        return isPublic;
+    }
+}
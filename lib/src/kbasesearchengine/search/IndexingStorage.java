@@ -45,6 +45,13 @@ public interface IndexingStorage {
             Map<GUID, ParsedObject> idToObj,
             boolean isPublic) 
             throws IOException;
+
+    /** Index many objects, possibly from different parent objects and of different types, in
+     * as few requests to the storage system as possible.
+     * @param requests the indexing requests.
+     * @throws IOException if an IO error occurs contacting the storage system.
+     */
+    public void indexObjects(List<IndexingRequest> requests) throws IOException;
     
     /** Check that the parent objects (e.g. the access information) exists for a set of GUIDS.
      * Equivalent to {@link #checkParentGuidsExist(String, Set)} with a null String.
@@ -56,6 +63,21 @@ public interface IndexingStorage {
             throws IOException;
 
     public void flushIndexing(ObjectTypeParsingRules objectType) throws IOException;
+
+    /** Make all writes to the storage system that have not yet been made visible to searches
+     * visible. Depending on the storage system configuration, this may be a no-op.
+     * @throws IOException if an IO error occurs.
+     */
+    public void flushIndexing() throws IOException;
+
+    /** Get the generation of the data in the storage system. The generation is incremented by
+     * {@link #flushIndexing()} and {@link #flushIndexing(ObjectTypeParsingRules)}, and is shared
+     * between all the processes using the storage system, so a process may compare generations
+     * to find out whether another process has made writes visible to searches.
+     * @return the generation.
+     * @throws IOException if an IO error occurs.
+     */
+    public long getGeneration() throws IOException;
     
     public void shareObjects(Set<GUID> guids, int accessGroupId, boolean isPublicGroup) throws IOException;
 
@@ -117,6 +139,27 @@ public interface IndexingStorage {
             PostProcessing postProcessing)
             throws IOException;
 
+    /** Export every object matching a search, in no particular order. The objects are fetched
+     * from the indexing storage in batches, so the memory used is independent of the number
+     * of objects.
+     * @param objectTypes a list of object types to constrain the search to. An empty list
+     * indicates a search that is unconstrained by object type.
+     * @param matchFilter the filter for the objects.
+     * @param accessFilter the filter for the objects based on their access groups.
+     * @param withKeys true to include the key properties of each object, otherwise only the GUIDs
+     * are included.
+     * @param consumer the consumer of the objects.
+     * @throws IOException if an IO error occurs when contacting the indexing storage or in the
+     * consumer.
+     */
+    public void exportObjects(
+            List<String> objectTypes,
+            MatchFilter matchFilter,
+            AccessFilter accessFilter,
+            boolean withKeys,
+            ObjectDataConsumer consumer)
+            throws IOException;
+
     /** Change the name of all the versions of an object.
      * @param object the GUID of the object. The version field is ignored.
      * @param newName the new name of the object.
@@ -0,0 +1,13 @@
+package kbasesearchengine.search;
+
+import java.io.IOException;
+
+/** A consumer of objects found by a search. */
+public interface ObjectDataConsumer {
+
+    /** Accept an object.
+     * @param data the object.
+     * @throws IOException if an IO error occurs.
+     */
+    public void accept(ObjectData data) throws IOException;
+}
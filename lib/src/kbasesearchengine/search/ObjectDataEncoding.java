@@ -0,0 +1,118 @@
+package kbasesearchengine.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import us.kbase.common.service.UObject;
+
+/** Encodings for the object data and parent data stored with each document in the indexing
+ * storage. The data is only read when a search requests it, but is stored in every document, so
+ * its encoding determines much of the size of the index and of bulk indexing requests.
+ *
+ * Each encoding stores the data in its own fields, so documents with different encodings may
+ * share an index and are all readable regardless of the encoding used for writing.
+ */
+public enum ObjectDataEncoding {
+
+    /** Store the data as JSON strings. */
+    JSON("ojson", "pjson") {
+        @Override
+        public Object encode(final String json) {
+            return json;
+        }
+
+        @Override
+        public Object decode(final Object stored) {
+            return UObject.transformStringToObject((String) stored, Object.class);
+        }
+    },
+
+    /** Store the data as deflate compressed JSON in binary fields. Typically a fifth of the size
+     * of the JSON, at the cost of compressing each document when indexing and decompressing
+     * the data of each search hit that requests it.
+     */
+    COMPRESSED("ojsonz", "pjsonz") {
+        @Override
+        public Object encode(final String json) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (final DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            } finally {
+                deflater.end();
+            }
+            // serialized as base64, which is how ElasticSearch expects binary fields
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public Object decode(final Object stored) throws IOException {
+            final byte[] bytes = Base64.getDecoder().decode((String) stored);
+            // parse straight from the decompressed stream without building a string
+            try (final InputStream in = new InflaterInputStream(
+                    new ByteArrayInputStream(bytes))) {
+                return UObject.getMapper().readValue(in, Object.class);
+            }
+        }
+    };
+
+    private final String dataField;
+    private final String parentDataField;
+
+    private ObjectDataEncoding(final String dataField, final String parentDataField) {
+        this.dataField = dataField;
+        this.parentDataField = parentDataField;
+    }
+
+    /** Get the name of the document field that stores the object data in this encoding.
+     * @return the field name.
+     */
+    public String getDataField() {
+        return dataField;
+    }
+
+    /** Get the name of the document field that stores the parent data in this encoding.
+     * @return the field name.
+     */
+    public String getParentDataField() {
+        return parentDataField;
+    }
+
+    /** Encode JSON for storage in a document.
+     * @param json the JSON.
+     * @return the value to store in the document.
+     * @throws IOException if the JSON could not be encoded.
+     */
+    public abstract Object encode(String json) throws IOException;
+
+    /** Decode a value stored in a document, as returned in the source of a search hit.
+     * @param stored the stored value.
+     * @return the data.
+     * @throws IOException if the value could not be decoded.
+     */
+    public abstract Object decode(Object stored) throws IOException;
+
+    /** Get an encoding from its name. Case is ignored.
+     * @param encoding the name of the encoding.
+     * @return the encoding.
+     * @throws IllegalArgumentException if there is no such encoding.
+     */
+    public static ObjectDataEncoding fromString(final String encoding) {
+        if (encoding == null) {
+            throw new NullPointerException("encoding");
+        }
+        for (final ObjectDataEncoding e: values()) {
+            if (e.name().equalsIgnoreCase(encoding.trim())) {
+                return e;
+            }
+        }
+        throw new IllegalArgumentException("Invalid object data encoding: " + encoding);
+    }
+}
@@ -3,9 +3,62 @@ package kbasesearchengine.search;
 public class Pagination {
     public Integer start;
     public Integer count;
+    // if present, the page starts after this position and start must be 0 or null
+    public ContinuationToken after;
     
     public Pagination(Integer start, Integer count) {
         this.start = start;
         this.count = count;
     }
+    
+    public Pagination(Integer start, Integer count, ContinuationToken after) {
+        this(start, count);
+        this.after = after;
+    }
+    
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((after == null) ? 0 : after.hashCode());
+        result = prime * result + ((count == null) ? 0 : count.hashCode());
+        result = prime * result + ((start == null) ? 0 : start.hashCode());
+        return result;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        Pagination other = (Pagination) obj;
+        if (after == null) {
+            if (other.after != null) {
+                return false;
+            }
+        } else if (!after.equals(other.after)) {
+            return false;
+        }
+        if (count == null) {
+            if (other.count != null) {
+                return false;
+            }
+        } else if (!count.equals(other.count)) {
+            return false;
+        }
+        if (start == null) {
+            if (other.start != null) {
+                return false;
+            }
+        } else if (!start.equals(other.start)) {
+            return false;
+        }
+        return true;
+    }
 }
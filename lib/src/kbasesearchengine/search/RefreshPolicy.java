@@ -0,0 +1,50 @@
+package kbasesearchengine.search;
+
+/** Policies determining when writes to the indexing storage are made visible to searches.
+ * Refreshing an index after every write guarantees that a search immediately following a write
+ * sees the write, but is very expensive under heavy indexing load.
+ *
+ * Note that the indexing storage reads its own data when indexing (e.g. to find prior
+ * versions of an object). For the {@link #PERIODIC} and {@link #NONE} policies the storage
+ * remembers the last versions of the objects indexed since each index was refreshed, looks up
+ * parent documents with real time gets, and defers updating the prior versions of those objects
+ * until the index is refreshed, so indexing never forces a refresh. Until then searches may
+ * return more than one version of an object marked as the last version. For the
+ * {@link #WAIT_FOR} policy, updates by query, which can't wait for a refresh, refresh the
+ * index instead.
+ */
+public enum RefreshPolicy {
+
+    /** Refresh the modified index after every write. */
+    IMMEDIATE,
+
+    /** Do not explicitly refresh indexes. Write requests that support it wait until the
+     * next scheduled refresh of the index before returning.
+     */
+    WAIT_FOR,
+
+    /** Record modified indexes and refresh them periodically on a background thread. */
+    PERIODIC,
+
+    /** Record modified indexes but only refresh them when
+     * {@link IndexingStorage#flushIndexing()} is called.
+     */
+    NONE;
+
+    /** Get a refresh policy from its name. Case is ignored.
+     * @param policy the name of the policy.
+     * @return the policy.
+     * @throws IllegalArgumentException if there is no such policy.
+     */
+    public static RefreshPolicy fromString(final String policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        for (final RefreshPolicy rp: values()) {
+            if (rp.name().equalsIgnoreCase(policy.trim())) {
+                return rp;
+            }
+        }
+        throw new IllegalArgumentException("Invalid refresh policy: " + policy);
+    }
+}
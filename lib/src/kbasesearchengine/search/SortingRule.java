@@ -5,4 +5,46 @@ public class SortingRule {
     public boolean isObjectName;
     public String keyName;
     public boolean ascending;
+    
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (ascending ? 1231 : 1237);
+        result = prime * result + (isObjectName ? 1231 : 1237);
+        result = prime * result + (isTimestamp ? 1231 : 1237);
+        result = prime * result + ((keyName == null) ? 0 : keyName.hashCode());
+        return result;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        SortingRule other = (SortingRule) obj;
+        if (ascending != other.ascending) {
+            return false;
+        }
+        if (isObjectName != other.isObjectName) {
+            return false;
+        }
+        if (isTimestamp != other.isTimestamp) {
+            return false;
+        }
+        if (keyName == null) {
+            if (other.keyName != null) {
+                return false;
+            }
+        } else if (!keyName.equals(other.keyName)) {
+            return false;
+        }
+        return true;
+    }
 }
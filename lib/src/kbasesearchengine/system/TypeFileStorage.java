@@ -17,6 +17,7 @@ import java.util.stream.Collectors;
 import org.apache.commons.io.FilenameUtils;
 
 import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.parse.ExtractionPlan;
 import kbasesearchengine.tools.Utils;
 
 /** Flat file based storage for search transformation specifications and
@@ -38,6 +39,8 @@ public class TypeFileStorage implements TypeStorage {
     
     private final Map<String, ArrayList<ObjectTypeParsingRules>> searchTypes = new HashMap<>();
     private final Map<CodeAndType, TypeMapping> storageTypes;
+    // only written in the constructor, and so safe to share between threads
+    private final Map<SearchObjectType, ExtractionPlan> plans = new HashMap<>();
     
     private Map<CodeAndType, TypeMapping> processTypesDir(
             final Path typesDir,
@@ -61,6 +64,9 @@ public class TypeFileStorage implements TypeStorage {
                 }
                 typeToFile.put(searchType, file);
                 searchTypes.put(searchType, new ArrayList<>(types));
+                for (final ObjectTypeParsingRules rules: types) {
+                    plans.put(rules.getGlobalObjectType(), ExtractionPlan.compile(rules));
+                }
                 final CodeAndType cnt = new CodeAndType(types.get(0).getStorageObjectType());
                 if (!storageTypes.containsKey(cnt)) {
                     storageTypes.put(cnt, TypeMapping.getBuilder(cnt.storageCode, cnt.storageType)
@@ -294,4 +300,16 @@ public class TypeFileStorage implements TypeStorage {
         }
         return ret;
     }
+    
+    @Override
+    public ExtractionPlan getExtractionPlan(final ObjectTypeParsingRules rules) {
+        Utils.nonNull(rules, "rules");
+        final ExtractionPlan plan = plans.get(rules.getGlobalObjectType());
+        // the rules are usually the instance held by this storage, so check identity first
+        if (plan != null && (plan.getParsingRules().get() == rules ||
+                plan.getParsingRules().get().equals(rules))) {
+            return plan;
+        }
+        return ExtractionPlan.compile(rules);
+    }
 }
@@ -2,6 +2,8 @@ package kbasesearchengine.system;
 
 import java.util.Set;
 
+import kbasesearchengine.parse.ExtractionPlan;
+
 /** Stores a) type documents ({@link ObjectTypeParsingRules}) that describe how to transform an
  * object from a data source into one or more documents that can be indexed by search and
  * b) mappings ({@link TypeMapping}) from data source type versions ({@link StorageObjectType})
@@ -35,4 +37,12 @@ public interface TypeStorage {
      * available for the type.
      */
     Set<ObjectTypeParsingRules> listObjectTypeParsingRules(StorageObjectType storageObjectType);
+
+    /** Returns the compiled extraction plan for a transformation document. Plans for the
+     * documents in the storage system are compiled once and reused; plans for other documents
+     * are compiled on demand.
+     * @param rules the transformation document.
+     * @return the extraction plan.
+     */
+    ExtractionPlan getExtractionPlan(ObjectTypeParsingRules rules);
 }
@@ -48,12 +48,13 @@ import kbasesearchengine.events.exceptions.IndexingException;
 import kbasesearchengine.events.handler.CloneableWorkspaceClientImpl;
 import kbasesearchengine.events.handler.EventHandler;
 import kbasesearchengine.events.handler.WorkspaceEventHandler;
+import kbasesearchengine.events.storage.MongoDBStatusEventNotifier;
 import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
-import kbasesearchengine.events.storage.StatusEventStorage;
 import kbasesearchengine.events.storage.StorageInitException;
 import kbasesearchengine.main.LineLogger;
 import kbasesearchengine.main.Stoppable;
 import kbasesearchengine.main.IndexerCoordinator;
+import kbasesearchengine.main.ObjectLookupCache;
 import kbasesearchengine.main.IndexerWorker;
 import kbasesearchengine.parse.ObjectParseException;
 import kbasesearchengine.search.ElasticIndexingStorage;
@@ -229,7 +230,8 @@ public class SearchTools {
                         a.ref,
                         getWsBlackList(a.wsBlacklist, cfg.getWorkspaceBlackList()),
                         getWsTypes(a.wsTypes, cfg.getWorkspaceTypes()),
-                        cfg.workerCodes());
+                        cfg.workerCodes(),
+                        cfg.isEventNotificationsEnabled());
                 noCommand = false;
             } catch (EventGeneratorException | StorageInitException e) {
                 printError(e, a.verbose);
@@ -321,9 +323,13 @@ public class SearchTools {
             throws StorageInitException, InterruptedException, IndexingException {
         final LineLogger logger = buildLogger(logTarget, errTarget);
         
-        final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+        final MongoDBStatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
         
         final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, MAX_Q_SIZE);
+        if (cfg.isEventNotificationsEnabled()) {
+            storage.enableNotifications();
+            coord.setNotifier(new MongoDBStatusEventNotifier(searchDB));
+        }
         coord.startIndexer();
         return coord;
     }
@@ -349,7 +355,7 @@ public class SearchTools {
         final TypeStorage ss = new TypeFileStorage(typesDir, mappingsDir,
                 new ObjectTypeParsingRulesFileParser(), parsers, new FileLister(), logger);
         
-        final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+        final MongoDBStatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
         
         final WorkspaceClient wsClient = new WorkspaceClient(
                 cfg.getWorkspaceURL(), kbaseIndexerToken);
@@ -359,7 +365,35 @@ public class SearchTools {
         
         final IndexerWorker wrk = new IndexerWorker(
                 getID(id), Arrays.asList(weh), storage, indexStore, ss, tempDir, logger,
-                cfg.workerCodes());
+                cfg.workerCodes(), cfg.getWorkerThreads().or(1));
+        if (cfg.getWorkerClaimBatchSize().isPresent()) {
+            wrk.setClaimBatchSize(cfg.getWorkerClaimBatchSize().get());
+        }
+        if (cfg.getWorkerIndexChunkSize().isPresent()) {
+            wrk.setIndexChunkSize(cfg.getWorkerIndexChunkSize().get());
+        }
+        if (cfg.getWorkerKeywordThreads().isPresent()) {
+            wrk.setKeywordThreads(cfg.getWorkerKeywordThreads().get());
+        }
+        if (cfg.isWorkerPipelined()) {
+            wrk.setPipeline(
+                    cfg.getWorkerLoadThreads().or(1),
+                    cfg.getWorkerParseThreads().or(1),
+                    cfg.getWorkerIndexThreads().or(1),
+                    cfg.getWorkerPipelineQueueSize().or(
+                            IndexerWorker.DEFAULT_PIPELINE_QUEUE_SIZE));
+        }
+        if (cfg.getWorkerLookupCacheLifetimeSec().isPresent() ||
+                cfg.getWorkerLookupCacheSize().isPresent()) {
+            wrk.setLookupCache(new ObjectLookupCache(
+                    cfg.getWorkerLookupCacheLifetimeSec().or(
+                            ObjectLookupCache.DEFAULT_LIFETIME_SEC),
+                    cfg.getWorkerLookupCacheSize().or(ObjectLookupCache.DEFAULT_SIZE)));
+        }
+        if (cfg.isEventNotificationsEnabled()) {
+            storage.enableNotifications();
+            wrk.setNotifier(new MongoDBStatusEventNotifier(searchDB));
+        }
         wrk.startIndexer();
         return wrk;
     }
@@ -427,6 +461,13 @@ public class SearchTools {
             esStorage.setEsPassword(new String(cfg.getElasticPassword().get()));
         }
         esStorage.setIndexNamePrefix(cfg.getElasticNamespace() + ".");
+        if (cfg.getElasticBulkBufferSize().isPresent()) {
+            esStorage.setBulkBufferSize(cfg.getElasticBulkBufferSize().get());
+        }
+        esStorage.setRefreshPolicy(cfg.getElasticRefreshPolicy(),
+                cfg.getElasticRefreshIntervalMS().or(
+                        (int) ElasticIndexingStorage.DEFAULT_REFRESH_INTERVAL_MS));
+        esStorage.setObjectDataEncoding(cfg.getElasticObjectDataEncoding());
         indexStore = esStorage;
     }
 
@@ -536,10 +577,14 @@ public class SearchTools {
             final String ref,
             final List<WorkspaceIdentifier> wsBlackList,
             final List<String> wsTypes,
-            final Set<String> workerCodes)
+            final Set<String> workerCodes,
+            final boolean notify)
             throws EventGeneratorException, StorageInitException {
-        final Builder gen = new WorkspaceEventGenerator.Builder(
-                new MongoDBStatusEventStorage(searchDB), workspaceDB, logtarget)
+        final MongoDBStatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+        if (notify) {
+            storage.enableNotifications();
+        }
+        final Builder gen = new WorkspaceEventGenerator.Builder(storage, workspaceDB, logtarget)
                 .withNullableRef(ref)
                 .withWorkspaceBlacklist(wsBlackList)
                 .withWorkerCodes(workerCodes)
@@ -16,6 +16,9 @@ import java.util.Set;
 
 import com.google.common.base.Optional;
 
+import kbasesearchengine.search.ObjectDataEncoding;
+import kbasesearchengine.search.RefreshPolicy;
+
 public class SearchToolsConfig {
     
     //TODO TESTS
@@ -25,13 +28,29 @@ public class SearchToolsConfig {
     private static final String SEARCH_MONGO_DB = "search-mongo-db";
     private static final String SEARCH_MONGO_USER = "search-mongo-user";
     private static final String SEARCH_MONGO_PWD = "search-mongo-pwd";
+    private static final String EVENT_NOTIFICATIONS = "event-notifications";
     private static final String WORKER_CODES = "worker-codes";
+    private static final String WORKER_THREADS = "worker-threads";
+    private static final String WORKER_LOAD_THREADS = "worker-load-threads";
+    private static final String WORKER_PARSE_THREADS = "worker-parse-threads";
+    private static final String WORKER_INDEX_THREADS = "worker-index-threads";
+    private static final String WORKER_PIPELINE_QUEUE_SIZE = "worker-pipeline-queue-size";
+    private static final String WORKER_CLAIM_BATCH_SIZE = "worker-claim-batch-size";
+    private static final String WORKER_INDEX_CHUNK_SIZE = "worker-index-chunk-size";
+    private static final String WORKER_KEYWORD_THREADS = "worker-keyword-threads";
+    private static final String WORKER_LOOKUP_CACHE_LIFETIME =
+            "worker-lookup-cache-lifetime-sec";
+    private static final String WORKER_LOOKUP_CACHE_SIZE = "worker-lookup-cache-size";
 
     private static final String ELASTIC_HOST = "elastic-host";
     private static final String ELASTIC_PORT = "elastic-port";
     private static final String ELASTIC_USER = "elastic-user";
     private static final String ELASTIC_PWD = "elastic-password";
     private static final String ELASTIC_NAMESPACE = "elastic-namespace";
+    private static final String ELASTIC_BULK_BUFFER_SIZE = "elastic-bulk-buffer-size";
+    private static final String ELASTIC_REFRESH_POLICY = "elastic-refresh-policy";
+    private static final String ELASTIC_REFRESH_INTERVAL = "elastic-refresh-interval-ms";
+    private static final String ELASTIC_OBJECT_DATA_ENCODING = "elastic-object-data-encoding";
     private static final String TEMP_DIR = "scratch";
 
     private static final String WS_URL = "workspace-url";
@@ -54,13 +73,28 @@ public class SearchToolsConfig {
     private final String searchMongoDB;
     private final Optional<String> searchMongoUser;
     private final Optional<char[]> searchMongoPwd;
+    private final boolean eventNotifications;
     private final Set<String> workerCodes;
+    private final Optional<Integer> workerThreads;
+    private final Optional<Integer> workerLoadThreads;
+    private final Optional<Integer> workerParseThreads;
+    private final Optional<Integer> workerIndexThreads;
+    private final Optional<Integer> workerPipelineQueueSize;
+    private final Optional<Integer> workerClaimBatchSize;
+    private final Optional<Integer> workerIndexChunkSize;
+    private final Optional<Integer> workerKeywordThreads;
+    private final Optional<Integer> workerLookupCacheLifetimeSec;
+    private final Optional<Integer> workerLookupCacheSize;
     
     private final String elasticHost;
     private final int elasticPort;
     private final Optional<String> elasticUser;
     private final Optional<char[]> elasticPassword;
     private final String elasticNamespace;
+    private final Optional<Integer> elasticBulkBufferSize;
+    private final RefreshPolicy elasticRefreshPolicy;
+    private final Optional<Integer> elasticRefreshIntervalMS;
+    private final ObjectDataEncoding elasticObjectDataEncoding;
     private final String tempDir;
     
     private final URL workspaceURL;
@@ -83,12 +117,27 @@ public class SearchToolsConfig {
             final String searchMongoDB,
             final String searchMongoUser,
             String searchMongoPwd,
+            final boolean eventNotifications,
             final List<String> workerCodes,
+            final Integer workerThreads,
+            final Integer workerLoadThreads,
+            final Integer workerParseThreads,
+            final Integer workerIndexThreads,
+            final Integer workerPipelineQueueSize,
+            final Integer workerClaimBatchSize,
+            final Integer workerIndexChunkSize,
+            final Integer workerKeywordThreads,
+            final Integer workerLookupCacheLifetimeSec,
+            final Integer workerLookupCacheSize,
             final String elasticHost,
             final int elasticPort,
             final String elasticUser,
             String elasticPassword,
             final String elasticNamespace,
+            final Integer elasticBulkBufferSize,
+            final RefreshPolicy elasticRefreshPolicy,
+            final Integer elasticRefreshIntervalMS,
+            final ObjectDataEncoding elasticObjectDataEncoding,
             final String tempDir,
             final URL workspaceURL,
             final URL authURL,
@@ -119,8 +168,22 @@ public class SearchToolsConfig {
         this.searchMongoPwd = Optional.fromNullable(searchMongoPwd == null ?
                 null :searchMongoPwd.toCharArray());
         searchMongoPwd = null;
+        this.eventNotifications = eventNotifications;
         
         this.workerCodes = Collections.unmodifiableSet(new HashSet<>(workerCodes));
+        this.workerThreads = checkPositive(workerThreads, WORKER_THREADS);
+        this.workerLoadThreads = checkPositive(workerLoadThreads, WORKER_LOAD_THREADS);
+        this.workerParseThreads = checkPositive(workerParseThreads, WORKER_PARSE_THREADS);
+        this.workerIndexThreads = checkPositive(workerIndexThreads, WORKER_INDEX_THREADS);
+        this.workerPipelineQueueSize = checkPositive(
+                workerPipelineQueueSize, WORKER_PIPELINE_QUEUE_SIZE);
+        this.workerClaimBatchSize = checkPositive(workerClaimBatchSize, WORKER_CLAIM_BATCH_SIZE);
+        this.workerIndexChunkSize = checkPositive(workerIndexChunkSize, WORKER_INDEX_CHUNK_SIZE);
+        this.workerKeywordThreads = checkPositive(workerKeywordThreads, WORKER_KEYWORD_THREADS);
+        this.workerLookupCacheLifetimeSec = checkPositive(
+                workerLookupCacheLifetimeSec, WORKER_LOOKUP_CACHE_LIFETIME);
+        this.workerLookupCacheSize = checkPositive(
+                workerLookupCacheSize, WORKER_LOOKUP_CACHE_SIZE);
         
         this.elasticHost = elasticHost;
         this.elasticPort = elasticPort;
@@ -136,6 +199,10 @@ public class SearchToolsConfig {
                 elasticPassword.toCharArray());
         elasticPassword = null;
         this.elasticNamespace = elasticNamespace;
+        this.elasticBulkBufferSize = Optional.fromNullable(elasticBulkBufferSize);
+        this.elasticRefreshPolicy = elasticRefreshPolicy;
+        this.elasticRefreshIntervalMS = Optional.fromNullable(elasticRefreshIntervalMS);
+        this.elasticObjectDataEncoding = elasticObjectDataEncoding;
         this.tempDir = tempDir;
 
         this.workspaceURL = workspaceURL;
@@ -161,6 +228,15 @@ public class SearchToolsConfig {
         workspaceMongoPwd = null; //gc
     }
 
+    private static Optional<Integer> checkPositive(final Integer value, final String paramName)
+            throws SearchToolsConfigException {
+        if (value != null && value < 1) {
+            throw new SearchToolsConfigException(String.format(
+                    "Parameter %s must be at least 1", paramName));
+        }
+        return Optional.fromNullable(value);
+    }
+
     public String getSearchMongoHost() {
         return searchMongoHost;
     }
@@ -177,9 +253,66 @@ public class SearchToolsConfig {
         return searchMongoPwd;
     }
     
+    /** Returns true if changes to the event storage should be broadcast to, and listened for
+     * by, the event generators, coordinator, and workers.
+     * @return true if event notifications are enabled.
+     */
+    public boolean isEventNotificationsEnabled() {
+        return eventNotifications;
+    }
+    
     public Set<String> workerCodes() {
         return workerCodes;
     }
+    
+    public Optional<Integer> getWorkerThreads() {
+        return workerThreads;
+    }
+    
+    /** Returns true if any of the worker pipeline stage thread counts are set, which means
+     * the worker should process events in a pipeline.
+     * @return true if the worker pipeline is enabled.
+     */
+    public boolean isWorkerPipelined() {
+        return workerLoadThreads.isPresent() || workerParseThreads.isPresent() ||
+                workerIndexThreads.isPresent();
+    }
+    
+    public Optional<Integer> getWorkerLoadThreads() {
+        return workerLoadThreads;
+    }
+    
+    public Optional<Integer> getWorkerParseThreads() {
+        return workerParseThreads;
+    }
+    
+    public Optional<Integer> getWorkerIndexThreads() {
+        return workerIndexThreads;
+    }
+    
+    public Optional<Integer> getWorkerPipelineQueueSize() {
+        return workerPipelineQueueSize;
+    }
+    
+    public Optional<Integer> getWorkerClaimBatchSize() {
+        return workerClaimBatchSize;
+    }
+    
+    public Optional<Integer> getWorkerIndexChunkSize() {
+        return workerIndexChunkSize;
+    }
+    
+    public Optional<Integer> getWorkerKeywordThreads() {
+        return workerKeywordThreads;
+    }
+    
+    public Optional<Integer> getWorkerLookupCacheLifetimeSec() {
+        return workerLookupCacheLifetimeSec;
+    }
+    
+    public Optional<Integer> getWorkerLookupCacheSize() {
+        return workerLookupCacheSize;
+    }
 
     public String getElasticHost() {
         return elasticHost;
@@ -201,6 +334,22 @@ public class SearchToolsConfig {
         return elasticNamespace;
     }
     
+    public Optional<Integer> getElasticBulkBufferSize() {
+        return elasticBulkBufferSize;
+    }
+    
+    public RefreshPolicy getElasticRefreshPolicy() {
+        return elasticRefreshPolicy;
+    }
+    
+    public Optional<Integer> getElasticRefreshIntervalMS() {
+        return elasticRefreshIntervalMS;
+    }
+    
+    public ObjectDataEncoding getElasticObjectDataEncoding() {
+        return elasticObjectDataEncoding;
+    }
+    
     public String getTempDir() {
         return tempDir;
     }
@@ -277,12 +426,27 @@ public class SearchToolsConfig {
                 getString(SEARCH_MONGO_DB, cfg, true),
                 getString(SEARCH_MONGO_USER, cfg),
                 getString(SEARCH_MONGO_PWD, cfg),
+                "true".equals(getString(EVENT_NOTIFICATIONS, cfg)),
                 getStringList(WORKER_CODES, cfg),
+                getInteger(WORKER_THREADS, cfg),
+                getInteger(WORKER_LOAD_THREADS, cfg),
+                getInteger(WORKER_PARSE_THREADS, cfg),
+                getInteger(WORKER_INDEX_THREADS, cfg),
+                getInteger(WORKER_PIPELINE_QUEUE_SIZE, cfg),
+                getInteger(WORKER_CLAIM_BATCH_SIZE, cfg),
+                getInteger(WORKER_INDEX_CHUNK_SIZE, cfg),
+                getInteger(WORKER_KEYWORD_THREADS, cfg),
+                getInteger(WORKER_LOOKUP_CACHE_LIFETIME, cfg),
+                getInteger(WORKER_LOOKUP_CACHE_SIZE, cfg),
                 getString(ELASTIC_HOST, cfg, true),
                 esPort,
                 getString(ELASTIC_USER, cfg),
                 getString(ELASTIC_PWD, cfg),
                 getString(ELASTIC_NAMESPACE, cfg, true),
+                getInteger(ELASTIC_BULK_BUFFER_SIZE, cfg),
+                getRefreshPolicy(ELASTIC_REFRESH_POLICY, cfg),
+                getInteger(ELASTIC_REFRESH_INTERVAL, cfg),
+                getObjectDataEncoding(ELASTIC_OBJECT_DATA_ENCODING, cfg),
                 getString(TEMP_DIR, cfg, true),
                 getURL(WS_URL, cfg),
                 getURL(AUTH_URL, cfg),
@@ -363,6 +527,58 @@ public class SearchToolsConfig {
         }
     }
     
+    // returns null if no integer
+    private static Integer getInteger(
+            final String paramName,
+            final Map<String, String> config)
+            throws SearchToolsConfigException {
+        final String s = getString(paramName, config);
+        if (s == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new SearchToolsConfigException(String.format(
+                    "Invalid value for parameter %s (%s): %s",
+                    paramName, s, e.getMessage()));
+        }
+    }
+    
+    private static RefreshPolicy getRefreshPolicy(
+            final String paramName,
+            final Map<String, String> config)
+            throws SearchToolsConfigException {
+        final String s = getString(paramName, config);
+        if (s == null) {
+            return RefreshPolicy.IMMEDIATE;
+        }
+        try {
+            return RefreshPolicy.fromString(s);
+        } catch (IllegalArgumentException e) {
+            throw new SearchToolsConfigException(String.format(
+                    "Invalid value for parameter %s (%s): %s",
+                    paramName, s, e.getMessage()));
+        }
+    }
+    
+    private static ObjectDataEncoding getObjectDataEncoding(
+            final String paramName,
+            final Map<String, String> config)
+            throws SearchToolsConfigException {
+        final String s = getString(paramName, config);
+        if (s == null) {
+            return ObjectDataEncoding.JSON;
+        }
+        try {
+            return ObjectDataEncoding.fromString(s);
+        } catch (IllegalArgumentException e) {
+            throw new SearchToolsConfigException(String.format(
+                    "Invalid value for parameter %s (%s): %s",
+                    paramName, s, e.getMessage()));
+        }
+    }
+    
     private static URL getURL(final String key, final Map<String, String> cfg)
             throws SearchToolsConfigException {
         final String url = getString(key, cfg, true);
@@ -394,6 +610,30 @@ public class SearchToolsConfig {
         builder.append(searchMongoUser);
         builder.append(", searchMongoPwd=");
         builder.append(searchMongoPwd);
+        builder.append(", eventNotifications=");
+        builder.append(eventNotifications);
+        builder.append(", workerCodes=");
+        builder.append(workerCodes);
+        builder.append(", workerThreads=");
+        builder.append(workerThreads);
+        builder.append(", workerLoadThreads=");
+        builder.append(workerLoadThreads);
+        builder.append(", workerParseThreads=");
+        builder.append(workerParseThreads);
+        builder.append(", workerIndexThreads=");
+        builder.append(workerIndexThreads);
+        builder.append(", workerPipelineQueueSize=");
+        builder.append(workerPipelineQueueSize);
+        builder.append(", workerClaimBatchSize=");
+        builder.append(workerClaimBatchSize);
+        builder.append(", workerIndexChunkSize=");
+        builder.append(workerIndexChunkSize);
+        builder.append(", workerKeywordThreads=");
+        builder.append(workerKeywordThreads);
+        builder.append(", workerLookupCacheLifetimeSec=");
+        builder.append(workerLookupCacheLifetimeSec);
+        builder.append(", workerLookupCacheSize=");
+        builder.append(workerLookupCacheSize);
         builder.append(", elasticHost=");
         builder.append(elasticHost);
         builder.append(", elasticPort=");
@@ -404,6 +644,14 @@ public class SearchToolsConfig {
         builder.append(elasticPassword);
         builder.append(", elasticNamespace=");
         builder.append(elasticNamespace);
+        builder.append(", elasticBulkBufferSize=");
+        builder.append(elasticBulkBufferSize);
+        builder.append(", elasticRefreshPolicy=");
+        builder.append(elasticRefreshPolicy);
+        builder.append(", elasticRefreshIntervalMS=");
+        builder.append(elasticRefreshIntervalMS);
+        builder.append(", elasticObjectDataEncoding=");
+        builder.append(elasticObjectDataEncoding);
         builder.append(", workspaceURL=");
         builder.append(workspaceURL);
         builder.append(", authURL=");
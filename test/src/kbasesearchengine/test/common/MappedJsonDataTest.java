@@ -0,0 +1,205 @@
+package kbasesearchengine.test.common;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import kbasesearchengine.common.JsonTokenUtil;
+import kbasesearchengine.common.MappedJsonData;
+
+public class MappedJsonDataTest {
+
+    private static final String RESPONSE =
+            "{\"version\": \"1.1\", " +
+            "\"result\": [{\"data\": [{\"info\": [1, \"foo\", {\"a\": [1, 2]}], " +
+                    "\"data\": {\"features\": [{\"id\": \"f1\"}, {\"id\": \"f2\"}], " +
+                            "\"n\": 2}, " +
+                    "\"provenance\": []}]}], " +
+            "\"id\": \"12345\"}";
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("MappedJsonDataTest", ".json");
+        Files.write(file, RESPONSE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private static String read(final JsonParser jp) throws IOException {
+        final TokenBuffer buf = new TokenBuffer(null);
+        try {
+            while (jp.nextToken() != null) {
+                buf.copyCurrentEvent(jp);
+            }
+        } finally {
+            jp.close();
+        }
+        return JsonTokenUtil.toJson(buf);
+    }
+
+    @Test
+    public void wholeDocument() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(file);
+
+        assertThat("incorrect path", data.getPath(), is(Arrays.asList()));
+        assertThat("incorrect data", read(data.getParser()),
+                is(RESPONSE.replace(" ", "")));
+    }
+
+    @Test
+    public void element() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(
+                file, "result", "0", "data", "0", "data");
+
+        assertThat("incorrect path", data.getPath(),
+                is(Arrays.asList("result", "0", "data", "0", "data")));
+        final String expected = "{\"features\":[{\"id\":\"f1\"},{\"id\":\"f2\"}],\"n\":2}";
+        assertThat("incorrect data", read(data.getParser()), is(expected));
+        // repeated passes see the same data
+        assertThat("incorrect data", read(data.getParser()), is(expected));
+    }
+
+    @Test
+    public void scalarElement() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(file, "result", "0", "data", "0",
+                "info", "1");
+
+        assertThat("incorrect data", read(data.getParser()), is("\"foo\""));
+    }
+
+    @Test
+    public void skipChildren() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(
+                file, "result", "0", "data", "0", "data");
+
+        try (final JsonParser jp = data.getParser()) {
+            assertThat("incorrect token", jp.nextToken(), is(JsonToken.START_OBJECT));
+            assertThat("incorrect token", jp.nextToken(), is(JsonToken.FIELD_NAME));
+            assertThat("incorrect token", jp.nextToken(), is(JsonToken.START_ARRAY));
+            jp.skipChildren();
+            assertThat("incorrect token", jp.nextToken(), is(JsonToken.FIELD_NAME));
+            assertThat("incorrect name", jp.getCurrentName(), is("n"));
+            assertThat("incorrect token", jp.nextToken(), is(JsonToken.VALUE_NUMBER_INT));
+            assertThat("incorrect token", jp.nextToken(), is(JsonToken.END_OBJECT));
+            // the rest of the document is not returned
+            assertThat("incorrect token", jp.nextToken(), is((JsonToken) null));
+        }
+    }
+
+    @Test
+    public void mapFail() throws Exception {
+        failMap(null, new String[0], new NullPointerException("file"));
+        failMap(file, new String[] {"result", null},
+                new NullPointerException("null item in path"));
+    }
+
+    private void failMap(final Path file, final String[] path, final Exception expected) {
+        try {
+            MappedJsonData.map(file, path);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void size() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(
+                file, "result", "0", "data", "0", "data");
+
+        assertThat("incorrect size", data.getSize(), is(
+                "{\"features\": [{\"id\": \"f1\"}, {\"id\": \"f2\"}], \"n\": 2}".length()));
+    }
+
+    @Test
+    public void fields() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(
+                file, "result", "0", "data", "0", "data");
+
+        assertThat("incorrect data", read(data.getParser(set("n"))), is("{\"n\":2}"));
+        // fields are returned in document order
+        assertThat("incorrect data", read(data.getParser(set("n", "features", "whee"))),
+                is("{\"features\":[{\"id\":\"f1\"},{\"id\":\"f2\"}],\"n\":2}"));
+        assertThat("incorrect data", read(data.getParser(set())), is("{}"));
+    }
+
+    @Test
+    public void fieldsNotObject() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(
+                file, "result", "0", "data", "0", "info");
+
+        assertThat("incorrect data", read(data.getParser(set("foo"))),
+                is("[1,\"foo\",{\"a\":[1,2]}]"));
+    }
+
+    @Test
+    public void fieldsEscapedAndDuplicateKeys() throws Exception {
+        Files.write(file, ("{\"d\": {\"a\\\"b\": {\"x\": \"}\\\"]\"}, \"c\": 1, " +
+                "\"\\u0063\": 2, \"e\": true}}").getBytes(StandardCharsets.UTF_8));
+        final MappedJsonData data = MappedJsonData.map(file, "d");
+
+        assertThat("incorrect data", read(data.getParser(set("a\"b", "c"))),
+                is("{\"a\\\"b\":{\"x\":\"}\\\"]\"},\"c\":2}"));
+        assertThat("incorrect data", read(data.getParser(set("e"))), is("{\"e\":true}"));
+    }
+
+    @Test
+    public void getParserFail() throws Exception {
+        final MappedJsonData data = MappedJsonData.map(file);
+        try {
+            data.getParser(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("fieldNames"));
+        }
+    }
+
+    @Test
+    public void mapFailNoElement() throws Exception {
+        failMapNoElement(new String[] {"result", "0", "data", "0", "whee"});
+        failMapNoElement(new String[] {"result", "1"});
+        failMapNoElement(new String[] {"result", "foo"});
+        failMapNoElement(new String[] {"result", "-1"});
+        failMapNoElement(new String[] {"version", "foo"});
+    }
+
+    private void failMapNoElement(final String[] path) throws Exception {
+        failMap(file, path, new IOException(
+                "No element in JSON document at path " + Arrays.asList(path)));
+    }
+
+    @Test
+    public void mapFailMalformed() throws Exception {
+        Files.write(file, "{\"result\": [1, 2".getBytes(StandardCharsets.UTF_8));
+        failMap(file, new String[] {"result", "2"},
+                new IOException("Malformed JSON document at byte 16"));
+        Files.write(file, "{\"result\" [1, 2]}".getBytes(StandardCharsets.UTF_8));
+        failMap(file, new String[] {"result"},
+                new IOException("Malformed JSON document at byte 10"));
+    }
+
+    private static Set<String> set(final String... items) {
+        return new HashSet<>(Arrays.asList(items));
+    }
+}
@@ -4,14 +4,20 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Test;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
+import kbasesearchengine.common.MappedJsonData;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.test.common.TestCommon;
 import us.kbase.common.service.UObject;
@@ -33,6 +39,7 @@ public class SourceDataTest {
         assertThat("incorrect module", sd.getModule(), is(Optional.absent()));
         assertThat("incorrect version", sd.getVersion(), is(Optional.absent()));
         assertThat("incorrect md5", sd.getMD5(), is(Optional.absent()));
+        assertThat("incorrect mapped data", sd.getMappedData(), is(Optional.absent()));
     }
     
     @Test
@@ -69,6 +76,7 @@ public class SourceDataTest {
                 .withNullableModule(null)
                 .withNullableVersion(null)
                 .withNullableMD5(null)
+                .withNullableMappedData(null)
                 .build();
         
         assertThat("incorrect data", sd.getData().asClassInstance(Map.class),
@@ -81,6 +89,65 @@ public class SourceDataTest {
         assertThat("incorrect module", sd.getModule(), is(Optional.absent()));
         assertThat("incorrect version", sd.getVersion(), is(Optional.absent()));
         assertThat("incorrect md5", sd.getMD5(), is(Optional.absent()));
+        assertThat("incorrect mapped data", sd.getMappedData(), is(Optional.absent()));
+    }
+    
+    @Test
+    public void buildWithMappedData() throws Exception {
+        final Path file = Files.createTempFile("SourceDataTest", ".json");
+        try {
+            Files.write(file, "{\"result\": [{\"foo3\": \"bar3\"}]}".getBytes());
+            final MappedJsonData mapped = MappedJsonData.map(file, "result", "0");
+            final SourceData sd = SourceData.getBuilder(
+                    new UObject(ImmutableMap.of("foo3", "bar3")), "name3", "creator3")
+                    .withNullableMappedData(mapped)
+                    .build();
+            
+            assertThat("incorrect mapped data", sd.getMappedData(), is(Optional.of(mapped)));
+            try (final JsonParser jp = sd.getDataParser()) {
+                assertThat("incorrect data", UObject.getMapper().readValue(jp, Map.class),
+                        is(ImmutableMap.of("foo3", "bar3")));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    public void getDataParserFields() throws Exception {
+        final Path file = Files.createTempFile("SourceDataTest", ".json");
+        try {
+            Files.write(file, "{\"result\": [{\"foo\": \"bar\", \"baz\": [1]}]}".getBytes());
+            final UObject data = new UObject(ImmutableMap.of("foo", "bar", "baz", Arrays.asList(1)));
+            final SourceData sd = SourceData.getBuilder(data, "name", "creator")
+                    .withNullableMappedData(MappedJsonData.map(file, "result", "0"))
+                    .build();
+            try (final JsonParser jp = sd.getDataParser(ImmutableSet.of("baz"))) {
+                assertThat("incorrect data", UObject.getMapper().readValue(jp, Map.class),
+                        is(ImmutableMap.of("baz", Arrays.asList(1))));
+            }
+            
+            // without mapped data all the fields are returned
+            final SourceData sd2 = SourceData.getBuilder(data, "name", "creator").build();
+            try (final JsonParser jp = sd2.getDataParser(ImmutableSet.of("baz"))) {
+                assertThat("incorrect data", UObject.getMapper().readValue(jp, Map.class),
+                        is(ImmutableMap.of("foo", "bar", "baz", Arrays.asList(1))));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    public void getDataParserFieldsFail() throws Exception {
+        final SourceData sd = SourceData.getBuilder(
+                new UObject(ImmutableMap.of("foo", "bar")), "name", "creator").build();
+        try {
+            sd.getDataParser(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("fieldNames"));
+        }
     }
     
     @Test
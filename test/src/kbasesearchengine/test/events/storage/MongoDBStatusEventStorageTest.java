@@ -16,7 +16,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import org.bson.Document;
@@ -40,6 +43,7 @@ import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
 import kbasesearchengine.events.exceptions.RetriableIndexingException;
+import kbasesearchengine.events.storage.MongoDBStatusEventNotifier;
 import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
 import kbasesearchengine.events.storage.StatusEventStorage;
 import kbasesearchengine.system.StorageObjectType;
@@ -322,6 +326,117 @@ public class MongoDBStatusEventStorageTest {
         assertThat("expected fail", success, is(false));
     }
 
+    @Test
+    public void getByIds() throws Exception {
+        final StoredStatusEvent sse1 = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null);
+        final StoredStatusEvent sse2 = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(40000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.PROC, set("foo"));
+        storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(50000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.PROC, null);
+        final StatusEventID missing = new StatusEventID(new ObjectId().toString());
+        
+        final Map<StatusEventID, StoredStatusEvent> got = storage.getByIds(
+                set(sse1.getId(), sse2.getId(), missing));
+        
+        assertThat("incorrect ids", got.keySet(), is(set(sse1.getId(), sse2.getId())));
+        assertThat("incorrect event", got.get(sse1.getId()), is(sse1));
+        assertThat("incorrect event", got.get(sse2.getId()), is(sse2));
+        
+        assertThat("incorrect events", storage.getByIds(set()), is(Collections.emptyMap()));
+    }
+    
+    @Test
+    public void setProcessingStates() throws Exception {
+        final StoredStatusEvent sse1 = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null);
+        final StoredStatusEvent sse2 = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(40000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.UNPROC, null);
+        final StoredStatusEvent sse3 = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(50000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.PROC, null);
+        final StoredStatusEvent sse4 = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(60000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.UNPROC, null);
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(70000));
+        
+        final int count = storage.setProcessingStates(set(sse1.getId(), sse2.getId(),
+                sse3.getId(), new StatusEventID(new ObjectId().toString())),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        assertThat("incorrect count", count, is(2));
+        
+        for (final StoredStatusEvent sse: Arrays.asList(sse1, sse2)) {
+            final StoredStatusEvent got = storage.get(sse.getId()).get();
+            assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.READY));
+            assertThat("incorrect update time", got.getUpdateTime(),
+                    is(Optional.of(Instant.ofEpochMilli(70000))));
+            assertThat("incorrect event", got.getEvent(), is(sse.getEvent()));
+        }
+        assertThat("incorrect state", storage.get(sse3.getId()).get().getState(),
+                is(StatusEventProcessingState.PROC));
+        assertThat("incorrect state", storage.get(sse4.getId()).get().getState(),
+                is(StatusEventProcessingState.UNPROC));
+        
+        final int count2 = storage.setProcessingStates(set(sse3.getId(), sse4.getId()), null,
+                StatusEventProcessingState.FAIL);
+        assertThat("incorrect count", count2, is(2));
+        assertThat("incorrect state", storage.get(sse3.getId()).get().getState(),
+                is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect state", storage.get(sse4.getId()).get().getState(),
+                is(StatusEventProcessingState.FAIL));
+        
+        assertThat("incorrect count", storage.setProcessingStates(
+                set(), null, StatusEventProcessingState.FAIL), is(0));
+    }
+    
+    @Test
+    public void notifications() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final MongoDBStatusEventStorage storage = new MongoDBStatusEventStorage(db, clock);
+        storage.enableNotifications();
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null);
+        
+        try (final MongoDBStatusEventNotifier notifier = new MongoDBStatusEventNotifier(db)) {
+            final Semaphore notified = new Semaphore(0);
+            notifier.addListener(() -> notified.release());
+            
+            // prior notifications are ignored
+            assertThat("unexpected notification",
+                    notified.tryAcquire(2, TimeUnit.SECONDS), is(false));
+            
+            storage.store(StatusEvent.getBuilder(
+                    "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                    StatusEventProcessingState.UNPROC, null);
+            assertThat("expected store notification",
+                    notified.tryAcquire(5, TimeUnit.SECONDS), is(true));
+            
+            storage.setProcessingState(sse.getId(), null, StatusEventProcessingState.READY);
+            assertThat("expected state notification",
+                    notified.tryAcquire(5, TimeUnit.SECONDS), is(true));
+            
+            storage.setProcessingStates(set(sse.getId()), null, StatusEventProcessingState.PROC);
+            assertThat("expected states notification",
+                    notified.tryAcquire(5, TimeUnit.SECONDS), is(true));
+            
+            // no change, no notification
+            storage.setProcessingState(sse.getId(), StatusEventProcessingState.UNPROC,
+                    StatusEventProcessingState.READY);
+            assertThat("unexpected notification",
+                    notified.tryAcquire(2, TimeUnit.SECONDS), is(false));
+        } finally {
+            // documents can't be deleted from capped collections, so destroyDB() would fail
+            db.getCollection("searchEventNotify").drop();
+        }
+    }
+    
     @Test
     public void getAndSetProcessingWithSortNoDBWorkerCodeField() throws Exception {
         getAndSetProcessingWithSort(set(),
@@ -586,6 +701,115 @@ public class MongoDBStatusEventStorageTest {
         }
     }
     
+    @Test
+    public void setAndGetProcessingStates() throws Exception {
+        store(1, 10, StatusEventProcessingState.READY, set("foo"));
+        store(11, 20, StatusEventProcessingState.READY, set("bar"));
+        store(21, 25, StatusEventProcessingState.UNPROC, set("foo"));
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        
+        final List<StoredStatusEvent> ret = storage.setAndGetProcessingStates(
+                StatusEventProcessingState.READY, set("foo"),
+                StatusEventProcessingState.PROC, "whee", "lease1", 6);
+        assertLeased(ret, 1, 6);
+        
+        final List<StoredStatusEvent> ret2 = storage.setAndGetProcessingStates(
+                StatusEventProcessingState.READY, set("foo"),
+                StatusEventProcessingState.PROC, "whee", "lease2", 6);
+        assertLeased(ret2, 7, 10);
+        
+        final List<StoredStatusEvent> ret3 = storage.setAndGetProcessingStates(
+                StatusEventProcessingState.READY, set("foo"),
+                StatusEventProcessingState.PROC, "whee", "lease3", 6);
+        assertThat("expected no events", ret3, is(Collections.emptyList()));
+        
+        final StoredStatusEvent got = storage.get(ret.get(0).getId()).get();
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.PROC));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.of("whee")));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000))));
+        
+        assertThat("incorrect READY count",
+                storage.get(StatusEventProcessingState.READY, -1).size(), is(10));
+        assertThat("incorrect UNPROC count",
+                storage.get(StatusEventProcessingState.UNPROC, -1).size(), is(5));
+    }
+    
+    @Test
+    public void setAndGetProcessingStatesRetry() throws Exception {
+        store(1, 10, StatusEventProcessingState.READY, set("foo"));
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        
+        final List<StoredStatusEvent> ret = storage.setAndGetProcessingStates(
+                StatusEventProcessingState.READY, set("foo"),
+                StatusEventProcessingState.PROC, "whee", "lease1", 6);
+        assertLeased(ret, 1, 6);
+        
+        // a retry with the same lease, e.g. after the events were leased but the fetch failed,
+        // gets the same events
+        final List<StoredStatusEvent> retry = storage.setAndGetProcessingStates(
+                StatusEventProcessingState.READY, set("foo"),
+                StatusEventProcessingState.PROC, "whee", "lease1", 6);
+        assertThat("incorrect events", retry, is(ret));
+        
+        assertThat("incorrect READY count",
+                storage.get(StatusEventProcessingState.READY, -1).size(), is(4));
+    }
+    
+    private void assertLeased(
+            final List<StoredStatusEvent> events,
+            final int start,
+            final int end) {
+        assertThat("incorrect event count", events.size(), is(end - start + 1));
+        int time = start;
+        for (final StoredStatusEvent e: events) {
+            assertThat("incorrect order", e.getEvent().getTimestamp(),
+                    is(Instant.ofEpochMilli(time * 1000)));
+            assertThat("incorrect state", e.getState(), is(StatusEventProcessingState.PROC));
+            assertThat("incorrect updater", e.getUpdater(), is(Optional.of("whee")));
+            time++;
+        }
+    }
+    
+    @Test
+    public void setAndGetProcessingStatesFail() {
+        failSetAndGetProcessingStates(null, null, StatusEventProcessingState.FAIL, "foo", "l",
+                1, new NullPointerException("oldState"));
+        failSetAndGetProcessingStates(StatusEventProcessingState.FAIL, null, null, "foo", "l",
+                1, new NullPointerException("newState"));
+        failSetAndGetProcessingStates(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "   \t \n  ", "l", 1,
+                new IllegalArgumentException("updater cannot be null or whitespace"));
+        failSetAndGetProcessingStates(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "foo", null, 1,
+                new IllegalArgumentException("lease cannot be null or whitespace"));
+        failSetAndGetProcessingStates(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "foo", "l", 0,
+                new IllegalArgumentException("limit must be at least 1"));
+        failSetAndGetProcessingStates(StatusEventProcessingState.UNPROC, set("foo", null),
+                StatusEventProcessingState.FAIL, "foo", "l", 1,
+                new NullPointerException("null item in workerCodes"));
+    }
+    
+    private void failSetAndGetProcessingStates(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final String lease,
+            final int limit,
+            final Exception expected) {
+        try {
+            storage.setAndGetProcessingStates(
+                    oldState, workerCodes, newState, updater, lease, limit);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
     @Test
     public void getByState() throws Exception {
         store(10100, StatusEventProcessingState.UNPROC);
@@ -750,6 +974,43 @@ public class MongoDBStatusEventStorageTest {
         failSetState(new StatusEventID("foo"), null, new NullPointerException("newState"));
     }
     
+    @Test
+    public void getByIdsFail() {
+        failGetByIds(null, new NullPointerException("ids"));
+        failGetByIds(set(new StatusEventID("foo"), null),
+                new NullPointerException("null item in ids"));
+    }
+    
+    private void failGetByIds(final Set<StatusEventID> ids, final Exception expected) {
+        try {
+            storage.getByIds(ids);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void setStatesFail() {
+        final StatusEventProcessingState i = StatusEventProcessingState.INDX;
+        failSetStates(null, i, new NullPointerException("ids"));
+        failSetStates(set(new StatusEventID("foo"), null), i,
+                new NullPointerException("null item in ids"));
+        failSetStates(set(new StatusEventID("foo")), null, new NullPointerException("newState"));
+    }
+    
+    private void failSetStates(
+            final Set<StatusEventID> ids,
+            final StatusEventProcessingState state,
+            final Exception expected) {
+        try {
+            storage.setProcessingStates(ids, null, state);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
     private void failSetState(
             final StatusEventID id,
             final StatusEventProcessingState state,
@@ -776,6 +1037,11 @@ public class MongoDBStatusEventStorageTest {
                         .append("key", new Document("status", 1).append("time", 1))
                         .append("name", "status_1_time_1")
                         .append("ns", "test_mongostorage.searchEvents"),
+                new Document()
+                        .append("key", new Document("lease", 1))
+                        .append("name", "lease_1")
+                        .append("ns", "test_mongostorage.searchEvents")
+                        .append("sparse", true),
                 new Document()
                         .append("key", new Document("_id", 1))
                         .append("name", "_id_")
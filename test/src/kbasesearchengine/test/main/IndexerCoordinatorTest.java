@@ -1,5 +1,6 @@
 package kbasesearchengine.test.main;
 
+import static kbasesearchengine.test.common.TestCommon.set;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -16,7 +17,9 @@ import java.time.Clock;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -25,7 +28,6 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
-import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
 
 import kbasesearchengine.events.StatusEvent;
@@ -46,6 +48,15 @@ public class IndexerCoordinatorTest {
     private static final List<Integer> MT = Collections.emptyList();
     private static final Ticker ST = Ticker.systemTicker();
     private static final Clock SC = Clock.systemDefaultZone();
+    
+    private static Map<StatusEventID, StoredStatusEvent> byID(
+            final StoredStatusEvent... events) {
+        final Map<StatusEventID, StoredStatusEvent> ret = new HashMap<>();
+        for (final StoredStatusEvent e: events) {
+            ret.put(e.getId(), e);
+        }
+        return ret;
+    }
 
     @Test
     public void construct() throws Exception {
@@ -166,25 +177,28 @@ public class IndexerCoordinatorTest {
                 }) // cycle should end here because the coordinator has been stopped
                 .thenReturn(Arrays.asList(changeID(event1, "foo4")));
         
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.of(ready1));
-        when(storage.get(new StatusEventID("foo2")))
-                .thenReturn(Optional.of(changeID(ready1, "foo2")));
-        when(storage.get(new StatusEventID("foo3")))
-                .thenReturn(Optional.of(changeID(ready1, "foo3")));
+        // foo2 and foo3 are blocked by foo1 and so never move to processing
+        when(storage.getByIds(set(new StatusEventID("foo1")))).thenReturn(byID(ready1));
 
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(3));
         assertThat("incorrect queue size", coord.getQueueSize(), is(2));
+        verify(storage, times(3)).getByIds(any());
+        verify(storage, times(1)).setProcessingStates(any(), any(), any());
         
         coordRunner.run(); // stop is called on first cycle
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(3));
+        verify(storage, times(4)).getByIds(any());
         
         coordRunner.run(); // indexer is stopped
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(0));
         assertThat("incorrect queue size", coord.getQueueSize(), is(3));
         
-        verify(storage, never()).get(new StatusEventID("foo4"));
+        verify(storage, times(4)).getByIds(set(new StatusEventID("foo1")));
+        verify(storage, times(1)).setProcessingStates(set(new StatusEventID("foo1")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        verify(storage, times(1)).setProcessingStates(any(), any(), any());
     }
     
     private StoredStatusEvent changeID(final StoredStatusEvent event, final String id) {
@@ -262,16 +276,18 @@ public class IndexerCoordinatorTest {
                 .thenReturn(Arrays.asList(event1, event2))
                 .thenReturn(Collections.emptyList());
         
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(ready1))
-                .thenReturn(Optional.of(proc1)) // 2nd loop of 1st run call
-                .thenReturn(Optional.of(idx1)); // this will return on the second run() call
+        when(storage.getByIds(set(new StatusEventID("foo1"))))
+                .thenReturn(byID(ready1))
+                .thenReturn(byID(proc1)) // 2nd loop of 1st run call
+                .thenReturn(byID(idx1)); // this will return on the second run() call
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(2));
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage, times(2)).getByIds(any());
+        verify(storage, times(1)).setProcessingStates(any(), any(), any());
+        verify(storage).setProcessingStates(set(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 UNPUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
@@ -283,16 +299,22 @@ public class IndexerCoordinatorTest {
         verify(logger).logInfo("Event foo1 UNPUBLISH_ACCESS_GROUP WS:2/null completed " +
                 "processing with state INDX on worker work1");
         
-        verify(storage, never()).setProcessingState(new StatusEventID("foo2"),
+        verify(storage, times(3)).getByIds(any());
+        verify(storage, times(1)).setProcessingStates(any(), any(), any());
+        verify(storage, never()).setProcessingStates(set(new StatusEventID("foo2")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         
-        when(storage.get(new StatusEventID("foo2"))).thenReturn(Optional.of(ready2));
+        when(storage.getByIds(set(new StatusEventID("foo2")))).thenReturn(byID(ready2));
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
 
-        verify(storage).setProcessingState(new StatusEventID("foo2"),
+        verify(storage, times(3)).getByIds(set(new StatusEventID("foo1")));
+        verify(storage, times(1)).getByIds(set(new StatusEventID("foo2")));
+        verify(storage, times(2)).setProcessingStates(any(), any(), any());
+
+        verify(storage).setProcessingStates(set(new StatusEventID("foo2")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo2 PUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
@@ -346,14 +368,15 @@ public class IndexerCoordinatorTest {
                 .thenReturn(Arrays.asList(event3)) // third call
                 .thenReturn(null);
         
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(ready1)); //queue blocks forever
+        when(storage.getByIds(set(new StatusEventID("foo1"))))
+                .thenReturn(byID(ready1)); //queue blocks forever
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
+        verify(storage, times(2)).getByIds(any());
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage).setProcessingStates(set(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 UNPUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
@@ -363,6 +386,7 @@ public class IndexerCoordinatorTest {
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(2));
+        verify(storage, times(4)).getByIds(any());
         
         verify(storage).get(StatusEventProcessingState.UNPROC, 1);
         
@@ -370,17 +394,20 @@ public class IndexerCoordinatorTest {
         // will only cycle once because the queue is full
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(3));
+        verify(storage, times(5)).getByIds(any());
         
         coordRunner.run();
         // should do nothing other than check state of event 1
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(3));
 
-        verify(storage, times(6)).get(new StatusEventID("foo1"));
+        verify(storage, times(6)).getByIds(set(new StatusEventID("foo1")));
+        verify(storage, times(6)).getByIds(any());
         verify(storage, never()).get(StatusEventProcessingState.UNPROC, 0);
-        verify(storage, never()).setProcessingState(new StatusEventID("foo2"),
+        verify(storage, times(1)).setProcessingStates(any(), any(), any());
+        verify(storage, never()).setProcessingStates(set(new StatusEventID("foo2")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
-        verify(storage, never()).setProcessingState(new StatusEventID("foo3"),
+        verify(storage, never()).setProcessingStates(set(new StatusEventID("foo3")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
@@ -405,10 +432,11 @@ public class IndexerCoordinatorTest {
         assertThat("incorrect queue size", coord.getQueueSize(), is(0));
         
         verify(storage, never()).get(any());
+        verify(storage, never()).getByIds(any());
         verify(storage, never()).get(any(), eq(2)); // must be an easier way of doing this
         verify(storage, never()).get(any(), eq(1));
         verify(storage, never()).get(any(), eq(0));
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, never()).setProcessingStates(any(), any(), any());
         verify(logger, never()).logInfo(any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
@@ -450,12 +478,11 @@ public class IndexerCoordinatorTest {
         
         when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt()))
                 .thenReturn(Collections.emptyList());
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(event1))
-                .thenReturn(Optional.of(unidx1)) //2nd call
+        when(storage.getByIds(set(new StatusEventID("foo1"), new StatusEventID("foo2"))))
+                .thenReturn(byID(event1, fail2))
                 .thenReturn(null);
-        when(storage.get(new StatusEventID("foo2")))
-                .thenReturn(Optional.of(fail2))
+        when(storage.getByIds(set(new StatusEventID("foo1"))))
+                .thenReturn(byID(unidx1)) //2nd call
                 .thenReturn(null);
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
@@ -472,7 +499,11 @@ public class IndexerCoordinatorTest {
         verify(logger).logInfo("Event foo1 PUBLISH_ALL_VERSIONS WS:2/1 completed " +
                 "processing with state UNINDX on worker work1");
         
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, times(1)).getByIds(
+                set(new StatusEventID("foo1"), new StatusEventID("foo2")));
+        verify(storage, times(1)).getByIds(set(new StatusEventID("foo1")));
+        verify(storage, times(2)).getByIds(any());
+        verify(storage, never()).setProcessingStates(any(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -501,9 +532,9 @@ public class IndexerCoordinatorTest {
         
         when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt()))
                 .thenReturn(Collections.emptyList());
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(event1))
-                .thenReturn(Optional.of(idx1)) //2nd call
+        when(storage.getByIds(set(new StatusEventID("foo1"))))
+                .thenReturn(byID(event1))
+                .thenReturn(byID(idx1)) //2nd call
                 .thenReturn(null);
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
@@ -519,7 +550,8 @@ public class IndexerCoordinatorTest {
         verify(logger).logInfo("Event foo1 PUBLISH_ACCESS_GROUP WS:2/null completed " +
                 "processing with state INDX on worker work1");
         
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, times(2)).getByIds(set(new StatusEventID("foo1")));
+        verify(storage, never()).setProcessingStates(any(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -544,7 +576,8 @@ public class IndexerCoordinatorTest {
                 .thenReturn(Arrays.asList(event1))
                 .thenReturn(Collections.emptyList());
         
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.absent());
+        when(storage.getByIds(set(new StatusEventID("foo1"))))
+                .thenReturn(Collections.emptyMap());
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
@@ -552,13 +585,16 @@ public class IndexerCoordinatorTest {
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(0));
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage).setProcessingStates(set(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 PUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
         
         verify(logger).logError("Event foo1 is in the in-memory queue but not " +
                             "in the storage system. Removing from queue");
+        // the second cycle has no events in process to check
+        verify(storage, times(1)).getByIds(any());
+        verify(storage, times(1)).setProcessingStates(any(), any(), any());
     }
     
     @Test
@@ -657,7 +693,7 @@ public class IndexerCoordinatorTest {
         
         when(storage.get(StatusEventProcessingState.UNPROC, 3)).thenReturn(Arrays.asList(event1));
         
-        when(storage.setProcessingState(new StatusEventID("foo1"),
+        when(storage.setProcessingStates(set(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY)).thenThrow(
                         new FatalRetriableIndexingException("oof ouch owie my bones"));
         
@@ -667,8 +703,7 @@ public class IndexerCoordinatorTest {
         
         verify(executor).shutdown();
 
-        verify(logger).logError("Retriable error in indexer for event " +
-                "PUBLISH_ACCESS_GROUP foo1, retry 1: " +
+        verify(logger).logError("Retriable error in indexer, retry 1: " +
                 "kbasesearchengine.events.exceptions.FatalRetriableIndexingException: " +
                 "oof ouch owie my bones");
         verify(logger).logError("Fatal error in indexer, shutting down: " +
@@ -708,27 +743,26 @@ public class IndexerCoordinatorTest {
         
         when(storage.get(StatusEventProcessingState.UNPROC, 3)).thenReturn(Arrays.asList(event1));
         
-        when(storage.get(new StatusEventID("foo1"))).thenThrow(
+        when(storage.getByIds(set(new StatusEventID("foo1")))).thenThrow(
                         new FatalRetriableIndexingException("yay"));
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(0));
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage).setProcessingStates(set(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 DELETE_ALL_VERSIONS WS:2/1 from UNPROC to READY");
+        // the first try and three retries
+        verify(storage, times(4)).getByIds(set(new StatusEventID("foo1")));
         verify(executor).shutdown();
 
-        verify(logger).logError("Retriable error in indexer for event " +
-                "DELETE_ALL_VERSIONS foo1, retry 1: " +
+        verify(logger).logError("Retriable error in indexer, retry 1: " +
                 "kbasesearchengine.events.exceptions.FatalRetriableIndexingException: yay");
-        verify(logger).logError("Retriable error in indexer for event " +
-                "DELETE_ALL_VERSIONS foo1, retry 2: " +
+        verify(logger).logError("Retriable error in indexer, retry 2: " +
                 "kbasesearchengine.events.exceptions.FatalRetriableIndexingException: yay");
-        verify(logger).logError("Retriable error in indexer for event " +
-                "DELETE_ALL_VERSIONS foo1, retry 3: " +
+        verify(logger).logError("Retriable error in indexer, retry 3: " +
                 "kbasesearchengine.events.exceptions.FatalRetriableIndexingException: yay");
         verify(logger).logError("Fatal error in indexer, shutting down: " +
                 "kbasesearchengine.events.exceptions.FatalIndexingException: yay");
@@ -778,7 +812,7 @@ public class IndexerCoordinatorTest {
                 .thenReturn(Instant.ofEpochMilli(10000 + (2 * 3600 * 1000) + 2000))
                 .thenReturn(null);
         
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.of(event1));
+        when(storage.getByIds(set(new StatusEventID("foo1")))).thenReturn(byID(event1));
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
@@ -803,7 +837,8 @@ public class IndexerCoordinatorTest {
         verify(logger).logInfo("Event foo1 PUBLISH_ACCESS_GROUP WS:2/null in state PROC " +
                 "has been processing for 2 hours on worker work1");
 
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, times(4)).getByIds(set(new StatusEventID("foo1")));
+        verify(storage, never()).setProcessingStates(any(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -844,7 +879,7 @@ public class IndexerCoordinatorTest {
                 .thenReturn(3 * 3600 * 1_000_000_000L) //3rd run get force expiration
                 .thenReturn(1_000_000_000_000_000_000L); // 3rd run put
 
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.of(event1));
+        when(storage.getByIds(set(new StatusEventID("foo1")))).thenReturn(byID(event1));
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
@@ -868,7 +903,8 @@ public class IndexerCoordinatorTest {
         verify(logger).logInfo("Event foo1 PUBLISH_ACCESS_GROUP WS:2/null in state READY " +
                 "has been processing for 2 hours on worker work1");
         
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, times(3)).getByIds(set(new StatusEventID("foo1")));
+        verify(storage, never()).setProcessingStates(any(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -1,10 +1,17 @@
 package kbasesearchengine.test.main;
 
 import static kbasesearchengine.test.common.TestCommon.set;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -13,28 +20,46 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.events.ChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
 import kbasesearchengine.events.handler.EventHandler;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.events.storage.StatusEventStorage;
 import kbasesearchengine.main.IndexerWorker;
 import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.parse.ExtractionPlan;
 import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.search.IndexingRequest;
 import kbasesearchengine.search.IndexingStorage;
 import kbasesearchengine.system.IndexingRules;
 import kbasesearchengine.system.ObjectTypeParsingRules;
@@ -114,6 +139,7 @@ public class IndexerWorkerTest {
                         .build())
                 .build();
         when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        when(typeStore.getExtractionPlan(rule)).thenReturn(ExtractionPlan.compile(rule));
         
         worker.processOneEvent(StatusEvent.getBuilder(
                 storageObjectType,
@@ -147,6 +173,240 @@ public class IndexerWorkerTest {
                 eq(false));
     }
     
+    @Test
+    public void indexInChunks() throws Exception {
+        final Map<String, Object> data = ImmutableMap.of(
+                "thingy", 1,
+                "subobjs", Arrays.asList(
+                        ImmutableMap.of("id", "an id", "somedata", "data"),
+                        ImmutableMap.of("id", "an id2", "somedata", "data2"),
+                        ImmutableMap.of("id", "an id3", "somedata", "data3")
+                        )
+                );
+        
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorker worker = new IndexerWorker(
+                "myid", Arrays.asList(ws), storage, idxStore, typeStore, tempDir.toFile(), logger,
+                null);
+        worker.setIndexChunkSize(2);
+        
+        final GUID guid = new GUID("code:1/2/3");
+        when(idxStore.checkParentGuidsExist(set(guid))).thenReturn(ImmutableMap.of(guid, false));
+        
+        when(ws.load(eq(Arrays.asList(guid)), any(Path.class)))
+                .thenAnswer(new Answer<SourceData>() {
+
+                        @Override
+                        public SourceData answer(final InvocationOnMock inv) throws Throwable {
+                            final Path path = inv.getArgument(1);
+                            new ObjectMapper().writeValue(path.toFile(), data);
+                            return SourceData.getBuilder(
+                                    new UObject(path.toFile()), "myobj", "somedude")
+                                    .withNullableMD5("md5")
+                                    .build();
+                        }
+        });
+
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        
+        final ObjectTypeParsingRules subrule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .toSubObjectRule("subfoo", new ObjectJsonPath("/subobjs/[*]/"),
+                        new ObjectJsonPath("id"))
+                .withIndexingRule(IndexingRules.fromPath(
+                        new ObjectJsonPath("somedata"))
+                        .build())
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("id"))
+                        .build())
+                .build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("bar", 1), storageObjectType)
+                .withIndexingRule(IndexingRules.fromPath(
+                        new ObjectJsonPath("thingy"))
+                        .build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType))
+                .thenReturn(new LinkedHashSet<>(Arrays.asList(subrule, rule)));
+        when(typeStore.getExtractionPlan(subrule)).thenReturn(ExtractionPlan.compile(subrule));
+        when(typeStore.getExtractionPlan(rule)).thenReturn(ExtractionPlan.compile(rule));
+        
+        worker.processOneEvent(StatusEvent.getBuilder(
+                storageObjectType,
+                Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .withNullableVersion(3)
+                .withNullableisPublic(false)
+                .build());
+        
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<IndexingRequest>> captor =
+                ArgumentCaptor.forClass((Class<List<IndexingRequest>>) (Class<?>) List.class);
+        verify(idxStore, times(2)).indexObjects(captor.capture());
+        
+        final List<IndexingRequest> chunk1 = captor.getAllValues().get(0);
+        assertThat("incorrect request count", chunk1.size(), is(1));
+        assertThat("incorrect rule", chunk1.get(0).getRule(), is(subrule));
+        assertThat("incorrect guid", chunk1.get(0).getParentGUID(), is(guid));
+        assertThat("incorrect objects", chunk1.get(0).getIdToObj().keySet(), is(set(
+                new GUID(guid, "subfoo", "an id"), new GUID(guid, "subfoo", "an id2"))));
+        
+        final List<IndexingRequest> chunk2 = captor.getAllValues().get(1);
+        assertThat("incorrect request count", chunk2.size(), is(2));
+        assertThat("incorrect rule", chunk2.get(0).getRule(), is(subrule));
+        assertThat("incorrect objects", chunk2.get(0).getIdToObj(), is(ImmutableMap.of(
+                new GUID(guid, "subfoo", "an id3"), new ParsedObject(
+                        new ObjectMapper().writeValueAsString(
+                                ImmutableMap.of("id", "an id3", "somedata", "data3")),
+                        ImmutableMap.of("somedata", Arrays.asList("data3"),
+                                "id", Arrays.asList("an id3"))))));
+        assertThat("incorrect rule", chunk2.get(1).getRule(), is(rule));
+        assertThat("incorrect objects", chunk2.get(1).getIdToObj().keySet(),
+                is(set(guid)));
+        assertThat("incorrect timestamp", chunk2.get(1).getTimestamp(),
+                is(Instant.ofEpochMilli(10000)));
+        assertThat("incorrect public", chunk2.get(1).isPublic(), is(false));
+    }
+    
+    @Test
+    public void parallelKeywordExtraction() throws Exception {
+        final List<Map<String, Object>> subobjs = new ArrayList<>();
+        final List<GUID> expectedGUIDs = new ArrayList<>();
+        final GUID guid = new GUID("code:1/2/3");
+        for (int i = 0; i < 50; i++) {
+            subobjs.add(ImmutableMap.of("id", "id" + i, "somedata", "data" + i));
+            expectedGUIDs.add(new GUID(guid, "subfoo", "id" + i));
+        }
+        final Map<String, Object> data = ImmutableMap.of("thingy", 1, "subobjs", subobjs);
+        
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorker worker = new IndexerWorker(
+                "myid", Arrays.asList(ws), storage, idxStore, typeStore, tempDir.toFile(), logger,
+                null);
+        worker.setKeywordThreads(4);
+        
+        when(idxStore.checkParentGuidsExist(set(guid))).thenReturn(ImmutableMap.of(guid, false));
+        
+        when(ws.load(eq(Arrays.asList(guid)), any(Path.class)))
+                .thenAnswer(new Answer<SourceData>() {
+
+                        @Override
+                        public SourceData answer(final InvocationOnMock inv) throws Throwable {
+                            final Path path = inv.getArgument(1);
+                            new ObjectMapper().writeValue(path.toFile(), data);
+                            return SourceData.getBuilder(
+                                    new UObject(path.toFile()), "myobj", "somedude")
+                                    .withNullableMD5("md5")
+                                    .build();
+                        }
+        });
+
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .toSubObjectRule("subfoo", new ObjectJsonPath("/subobjs/[*]/"),
+                        new ObjectJsonPath("id"))
+                .withIndexingRule(IndexingRules.fromPath(
+                        new ObjectJsonPath("somedata"))
+                        .build())
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("id"))
+                        .build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        when(typeStore.getExtractionPlan(rule)).thenReturn(ExtractionPlan.compile(rule));
+        
+        worker.processOneEvent(StatusEvent.getBuilder(
+                storageObjectType,
+                Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .withNullableVersion(3)
+                .withNullableisPublic(false)
+                .build());
+        
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Map<GUID, ParsedObject>> captor =
+                ArgumentCaptor.forClass((Class<Map<GUID, ParsedObject>>) (Class<?>) Map.class);
+        verify(idxStore).indexObjects(
+                eq(rule),
+                any(SourceData.class),
+                eq(Instant.ofEpochMilli(10000)),
+                eq(null),
+                eq(guid),
+                captor.capture(),
+                eq(false));
+        
+        final Map<GUID, ParsedObject> parsed = captor.getValue();
+        // the objects must be in the same order as in the source data
+        assertThat("incorrect order", new ArrayList<>(parsed.keySet()), is(expectedGUIDs));
+        assertThat("incorrect object", parsed.get(expectedGUIDs.get(42)), is(new ParsedObject(
+                new ObjectMapper().writeValueAsString(
+                        ImmutableMap.of("id", "id42", "somedata", "data42")),
+                ImmutableMap.of("somedata", Arrays.asList("data42"),
+                        "id", Arrays.asList("id42")))));
+    }
+    
+    @Test
+    public void setKeywordThreadsFail() throws Exception {
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        final IndexerWorker worker = new IndexerWorker("myid",
+                Arrays.asList(mock(EventHandler.class)), mock(StatusEventStorage.class),
+                mock(IndexingStorage.class), mock(TypeStorage.class), tempDir.toFile(),
+                mock(LineLogger.class), null);
+        try {
+            worker.setKeywordThreads(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "threads must be at least 1"));
+        }
+    }
+    
+    @Test
+    public void setIndexChunkSizeFail() throws Exception {
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        final IndexerWorker worker = new IndexerWorker("myid",
+                Arrays.asList(mock(EventHandler.class)), mock(StatusEventStorage.class),
+                mock(IndexingStorage.class), mock(TypeStorage.class), tempDir.toFile(),
+                mock(LineLogger.class), null);
+        try {
+            worker.setIndexChunkSize(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "chunkSize must be at least 1"));
+        }
+    }
+    
     @Test
     public void idManglingBugFailBadID() throws Exception {
         /* tests a bug where subobject ids would be mangled when primary-key-path was not
@@ -239,6 +499,7 @@ public class IndexerWorkerTest {
 
         when(typeStore.listObjectTypeParsingRules(storageObjectType))
                 .thenReturn(set(rules));
+        when(typeStore.getExtractionPlan(rules)).thenReturn(ExtractionPlan.compile(rules));
         try {
             worker.processOneEvent(StatusEvent.getBuilder(
                     storageObjectType,
@@ -256,6 +517,199 @@ public class IndexerWorkerTest {
         }
     }
     
+    @Test
+    public void constructFailThreads() throws Exception {
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        try {
+            new IndexerWorker("myid", Arrays.asList(mock(EventHandler.class)),
+                    mock(StatusEventStorage.class), mock(IndexingStorage.class),
+                    mock(TypeStorage.class), tempDir.toFile(), mock(LineLogger.class), null, 0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "threads must be at least 1"));
+        }
+    }
+    
+    @Test(timeout = 60000) // in case the pipeline deadlocks
+    public void pipeline() throws Exception {
+        /* drives an expanded event with 10 versions each of 2 objects through a pipeline with
+         * 2 threads per stage and 1 queued event per thread, blocking the index stage until the
+         * rest of the pipeline is full.
+         */
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorker worker = new IndexerWorker(
+                "myid", Arrays.asList(ws), storage, idxStore, typeStore, tempDir.toFile(), logger,
+                null);
+        worker.setPipeline(2, 2, 2, 1);
+        
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("thingy")).build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        when(typeStore.getExtractionPlan(rule)).thenReturn(ExtractionPlan.compile(rule));
+        
+        final StoredStatusEvent parent = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(10000), StatusEventType.NEW_ALL_VERSIONS)
+                .withNullableAccessGroupID(1)
+                .build(),
+                new StatusEventID("parent"), StatusEventProcessingState.PROC).build();
+        // the versions of the two objects are interleaved
+        final List<ChildStatusEvent> children = new ArrayList<>();
+        for (int ver = 1; ver <= 10; ver++) {
+            for (final String objID: Arrays.asList("2", "5")) {
+                children.add(new ChildStatusEvent(StatusEvent.getBuilder(
+                        storageObjectType, Instant.ofEpochMilli(10000 + ver),
+                        StatusEventType.NEW_VERSION)
+                        .withNullableAccessGroupID(1)
+                        .withNullableObjectID(objID)
+                        .withNullableVersion(ver)
+                        .withNullableisPublic(false)
+                        .build(),
+                        parent.getId()));
+            }
+        }
+        when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, null,
+                StatusEventProcessingState.PROC, "myid"))
+                .thenReturn(Optional.of(parent)).thenReturn(Optional.absent());
+        when(ws.isExpandable(parent)).thenReturn(true);
+        when(ws.expand(parent)).thenReturn(children);
+        when(idxStore.checkParentGuidsExist(any())).thenAnswer(inv -> {
+            final Set<GUID> guids = inv.getArgument(0);
+            return guids.stream().collect(Collectors.toMap(g -> g, g -> false));
+        });
+        
+        final List<GUID> loaded = Collections.synchronizedList(new ArrayList<>());
+        final List<GUID> indexed = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> loading = ConcurrentHashMap.newKeySet();
+        final Set<String> indexing = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean concurrentVersions = new AtomicBoolean(false);
+        final CountDownLatch indexStarted = new CountDownLatch(1);
+        final CountDownLatch releaseIndex = new CountDownLatch(1);
+        final AtomicInteger indexedAtParentCompletion = new AtomicInteger(-1);
+        
+        when(ws.load(anyList(), any(Path.class))).thenAnswer(inv -> {
+            final List<GUID> guids = inv.getArgument(0);
+            final GUID guid = guids.get(0);
+            final String obj = guid.getAccessGroupObjectId();
+            if (!loading.add(obj)) {
+                concurrentVersions.set(true);
+            }
+            final Path path = inv.getArgument(1);
+            new ObjectMapper().writeValue(path.toFile(),
+                    ImmutableMap.of("thingy", guid.getVersion()));
+            loaded.add(guid);
+            loading.remove(obj);
+            return SourceData.getBuilder(new UObject(path.toFile()), "myobj", "somedude")
+                    .build();
+        });
+        doAnswer(inv -> {
+            final List<IndexingRequest> requests = inv.getArgument(0);
+            final GUID guid = requests.get(0).getParentGUID();
+            final String obj = guid.getAccessGroupObjectId();
+            if (!indexing.add(obj)) {
+                concurrentVersions.set(true);
+            }
+            indexStarted.countDown();
+            releaseIndex.await();
+            indexed.add(guid);
+            indexing.remove(obj);
+            return null;
+        }).when(idxStore).indexObjects(any());
+        when(storage.setProcessingState(parent.getId(), StatusEventProcessingState.PROC,
+                StatusEventProcessingState.INDX)).thenAnswer(inv -> {
+                    indexedAtParentCompletion.set(indexed.size());
+                    return true;
+                });
+        
+        worker.startIndexer();
+        try {
+            indexStarted.await();
+            // give the pipeline time to fill up behind the blocked index stage
+            Thread.sleep(1000);
+            /* at most 5 versions of each object are loaded: 1 in each index lane and its queue,
+             * 1 in each parse lane and its queue, and 1 waiting for room in the parse queue.
+             */
+            assertThat("pipeline is unbounded: " + loaded.size(), loaded.size() <= 10, is(true));
+            verify(storage, never()).setProcessingState(any(), any(), any());
+            
+            releaseIndex.countDown();
+            verify(storage, timeout(20000)).setProcessingState(parent.getId(),
+                    StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+            // flushed periodically while the pipeline is busy and once it drains
+            verify(idxStore, timeout(20000).atLeastOnce()).flushIndexing();
+        } finally {
+            releaseIndex.countDown();
+            worker.stop(5000);
+        }
+        
+        assertThat("parent completed early", indexedAtParentCompletion.get(), is(20));
+        assertThat("versions processed concurrently", concurrentVersions.get(), is(false));
+        for (final String objID: Arrays.asList("2", "5")) {
+            final List<GUID> expected = new ArrayList<>();
+            for (int ver = 1; ver <= 10; ver++) {
+                expected.add(new GUID("code:1/" + objID + "/" + ver));
+            }
+            assertThat("incorrect load order", loaded.stream()
+                    .filter(g -> g.getAccessGroupObjectId().equals(objID))
+                    .collect(Collectors.toList()), is(expected));
+            assertThat("incorrect index order", indexed.stream()
+                    .filter(g -> g.getAccessGroupObjectId().equals(objID))
+                    .collect(Collectors.toList()), is(expected));
+        }
+        verify(storage, times(1)).setProcessingState(any(), any(), any());
+    }
+    
+    @Test
+    public void setPipelineFail() throws Exception {
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        final IndexerWorker worker = new IndexerWorker("myid",
+                Arrays.asList(mock(EventHandler.class)), mock(StatusEventStorage.class),
+                mock(IndexingStorage.class), mock(TypeStorage.class), tempDir.toFile(),
+                mock(LineLogger.class), null);
+        failSetPipeline(worker, 0, 1, 1, 1, new IllegalArgumentException(
+                "loadThreads must be at least 1"));
+        failSetPipeline(worker, 1, 0, 1, 1, new IllegalArgumentException(
+                "parseThreads must be at least 1"));
+        failSetPipeline(worker, 1, 1, 0, 1, new IllegalArgumentException(
+                "indexThreads must be at least 1"));
+        failSetPipeline(worker, 1, 1, 1, 0, new IllegalArgumentException(
+                "queueSize must be at least 1"));
+    }
+    
+    private void failSetPipeline(
+            final IndexerWorker worker,
+            final int loadThreads,
+            final int parseThreads,
+            final int indexThreads,
+            final int queueSize,
+            final Exception expected) {
+        try {
+            worker.setPipeline(loadThreads, parseThreads, indexThreads, queueSize);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
     private void deleteRecursively(final Path path) throws Exception {
         // https://stackoverflow.com/a/35989142/643675
         if (Files.exists(path)) {
@@ -0,0 +1,160 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static kbasesearchengine.test.common.TestCommon.set;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.main.ObjectLookupCache;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.test.common.TestCommon;
+
+public class ObjectLookupCacheTest {
+    
+    private static final GUID G1 = new GUID("WS:1/2/3");
+    private static final GUID G2 = new GUID("WS:1/2/4");
+    private static final GUID G3 = new GUID("WS:1/3/1");
+    
+    @Test
+    public void references() throws Exception {
+        final ObjectLookupCache cache = new ObjectLookupCache(10, 100);
+        
+        assertThat("incorrect ref", cache.getResolvedReference("WS", "1/1/1;1/2/3"),
+                is(Optional.absent()));
+        cache.putResolvedReference("WS", "1/1/1;1/2/3", G1);
+        assertThat("incorrect ref", cache.getResolvedReference("WS", "1/1/1;1/2/3"),
+                is(Optional.of(G1)));
+        assertThat("incorrect ref", cache.getResolvedReference("KE", "1/1/1;1/2/3"),
+                is(Optional.absent()));
+        
+        assertThat("incorrect hits", cache.getReferenceStats().hitCount(), is(1L));
+        assertThat("incorrect misses", cache.getReferenceStats().missCount(), is(2L));
+    }
+    
+    @Test
+    public void types() throws Exception {
+        final ObjectLookupCache cache = new ObjectLookupCache(10, 100);
+        final SearchObjectType t = new SearchObjectType("Genome", 1);
+        
+        cache.putTypes(ImmutableMap.of(G1, t, G2, t));
+        assertThat("incorrect types", cache.getTypes(set(G1, G2, G3)),
+                is(ImmutableMap.of(G1, t, G2, t)));
+        
+        assertThat("incorrect hits", cache.getTypeStats().hitCount(), is(2L));
+        assertThat("incorrect misses", cache.getTypeStats().missCount(), is(1L));
+    }
+    
+    @Test
+    public void objects() throws Exception {
+        final ObjectLookupCache cache = new ObjectLookupCache(10, 100);
+        final ObjectData od = ObjectData.getBuilder(G1).withNullableObjectName("foo").build();
+        
+        cache.putObjects(ImmutableMap.of(G1, od));
+        assertThat("incorrect objects", cache.getObjects(set(G1, G2)),
+                is(ImmutableMap.of(G1, od)));
+        assertThat("incorrect objects", cache.getObjects(set(G2)),
+                is(Collections.emptyMap()));
+        
+        assertThat("incorrect hits", cache.getObjectStats().hitCount(), is(1L));
+        assertThat("incorrect misses", cache.getObjectStats().missCount(), is(2L));
+    }
+    
+    @Test
+    public void expiresOnTime() throws Exception {
+        final Ticker ticker = mock(Ticker.class);
+        final ObjectLookupCache cache = new ObjectLookupCache(10, 100, ticker);
+        
+        when(ticker.read()).thenReturn(0L, 5000000001L, 10000000001L);
+        
+        cache.putResolvedReference("WS", "1/1/1;1/2/3", G1);
+        assertThat("incorrect ref", cache.getResolvedReference("WS", "1/1/1;1/2/3"),
+                is(Optional.of(G1)));
+        assertThat("incorrect ref", cache.getResolvedReference("WS", "1/1/1;1/2/3"),
+                is(Optional.absent()));
+    }
+    
+    @Test
+    public void expiresOnSize() throws Exception {
+        final ObjectLookupCache cache = new ObjectLookupCache(10000, 2);
+        final SearchObjectType t = new SearchObjectType("Genome", 1);
+        
+        cache.putTypes(ImmutableMap.of(G1, t, G2, t));
+        cache.putTypes(ImmutableMap.of(G3, t));
+        assertThat("incorrect size", cache.getTypes(set(G1, G2, G3)).size(), is(2));
+    }
+    
+    @Test
+    public void objectsExpireOnWeight() throws Exception {
+        final ObjectLookupCache cache = new ObjectLookupCache(10000, 3);
+        final ObjectData small = ObjectData.getBuilder(G1).withNullableObjectName("foo")
+                .withKeyProperty("k", "v").build();
+        final StringBuilder big = new StringBuilder();
+        for (int i = 0; i < ObjectLookupCache.OBJECT_ENTRY_CHARS; i++) {
+            big.append("x");
+        }
+        // counts as 2 entries
+        final ObjectData large = ObjectData.getBuilder(G2).withNullableObjectName("bar")
+                .withKeyProperty("k", big.toString()).build();
+        final ObjectData small2 = ObjectData.getBuilder(G3).withNullableObjectName("baz")
+                .build();
+        
+        cache.putObjects(ImmutableMap.of(G1, small, G2, large));
+        assertThat("incorrect objects", cache.getObjects(set(G1, G2)),
+                is(ImmutableMap.of(G1, small, G2, large)));
+        cache.putObjects(ImmutableMap.of(G3, small2));
+        assertThat("incorrect size", cache.getObjects(set(G1, G2, G3)).size(), is(2));
+    }
+    
+    @Test
+    public void constructFail() throws Exception {
+        final Ticker t = Ticker.systemTicker();
+        failConstruct(0, 1, t, new IllegalArgumentException(
+                "cache lifetime must be at least one second"));
+        failConstruct(1, 0, t, new IllegalArgumentException(
+                "cache size must be at least one"));
+        failConstruct(1, 1, null, new NullPointerException("ticker"));
+    }
+    
+    private void failConstruct(
+            final int lifetime,
+            final int size,
+            final Ticker ticker,
+            final Exception expected) {
+        try {
+            new ObjectLookupCache(lifetime, size, ticker);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void putFail() throws Exception {
+        final ObjectLookupCache cache = new ObjectLookupCache(10, 100);
+        try {
+            cache.putResolvedReference("WS", "  \t  ", G1);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "refPath cannot be null or whitespace only"));
+        }
+        try {
+            cache.putResolvedReference("WS", "1/1/1", null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("guid"));
+        }
+    }
+}
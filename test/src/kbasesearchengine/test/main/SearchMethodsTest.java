@@ -2,10 +2,15 @@ package kbasesearchengine.test.main;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static kbasesearchengine.test.common.TestCommon.set;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 
@@ -14,21 +19,25 @@ import org.junit.Test;
 import kbasesearchengine.AccessFilter;
 import kbasesearchengine.MatchFilter;
 import kbasesearchengine.Pagination;
+import kbasesearchengine.PostProcessing;
 import kbasesearchengine.SearchObjectsInput;
 import kbasesearchengine.SearchObjectsOutput;
 import kbasesearchengine.SearchTypesInput;
 import kbasesearchengine.SearchTypesOutput;
 import kbasesearchengine.authorization.AccessGroupProvider;
+import kbasesearchengine.common.GUID;
 import kbasesearchengine.main.SearchMethods;
 import kbasesearchengine.search.FoundHits;
 import kbasesearchengine.search.IndexingStorage;
-import kbasesearchengine.search.PostProcessing;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.search.ObjectDataConsumer;
 import kbasesearchengine.search.SortingRule;
 import kbasesearchengine.system.TypeStorage;
 
 public class SearchMethodsTest {
     
-    private final static PostProcessing PP_DEFAULT = new PostProcessing();
+    private final static kbasesearchengine.search.PostProcessing PP_DEFAULT =
+            new kbasesearchengine.search.PostProcessing();
     static {
         PP_DEFAULT.objectData = true;
         PP_DEFAULT.objectInfo = true;
@@ -157,4 +166,58 @@ public class SearchMethodsTest {
 //        assertThat("incorrect objects", res.getSearchTime(), is(20));
     }
     
+
+    @Test
+    public void exportObjects() throws Exception {
+        exportObjects(null, true,
+                "{\"guid\":\"WS:1/2/3\",\"key_props\":{\"k\":\"v\"}}\n" +
+                "{\"guid\":\"WS:1/3/1\",\"key_props\":{}}\n");
+        exportObjects(new PostProcessing().withSkipData(1L), true,
+                "{\"guid\":\"WS:1/2/3\",\"key_props\":{\"k\":\"v\"}}\n" +
+                "{\"guid\":\"WS:1/3/1\",\"key_props\":{}}\n");
+        exportObjects(new PostProcessing().withSkipKeys(1L), false,
+                "{\"guid\":\"WS:1/2/3\"}\n{\"guid\":\"WS:1/3/1\"}\n");
+        exportObjects(new PostProcessing().withIdsOnly(1L), false,
+                "{\"guid\":\"WS:1/2/3\"}\n{\"guid\":\"WS:1/3/1\"}\n");
+    }
+
+    private void exportObjects(
+            final PostProcessing pp,
+            final boolean withKeys,
+            final String expected)
+            throws Exception {
+        final AccessGroupProvider agp = mock(AccessGroupProvider.class);
+        final IndexingStorage is = mock(IndexingStorage.class);
+        final TypeStorage ts = mock(TypeStorage.class);
+        
+        final SearchMethods sm = new SearchMethods(agp, is, ts, Collections.emptySet());
+        
+        when(agp.findAccessGroupIds("auser")).thenReturn(Arrays.asList(1));
+        
+        doAnswer(inv -> {
+            final ObjectDataConsumer c = inv.getArgument(4);
+            c.accept(ObjectData.getBuilder(new GUID("WS:1/2/3"))
+                    .withKeyProperty("k", "v").build());
+            c.accept(ObjectData.getBuilder(new GUID("WS:1/3/1")).build());
+            return null;
+        }).when(is).exportObjects(
+                eq(Arrays.asList("Genome")),
+                eq(new kbasesearchengine.search.MatchFilter().withFullTextInAll("foo")),
+                eq(new kbasesearchengine.search.AccessFilter().withAccessGroups(set(1))),
+                eq(withKeys),
+                any(ObjectDataConsumer.class));
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long count = sm.exportObjects(new SearchObjectsInput()
+                .withObjectTypes(Arrays.asList("Genome"))
+                .withMatchFilter(new MatchFilter().withFullTextInAll("foo"))
+                .withAccessFilter(new AccessFilter())
+                .withPostProcessing(pp),
+                "auser",
+                out);
+        
+        assertThat("incorrect count", count, is(2L));
+        assertThat("incorrect export", new String(out.toByteArray(), StandardCharsets.UTF_8),
+                is(expected));
+    }
 }
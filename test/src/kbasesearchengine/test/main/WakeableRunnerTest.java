@@ -0,0 +1,124 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import kbasesearchengine.main.WakeableRunner;
+import kbasesearchengine.test.common.TestCommon;
+
+public class WakeableRunnerTest {
+    
+    @Test
+    public void run() {
+        final AtomicInteger count = new AtomicInteger();
+        final WakeableRunner r = new WakeableRunner(() -> count.incrementAndGet());
+        r.run();
+        r.run();
+        assertThat("incorrect run count", count.get(), is(2));
+    }
+    
+    @Test
+    public void wake() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final WakeableRunner r = new WakeableRunner(() -> latch.countDown());
+        final ExecutorService exe = Executors.newSingleThreadExecutor();
+        try {
+            r.wake(exe);
+            assertThat("task not run", latch.await(5, TimeUnit.SECONDS), is(true));
+        } finally {
+            exe.shutdown();
+        }
+    }
+    
+    @Test
+    public void wakeCoalesced() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final WakeableRunner r = new WakeableRunner(() -> count.incrementAndGet());
+        final ExecutorService exe = Executors.newSingleThreadExecutor();
+        final CountDownLatch block = new CountDownLatch(1);
+        try {
+            // block the executor so that the wakes queue up
+            exe.execute(() -> {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            r.wake(exe);
+            r.wake(exe);
+            r.wake(exe);
+            block.countDown();
+        } finally {
+            exe.shutdown();
+        }
+        exe.awaitTermination(5, TimeUnit.SECONDS);
+        assertThat("incorrect run count", count.get(), is(1));
+    }
+    
+    @Test
+    public void wakeAfterShutdown() {
+        final AtomicInteger count = new AtomicInteger();
+        final WakeableRunner r = new WakeableRunner(() -> count.incrementAndGet());
+        final ExecutorService exe = Executors.newSingleThreadExecutor();
+        exe.shutdown();
+        r.wake(exe);
+        assertThat("incorrect run count", count.get(), is(0));
+    }
+    
+    @Test
+    public void runWhileRunning() throws Exception {
+        // a run that arrives while the task is running causes exactly one more run
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch block = new CountDownLatch(1);
+        final WakeableRunner r = new WakeableRunner(() -> {
+            if (count.incrementAndGet() == 1) {
+                started.countDown();
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        final Thread t = new Thread(r);
+        t.start();
+        started.await();
+        r.run(); // returns immediately since the task is running
+        r.run();
+        assertThat("incorrect run count", count.get(), is(1));
+        block.countDown();
+        t.join(5000);
+        assertThat("incorrect run count", count.get(), is(2));
+    }
+    
+    @Test
+    public void constructFail() {
+        try {
+            new WakeableRunner(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("task"));
+        }
+    }
+    
+    @Test
+    public void wakeFail() {
+        try {
+            new WakeableRunner(() -> {}).wake(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("executor"));
+        }
+    }
+}
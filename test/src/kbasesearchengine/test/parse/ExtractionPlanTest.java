@@ -0,0 +1,110 @@
+package kbasesearchengine.test.parse;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.parse.ExtractionPlan;
+import kbasesearchengine.system.IndexingRules;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.StorageObjectType;
+import kbasesearchengine.system.Transform;
+import kbasesearchengine.test.common.TestCommon;
+
+public class ExtractionPlanTest {
+    
+    private static ObjectTypeParsingRules rules(final IndexingRules... rules) {
+        final ObjectTypeParsingRules.Builder b = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), new StorageObjectType("WS", "bar"));
+        for (final IndexingRules r: rules) {
+            b.withIndexingRule(r);
+        }
+        return b.build();
+    }
+    
+    @Test
+    public void compile() throws Exception {
+        final ObjectTypeParsingRules rules = rules(
+                IndexingRules.fromPath(new ObjectJsonPath("a")).build(),
+                IndexingRules.fromPath(new ObjectJsonPath("b/c")).build());
+        final ExtractionPlan plan = ExtractionPlan.compile(rules);
+        
+        assertThat("incorrect rules", plan.getParsingRules(), is(Optional.of(rules)));
+        assertThat("incorrect type", plan.getSearchObjectType(),
+                is(new SearchObjectType("foo", 1)));
+        assertThat("incorrect indexing rules", plan.getIndexingRules(),
+                is(rules.getIndexingRules()));
+        assertThat("incorrect keys", plan.getRulesByKey().keySet(),
+                is(TestCommon.set("a", "b")));
+        assertThat("incorrect derived keys", plan.getDerivedKeyOrder(),
+                is(Arrays.<String>asList()));
+    }
+    
+    @Test
+    public void derivedKeyOrder() throws Exception {
+        // declared in reverse dependency order
+        final ExtractionPlan plan = ExtractionPlan.compile(rules(
+                IndexingRules.fromSourceKey("guid", "lookup")
+                        .withTransform(Transform.lookup("key.thing")).build(),
+                IndexingRules.fromSourceKey("ref", "guid")
+                        .withTransform(Transform.guid(new SearchObjectType("baz", 1),
+                                "subid"))
+                        .build(),
+                IndexingRules.fromSourceKey("ids", "subid").build(),
+                IndexingRules.fromPath(new ObjectJsonPath("ref")).build(),
+                IndexingRules.fromPath(new ObjectJsonPath("ids")).build()));
+        
+        assertThat("incorrect derived keys", plan.getDerivedKeyOrder(),
+                is(Arrays.asList("subid", "guid", "lookup")));
+    }
+    
+    @Test
+    public void derivedKeyCycleAndUnknownKey() throws Exception {
+        // errors are reported at extraction time, so the keys are kept
+        final ExtractionPlan plan = ExtractionPlan.compile(rules(
+                IndexingRules.fromSourceKey("b", "a").build(),
+                IndexingRules.fromSourceKey("a", "b").build(),
+                IndexingRules.fromSourceKey("whee", "c").build()));
+        
+        assertThat("incorrect derived keys", plan.getDerivedKeyOrder(),
+                is(Arrays.asList("b", "a", "c")));
+    }
+    
+    @Test
+    public void immutable() throws Exception {
+        final ExtractionPlan plan = ExtractionPlan.compile(rules(
+                IndexingRules.fromPath(new ObjectJsonPath("a")).build()));
+        try {
+            plan.getDerivedKeyOrder().add("foo");
+            fail("expected exception");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        final List<IndexingRules> ir = plan.getRulesByKey().get("a");
+        try {
+            ir.clear();
+            fail("expected exception");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void compileFail() throws Exception {
+        try {
+            ExtractionPlan.compile(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("parsingRules"));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package kbasesearchengine.test.parse;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.JsonTokenUtil;
+import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.parse.ExtractionPlan;
+import kbasesearchengine.parse.KeywordParser;
+import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
+import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.IndexingRules;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.StorageObjectType;
+import kbasesearchengine.system.Transform;
+
+public class KeywordParserTest {
+
+    private static final SearchObjectType TARGET = new SearchObjectType("baz", 1);
+
+    /* a lookup provider where every reference resolves to itself and every object is named
+     * after its GUID. Counts the calls made.
+     */
+    private static class CountingLookup implements ObjectLookupProvider {
+
+        private final ObjectTypeParsingRules typeDescriptor;
+        private int resolveCalls = 0;
+        private int typeCalls = 0;
+        private int objectCalls = 0;
+        
+        private CountingLookup() throws Exception {
+            typeDescriptor = ObjectTypeParsingRules.getBuilder(
+                    TARGET, new StorageObjectType("WS", "bar"))
+                    .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("a")).build())
+                    .build();
+        }
+
+        @Override
+        public Set<GUID> resolveRefs(final List<GUID> objectRefPath, final Set<GUID> refs) {
+            return new LinkedHashSet<>(resolveRefsToMap(objectRefPath, refs).values());
+        }
+
+        @Override
+        public synchronized Map<GUID, GUID> resolveRefsToMap(
+                final List<GUID> objectRefPath,
+                final Set<GUID> refs) {
+            resolveCalls++;
+            final Map<GUID, GUID> ret = new LinkedHashMap<>();
+            for (final GUID ref: refs) {
+                ret.put(ref, ref);
+            }
+            return ret;
+        }
+
+        @Override
+        public synchronized Map<GUID, SearchObjectType> getTypesForGuids(final Set<GUID> guids) {
+            typeCalls++;
+            final Map<GUID, SearchObjectType> ret = new LinkedHashMap<>();
+            for (final GUID guid: guids) {
+                ret.put(guid, TARGET);
+            }
+            return ret;
+        }
+
+        @Override
+        public synchronized Map<GUID, ObjectData> lookupObjectsByGuid(final Set<GUID> guids) {
+            objectCalls++;
+            final Map<GUID, ObjectData> ret = new LinkedHashMap<>();
+            for (final GUID guid: guids) {
+                ret.put(guid, ObjectData.getBuilder(guid)
+                        .withNullableObjectName("name " + guid)
+                        .withNullableType(TARGET)
+                        .build());
+            }
+            return ret;
+        }
+
+        @Override
+        public ObjectTypeParsingRules getTypeDescriptor(final SearchObjectType type) {
+            return typeDescriptor;
+        }
+    }
+
+    @Test
+    public void prefetchLookups() throws Exception {
+        final ExtractionPlan plan = ExtractionPlan.compile(ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), new StorageObjectType("WS", "bar"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("name")).build())
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("ref"))
+                        .withNotIndexed().build())
+                .withIndexingRule(IndexingRules.fromSourceKey("ref", "guid")
+                        .withTransform(Transform.guid(TARGET)).build())
+                .withIndexingRule(IndexingRules.fromSourceKey("guid", "oname")
+                        .withTransform(Transform.lookup("oname")).build())
+                .build());
+        final List<TokenBuffer> objects = Arrays.asList(
+                JsonTokenUtil.toTokenBuffer("{\"name\": \"a\", \"ref\": \"1/2/3\"}"),
+                JsonTokenUtil.toTokenBuffer("{\"name\": \"b\", \"ref\": \"1/2/3\"}"),
+                JsonTokenUtil.toTokenBuffer("{\"name\": \"c\", \"ref\": \"1/4/1\"}"));
+        final List<GUID> refPath = Arrays.asList(new GUID("WS:1/1/1"));
+
+        final CountingLookup unbatched = new CountingLookup();
+        final List<ParsedObject> expected = new ArrayList<>();
+        for (final TokenBuffer o: objects) {
+            expected.add(KeywordParser.extractKeywords(plan, o, null, unbatched, refPath));
+        }
+        // a reference resolution, a type lookup, and an object lookup per object
+        assertThat("incorrect resolve calls", unbatched.resolveCalls, is(3));
+
+        final CountingLookup counting = new CountingLookup();
+        final ObjectLookupProvider batched = KeywordParser.prefetchLookups(
+                plan, objects, null, counting, refPath);
+        final List<ParsedObject> got = new ArrayList<>();
+        for (final TokenBuffer o: objects) {
+            got.add(KeywordParser.extractKeywords(plan, o, null, batched, refPath));
+        }
+
+        assertThat("incorrect parsed objects", got, is(expected));
+        assertThat("incorrect oname", got.get(2).getKeywords().get("oname"),
+                is(Arrays.asList((Object) "name WS:1/4/1")));
+        assertThat("incorrect resolve calls", counting.resolveCalls, is(1));
+        // the types come with the objects
+        assertThat("incorrect type calls", counting.typeCalls, is(0));
+        assertThat("incorrect object calls", counting.objectCalls, is(1));
+    }
+
+    @Test
+    public void prefetchLookupsNoLookups() throws Exception {
+        final ExtractionPlan plan = ExtractionPlan.compile(ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), new StorageObjectType("WS", "bar"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("name")).build())
+                .build());
+        final CountingLookup counting = new CountingLookup();
+
+        final ObjectLookupProvider ret = KeywordParser.prefetchLookups(plan,
+                Arrays.asList(JsonTokenUtil.toTokenBuffer("{\"name\": \"a\"}")), null,
+                counting, null);
+
+        assertThat("incorrect provider", ret == counting, is(true));
+    }
+}
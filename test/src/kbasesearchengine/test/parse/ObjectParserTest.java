@@ -9,6 +9,8 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -25,13 +27,18 @@ import org.junit.Test;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.google.common.io.CharStreams;
 
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.JsonTokenUtil;
+import kbasesearchengine.common.MappedJsonData;
 import kbasesearchengine.common.ObjectJsonPath;
 import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.parse.ExtractionPlan;
 import kbasesearchengine.parse.IdMapper;
 import kbasesearchengine.parse.ObjectParser;
+import kbasesearchengine.parse.ObjectParser.ExtractedObject;
 import kbasesearchengine.parse.SimpleIdConsumer;
 import kbasesearchengine.parse.SimpleSubObjectConsumer;
 import kbasesearchengine.parse.SubObjectConsumer;
@@ -284,4 +291,121 @@ public class ObjectParserTest {
 
         return guidToJson;
     }
-}
\ No newline at end of file
+
+    @Test
+    /**
+     * Testing parsing an object with multiple sets of parsing rules in one pass
+     * 
+     * @throws Exception
+     */
+    public void parseObjectsMultipleRules() throws Exception {
+
+        final GUID guid = new GUID("WS:1/1/1");
+        final List<ObjectTypeParsingRules> rules = Arrays.asList(
+                ObjectTypeParsingRulesFileParser.fromFile(
+                        new File("resources/types/GenomeFeature.json")).get(0),
+                ObjectTypeParsingRulesFileParser.fromFile(
+                        new File("resources/types/Genome.yaml")).get(0),
+                ObjectTypeParsingRulesFileParser.fromFile(
+                        new File("resources/types/Assembly.json")).get(0));
+
+        final InputStream inputStream = ObjectParserTest.class
+                .getResourceAsStream("genome01.json.properties");
+        final UObject data = UObject.fromJsonString(
+                CharStreams.toString(new InputStreamReader(inputStream)));
+        final SourceData obj = SourceData.getBuilder(data, "genome", "creator").build();
+
+        final Map<ObjectTypeParsingRules, ExtractedObject> extracted =
+                ObjectParser.parseObjects(obj, guid, rules);
+
+        assertThat(new ArrayList<>(extracted.keySet()), is(rules));
+        for (final ObjectTypeParsingRules rule: rules) {
+            final String parentJson;
+            try (JsonParser jts = SubObjectExtractorTest.getParsedJsonResource("genome01")) {
+                parentJson = ObjectParser.extractParentFragment(rule, jts);
+            }
+            assertThat(extracted.get(rule).getParentJson(), is(parentJson));
+            assertThat(extracted.get(rule).getGuidToJson(),
+                    is(ObjectParser.parseSubObjects(obj, guid, rule)));
+        }
+        assertThat(extracted.get(rules.get(0)).getGuidToJson().size(), is(3));
+    }
+    
+    @Test
+    public void parseObjectsMappedData() throws Exception {
+
+        final GUID guid = new GUID("WS:1/1/1");
+        final List<ObjectTypeParsingRules> rules = Arrays.asList(
+                ObjectTypeParsingRulesFileParser.fromFile(
+                        new File("resources/types/GenomeFeature.json")).get(0),
+                ObjectTypeParsingRulesFileParser.fromFile(
+                        new File("resources/types/Genome.yaml")).get(0));
+
+        final InputStream inputStream = ObjectParserTest.class
+                .getResourceAsStream("genome01.json.properties");
+        final String json = CharStreams.toString(new InputStreamReader(inputStream));
+        final UObject data = UObject.fromJsonString(json);
+        final Path file = Files.createTempFile("ObjectParserTest", ".json");
+        try {
+            Files.write(file, ("{\"result\": [" + json + "]}").getBytes(StandardCharsets.UTF_8));
+            final SourceData mapped = SourceData.getBuilder(data, "genome", "creator")
+                    .withNullableMappedData(MappedJsonData.map(file, "result", "0"))
+                    .build();
+            final SourceData obj = SourceData.getBuilder(data, "genome", "creator").build();
+
+            final Map<ObjectTypeParsingRules, ExtractedObject> expected =
+                    ObjectParser.parseObjects(obj, guid, rules);
+            final Map<ObjectTypeParsingRules, ExtractedObject> got =
+                    ObjectParser.parseObjects(mapped, guid, rules);
+            for (final ObjectTypeParsingRules rule: rules) {
+                assertThat(got.get(rule).getParentJson(), is(expected.get(rule).getParentJson()));
+                assertThat(got.get(rule).getGuidToJson(), is(expected.get(rule).getGuidToJson()));
+                assertThat(ObjectParser.parseSubObjects(mapped, guid, rule),
+                        is(expected.get(rule).getGuidToJson()));
+            }
+            assertThat(got.get(rules.get(0)).getGuidToJson().size(), is(3));
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    public void streamObjects() throws Exception {
+
+        final GUID guid = new GUID("WS:1/1/1");
+        final List<ObjectTypeParsingRules> rules = Arrays.asList(
+                ObjectTypeParsingRulesFileParser.fromFile(
+                        new File("resources/types/GenomeFeature.json")).get(0),
+                ObjectTypeParsingRulesFileParser.fromFile(
+                        new File("resources/types/Genome.yaml")).get(0));
+        final List<ExtractionPlan> plans = Arrays.asList(
+                ExtractionPlan.compile(rules.get(0)), ExtractionPlan.compile(rules.get(1)));
+
+        final InputStream inputStream = ObjectParserTest.class
+                .getResourceAsStream("genome01.json.properties");
+        final UObject data = UObject.fromJsonString(
+                CharStreams.toString(new InputStreamReader(inputStream)));
+        final SourceData obj = SourceData.getBuilder(data, "genome", "creator").build();
+
+        final Map<ObjectTypeParsingRules, Map<GUID, String>> streamed = new HashMap<>();
+        final Map<ObjectTypeParsingRules, TokenBuffer> parentData = ObjectParser.streamObjects(
+                obj, guid, plans, (plan, subGuid, subObj, parent) -> {
+                    final ObjectTypeParsingRules rule = plan.getParsingRules().get();
+                    if (!streamed.containsKey(rule)) {
+                        streamed.put(rule, new LinkedHashMap<>());
+                    }
+                    streamed.get(rule).put(subGuid, JsonTokenUtil.toJson(subObj));
+                });
+
+        final Map<ObjectTypeParsingRules, ExtractedObject> extracted =
+                ObjectParser.parseObjects(obj, guid, plans);
+        assertThat(new ArrayList<>(parentData.keySet()), is(rules));
+        for (final ObjectTypeParsingRules rule: rules) {
+            assertThat(parentData.get(rule) == null ? null :
+                    JsonTokenUtil.toJson(parentData.get(rule)),
+                    is(extracted.get(rule).getParentJson()));
+            assertThat(streamed.get(rule), is(extracted.get(rule).getGuidToJson()));
+        }
+        assertThat(streamed.get(rules.get(0)).size(), is(3));
+    }
+}
@@ -2,19 +2,27 @@ package kbasesearchengine.test.parse;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import junit.framework.Assert;
+import kbasesearchengine.common.JsonTokenUtil;
 import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.parse.ObjectParseException;
 import kbasesearchengine.parse.SimpleSubObjectConsumer;
 import kbasesearchengine.parse.SubObjectConsumer;
+import kbasesearchengine.parse.SubObjectExtractionNode;
 import kbasesearchengine.parse.SubObjectExtractor;
+import kbasesearchengine.parse.TokenBufferSubObjectConsumer;
+import kbasesearchengine.test.common.TestCommon;
 
 import org.junit.Test;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.collect.ImmutableMap;
 
 import us.kbase.common.service.UObject;
 
@@ -72,6 +80,108 @@ public class SubObjectExtractorTest {
         }
     }
 
+    @Test
+    public void multipleTrees() throws Exception {
+        // the second tree copies the features whole while the others walk into them
+        final String[][] specs = {
+                {"/features/[*]", "id", "location"},
+                {"/", "features", "domain"},
+                {"/features/[*]/location/0", "[*]"},
+                {"/", "features/{size}", "scientific_name"}};
+        final List<SubObjectExtractionNode> trees = new ArrayList<>();
+        final List<SubObjectConsumer> consumers = new ArrayList<>();
+        final List<Map<ObjectJsonPath, String>> results = new ArrayList<>();
+        for (final String[] spec: specs) {
+            final List<ObjectJsonPath> objPaths = new ArrayList<>();
+            for (int i = 1; i < spec.length; i++) {
+                objPaths.add(new ObjectJsonPath(spec[i]));
+            }
+            trees.add(SubObjectExtractor.buildTree(new ObjectJsonPath(spec[0]), objPaths));
+            final Map<ObjectJsonPath, String> data = new LinkedHashMap<>();
+            results.add(data);
+            consumers.add(createStringMapConsumer(data));
+        }
+        try (final JsonParser jp = getParsedJsonResource("genome01")) {
+            SubObjectExtractor.extract(trees, jp, consumers);
+        }
+        for (int i = 0; i < specs.length; i++) {
+            final Map<ObjectJsonPath, String> expected = extractSubObjects("genome01", specs[i][0],
+                    Arrays.copyOfRange(specs[i], 1, specs[i].length));
+            Assert.assertEquals(expected, results.get(i));
+        }
+    }
+
+    @Test
+    public void tokenBufferConsumer() throws Exception {
+        final Map<ObjectJsonPath, TokenBuffer> data = new LinkedHashMap<>();
+        try (final JsonParser jp = getParsedJsonResource("genome01")) {
+            SubObjectExtractor.extract(new ObjectJsonPath("/features/[*]"),
+                    Arrays.asList(new ObjectJsonPath("id"), new ObjectJsonPath("location")),
+                    jp, new TokenBufferSubObjectConsumer(data));
+        }
+        final Map<ObjectJsonPath, String> expected = extractSubObjects("genome01", 
+                "/features/[*]", "id", "location");
+        Assert.assertEquals(expected.keySet(), data.keySet());
+        for (final ObjectJsonPath path: expected.keySet()) {
+            Assert.assertEquals(expected.get(path), JsonTokenUtil.toJson(data.get(path)));
+            // buffers may be read more than once
+            Assert.assertEquals(expected.get(path), JsonTokenUtil.toJson(data.get(path)));
+        }
+    }
+
+    @Test
+    public void selectPositions() throws Exception {
+        final String json = "{\"a\": [{\"b\": 1, \"c\": 2}, {\"b\": 3}, {\"b\": 4}, " +
+                "{\"b\": 5}, {\"b\": 6}, {\"b\": 7}, {\"b\": 8}, {\"b\": 9}, " +
+                "{\"b\": 10}, {\"b\": 11}, {\"b\": 12}]}";
+        final SubObjectExtractionNode tree = SubObjectExtractor.buildTree(
+                new ObjectJsonPath("/"), Arrays.asList(new ObjectJsonPath("a/10/b"),
+                        new ObjectJsonPath("a/0"), new ObjectJsonPath("a/2/b")));
+        final Map<ObjectJsonPath, String> data = new LinkedHashMap<>();
+        SubObjectExtractor.extract(tree, UObject.getMapper().getFactory().createParser(json),
+                createStringMapConsumer(data));
+        Assert.assertEquals(ImmutableMap.of(ObjectJsonPath.path(),
+                "{\"a\":[{\"b\":1,\"c\":2},{\"b\":4},{\"b\":12}]}"), data);
+    }
+
+    @Test
+    public void failSelection() throws Exception {
+        final String json = "{\"a\": [{\"b\": 1, \"c\": {\"d\": 2}}, {\"b\": 3}]}";
+        failSelection(json, "/a/[*]", Arrays.asList("b", "c/d/e"), new ObjectParseException(
+                "Invalid selection: the path given specifies fields or elements that do not " +
+                "exist because data at this location is a scalar value (i.e. string, integer, " +
+                "float), at: /a/0/c/d"));
+        failSelection(json, "/a/[*]", Arrays.asList("c/*/e", "c/d"), new ObjectParseException(
+                "Invalid selection: the selection path contains both '*' to select all fields " +
+                "and selection of specific fields ([d]), at: /a/0/c"));
+        failSelection(json, "/a/x", Arrays.asList("b"), new ObjectParseException(
+                "Invalid selection: data at '/a' is an array, so element selection must be an " +
+                "integer. You requested element 'x', at: /a"));
+        failSelection(json, "/a", Arrays.asList("[*]/b", "1/b"), new ObjectParseException(
+                "Invalid selection: the selection path contains both '[*]' to select all " +
+                "elements and selection of specific elements ([1]), at: /a"));
+    }
+
+    private void failSelection(
+            final String json,
+            final String pathToSub,
+            final List<String> objPaths,
+            final Exception expected)
+            throws Exception {
+        final List<ObjectJsonPath> paths = new ArrayList<>();
+        for (final String p: objPaths) {
+            paths.add(new ObjectJsonPath(p));
+        }
+        try {
+            SubObjectExtractor.extract(new ObjectJsonPath(pathToSub), paths,
+                    UObject.getMapper().getFactory().createParser(json),
+                    createStringMapConsumer(new LinkedHashMap<>()));
+            Assert.fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
     public static Map<ObjectJsonPath, String> extractSubObjects(String resourceName, 
             String pathToSub, String... objPaths) throws Exception {
         JsonParser jp = getParsedJsonResource(resourceName);
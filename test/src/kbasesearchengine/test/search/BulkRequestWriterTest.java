@@ -0,0 +1,118 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.search.BulkRequestWriter;
+import kbasesearchengine.test.common.TestCommon;
+
+public class BulkRequestWriterTest {
+
+    private static Path tempDir;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        tempDir = Paths.get(TestCommon.getTempDir()).resolve("BulkRequestWriterTest")
+                .toAbsolutePath();
+        FileUtils.deleteQuietly(tempDir.toFile());
+        Files.createDirectories(tempDir);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (TestCommon.getDeleteTempFiles()) {
+            FileUtils.deleteDirectory(tempDir.toFile());
+        }
+    }
+
+    private String read(final HttpEntity entity) throws Exception {
+        return IOUtils.toString(entity.getContent(), "UTF-8");
+    }
+
+    @Test
+    public void inMemory() throws Exception {
+        try (final BulkRequestWriter w = new BulkRequestWriter(tempDir.toFile(), 1000)) {
+            w.writeLine(ImmutableMap.of("index", ImmutableMap.of("_index", "foo")));
+            w.writeLine(ImmutableMap.of("guid", "WS:1/2/3"));
+            assertThat("incorrect line count", w.getLineCount(), is(2));
+            assertThat("incorrect spill", w.isSpilled(), is(false));
+            final HttpEntity e = w.toEntity();
+            assertThat("incorrect body", read(e),
+                    is("{\"index\":{\"_index\":\"foo\"}}\n{\"guid\":\"WS:1/2/3\"}\n"));
+            assertThat("incorrect length", e.getContentLength(), is(47L));
+        }
+        assertThat("temp files created", tempDir.toFile().list().length, is(0));
+    }
+
+    @Test
+    public void spill() throws Exception {
+        final File spillFile;
+        try (final BulkRequestWriter w = new BulkRequestWriter(tempDir.toFile(), 30)) {
+            w.writeLine(ImmutableMap.of("index", ImmutableMap.of("_index", "foo")));
+            assertThat("incorrect spill", w.isSpilled(), is(false));
+            w.writeLine(ImmutableMap.of("guid", "WS:1/2/3"));
+            assertThat("incorrect spill", w.isSpilled(), is(true));
+            w.writeLine(ImmutableMap.of("guid", "WS:1/2/4"));
+            assertThat("incorrect line count", w.getLineCount(), is(3));
+            assertThat("incorrect temp file count", tempDir.toFile().list().length, is(1));
+            spillFile = tempDir.resolve(tempDir.toFile().list()[0]).toFile();
+            assertThat("incorrect body", read(w.toEntity()),
+                    is("{\"index\":{\"_index\":\"foo\"}}\n{\"guid\":\"WS:1/2/3\"}\n" +
+                            "{\"guid\":\"WS:1/2/4\"}\n"));
+        }
+        assertThat("spill file not deleted", spillFile.exists(), is(false));
+    }
+
+    @Test
+    public void zeroBuffer() throws Exception {
+        try (final BulkRequestWriter w = new BulkRequestWriter(tempDir.toFile(), 0)) {
+            w.writeLine(ImmutableMap.of("guid", "WS:1/2/3"));
+            assertThat("incorrect spill", w.isSpilled(), is(true));
+            assertThat("incorrect body", read(w.toEntity()), is("{\"guid\":\"WS:1/2/3\"}\n"));
+        }
+        assertThat("temp files not deleted", tempDir.toFile().list().length, is(0));
+    }
+
+    @Test
+    public void writeAfterEntity() throws Exception {
+        try (final BulkRequestWriter w = new BulkRequestWriter(tempDir.toFile(), 1000)) {
+            w.toEntity();
+            w.writeLine(ImmutableMap.of("guid", "WS:1/2/3"));
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+            TestCommon.assertExceptionCorrect(e, new IllegalStateException(
+                    "The request body has already been built"));
+        }
+    }
+
+    @Test
+    public void constructFail() throws Exception {
+        failConstruct(null, 1, new NullPointerException("tempDir"));
+        failConstruct(tempDir.toFile(), -1, new IllegalArgumentException(
+                "maxMemoryBytes must be at least 0"));
+    }
+
+    private void failConstruct(final File tempDir, final int size, final Exception expected) {
+        try {
+            new BulkRequestWriter(tempDir, size);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
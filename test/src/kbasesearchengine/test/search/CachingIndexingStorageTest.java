@@ -0,0 +1,285 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.search.AccessFilter;
+import kbasesearchengine.search.CachingIndexingStorage;
+import kbasesearchengine.search.FoundHits;
+import kbasesearchengine.search.IndexingStorage;
+import kbasesearchengine.search.MatchFilter;
+import kbasesearchengine.search.Pagination;
+import kbasesearchengine.search.PostProcessing;
+import kbasesearchengine.search.SortingRule;
+import kbasesearchengine.test.common.TestCommon;
+
+public class CachingIndexingStorageTest {
+
+    private static SortingRule sortByName() {
+        final SortingRule sr = new SortingRule();
+        sr.isObjectName = true;
+        sr.ascending = true;
+        return sr;
+    }
+
+    private static PostProcessing idsOnly() {
+        return new PostProcessing();
+    }
+
+    @Test
+    public void constructFail() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        failConstruct(null, 10, 10, Ticker.systemTicker(), new NullPointerException("storage"));
+        failConstruct(wrapped, 10, 10, null, new NullPointerException("ticker"));
+        failConstruct(wrapped, 0, 10, Ticker.systemTicker(),
+                new IllegalArgumentException("cache lifetime must be at least one second"));
+        failConstruct(wrapped, 10, 0, Ticker.systemTicker(),
+                new IllegalArgumentException("cache size must be at least one"));
+        try {
+            new CachingIndexingStorage(wrapped, 10, 10, -1, Ticker.systemTicker());
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "generation check interval must be at least 0"));
+        }
+    }
+
+    private void failConstruct(
+            final IndexingStorage storage,
+            final int lifetimeSec,
+            final int size,
+            final Ticker ticker,
+            final Exception exception) {
+        try {
+            new CachingIndexingStorage(storage, lifetimeSec, size, ticker);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, exception);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void searchTypesCached() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        final CachingIndexingStorage cache = new CachingIndexingStorage(wrapped, 10000, 10);
+
+        when(wrapped.searchTypes(MatchFilter.create().withFullTextInAll("foo"),
+                AccessFilter.create().withAccessGroups(1, 2)))
+                .thenReturn(ImmutableMap.of("Genome", 3), ImmutableMap.of("Genome", 4));
+        when(wrapped.searchTypes(MatchFilter.create().withFullTextInAll("foo"),
+                AccessFilter.create().withAccessGroups(1, 3)))
+                .thenReturn(ImmutableMap.of("Genome", 1), ImmutableMap.of("Genome", 2));
+
+        // equal filters, with the access groups in a different order, hit the cache
+        assertThat("incorrect types", cache.searchTypes(
+                MatchFilter.create().withFullTextInAll("foo"),
+                AccessFilter.create().withAccessGroups(1, 2)),
+                is(ImmutableMap.of("Genome", 3)));
+        assertThat("incorrect types", cache.searchTypes(
+                MatchFilter.create().withFullTextInAll("foo"),
+                AccessFilter.create().withAccessGroups(2, 1)),
+                is(ImmutableMap.of("Genome", 3)));
+        // different access groups don't
+        assertThat("incorrect types", cache.searchTypes(
+                MatchFilter.create().withFullTextInAll("foo"),
+                AccessFilter.create().withAccessGroups(1, 3)),
+                is(ImmutableMap.of("Genome", 1)));
+
+        assertThat("incorrect hits", cache.getStats().hitCount(), is(1L));
+        assertThat("incorrect misses", cache.getStats().missCount(), is(2L));
+    }
+
+    @Test
+    public void searchObjectsCached() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        final CachingIndexingStorage cache = new CachingIndexingStorage(wrapped, 10000, 10);
+
+        final FoundHits hits1 = new FoundHits();
+        hits1.guids = Collections.singleton(new GUID("WS:1/2/3"));
+        final FoundHits hits2 = new FoundHits();
+        hits2.guids = Collections.singleton(new GUID("WS:1/2/4"));
+        final FoundHits hits3 = new FoundHits();
+        hits3.guids = Collections.singleton(new GUID("WS:1/2/5"));
+
+        when(wrapped.searchObjects(Arrays.asList("Genome"), MatchFilter.create(),
+                Arrays.asList(sortByName()), AccessFilter.create().withAccessGroups(1),
+                new Pagination(0, 10), idsOnly()))
+                .thenReturn(hits1, hits2);
+        when(wrapped.searchObjects(Arrays.asList("Genome"), MatchFilter.create(),
+                Arrays.asList(sortByName()), AccessFilter.create().withAccessGroups(1),
+                new Pagination(10, 10), idsOnly()))
+                .thenReturn(hits3, hits2);
+
+        assertThat("incorrect hits", cache.searchObjects(Arrays.asList("Genome"),
+                MatchFilter.create(), Arrays.asList(sortByName()),
+                AccessFilter.create().withAccessGroups(1), new Pagination(0, 10), idsOnly()),
+                is(hits1));
+        assertThat("incorrect hits", cache.searchObjects(Arrays.asList("Genome"),
+                MatchFilter.create(), Arrays.asList(sortByName()),
+                AccessFilter.create().withAccessGroups(1), new Pagination(0, 10), idsOnly()),
+                is(hits1));
+        assertThat("incorrect hits", cache.searchObjects(Arrays.asList("Genome"),
+                MatchFilter.create(), Arrays.asList(sortByName()),
+                AccessFilter.create().withAccessGroups(1), new Pagination(10, 10), idsOnly()),
+                is(hits3));
+
+        assertThat("incorrect hits", cache.getStats().hitCount(), is(1L));
+        assertThat("incorrect misses", cache.getStats().missCount(), is(2L));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void generationOnWrite() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        final CachingIndexingStorage cache = new CachingIndexingStorage(wrapped, 10000, 10);
+
+        when(wrapped.searchTypes(MatchFilter.create(), AccessFilter.create()))
+                .thenReturn(ImmutableMap.of("Genome", 3), ImmutableMap.of("Genome", 4),
+                        ImmutableMap.of("Genome", 5), null);
+
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 3)));
+        assertThat("incorrect generation", cache.getGeneration(), is(0L));
+
+        cache.publishAllVersions(new GUID("WS:1/2/3"));
+        verify(wrapped).publishAllVersions(new GUID("WS:1/2/3"));
+        assertThat("incorrect generation", cache.getGeneration(), is(1L));
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 4)));
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 4)));
+
+        cache.incrementGeneration();
+        assertThat("incorrect generation", cache.getGeneration(), is(2L));
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 5)));
+
+        verify(wrapped, times(3)).searchTypes(MatchFilter.create(), AccessFilter.create());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void storageGeneration() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        final AtomicLong now = new AtomicLong();
+        final Ticker ticker = new Ticker() {
+
+            @Override
+            public long read() {
+                return now.get();
+            }
+        };
+        final CachingIndexingStorage cache = new CachingIndexingStorage(
+                wrapped, 10000, 10, 1000, ticker);
+
+        when(wrapped.getGeneration()).thenReturn(3L, 4L);
+        when(wrapped.searchTypes(MatchFilter.create(), AccessFilter.create()))
+                .thenReturn(ImmutableMap.of("Genome", 3), ImmutableMap.of("Genome", 4), null);
+
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 3)));
+        assertThat("incorrect generation", cache.getGeneration(), is(3L));
+
+        // another process flushes its writes, but the generation isn't checked again yet
+        now.set(999999999L);
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 3)));
+
+        now.set(1000000000L);
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 4)));
+        assertThat("incorrect generation", cache.getGeneration(), is(4L));
+
+        verify(wrapped, times(2)).getGeneration();
+        verify(wrapped, times(2)).searchTypes(MatchFilter.create(), AccessFilter.create());
+    }
+
+    @Test
+    public void generationOnFailedWrite() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        final CachingIndexingStorage cache = new CachingIndexingStorage(wrapped, 10000, 10);
+
+        doThrow(new IOException("oh dear")).when(wrapped).flushIndexing();
+
+        try {
+            cache.flushIndexing();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IOException("oh dear"));
+        }
+        assertThat("incorrect generation", cache.getGeneration(), is(1L));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void expires() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        final AtomicLong now = new AtomicLong();
+        final Ticker ticker = new Ticker() {
+
+            @Override
+            public long read() {
+                return now.get();
+            }
+        };
+        final CachingIndexingStorage cache = new CachingIndexingStorage(
+                wrapped, 10, 10, ticker);
+
+        when(wrapped.searchTypes(MatchFilter.create(), AccessFilter.create()))
+                .thenReturn(ImmutableMap.of("Genome", 3), ImmutableMap.of("Genome", 4), null);
+
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 3)));
+        now.set(5000000000L);
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 3)));
+        now.set(10000000001L);
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 4)));
+    }
+
+    @Test
+    public void searchFailNotCached() throws Exception {
+        final IndexingStorage wrapped = mock(IndexingStorage.class);
+        final CachingIndexingStorage cache = new CachingIndexingStorage(wrapped, 10000, 10);
+
+        when(wrapped.searchTypes(MatchFilter.create(), AccessFilter.create()))
+                .thenThrow(new IOException("well poop"))
+                .thenThrow(new IllegalArgumentException("bad filter"))
+                .thenReturn(ImmutableMap.of("Genome", 3));
+
+        failSearchTypes(cache, new IOException("well poop"));
+        failSearchTypes(cache, new IllegalArgumentException("bad filter"));
+        assertThat("incorrect types", cache.searchTypes(MatchFilter.create(),
+                AccessFilter.create()), is(ImmutableMap.of("Genome", 3)));
+    }
+
+    private void failSearchTypes(
+            final CachingIndexingStorage cache,
+            final Exception expected) {
+        try {
+            cache.searchTypes(MatchFilter.create(), AccessFilter.create());
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
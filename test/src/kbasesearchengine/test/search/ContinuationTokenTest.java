@@ -0,0 +1,102 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import kbasesearchengine.search.ContinuationToken;
+import kbasesearchengine.test.common.TestCommon;
+
+public class ContinuationTokenTest {
+
+    @Test
+    public void construct() {
+        final List<Object> values = new ArrayList<>(Arrays.asList(1508965524000L, "WS:1/2/3"));
+        final ContinuationToken ct = new ContinuationToken(values);
+        values.add("foo"); // check the values are copied
+
+        assertThat("incorrect values", ct.getSortValues(),
+                is(Arrays.asList(1508965524000L, "WS:1/2/3")));
+        assertThat("incorrect toString", ct.toString(),
+                is("ContinuationToken [sortValues=[1508965524000, WS:1/2/3]]"));
+    }
+
+    @Test
+    public void immutable() {
+        final ContinuationToken ct = new ContinuationToken(Arrays.asList(1, "WS:1/2/3"));
+        try {
+            ct.getSortValues().add("foo");
+            fail("expected exception");
+        } catch (UnsupportedOperationException e) {
+            // test passed
+        }
+    }
+
+    @Test
+    public void constructFail() {
+        failConstruct(null, new NullPointerException("sortValues"));
+        failConstruct(Collections.emptyList(),
+                new IllegalArgumentException("sortValues cannot be empty"));
+    }
+
+    private void failConstruct(final List<Object> values, final Exception expected) {
+        try {
+            new ContinuationToken(values);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        final ContinuationToken ct = new ContinuationToken(Arrays.asList(
+                1508965524000L, "some name", null, 2.5, "WS:1/2/3"));
+        final String token = ct.getToken();
+        assertThat("token not url safe", token.matches("[A-Za-z0-9_-]+"), is(true));
+
+        assertThat("incorrect token", ContinuationToken.fromToken(token), is(ct));
+    }
+
+    @Test
+    public void equals() {
+        final ContinuationToken ct = new ContinuationToken(Arrays.asList("a", "WS:1/2/3"));
+        assertThat("incorrect equals", ct,
+                is(new ContinuationToken(Arrays.asList("a", "WS:1/2/3"))));
+        assertThat("incorrect hashCode", ct.hashCode(),
+                is(new ContinuationToken(Arrays.asList("a", "WS:1/2/3")).hashCode()));
+        assertThat("incorrect equals", ct,
+                not(new ContinuationToken(Arrays.asList("b", "WS:1/2/3"))));
+    }
+
+    @Test
+    public void fromTokenFail() {
+        failFromToken(null, new IllegalArgumentException("token cannot be null or empty"));
+        failFromToken("   ", new IllegalArgumentException("token cannot be null or empty"));
+        failFromToken("a+b", new IllegalArgumentException("Invalid continuation token: a+b"));
+        // {"a":1}
+        failFromToken("eyJhIjoxfQ",
+                new IllegalArgumentException("Invalid continuation token: eyJhIjoxfQ"));
+        // []
+        failFromToken("W10", new IllegalArgumentException("Invalid continuation token: W10"));
+        // [1
+        failFromToken("WzE", new IllegalArgumentException("Invalid continuation token: WzE"));
+    }
+
+    private void failFromToken(final String token, final Exception expected) {
+        try {
+            ContinuationToken.fromToken(token);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
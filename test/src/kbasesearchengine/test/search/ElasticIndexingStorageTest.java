@@ -3,6 +3,7 @@ package kbasesearchengine.test.search;
 import static kbasesearchengine.test.common.TestCommon.set;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -51,11 +52,15 @@ import kbasesearchengine.parse.SimpleSubObjectConsumer;
 import kbasesearchengine.parse.SubObjectConsumer;
 import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
 import kbasesearchengine.search.AccessFilter;
+import kbasesearchengine.search.ContinuationToken;
 import kbasesearchengine.search.ElasticIndexingStorage;
+import kbasesearchengine.search.IndexingRequest;
 import kbasesearchengine.search.MatchFilter;
 import kbasesearchengine.search.MatchValue;
 import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.search.Pagination;
 import kbasesearchengine.search.PostProcessing;
+import kbasesearchengine.search.RefreshPolicy;
 import kbasesearchengine.search.FoundHits;
 import kbasesearchengine.system.IndexingRules;
 import kbasesearchengine.system.ObjectTypeParsingRules;
@@ -463,6 +468,97 @@ public class ElasticIndexingStorageTest {
                 AccessFilter.create().withAccessGroups(2).withAllHistory(true)).size());
     }
 
+    private static IndexingRequest indexingRequest(
+            final GUID id,
+            final ObjectTypeParsingRules rule,
+            final String json,
+            final String objectName)
+            throws Exception {
+        final ParsedObject obj = KeywordParser.extractKeywords(rule.getGlobalObjectType(), json,
+                null, rule.getIndexingRules(), objLookup, null);
+        final SourceData data = SourceData.getBuilder(new UObject(json), objectName, "creator")
+                .build();
+        return new IndexingRequest(rule, data, Instant.now(), null, id, ImmutableMap.of(id, obj),
+                false);
+    }
+
+    @Test
+    public void batchIndexing() throws Exception {
+        SearchObjectType objType = new SearchObjectType("Batch", 1);
+        List<String> type = ImmutableList.of(objType.getType());
+        IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("prop1"))
+                .withFullText().build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        final GUID id11 = new GUID("WS:20/1/1");
+        final GUID id12 = new GUID("WS:20/1/2");
+        final GUID id21 = new GUID("WS:20/2/1");
+        indexStorage.indexObjects(Arrays.asList(
+                indexingRequest(id11, rule, "{\"prop1\":\"abc 123\"}", "obj.1"),
+                indexingRequest(id12, rule, "{\"prop1\":\"abc 124\"}", "obj.1"),
+                indexingRequest(id21, rule, "{\"prop1\":\"abd\"}", "obj.2")));
+        final AccessFilter af = AccessFilter.create().withAccessGroups(20);
+        checkIdInSet(indexStorage.searchIds(type, ft("abc"), null, af), 1, id12);
+        checkIdInSet(indexStorage.searchIds(type, ft("abd"), null, af), 1, id21);
+        Assert.assertEquals(0, indexStorage.searchIds(type, ft("123"), null, af).size());
+        Assert.assertEquals(2, indexStorage.searchIds(type, ft("abc"), null,
+                AccessFilter.create().withAccessGroups(20).withAllHistory(true)).size());
+
+        // a second batch with a later version should update the older versions
+        final GUID id13 = new GUID("WS:20/1/3");
+        indexStorage.indexObjects(Arrays.asList(
+                indexingRequest(id13, rule, "{\"prop1\":\"abc 125\"}", "obj.1")));
+        checkIdInSet(indexStorage.searchIds(type, ft("abc"), null, af), 1, id13);
+        Assert.assertEquals(0, indexStorage.searchIds(type, ft("124"), null, af).size());
+        Assert.assertEquals(3, indexStorage.searchIds(type, ft("abc"), null,
+                AccessFilter.create().withAccessGroups(20).withAllHistory(true)).size());
+
+        // reindexing an existing object should not create duplicates
+        indexStorage.indexObjects(Arrays.asList(
+                indexingRequest(id13, rule, "{\"prop1\":\"abc 125\"}", "obj.1")));
+        Assert.assertEquals(3, indexStorage.searchIds(type, ft("abc"), null,
+                AccessFilter.create().withAccessGroups(20).withAllHistory(true)).size());
+    }
+
+    @Test
+    public void deferredVersionUpdates() throws Exception {
+        SearchObjectType objType = new SearchObjectType("Deferred", 1);
+        List<String> type = ImmutableList.of(objType.getType());
+        IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("prop1"))
+                .withFullText().build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        final GUID id1 = new GUID("WS:21/1/1");
+        final GUID id2 = new GUID("WS:21/1/2");
+        final GUID id3 = new GUID("WS:21/1/3");
+        indexStorage.setRefreshPolicy(RefreshPolicy.NONE, 1000);
+        try {
+            // each version is indexed before the previous one is refreshed
+            indexObject(id1, rule, "{\"prop1\":\"abc 123\"}", "obj.1", Instant.now(), null,
+                    false);
+            assertThat("parent not found", indexStorage.checkParentGuidsExist(
+                    set(id1)).get(id1), is(true));
+            indexObject(id2, rule, "{\"prop1\":\"abc 124\"}", "obj.1", Instant.now(), null,
+                    false);
+            indexObject(id3, rule, "{\"prop1\":\"abc 125\"}", "obj.1", Instant.now(), null,
+                    false);
+            // reindexing a version before the refresh should not create duplicates
+            indexObject(id3, rule, "{\"prop1\":\"abc 125\"}", "obj.1", Instant.now(), null,
+                    false);
+            indexStorage.flushIndexing();
+        } finally {
+            indexStorage.setRefreshPolicy(RefreshPolicy.IMMEDIATE, 1000);
+        }
+        final AccessFilter af = AccessFilter.create().withAccessGroups(21);
+        checkIdInSet(indexStorage.searchIds(type, ft("abc"), null, af), 1, id3);
+        Assert.assertEquals(0, indexStorage.searchIds(type, ft("123"), null, af).size());
+        Assert.assertEquals(0, indexStorage.searchIds(type, ft("124"), null, af).size());
+        Assert.assertEquals(3, indexStorage.searchIds(type, ft("abc"), null,
+                AccessFilter.create().withAccessGroups(21).withAllHistory(true)).size());
+    }
+
     private Set<GUID> lookupIdsByKey(List<String> objTypes, String keyName, Object value,
             AccessFilter af) throws IOException {
         Set<GUID> ret = indexStorage.searchIds(objTypes, MatchFilter.create().withLookupInKey(
@@ -1000,4 +1096,191 @@ public class ElasticIndexingStorageTest {
         assertThat("overlapping ranges did not return intersection", hits5.guids, is(set(guid2)));
     }
 
+    @Test
+    public void continuationToken() throws Exception {
+        final GUID guid1 = new GUID("WS:13/1/2");
+        final GUID guid2 = new GUID("WS:13/2/2");
+        final GUID guid3 = new GUID("WS:13/3/2");
+        final SearchObjectType objType = new SearchObjectType("Paging", 1);
+        final IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("num"))
+                .withKeywordType("integer").build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        // the same timestamp, so the order is determined by the GUID
+        final Instant now = Instant.now();
+        indexObject(guid3, rule, "{\"num\": 1}", "paging.3", now, null, false);
+        indexObject(guid1, rule, "{\"num\": 1}", "paging.1", now, null, false);
+        indexObject(guid2, rule, "{\"num\": 1}", "paging.2", now, null, false);
+
+        final List<String> types = Arrays.asList("Paging");
+        final AccessFilter af = AccessFilter.create().withAdmin(true);
+
+        final FoundHits hits1 = indexStorage.searchObjects(types, MatchFilter.create(), null,
+                af, new Pagination(null, 2), null);
+        assertThat("incorrect guids", new ArrayList<>(hits1.guids),
+                is(Arrays.asList(guid1, guid2)));
+        assertThat("incorrect total", hits1.total, is(3));
+        assertThat("missing token", hits1.continuationToken == null, is(false));
+
+        final FoundHits hits2 = indexStorage.searchObjects(types, MatchFilter.create(), null,
+                af, new Pagination(null, 2, ContinuationToken.fromToken(
+                        hits1.continuationToken.getToken())), null);
+        assertThat("incorrect guids", new ArrayList<>(hits2.guids), is(Arrays.asList(guid3)));
+        assertThat("incorrect total", hits2.total, is(3));
+        assertThat("incorrect token", hits2.continuationToken, is((ContinuationToken) null));
+
+        try {
+            indexStorage.searchObjects(types, MatchFilter.create(), null, af,
+                    new Pagination(2, 2, hits1.continuationToken), null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "Pagination start must be 0 when a continuation token is provided"));
+        }
+        try {
+            indexStorage.searchObjects(types, MatchFilter.create(), null, af,
+                    new Pagination(null, 2, new ContinuationToken(Arrays.asList(1))), null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "Continuation token does not match the sorting rules"));
+        }
+    }
+
+    @Test
+    public void exportObjects() throws Exception {
+        final GUID guid1 = new GUID("WS:14/1/2");
+        final GUID guid2 = new GUID("WS:14/2/2");
+        final GUID guid3 = new GUID("WS:14/3/2");
+        final SearchObjectType objType = new SearchObjectType("Export", 1);
+        final IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("num"))
+                .withKeywordType("integer").build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        indexObject(guid1, rule, "{\"num\": 1}", "export.1", Instant.now(), null, false);
+        indexObject(guid2, rule, "{\"num\": 2}", "export.2", Instant.now(), null, false);
+        indexObject(guid3, rule, "{\"num\": 3}", "export.3", Instant.now(), null, false);
+
+        final List<String> types = Arrays.asList("Export");
+        final AccessFilter af = AccessFilter.create().withAdmin(true);
+        // check fetching more than one batch works
+        indexStorage.setScrollSize(2);
+        try {
+            final Map<GUID, Map<String, String>> got = new HashMap<>();
+            indexStorage.exportObjects(types, MatchFilter.create(), af, true,
+                    od -> got.put(od.getGUID(), od.getKeyProperties()));
+            assertThat("incorrect export", got, is(ImmutableMap.of(
+                    guid1, ImmutableMap.of("num", "1"),
+                    guid2, ImmutableMap.of("num", "2"),
+                    guid3, ImmutableMap.of("num", "3"))));
+
+            final Map<GUID, Map<String, String>> got2 = new HashMap<>();
+            indexStorage.exportObjects(types, MatchFilter.create().withLookupInKey(
+                    "num", new MatchValue(2, 3)), af, false,
+                    od -> got2.put(od.getGUID(), od.getKeyProperties()));
+            assertThat("incorrect export", got2, is(ImmutableMap.of(
+                    guid2, Collections.emptyMap(),
+                    guid3, Collections.emptyMap())));
+        } finally {
+            indexStorage.setScrollSize(ElasticIndexingStorage.DEFAULT_SCROLL_SIZE);
+        }
+    }
+
+    @Test
+    public void accessGroupLookup() throws Exception {
+        final GUID guid1 = new GUID("WS:15/1/2");
+        final GUID guid2 = new GUID("WS:16/1/2");
+        final GUID guid3 = new GUID("WS:17/1/2");
+        final SearchObjectType objType = new SearchObjectType("Lookup", 1);
+        final IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("num"))
+                .withKeywordType("integer").build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        indexObject(guid1, rule, "{\"num\": 1}", "lookup.1", Instant.now(), null, false);
+        indexObject(guid2, rule, "{\"num\": 2}", "lookup.2", Instant.now(), null, false);
+        indexObject(guid3, rule, "{\"num\": 3}", "lookup.3", Instant.now(), null, true);
+
+        final List<String> types = Arrays.asList("Lookup");
+        indexStorage.setAccessGroupLookupMinimum(2);
+        try {
+            assertThat("incorrect ids", indexStorage.searchIds(types, MatchFilter.create(), null,
+                    AccessFilter.create().withAccessGroups(15, 18)), is(set(guid1)));
+            assertThat("incorrect ids", indexStorage.searchIds(types, MatchFilter.create(), null,
+                    AccessFilter.create().withAccessGroups(15, 16)), is(set(guid1, guid2)));
+            // the lookup document for the groups already exists
+            assertThat("incorrect ids", indexStorage.searchIds(types, MatchFilter.create(), null,
+                    AccessFilter.create().withAccessGroups(16, 15).withPublic(true)),
+                    is(set(guid1, guid2, guid3)));
+            // fewer groups than the minimum
+            assertThat("incorrect ids", indexStorage.searchIds(types, MatchFilter.create(), null,
+                    AccessFilter.create().withAccessGroups(16)), is(set(guid2)));
+        } finally {
+            indexStorage.setAccessGroupLookupMinimum(0);
+        }
+    }
+
+    @Test
+    public void generation() throws Exception {
+        final long start = indexStorage.getGeneration();
+        indexStorage.flushIndexing();
+        assertThat("incorrect generation", indexStorage.getGeneration(), is(start + 1));
+
+        // another process using the same indexes sees the same generation
+        final ElasticIndexingStorage other = new ElasticIndexingStorage(
+                new HttpHost("localhost", es.getServerPort()), tempDir);
+        other.setIndexNamePrefix(indexStorage.getIndexNamePrefix());
+        assertThat("incorrect generation", other.getGeneration(), is(start + 1));
+        other.flushIndexing();
+        assertThat("incorrect generation", indexStorage.getGeneration(), is(start + 2));
+    }
+
+    @Test
+    public void accessGroupLookupIndexDeleted() throws Exception {
+        final GUID guid1 = new GUID("WS:15/1/2");
+        final GUID guid2 = new GUID("WS:16/1/2");
+        final SearchObjectType objType = new SearchObjectType("Lookup", 1);
+        final IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("num"))
+                .withKeywordType("integer").build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        indexObject(guid1, rule, "{\"num\": 1}", "lookup.1", Instant.now(), null, false);
+        indexObject(guid2, rule, "{\"num\": 2}", "lookup.2", Instant.now(), null, false);
+
+        final List<String> types = Arrays.asList("Lookup");
+        indexStorage.setAccessGroupLookupMinimum(2);
+        try {
+            assertThat("incorrect ids", indexStorage.searchIds(types, MatchFilter.create(), null,
+                    AccessFilter.create().withAccessGroups(15, 16)), is(set(guid1, guid2)));
+            // another process drops the lookup index
+            indexStorage.deleteIndex(
+                    ("accessgroups." + indexStorage.getIndexNamePrefix()).toLowerCase());
+            try {
+                indexStorage.searchIds(types, MatchFilter.create(), null,
+                        AccessFilter.create().withAccessGroups(15, 16));
+            } catch (IOException e) {
+                // expected, the lookup refers to a missing index
+            }
+            // the lookup document is recreated rather than treated as an empty group list
+            assertThat("incorrect ids", indexStorage.searchIds(types, MatchFilter.create(), null,
+                    AccessFilter.create().withAccessGroups(15, 16)), is(set(guid1, guid2)));
+        } finally {
+            indexStorage.setAccessGroupLookupMinimum(0);
+        }
+    }
+
+    @Test
+    public void accessGroupLookupMinimumFail() {
+        try {
+            indexStorage.setAccessGroupLookupMinimum(-1);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got,
+                    new IllegalArgumentException("minimum must be at least 0"));
+        }
+    }
+
 }
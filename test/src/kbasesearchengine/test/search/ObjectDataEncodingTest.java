@@ -0,0 +1,76 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.search.ObjectDataEncoding;
+import kbasesearchengine.test.common.TestCommon;
+
+public class ObjectDataEncodingTest {
+
+    private static final String JSON = "{\"a\":\"b\",\"c\":[1,2,3],\"d\":{\"e\":null}}";
+    private static final Map<String, Object> DATA = ImmutableMap.of(
+            "a", "b",
+            "c", Arrays.asList(1, 2, 3),
+            "d", Collections.singletonMap("e", null));
+
+    @Test
+    public void fields() {
+        assertThat("incorrect field", ObjectDataEncoding.JSON.getDataField(), is("ojson"));
+        assertThat("incorrect field", ObjectDataEncoding.JSON.getParentDataField(), is("pjson"));
+        assertThat("incorrect field", ObjectDataEncoding.COMPRESSED.getDataField(),
+                is("ojsonz"));
+        assertThat("incorrect field", ObjectDataEncoding.COMPRESSED.getParentDataField(),
+                is("pjsonz"));
+    }
+
+    @Test
+    public void json() throws Exception {
+        final Object stored = ObjectDataEncoding.JSON.encode(JSON);
+        assertThat("incorrect stored", stored, is((Object) JSON));
+        assertThat("incorrect data", ObjectDataEncoding.JSON.decode(stored), is((Object) DATA));
+    }
+
+    @Test
+    public void compressed() throws Exception {
+        final Object stored = ObjectDataEncoding.COMPRESSED.encode(JSON);
+        // as returned in the source of a search hit
+        final String base64 = Base64.getEncoder().encodeToString((byte[]) stored);
+        assertThat("incorrect data", ObjectDataEncoding.COMPRESSED.decode(base64),
+                is((Object) DATA));
+    }
+
+    @Test
+    public void fromString() {
+        assertThat("incorrect encoding", ObjectDataEncoding.fromString("json"),
+                is(ObjectDataEncoding.JSON));
+        assertThat("incorrect encoding", ObjectDataEncoding.fromString("  Compressed "),
+                is(ObjectDataEncoding.COMPRESSED));
+    }
+
+    @Test
+    public void fromStringFail() {
+        failFromString(null, new NullPointerException("encoding"));
+        failFromString("smile", new IllegalArgumentException(
+                "Invalid object data encoding: smile"));
+    }
+
+    private void failFromString(final String encoding, final Exception expected) {
+        try {
+            ObjectDataEncoding.fromString(encoding);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
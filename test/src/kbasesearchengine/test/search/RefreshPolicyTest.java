@@ -0,0 +1,41 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import kbasesearchengine.search.RefreshPolicy;
+import kbasesearchengine.test.common.TestCommon;
+
+public class RefreshPolicyTest {
+
+    @Test
+    public void fromString() {
+        assertThat("incorrect policy", RefreshPolicy.fromString("immediate"),
+                is(RefreshPolicy.IMMEDIATE));
+        assertThat("incorrect policy", RefreshPolicy.fromString("  Wait_For "),
+                is(RefreshPolicy.WAIT_FOR));
+        assertThat("incorrect policy", RefreshPolicy.fromString("PERIODIC"),
+                is(RefreshPolicy.PERIODIC));
+        assertThat("incorrect policy", RefreshPolicy.fromString("none"),
+                is(RefreshPolicy.NONE));
+    }
+
+    @Test
+    public void fromStringFail() {
+        failFromString(null, new NullPointerException("policy"));
+        failFromString("sometimes", new IllegalArgumentException(
+                "Invalid refresh policy: sometimes"));
+    }
+
+    private void failFromString(final String policy, final Exception expected) {
+        try {
+            RefreshPolicy.fromString(policy);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
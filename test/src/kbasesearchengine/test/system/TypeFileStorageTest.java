@@ -27,10 +27,12 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
 import kbasesearchengine.common.ObjectJsonPath;
 import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.parse.ExtractionPlan;
 import kbasesearchengine.parse.ObjectParseException;
 import kbasesearchengine.system.FileLister;
 import kbasesearchengine.system.IndexingRules;
@@ -170,6 +172,17 @@ public class TypeFileStorageTest {
         assertThat("object type translation failed",
                 tfs.listObjectTypeParsingRules(new StorageObjectType("CD", "storefoo", 1)),
                 is(set(rule)));
+        final ExtractionPlan plan = tfs.getExtractionPlan(rule);
+        assertThat("incorrect plan rules", plan.getParsingRules(), is(Optional.of(rule)));
+        assertThat("plan not cached", tfs.getExtractionPlan(rule) == plan, is(true));
+        
+        final ObjectTypeParsingRules other = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1),
+                new StorageObjectType("CD", "storefoo"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("whoo")).build())
+                .build();
+        assertThat("incorrect plan rules", tfs.getExtractionPlan(other).getParsingRules(),
+                is(Optional.of(other)));
                 
         verify(logger).logInfo("[TypeStorage] Processed type tranformation file with storage " +
                         "code CD, storage type storefoo and search type foo: foo.yaml");